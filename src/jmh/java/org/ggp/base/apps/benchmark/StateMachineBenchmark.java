@@ -0,0 +1,172 @@
+package org.ggp.base.apps.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.LocalGameRepository;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StateMachineBenchmark measures the throughput of each state machine
+ * implementation on the bundled games, one benchmark per StateMachine
+ * operation plus whole depth charges. It replaces eyeballing the output of
+ * StateMachine.performSpeedTest when comparing implementations.
+ *
+ * Every benchmark thread gets its own machine, since most implementations
+ * are not thread-safe, and cycles through a fixed sample of states reached
+ * by random play, so each operation sees a realistic mix of positions.
+ * The depthChargeAllThreads benchmark runs on every core at once; comparing
+ * it to depthCharge shows how well an implementation scales.
+ *
+ * Run it with "gradle jmh", which writes JSON results with allocation
+ * rates to build/reports/jmh/results.json. Extra JMH options can be given
+ * with -PjmhArgs, e.g. -PjmhArgs="-p machine=FlatPropNet -t 4".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StateMachineBenchmark {
+	private static final int SAMPLES = 256;
+	private static final int MAX_GAMES = 1000;
+	private static final int MAX_DEPTH = 10000;
+	private static final String FRANKIE = "org.ggp.base.player.gamer.statemachine.frankie.";
+
+	/** Games from games/test, or else from the local game repository */
+	@Param({"ticTacToe", "connectFour"})
+	public String game;
+
+	/**
+	 * A bundled machine, by its name without the "StateMachine" suffix, or
+	 * the fully qualified class name of any other StateMachine.
+	 */
+	@Param({"Prover", "SimplePropNet", "PropNet", "CompiledPropNet", "FlatPropNet"})
+	public String machine;
+
+	private StateMachine theMachine;
+	private Role theRole;
+	private MachineState initialState;
+	private MachineState[] states;
+	private List<List<Move>> jointMoves;
+	private MachineState[] terminalStates;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		theMachine = createMachine(machine);
+		theMachine.initialize(loadGame(game).getRules());
+		theRole = theMachine.getRoles().get(0);
+		initialState = theMachine.getInitialState();
+
+		// Play random games to collect non-terminal states, each paired with
+		// a legal joint move, and the terminal states they led to. Both the
+		// number of games and their length are capped, so a game whose
+		// initial state is terminal, or that never ends, cannot hang setup.
+		Random random = new Random(0);
+		List<MachineState> sampled = new ArrayList<MachineState>(SAMPLES);
+		jointMoves = new ArrayList<List<Move>>(SAMPLES);
+		List<MachineState> terminals = new ArrayList<MachineState>();
+		for (int g = 0; g < MAX_GAMES && (sampled.size() < SAMPLES || terminals.isEmpty()); g++) {
+			MachineState state = initialState;
+			for (int depth = 0; depth < MAX_DEPTH && !theMachine.isTerminal(state); depth++) {
+				List<List<Move>> legal = theMachine.getLegalJointMoves(state);
+				List<Move> move = legal.get(random.nextInt(legal.size()));
+				if (sampled.size() < SAMPLES) {
+					sampled.add(state);
+					jointMoves.add(move);
+				}
+				state = theMachine.getNextState(state, move);
+			}
+			if (theMachine.isTerminal(state)) {
+				terminals.add(state);
+			}
+		}
+		if (sampled.isEmpty() || terminals.isEmpty()) {
+			throw new IllegalStateException("Random play in " + game + " found " + sampled.size()
+					+ " non-terminal and " + terminals.size() + " terminal states");
+		}
+		states = sampled.toArray(new MachineState[sampled.size()]);
+		terminalStates = terminals.toArray(new MachineState[terminals.size()]);
+	}
+
+	private static Game loadGame(String gameKey) {
+		if (new File("games/test/" + gameKey + ".kif").exists()) {
+			return new TestGameRepository().getGame(gameKey);
+		}
+		LocalGameRepository theRepository = new LocalGameRepository();
+		try {
+			return theRepository.getGame(gameKey);
+		} finally {
+			theRepository.cleanUp();
+		}
+	}
+
+	private static StateMachine createMachine(String name) throws Exception {
+		if (name.equals("Prover")) {
+			name = "org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine";
+		} else if (!name.contains(".")) {
+			name = FRANKIE + name + "StateMachine";
+		}
+		return (StateMachine) Class.forName(name).getDeclaredConstructor().newInstance();
+	}
+
+	private int nextSample() {
+		next = (next + 1) % states.length;
+		return next;
+	}
+
+	@Benchmark
+	public MachineState getNextState() throws Exception {
+		int i = nextSample();
+		return theMachine.getNextState(states[i], jointMoves.get(i));
+	}
+
+	@Benchmark
+	public List<Move> getLegalMoves() throws Exception {
+		return theMachine.getLegalMoves(states[nextSample()], theRole);
+	}
+
+	@Benchmark
+	public boolean isTerminal() {
+		return theMachine.isTerminal(states[nextSample()]);
+	}
+
+	@Benchmark
+	public int getGoal() throws Exception {
+		return theMachine.getGoal(terminalStates[nextSample() % terminalStates.length], theRole);
+	}
+
+	@Benchmark
+	public MachineState depthCharge() throws Exception {
+		return theMachine.performDepthCharge(initialState, null);
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public MachineState depthChargeAllThreads() throws Exception {
+		return theMachine.performDepthCharge(initialState, null);
+	}
+}
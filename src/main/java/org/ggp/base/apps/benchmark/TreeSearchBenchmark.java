@@ -0,0 +1,76 @@
+package org.ggp.base.apps.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ggp.base.player.gamer.statemachine.frankie.ConcurrentNode;
+import org.ggp.base.player.gamer.statemachine.frankie.MCTSThread;
+import org.ggp.base.player.gamer.statemachine.frankie.SharedPropNetStateMachine;
+import org.ggp.base.player.gamer.statemachine.frankie.Timer;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+
+/**
+ * TreeSearchBenchmark measures the simulation throughput of the lock-free
+ * tree-parallel MCTS at 1, 2, 4, 8 and 16 threads. Every thread count
+ * searches a fresh tree from the initial state, with all its MCTSThreads
+ * sharing one SharedPropNetStateMachine.
+ *
+ * Usage: TreeSearchBenchmark [game] [millis per run] [virtual loss]
+ * The game is looked up in the local test game repository.
+ */
+public final class TreeSearchBenchmark {
+	private static final int[] THREAD_COUNTS = {1, 2, 4, 8, 16};
+	// The optimism parameter the Frankie searches use
+	private static final double EXPLORATION = 40.0;
+
+	public static void main(String[] args) throws Exception {
+		String gameKey = (args.length > 0) ? args[0] : "connectFour";
+		long millis = (args.length > 1) ? Long.parseLong(args[1]) : 5000;
+		int virtualLoss = (args.length > 2) ? Integer.parseInt(args[2]) : MCTSThread.DEFAULT_VIRTUAL_LOSS;
+
+		List<Gdl> rules = new TestGameRepository().getGame(gameKey).getRules();
+		StateMachine sm = new SharedPropNetStateMachine();
+		sm.initialize(rules);
+		MachineState initial = sm.getInitialState();
+
+		// Warm up the JIT before timing anything
+		run(sm, initial, THREAD_COUNTS[THREAD_COUNTS.length - 1], millis, virtualLoss);
+
+		System.out.println("threads\tsimulations/sec\tspeedup");
+		double base = 0;
+		for (int n : THREAD_COUNTS) {
+			double rate = run(sm, initial, n, millis, virtualLoss);
+			if (base == 0) base = rate;
+			System.out.println(n + "\t" + String.format("%.0f", rate) + "\t" + String.format("%.2f", rate / base));
+		}
+	}
+
+	private static double run(StateMachine sm, MachineState initial, int nThreads, long millis, int virtualLoss) throws Exception {
+		Role role = sm.getRoles().get(0);
+		ConcurrentNode root = new ConcurrentNode(initial, null, null);
+		Timer timer = new Timer();
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			long start = System.currentTimeMillis();
+			timer.initTimer(start + millis, start + millis);
+			List<Future<Integer>> workers = new ArrayList<Future<Integer>>(nThreads);
+			for (int i = 0; i < nThreads; i++) {
+				workers.add(executor.submit(new MCTSThread(sm, role, timer, root, EXPLORATION, virtualLoss)));
+			}
+			long simulations = 0;
+			for (Future<Integer> worker : workers) {
+				simulations += worker.get();
+			}
+			return simulations * 1000.0 / (System.currentTimeMillis() - start);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package org.ggp.base.apps.server.scheduling;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.ggp.base.server.GameServer;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.GameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.match.Match;
+import org.ggp.base.util.presence.PlayerPresence;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * MatchFarm runs a queue of pending matches without any user interface,
+ * for playing large numbers of matches unattended, such as overnight
+ * self-play. A fixed number of workers take matches off the queue, each
+ * running one match at a time; like the Scheduler, a match only starts
+ * once none of its players are busy in another match.
+ *
+ * Matches of the same game share one state machine, built once, rather
+ * than each GameServer building its own. Completed matches are appended
+ * to the output file as they finish, one JSON record per line, and the
+ * farm keeps count of its throughput.
+ *
+ * Of the flags on a PendingMatch, only shouldScramble applies here: every
+ * match is recorded to the output file, nothing is published, and there
+ * are no panels to show details in.
+ */
+public final class MatchFarm
+{
+	// How many recent states each shared state machine keeps answers for
+	private static final int TABLED_STATES = 256;
+
+	private final int numWorkers;
+	private final BufferedWriter output;
+	private final ExecutorService workers;
+
+	private final LinkedList<PendingMatch> schedulingQueue = new LinkedList<PendingMatch>();
+	private final Set<String> activePlayers = new HashSet<String>();
+	private final Map<List<Gdl>, StateMachine> stateMachines = new HashMap<List<Gdl>, StateMachine>();
+	private boolean acceptingMatches = true;
+
+	private long startTime;
+	private int matchesCompleted;
+	private int matchesFailed;
+	private long movesPlayed;
+
+	public MatchFarm(File outputFile, int numWorkers) throws IOException {
+		this.numWorkers = numWorkers;
+		this.output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(outputFile, true), Charset.forName("UTF-8")));
+		this.workers = Executors.newFixedThreadPool(numWorkers);
+	}
+
+	public synchronized void addPendingMatch(PendingMatch spec) {
+		if (!acceptingMatches) {
+			throw new IllegalStateException("The farm is no longer accepting matches.");
+		}
+		schedulingQueue.add(spec);
+		notifyAll();
+	}
+
+	public synchronized void start() {
+		startTime = System.currentTimeMillis();
+		for (int i = 0; i < numWorkers; i++) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					PendingMatch spec;
+					while ((spec = takeNextMatch()) != null) {
+						try {
+							runMatch(spec);
+						} finally {
+							releasePlayers(spec);
+						}
+					}
+				}
+			});
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Stops accepting matches, and waits for up to the given time for the
+	 * queued ones to finish. Returns true once they all have, at which
+	 * point the output file is closed.
+	 */
+	public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException, IOException {
+		synchronized (this) {
+			acceptingMatches = false;
+			notifyAll();
+		}
+		if (!workers.awaitTermination(timeout, unit)) {
+			return false;
+		}
+		synchronized (output) {
+			output.close();
+		}
+		return true;
+	}
+
+	// Waits for a queued match whose players are all free, and marks them
+	// busy. Returns null once the queue is empty and no more are coming.
+	private synchronized PendingMatch takeNextMatch() {
+		while (true) {
+			for (Iterator<PendingMatch> i = schedulingQueue.iterator(); i.hasNext(); ) {
+				PendingMatch spec = i.next();
+				if (canSchedule(spec)) {
+					i.remove();
+					for (PlayerPresence player : spec.thePlayers) {
+						activePlayers.add(getKey(player));
+					}
+					return spec;
+				}
+			}
+			if (schedulingQueue.isEmpty() && !acceptingMatches) {
+				return null;
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				return null;
+			}
+		}
+	}
+
+	private boolean canSchedule(PendingMatch spec) {
+		for (PlayerPresence player : spec.thePlayers) {
+			if (activePlayers.contains(getKey(player))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private synchronized void releasePlayers(PendingMatch spec) {
+		for (PlayerPresence player : spec.thePlayers) {
+			activePlayers.remove(getKey(player));
+		}
+		notifyAll();
+	}
+
+	// Players are told apart by where they are, since their names are only
+	// known once they have been pinged
+	private static String getKey(PlayerPresence player) {
+		return player.getHost() + ":" + player.getPort();
+	}
+
+	private synchronized StateMachine getStateMachine(Game game) {
+		StateMachine stateMachine = stateMachines.get(game.getRules());
+		if (stateMachine == null) {
+			stateMachine = new ProverStateMachine(TABLED_STATES, null);
+			stateMachine.initialize(game.getRules());
+			stateMachines.put(game.getRules(), stateMachine);
+		}
+		return stateMachine;
+	}
+
+	private void runMatch(PendingMatch spec) {
+		try {
+			Match match = new Match(spec.matchID, spec.previewClock, spec.startClock, spec.playClock, spec.theGame, "");
+
+			List<String> hosts = new ArrayList<String>(spec.thePlayers.size());
+			List<Integer> ports = new ArrayList<Integer>(spec.thePlayers.size());
+			List<String> playerNames = new ArrayList<String>(spec.thePlayers.size());
+			for (PlayerPresence player : spec.thePlayers) {
+				hosts.add(player.getHost());
+				ports.add(player.getPort());
+				playerNames.add(player.getName() != null ? player.getName() : getKey(player));
+			}
+			match.setPlayerNamesFromHost(playerNames);
+			if (spec.shouldScramble) {
+				match.enableScrambling();
+			}
+
+			// The worker plays the server's part itself, rather than
+			// starting a thread for it
+			GameServer gameServer = new GameServer(match, hosts, ports, getStateMachine(spec.theGame));
+			gameServer.run();
+
+			recordMatch(match);
+		} catch (Exception e) {
+			e.printStackTrace();
+			synchronized (this) {
+				matchesFailed++;
+			}
+		}
+	}
+
+	private void recordMatch(Match match) throws IOException {
+		if (!match.isCompleted()) {
+			synchronized (this) {
+				matchesFailed++;
+			}
+			return;
+		}
+
+		String json = match.toJSON();
+		synchronized (output) {
+			output.write(json);
+			output.newLine();
+			output.flush();
+		}
+		synchronized (this) {
+			matchesCompleted++;
+			movesPlayed += match.getMoveHistory().size();
+		}
+	}
+
+	public synchronized int getMatchesCompleted() {
+		return matchesCompleted;
+	}
+
+	public synchronized int getMatchesFailed() {
+		return matchesFailed;
+	}
+
+	public synchronized long getMovesPlayed() {
+		return movesPlayed;
+	}
+
+	public synchronized double getMatchesPerHour() {
+		return matchesCompleted * 3600000.0 / Math.max(1, System.currentTimeMillis() - startTime);
+	}
+
+	public synchronized double getMovesPerSecond() {
+		return movesPlayed * 1000.0 / Math.max(1, System.currentTimeMillis() - startTime);
+	}
+
+	public synchronized String getStatistics() {
+		return String.format("%d matches completed, %d failed, %d queued; %.1f matches/hour, %.2f moves/sec",
+				matchesCompleted, matchesFailed, schedulingQueue.size(), getMatchesPerHour(), getMovesPerSecond());
+	}
+
+	/**
+	 * Runs a batch of matches of one game from the command line:
+	 *
+	 * args[0] = output file, to append the completed matches to
+	 * args[1] = number of matches to run at once
+	 * args[2] = game key, for loading the game
+	 * args[3] = number of matches
+	 * args[4] = start clock, in seconds
+	 * args[5] = play clock, in seconds
+	 * args[6...] = host:port of each player
+	 *
+	 * The players are taken in groups, one player per role, and the matches
+	 * are dealt out to the groups in turn. Give several groups to run that
+	 * many matches at once.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		if (args.length < 7) {
+			System.err.println("Usage: MatchFarm <output file> <workers> <game key> <matches> <start clock> <play clock> <host:port>...");
+			System.exit(1);
+		}
+
+		File outputFile = new File(args[0]);
+		int numWorkers = Integer.valueOf(args[1]);
+		String gameKey = args[2];
+		Game game = GameRepository.getDefaultRepository().getGame(gameKey);
+		int numMatches = Integer.valueOf(args[3]);
+		int startClock = Integer.valueOf(args[4]);
+		int playClock = Integer.valueOf(args[5]);
+
+		int numRoles = Role.computeRoles(game.getRules()).size();
+		if ((args.length - 6) % numRoles != 0) {
+			throw new RuntimeException("Invalid number of players for game " + gameKey + ": " + (args.length - 6) + " is not a multiple of " + numRoles);
+		}
+		List<List<PlayerPresence>> groups = new ArrayList<List<PlayerPresence>>();
+		for (int i = 6; i < args.length; i += numRoles) {
+			List<PlayerPresence> group = new ArrayList<PlayerPresence>();
+			for (int j = i; j < i + numRoles; j++) {
+				String[] hostport = args[j].split(":");
+				group.add(new PlayerPresence(hostport[0], Integer.valueOf(hostport[1])));
+			}
+			groups.add(group);
+		}
+
+		MatchFarm farm = new MatchFarm(outputFile, numWorkers);
+		String prefix = "farm." + System.currentTimeMillis() + ".";
+		for (int i = 0; i < numMatches; i++) {
+			farm.addPendingMatch(new PendingMatch(prefix + i, game, groups.get(i % groups.size()), -1, startClock, playClock, false, true, false, true, false));
+		}
+		farm.start();
+		while (!farm.awaitCompletion(1, TimeUnit.MINUTES)) {
+			System.out.println(farm.getStatistics());
+		}
+		System.out.println(farm.getStatistics());
+	}
+}
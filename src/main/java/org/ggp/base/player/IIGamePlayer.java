@@ -1,22 +1,12 @@
 package org.ggp.base.player;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.ggp.base.player.event.PlayerDroppedPacketEvent;
-import org.ggp.base.player.event.PlayerReceivedMessageEvent;
-import org.ggp.base.player.event.PlayerSentMessageEvent;
 import org.ggp.base.player.gamer.Gamer;
 import org.ggp.base.player.gamer.IIGamer;
 import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
-import org.ggp.base.player.request.factory.RequestFactory;
-import org.ggp.base.player.request.grammar.Request;
-import org.ggp.base.util.http.HttpReader;
-import org.ggp.base.util.http.HttpWriter;
-import org.ggp.base.util.logging.GamerLogger;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
 import org.ggp.base.util.observer.Subject;
@@ -26,7 +16,7 @@ public final class IIGamePlayer extends Thread implements Subject
 {
     private final int port;
     private final IIGamer gamer;
-    private ServerSocket listener;
+    private final PlayerServer server;
     private final List<Observer> observers;
 
     // consider changing this so that it takes an IIGamer as an argument
@@ -34,30 +24,20 @@ public final class IIGamePlayer extends Thread implements Subject
     public IIGamePlayer(int port, Gamer gamer) throws IOException
     {
         observers = new ArrayList<Observer>();
-        listener = null;
+        server = new PlayerServer(port, gamer, this);
 
-        while(listener == null) {
-            try {
-                listener = new ServerSocket(port);
-            } catch (IOException ex) {
-                listener = null;
-                port++;
-                System.err.println("Failed to start gamer on port: " + (port-1) + " trying port " + port);
-            }
-        }
-
-        this.port = port;
+        this.port = server.getPort();
         this.gamer = (IIGamer) gamer;
     }
 
 	@Override
-	public void addObserver(Observer observer)
+	public synchronized void addObserver(Observer observer)
 	{
 		observers.add(observer);
 	}
 
 	@Override
-	public void notifyObservers(Event event)
+	public synchronized void notifyObservers(Event event)
 	{
 		for (Observer observer : observers)
 		{
@@ -74,40 +54,13 @@ public final class IIGamePlayer extends Thread implements Subject
 	}
 
 	public void shutdown() {
-		try {
-			listener.close();
-			listener = null;
-		} catch (IOException e) {
-			;
-		}
+		server.shutdown();
 	}
 
 	@Override
 	public void run()
 	{
-		while (listener != null) {
-			try {
-				Socket connection = listener.accept();
-				String in = HttpReader.readAsServer(connection);
-				if (in.length() == 0) {
-				    throw new IOException("Empty message received.");
-				}
-
-				notifyObservers(new PlayerReceivedMessageEvent(in));
-				GamerLogger.log("GamePlayer", "[Received at " + System.currentTimeMillis() + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
-
-				Request request = new RequestFactory().create(gamer, in);
-				String out = request.process(System.currentTimeMillis());
-
-				HttpWriter.writeAsServer(connection, out);
-				connection.close();
-				notifyObservers(new PlayerSentMessageEvent(out));
-				GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + out, GamerLogger.LOG_LEVEL_DATA_DUMP);
-			} catch (Exception e) {
-				GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
-				notifyObservers(new PlayerDroppedPacketEvent());
-			}
-		}
+		server.run();
 	}
 
 	// Simple main function that starts a RandomGamer on a specified port.
@@ -0,0 +1,292 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.ggp.base.player.event.PlayerDroppedPacketEvent;
+import org.ggp.base.player.event.PlayerReceivedMessageEvent;
+import org.ggp.base.player.event.PlayerSentMessageEvent;
+import org.ggp.base.player.gamer.Gamer;
+import org.ggp.base.player.request.factory.RequestFactory;
+import org.ggp.base.player.request.grammar.InfoRequest;
+import org.ggp.base.player.request.grammar.Request;
+import org.ggp.base.util.http.HttpRequestParser;
+import org.ggp.base.util.http.HttpWriter;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.observer.Subject;
+
+/**
+ * PlayerServer is the network layer shared by GamePlayer and IIGamePlayer.
+ * A single thread accepts connections, reads requests and writes responses
+ * on a non-blocking selector, so a slow or idle connection never holds up
+ * the others.
+ *
+ * Requests about a match (start, play, stop and so on) are processed one at
+ * a time, in the order they arrive, on a worker thread, since gamers expect
+ * to handle one such request at a time. Info requests only read the gamer's
+ * name and status, so they are answered straight away on the network thread,
+ * even while a play request is still computing.
+ *
+ * A client can ask to keep its connection open between requests, as the
+ * game server's connection pool does, in which case the connection goes
+ * back to reading once the response is written.
+ *
+ * The reception time passed to a request is the time its last byte arrived,
+ * so time spent waiting behind another request comes out of the clock the
+ * gamer sees rather than being added on after it.
+ */
+final class PlayerServer
+{
+	private final Gamer gamer;
+	private final Subject subject;
+	private final Selector selector;
+	private final ServerSocketChannel listener;
+	private final int port;
+	private final ExecutorService matchRequests;
+	// Connections whose responses are ready, handed back from the worker
+	private final Queue<Connection> responded = new ConcurrentLinkedQueue<Connection>();
+	private volatile boolean running = true;
+
+	private static final class Connection
+	{
+		final SelectionKey key;
+		HttpRequestParser parser = new HttpRequestParser();
+		ByteBuffer response = null;
+		String out = null;
+
+		Connection(SelectionKey key)
+		{
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Listens on the given port, or the first free one above it.
+	 */
+	PlayerServer(int port, Gamer gamer, Subject subject) throws IOException
+	{
+		ServerSocketChannel channel = null;
+		while (channel == null) {
+			channel = ServerSocketChannel.open();
+			try {
+				channel.socket().bind(new InetSocketAddress(port));
+			} catch (IOException ex) {
+				channel.close();
+				channel = null;
+				port++;
+				System.err.println("Failed to start gamer on port: " + (port-1) + " trying port " + port);
+			}
+		}
+		channel.configureBlocking(false);
+
+		this.listener = channel;
+		this.port = port;
+		this.gamer = gamer;
+		this.subject = subject;
+		this.selector = Selector.open();
+		listener.register(selector, SelectionKey.OP_ACCEPT);
+
+		matchRequests = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "GamePlayer on port " + PlayerServer.this.port);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	int getPort()
+	{
+		return port;
+	}
+
+	/**
+	 * Serves requests until shutdown is called.
+	 */
+	void run()
+	{
+		try {
+			while (running) {
+				selector.select();
+
+				Connection connection;
+				while ((connection = responded.poll()) != null) {
+					startWriting(connection);
+				}
+
+				Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+				while (selected.hasNext()) {
+					SelectionKey key = selected.next();
+					selected.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						} else if (key.isAcceptable()) {
+							accept();
+						} else if (key.isReadable()) {
+							read(key);
+						} else if (key.isWritable()) {
+							write(key);
+						}
+					} catch (Exception e) {
+						drop(e);
+						close(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			GamerLogger.logStackTrace("GamePlayer", e);
+		} finally {
+			matchRequests.shutdown();
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+
+	void shutdown()
+	{
+		running = false;
+		selector.wakeup();
+	}
+
+	private void accept() throws IOException
+	{
+		SocketChannel channel = listener.accept();
+		if (channel != null) {
+			channel.configureBlocking(false);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(key));
+		}
+	}
+
+	private void read(SelectionKey key) throws Exception
+	{
+		final Connection connection = (Connection) key.attachment();
+		if (((SocketChannel) key.channel()).read(connection.parser.buffer()) < 0) {
+			if (connection.parser.isEmpty()) {
+				// The client is done with the connection
+				close(key);
+				return;
+			}
+			connection.parser.endOfStream();
+		}
+		if (!connection.parser.isComplete()) {
+			return;
+		}
+		final long receptionTime = System.currentTimeMillis();
+		key.interestOps(0);
+
+		if (connection.parser.isRejected()) {
+			// Answer at the network layer, without bothering the gamer
+			drop(new IOException("Unexpected request type: " + connection.parser.getRequestLine()));
+			connection.response = HttpWriter.encodeAsServer("", false);
+			startWriting(connection);
+			return;
+		}
+
+		String in = connection.parser.getMessage();
+		if (in.length() == 0) {
+			throw new IOException("Empty message received.");
+		}
+
+		subject.notifyObservers(new PlayerReceivedMessageEvent(in));
+		GamerLogger.log("GamePlayer", "[Received at " + receptionTime + "] " + in, GamerLogger.LOG_LEVEL_DATA_DUMP);
+
+		final Request request = new RequestFactory().create(gamer, in);
+		if (request instanceof InfoRequest) {
+			respond(connection, request.process(receptionTime));
+			startWriting(connection);
+		} else {
+			matchRequests.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						respond(connection, request.process(receptionTime));
+					} catch (Exception e) {
+						drop(e);
+					}
+					responded.add(connection);
+					selector.wakeup();
+				}
+			});
+		}
+	}
+
+	private void write(SelectionKey key) throws IOException
+	{
+		Connection connection = (Connection) key.attachment();
+		((SocketChannel) key.channel()).write(connection.response);
+		if (connection.response.hasRemaining()) {
+			return;
+		}
+
+		if (connection.out != null) {
+			subject.notifyObservers(new PlayerSentMessageEvent(connection.out));
+			GamerLogger.log("GamePlayer", "[Sent at " + System.currentTimeMillis() + "] " + connection.out, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		}
+		if (connection.out != null && connection.parser.isKeepAlive()) {
+			connection.parser = new HttpRequestParser();
+			connection.response = null;
+			connection.out = null;
+			key.interestOps(SelectionKey.OP_READ);
+		} else {
+			close(key);
+		}
+	}
+
+	private void respond(Connection connection, String out)
+	{
+		connection.out = out;
+		connection.response = HttpWriter.encodeAsServer(out, connection.parser.isKeepAlive());
+	}
+
+	// Only called on the network thread; the worker hands its responses over
+	// through the responded queue
+	private void startWriting(Connection connection)
+	{
+		SelectionKey key = connection.key;
+		if (!key.isValid()) {
+			return;
+		}
+		if (connection.response == null) {
+			// The request failed, and there is nothing to send back
+			close(key);
+		} else {
+			key.interestOps(SelectionKey.OP_WRITE);
+		}
+	}
+
+	private void drop(Exception e)
+	{
+		GamerLogger.log("GamePlayer", "[Dropped data at " + System.currentTimeMillis() + "] Due to " + e, GamerLogger.LOG_LEVEL_DATA_DUMP);
+		subject.notifyObservers(new PlayerDroppedPacketEvent());
+	}
+
+	private static void close(SelectionKey key)
+	{
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			;
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package org.ggp.base.player.gamer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.See;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.iistatemachine.IISamplePropNetStateMachine;
+import org.ggp.base.util.statemachine.iistatemachine.ParticleFilter;
+
+/**
+ * Plays by information set Monte Carlo tree search (ISMCTS).
+ *
+ * The tree is built over our information sets: each node stands for what
+ * we have played and seen so far, and the root for the present. Every
+ * iteration draws a determinization, a state the game could be in, from a
+ * ParticleFilter, and plays it down the tree. Our moves are chosen by UCB
+ * among those legal in the determinization; the other roles move at random.
+ * After each joint move, what we would see picks the child to go on to, so
+ * determinizations that look the same to us share statistics. The first
+ * node a simulation adds ends its descent, and a random playout scores it.
+ *
+ * Several threads search the one tree, each on its own fork of the state
+ * machine, so that each keeps its own propnet marking. Between moves the
+ * root moves down to the child for the move we made and what we saw, and
+ * the tree below it is kept.
+ */
+public class IISampleISMCTSGamer extends IISampleGamer {
+
+	private static final int NUM_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+	private static final int NUM_PARTICLES = 1000;
+	private static final double EXPLORATION = 40;
+
+	private ParticleFilter filter;
+	private IISamplePropNetStateMachine[] machines;
+	private ExecutorService workers;
+	private ISMCTSNode root;
+
+	@Override
+	protected void runMetaGame() {
+		IISamplePropNetStateMachine stateMachine = (IISamplePropNetStateMachine) getIIStateMachine();
+		filter = new ParticleFilter(stateMachine, getRole(), NUM_PARTICLES, NUM_THREADS);
+		machines = new IISamplePropNetStateMachine[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			machines[i] = stateMachine.fork();
+		}
+		workers = Executors.newFixedThreadPool(NUM_THREADS, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ISMCTS");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		root = new ISMCTSNode();
+
+		// Everyone starts out knowing the initial state, so there is a whole
+		// tree to be getting on with
+		search();
+	}
+
+	@Override
+	protected Move getBestMove(int turnNumber) throws MoveDefinitionException, TransitionDefinitionException, GoalDefinitionException {
+		if (turnNumber > 1) {
+			Move lastMove = getMostRecentMove();
+			SeesState sees = getCurrentSees();
+			if (sees == null) {
+				sees = new SeesState(getRole(), new HashSet<See>());
+			}
+			try {
+				// Leave at least half of the time for the search
+				filter.update(lastMove, sees, System.currentTimeMillis() + IISampleGamer.timeLeft() / 2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			BitSet seen = machines[0].getSees(sees);
+			ISMCTSNode child = root.getChild(lastMove, seen);
+			root = (child != null) ? child : new ISMCTSNode();
+		}
+
+		search();
+		return chooseMove(turnNumber);
+	}
+
+	// Picks the most visited of our moves that are legal now, or any legal
+	// move if the search never got anywhere
+	private Move chooseMove(int turnNumber) throws MoveDefinitionException {
+		Random random = ThreadLocalRandom.current();
+		long[] state = filter.sampleBits(random);
+		List<Move> moves;
+		if (state != null) {
+			moves = machines[0].getLegalMoves(state, getRole());
+		} else if (turnNumber == 1) {
+			moves = getMoves(getIIStateMachine().getInitialState());
+		} else {
+			moves = getMoves();
+		}
+
+		Move best = moves.get(random.nextInt(moves.size()));
+		int bestVisits = 0;
+		for (Move move : moves) {
+			int visits = root.getVisits(move);
+			if (visits > bestVisits) {
+				bestVisits = visits;
+				best = move;
+			}
+		}
+		return best;
+	}
+
+	// Runs simulations on every worker until the time is up
+	private void search() {
+		if (filter.isEmpty()) {
+			return;
+		}
+		final ISMCTSNode searchRoot = root;
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>(NUM_THREADS);
+		for (int i = 0; i < NUM_THREADS; i++) {
+			final IISamplePropNetStateMachine machine = machines[i];
+			results.add(workers.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					Random random = ThreadLocalRandom.current();
+					int iterations = 0;
+					while (!IISampleGamer.hasTimedOut()) {
+						simulate(machine, searchRoot, random);
+						iterations++;
+					}
+					return iterations;
+				}
+			}));
+		}
+
+		int iterations = 0;
+		try {
+			for (Future<Integer> result : results) {
+				iterations += result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		System.out.println(getRole() + ": " + iterations + " iterations on " + filter.size() + " particles");
+	}
+
+	// One iteration: selection and expansion through the tree on a fresh
+	// determinization, a random playout, and backpropagation
+	private void simulate(IISamplePropNetStateMachine machine, ISMCTSNode searchRoot, Random random) {
+		long[] state = filter.sampleBits(random);
+		if (state == null) {
+			return;
+		}
+		Role role = getRole();
+		List<Role> roles = machine.getRoles();
+
+		List<ISMCTSNode> path = new ArrayList<ISMCTSNode>();
+		List<Integer> edges = new ArrayList<Integer>();
+		ISMCTSNode node = searchRoot;
+		while (node != null && !machine.isTerminal(state)) {
+			List<Move> legalMoves = machine.getLegalMoves(state, role);
+			if (legalMoves.isEmpty()) {
+				break;
+			}
+			int e = node.select(legalMoves, EXPLORATION, random);
+			path.add(node);
+			edges.add(e);
+
+			List<Move> jointMove = new ArrayList<Move>(roles.size());
+			for (Role other : roles) {
+				if (other.equals(role)) {
+					jointMove.add(node.getMove(e));
+				} else {
+					jointMove.add(randomMove(machine.getLegalMoves(state, other), random));
+				}
+			}
+			state = machine.getNextState(state, jointMove);
+
+			BitSet sees = machine.getSees(state, role);
+			ISMCTSNode child = node.getChild(e, sees);
+			if (child == null) {
+				node.addChild(e, sees);
+			}
+			node = child;
+		}
+
+		double score = playout(machine, state, random);
+		for (int i = 0; i < path.size(); i++) {
+			path.get(i).update(edges.get(i), score);
+		}
+	}
+
+	private double playout(IISamplePropNetStateMachine machine, long[] state, Random random) {
+		List<Role> roles = machine.getRoles();
+		List<Move> jointMove = new ArrayList<Move>(roles.size());
+		while (!machine.isTerminal(state)) {
+			jointMove.clear();
+			for (Role role : roles) {
+				jointMove.add(randomMove(machine.getLegalMoves(state, role), random));
+			}
+			state = machine.getNextState(state, jointMove);
+		}
+		return Math.max(0, machine.getGoal(state, getRole()));
+	}
+
+	private static Move randomMove(List<Move> legalMoves, Random random) {
+		return legalMoves.isEmpty() ? null : legalMoves.get(random.nextInt(legalMoves.size()));
+	}
+
+	@Override
+	public void iistop() {
+		super.iistop();
+		cleanUp();
+	}
+
+	@Override
+	public void iiabort() {
+		super.iiabort();
+		cleanUp();
+	}
+
+	private void cleanUp() {
+		if (filter != null) {
+			filter.shutdown();
+			filter = null;
+		}
+		if (workers != null) {
+			workers.shutdownNow();
+			workers = null;
+		}
+		machines = null;
+		root = null;
+	}
+}
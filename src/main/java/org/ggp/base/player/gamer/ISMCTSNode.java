@@ -0,0 +1,141 @@
+package org.ggp.base.player.gamer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * A node of an information set search tree: everything the role has done
+ * and seen so far. Each edge is one of the role's moves; the child along an
+ * edge depends on what the role sees next, so an edge can lead to several
+ * children, keyed by those sees.
+ *
+ * Different determinizations of the same information set may allow the
+ * role different moves, so edges are added as moves turn up, and each edge
+ * counts how often its move was available as well as how often it was
+ * taken. Statistics live in parallel primitive arrays with one slot per
+ * edge.
+ *
+ * Several threads can search through one tree. Every access to a node's
+ * arrays synchronizes on the node; a thread never holds two nodes' locks.
+ */
+final class ISMCTSNode {
+	private static final int INITIAL_EDGES = 4;
+
+	private final Map<Move, Integer> edges = new HashMap<Move, Integer>();
+	private Move[] moves = new Move[INITIAL_EDGES];
+	private int[] visits = new int[INITIAL_EDGES];
+	private int[] available = new int[INITIAL_EDGES];
+	private double[] scores = new double[INITIAL_EDGES];
+	private final List<Map<BitSet, ISMCTSNode>> children = new ArrayList<Map<BitSet, ISMCTSNode>>();
+
+	// Scratch space for the edges available in the current selection
+	private int[] candidates = new int[INITIAL_EDGES];
+
+	private int getEdge(Move move) {
+		Integer e = edges.get(move);
+		if (e != null) {
+			return e;
+		}
+		int edge = edges.size();
+		if (edge == moves.length) {
+			int capacity = 2 * moves.length;
+			moves = Arrays.copyOf(moves, capacity);
+			visits = Arrays.copyOf(visits, capacity);
+			available = Arrays.copyOf(available, capacity);
+			scores = Arrays.copyOf(scores, capacity);
+			candidates = new int[capacity];
+		}
+		moves[edge] = move;
+		edges.put(move, edge);
+		children.add(new HashMap<BitSet, ISMCTSNode>(4));
+		return edge;
+	}
+
+	/**
+	 * Picks the edge to follow among the given legal moves, by UCB with
+	 * availability counts, trying moves that have never been taken first.
+	 * The visit is counted right away, so that other threads see the edge
+	 * as explored, and as scoring nothing, while this simulation runs. The
+	 * score is added by {@link #update}.
+	 */
+	synchronized int select(List<Move> legalMoves, double c, Random random) {
+		int untried = 0;
+		for (Move move : legalMoves) {
+			int e = getEdge(move);
+			available[e]++;
+			if (visits[e] == 0) {
+				candidates[untried++] = e;
+			}
+		}
+
+		int best;
+		if (untried > 0) {
+			best = candidates[random.nextInt(untried)];
+		} else {
+			best = -1;
+			double bestValue = -Double.MAX_VALUE;
+			for (Move move : legalMoves) {
+				int e = edges.get(move);
+				double value = scores[e] / visits[e] + c * Math.sqrt(Math.log(available[e]) / visits[e]);
+				if (value > bestValue) {
+					bestValue = value;
+					best = e;
+				}
+			}
+		}
+		visits[best]++;
+		return best;
+	}
+
+	synchronized void update(int e, double score) {
+		scores[e] += score;
+	}
+
+	synchronized Move getMove(int e) {
+		return moves[e];
+	}
+
+	synchronized ISMCTSNode getChild(int e, BitSet sees) {
+		return children.get(e).get(sees);
+	}
+
+	/**
+	 * Adds a child along the edge for the given sees, unless another thread
+	 * got there first, and returns whichever child is in the tree.
+	 */
+	synchronized ISMCTSNode addChild(int e, BitSet sees) {
+		Map<BitSet, ISMCTSNode> outcomes = children.get(e);
+		ISMCTSNode child = outcomes.get(sees);
+		if (child == null) {
+			child = new ISMCTSNode();
+			outcomes.put(sees, child);
+		}
+		return child;
+	}
+
+	/**
+	 * Returns the child reached by playing the move and then seeing sees,
+	 * or null if no simulation has been there yet.
+	 */
+	synchronized ISMCTSNode getChild(Move move, BitSet sees) {
+		Integer e = edges.get(move);
+		return (e == null) ? null : children.get(e).get(sees);
+	}
+
+	synchronized int getVisits(Move move) {
+		Integer e = edges.get(move);
+		return (e == null) ? 0 : visits[e];
+	}
+
+	synchronized double getValue(Move move) {
+		Integer e = edges.get(move);
+		return (e == null || visits[e] == 0) ? 0 : scores[e] / visits[e];
+	}
+}
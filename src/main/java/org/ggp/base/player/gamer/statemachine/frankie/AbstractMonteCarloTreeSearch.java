@@ -25,10 +25,14 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 public abstract class AbstractMonteCarloTreeSearch extends GenericSearch{
 	List<Role> roles;
 	static double C;
+	// The arguments StateMachine.rollout needs for the agent's reward alone
+	Role[] agentRole;
+	int[] agentReward = new int[1];
 
 	AbstractMonteCarloTreeSearch(StateMachine sm, Role a, Timer t){
 		super(sm, a, t);
 		roles = stateMachine.getRoles();
+		agentRole = new Role[] {agent};
 		// Settings
 		C = 40.0; // optimism parameter
 	}
@@ -203,9 +207,8 @@ class MonteCarloTreeSearch extends AbstractMonteCarloTreeSearch{
 
 	double simulate(Node node) throws MoveDefinitionException, TransitionDefinitionException {
 		double reward = 0.0;
-		MachineState mcFinalState = stateMachine.performDepthCharge(node.state, null);
 		try{
-			reward = stateMachine.findReward(agent, mcFinalState);
+			reward = stateMachine.rollout(node.state, agentRole, randomizer, agentReward)[0];
 		}
 		catch (GoalDefinitionException e){
 			System.out.println("GoalDefinitionException in Monte Carlo");
@@ -286,48 +289,86 @@ class LeafMultiThreadedMonteCarloTreeSearch extends MonteCarloTreeSearch{
 }
 
 
-class TreeMultiThreadedMonteCarloTreeSearch extends MonteCarloTreeSearch {
-	// Depending on the game could be faster or slower than single threaded version.
+class TreeMultiThreadedMonteCarloTreeSearch extends AbstractMonteCarloTreeSearch {
 	static int nThreads;
 	List<StateMachine> machines;
+	int virtualLoss;
+	ConcurrentNode root = null;
+	boolean metagaming = true;
 
 	// Thread pooling
 	ExecutorService executor;
 	CompletionService<Integer> completionService;
 
 	TreeMultiThreadedMonteCarloTreeSearch(StateMachine sm, Role a, Timer t, List<StateMachine> m) {
+		this(sm, a, t, m, MCTSThread.DEFAULT_VIRTUAL_LOSS);
+	}
+
+	TreeMultiThreadedMonteCarloTreeSearch(StateMachine sm, Role a, Timer t, List<StateMachine> m, int vl) {
 		super(sm, a, t);
 		System.out.println("TreeMultiThreadedMonteCarloTreeSearch");
 		machines = m;
 		nThreads = machines.size();
+		virtualLoss = vl;
 
 		executor = Executors.newFixedThreadPool(nThreads);
 		completionService = new ExecutorCompletionService<Integer>(executor);
 	}
 
+	@Override
+	public void metaGame(MachineState currentState) throws MoveDefinitionException, TransitionDefinitionException{
+		MCTS(getRoot(currentState));
+	}
+
+	ConcurrentNode getRoot(MachineState currentState) {
+		if(root == null){
+			System.out.println("Creating new game tree root");
+			root = new ConcurrentNode(currentState, null, null);
+			return root;
+		}
+
+		if(metagaming)	return root;	// Return the root that was expanded during metagaming
+
+		ConcurrentNode[] children = root.getChildren();
+		if(children != null) {
+			for(ConcurrentNode child: children) {
+				if(child.state.equals(currentState)) {
+					root = child;
+					root.parent = null;
+					return root;
+				}
+			}
+		}
+		System.out.println("New root not found in children. Creating new game tree root.");
+		root = new ConcurrentNode(currentState, null, null);
+		return root;
+	}
+
 	@Override
 	public Move getAction(List<Move> moves, MachineState currentState) throws MoveDefinitionException, TransitionDefinitionException {
 		root = getRoot(currentState);
 		if(metagaming) metagaming = false;
 
-		System.out.println("Num recycled depth charges: " + root.visits);
+		System.out.println("Num recycled depth charges: " + root.getVisits());
 
 		// Search the tree
 		MCTS(root);	// Uses timer to terminate
 
 		// Select the best action from the children.
 		Move bestAction = moves.get(0);
+		ConcurrentNode[] children = root.getChildren();
+		if(children == null) children = new ConcurrentNode[0];
 		double score;
-		if(root.isMin(stateMachine, agent)){	// Min case: Only one possible action. Find min action value.
+		if(root.isMin()){	// Min case: Only one possible action. Find min action value.
 			score = 100.0;
-			for(Node child : root.children) {
+			for(ConcurrentNode child : children) {
 				double result = child.get_value();
 				if (result < score)
 					score = result;
 			}
 		} else {								// Max case: Find best action. Find max action value.
 			score = 0;
-			for(Node child : root.children) {
+			for(ConcurrentNode child : children) {
 				double result = child.get_value();
 				if (result > score) {
 					score = result;
@@ -336,16 +377,14 @@ class TreeMultiThreadedMonteCarloTreeSearch extends MonteCarloTreeSearch {
 			}
 		}
 
-		//printTree(root, 1, 0);
-		System.out.println("Num depth charges: " + root.visits);
+		System.out.println("Num depth charges: " + root.getVisits());
 		System.out.println("State/Action Value: " + score);
 		return bestAction;
 	}
 
-	@Override
-	public void MCTS(Node root) {
+	public void MCTS(ConcurrentNode root) {
 		for(int i = 0; i<nThreads; i++){
-			MCTSThread mctsThread = new MCTSThread(machines.get(i), agent, timer, root, C);
+			MCTSThread mctsThread = new MCTSThread(machines.get(i), agent, timer, root, C, virtualLoss);
 			completionService.submit(mctsThread);
 		}
 
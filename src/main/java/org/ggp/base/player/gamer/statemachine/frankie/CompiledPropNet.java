@@ -0,0 +1,31 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+/**
+ * Base class for the propagation code that CompiledPropNetStateMachine
+ * generates at metagame time. The generated subclass holds one private
+ * propagateN method per component (the output of Component.makeMethod),
+ * all reading and writing the shared comps array.
+ */
+public abstract class CompiledPropNet {
+	protected boolean[] comps;
+
+	public void setValues(boolean[] values) {
+		comps = values;
+	}
+
+	public boolean[] getValues() {
+		return comps;
+	}
+
+	/**
+	 * Pushes the current value of the base, input or init proposition
+	 * at index into its outputs.
+	 */
+	public abstract void start(int index);
+
+	/**
+	 * Brings an all-false net into a consistent state by firing every
+	 * constant and NOT gate once.
+	 */
+	public abstract void initialize();
+}
@@ -0,0 +1,670 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.CtNewMethod;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine that assembles the Component.makeMethod output
+ * into a real class at metagame time, compiles it in memory with the
+ * bundled javassist compiler, and answers every query by calling into that
+ * class over a boolean[] of component values.
+ *
+ * Components are numbered so that bases come first, then inputs, then INIT.
+ * States are BitSetMachineStates over the base numbers, so marking a state
+ * only fires the bases that changed since the last query.
+ *
+ * The per-proposition dispatch and the NOT/constant initialization are split
+ * into blocks of BLOCK_SIZE cases, and a component with more than BLOCK_SIZE
+ * inputs or outputs has its fan-in and fan-out split into helper methods of
+ * at most BLOCK_SIZE edges each. That keeps every generated method far below
+ * both the 64KB class file limit and the size HotSpot will JIT.
+ *
+ * If the propnet has more components than one class can hold, or compilation
+ * fails or takes longer than the compile budget, the machine falls back to an
+ * interpreted PropNetStateMachine over the same propnet.
+ */
+public class CompiledPropNetStateMachine extends StateMachine {
+	private static final int BLOCK_SIZE = 256;
+	/**
+	 * Every component costs a few constant pool entries for its propagate
+	 * method (and its index, past 32767), and a class can hold 65535 of them.
+	 */
+	private static final int MAX_COMPONENTS = 15000;
+	private static final long DEFAULT_COMPILE_BUDGET = 10000;
+	private static final AtomicInteger classCount = new AtomicInteger();
+
+	private final long compileBudget;
+	/** Set when compilation did not finish; every query is then delegated to it */
+	private PropNetStateMachine fallback;
+
+	private PropNet propNet;
+	private List<Role> roles;
+	private CompiledPropNet net;
+	private boolean[] comps;
+
+	private GdlSentence[] baseSentences;
+	private Map<GdlSentence, Integer> baseIndices;
+	private long[] baseKeys;
+	private int[] transitions;
+	private int numBases;
+	private int numInputs;
+	private List<Map<Move, Integer>> inputIndices;
+	private int initIndex;
+	private int terminalIndex;
+	private int[][] legals;
+	private Move[][] legalMoves;
+	/** The input ordinal each legal proposition enables, or -1 */
+	private int[][] legalInputs;
+	private int[][] goals;
+	private int[][] goalValues;
+
+	private long[] emptyBases;
+	private long[] prevBases;
+	/** Zobrist hash of prevBases */
+	private long prevHash;
+	private long[] prevInputs;
+	private long[] nextInputs;
+	// Rollouts alternate between these for their successor states, never the one currently marked
+	private long[] rolloutBases;
+	private long[] spareBases;
+
+	public CompiledPropNetStateMachine() {
+		this(DEFAULT_COMPILE_BUDGET);
+	}
+
+	/**
+	 * @param compileBudget milliseconds allowed for building the class
+	 *        before falling back to the interpreted propnet
+	 */
+	public CompiledPropNetStateMachine(long compileBudget) {
+		this.compileBudget = compileBudget;
+	}
+
+	@Override
+	public void initialize(List<Gdl> description) {
+		try {
+			propNet = PropNetCache.getDefault().create(PropNetStateMachine.sanitizeDistinct(description));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		roles = propNet.getRoles();
+		for (Component c : propNet.getComponents()) {
+			c.crystalize();
+		}
+		for (Proposition p : propNet.getBasePropositions().values()) p.base = true;
+		for (Proposition p : propNet.getInputPropositions().values()) p.base = true;
+
+		final List<Component> order = orderComponents();
+		if (order.size() > MAX_COMPONENTS) {
+			System.out.println("Propnet has " + order.size() + " components, more than one class can hold, using PropNetStateMachine");
+		} else {
+			net = compileWithinBudget(order);
+		}
+
+		if (net == null) {
+			fallback = new PropNetStateMachine();
+			fallback.initialize(propNet);
+			return;
+		}
+		comps = new boolean[order.size()];
+		net.setValues(comps);
+		net.initialize();
+		indexPropositions(order);
+	}
+
+	/**
+	 * Compiles the propnet on another thread, and returns an instance of the
+	 * result, or null if compilation failed or ran past the compile budget.
+	 */
+	private CompiledPropNet compileWithinBudget(final List<Component> order) {
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		Future<Class<? extends CompiledPropNet>> compilation = executor.submit(new Callable<Class<? extends CompiledPropNet>>() {
+			@Override
+			public Class<? extends CompiledPropNet> call() throws Exception {
+				return compile(order);
+			}
+		});
+		try {
+			CompiledPropNet compiled = compilation.get(compileBudget, TimeUnit.MILLISECONDS).newInstance();
+			System.out.println("Compiled propnet in " + (System.currentTimeMillis() - start) + "ms");
+			return compiled;
+		} catch (TimeoutException e) {
+			compilation.cancel(true);
+			System.out.println("Propnet compilation exceeded " + compileBudget + "ms, using PropNetStateMachine");
+		} catch (ExecutionException e) {
+			System.out.println("Propnet compilation failed (" + e.getCause() + "), using PropNetStateMachine");
+			e.printStackTrace();
+		} catch (InstantiationException | IllegalAccessException e) {
+			System.out.println("Propnet compilation failed, using PropNetStateMachine");
+			e.printStackTrace();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		return null;
+	}
+
+	/**
+	 * Orders the components as bases, inputs, INIT, then everything else.
+	 */
+	private List<Component> orderComponents() {
+		List<Component> order = new ArrayList<Component>(propNet.getSize());
+		order.addAll(propNet.getBasePropositions().values());
+		order.addAll(propNet.getInputPropositions().values());
+		numBases = propNet.getBasePropositions().size();
+		numInputs = propNet.getInputPropositions().size();
+		Proposition init = propNet.getInitProposition();
+		initIndex = -1;
+		if (init != null) {
+			initIndex = order.size();
+			order.add(init);
+		}
+		for (Component c : propNet.getComponents()) {
+			if (c == init || (c instanceof Proposition && ((Proposition) c).base)) continue;
+			order.add(c);
+		}
+		return order;
+	}
+
+	private void indexPropositions(List<Component> order) {
+		Map<Component, Integer> indices = new HashMap<Component, Integer>();
+		for (int i = 0; i < order.size(); i++) indices.put(order.get(i), i);
+
+		baseSentences = new GdlSentence[numBases];
+		baseIndices = new HashMap<GdlSentence, Integer>();
+		baseKeys = new long[numBases];
+		transitions = new int[numBases];
+		for (int i = 0; i < numBases; i++) {
+			Proposition p = (Proposition) order.get(i);
+			baseSentences[i] = p.getName();
+			baseKeys[i] = p.getZobristKey();
+			baseIndices.put(p.getName(), i);
+			transitions[i] = indices.get(p.getSingleInputC());
+		}
+
+		inputIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) inputIndices.add(new HashMap<Move, Integer>());
+		Map<Role, Integer> roleIndices = getRoleIndices();
+		for (int i = numBases; i < numBases + numInputs; i++) {
+			Proposition p = (Proposition) order.get(i);
+			Integer r = roleIndices.get(new Role((GdlConstant) p.getName().get(0)));
+			if (r != null) inputIndices.get(r).put(PropNetStateMachine.getMoveFromProposition(p), i - numBases);
+		}
+
+		terminalIndex = indices.get(propNet.getTerminalProposition());
+		legals = new int[roles.size()][];
+		legalMoves = new Move[roles.size()][];
+		legalInputs = new int[roles.size()][];
+		goals = new int[roles.size()][];
+		goalValues = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			Set<Proposition> legalProps = propNet.getLegalPropositions().get(roles.get(r));
+			legals[r] = new int[legalProps.size()];
+			legalMoves[r] = new Move[legalProps.size()];
+			legalInputs[r] = new int[legalProps.size()];
+			int n = 0;
+			for (Proposition p : legalProps) {
+				legals[r][n] = indices.get(p);
+				legalMoves[r][n] = PropNetStateMachine.getMoveFromProposition(p);
+				Integer input = inputIndices.get(r).get(legalMoves[r][n]);
+				legalInputs[r][n] = (input == null) ? -1 : input;
+				n++;
+			}
+			Set<Proposition> goalProps = propNet.getGoalPropositions().get(roles.get(r));
+			goals[r] = new int[goalProps.size()];
+			goalValues[r] = new int[goalProps.size()];
+			n = 0;
+			for (Proposition p : goalProps) {
+				goals[r][n] = indices.get(p);
+				goalValues[r][n] = Integer.parseInt(p.getName().get(1).toString());
+				n++;
+			}
+		}
+
+		emptyBases = new long[BitSetMachineState.wordsFor(numBases)];
+		prevBases = emptyBases;
+		prevInputs = new long[BitSetMachineState.wordsFor(numInputs)];
+		nextInputs = new long[prevInputs.length];
+		rolloutBases = new long[emptyBases.length];
+		spareBases = new long[emptyBases.length];
+	}
+
+	/**
+	 * Generates, compiles and loads the CompiledPropNet subclass for the
+	 * given component ordering.
+	 */
+	private Class<? extends CompiledPropNet> compile(List<Component> order) throws Exception {
+		ClassPool pool = new ClassPool(true);
+		pool.insertClassPath(new ClassClassPath(CompiledPropNet.class));
+		CtClass cc = pool.makeClass(CompiledPropNet.class.getName() + "$" + classCount.incrementAndGet());
+		cc.setSuperclass(pool.get(CompiledPropNet.class.getName()));
+
+		// Every propagate method is declared as a stub before any real one is
+		// compiled, since the generated methods call each other.
+		List<Component> comps = new IndexedComponents(order);
+		CtMethod[] stubs = new CtMethod[order.size()];
+		for (int i = 0; i < order.size(); i++) {
+			stubs[i] = CtNewMethod.make("private void propagate" + i + "(boolean newValue){}", cc);
+			cc.addMethod(stubs[i]);
+		}
+		StringBuilder file = new StringBuilder();
+		for (int i = 0; i < order.size(); i++) {
+			if (Thread.interrupted()) throw new InterruptedException();
+			file.setLength(0);
+			Component c = order.get(i);
+			if (c.getInputC().length > BLOCK_SIZE || c.getOutputC().length > BLOCK_SIZE) {
+				makeWideMethod(cc, file, c, i, comps);
+			} else {
+				c.makeMethod(file, comps);
+			}
+			CtMethod propagate = CtNewMethod.make(file.toString(), cc);
+			cc.removeMethod(stubs[i]);
+			cc.addMethod(propagate);
+		}
+
+		int numStarts = (initIndex >= 0) ? initIndex + 1 : numBases + numInputs;
+		List<String> startCases = new ArrayList<String>(numStarts);
+		for (int i = 0; i < numStarts; i++) {
+			StringBuilder body = new StringBuilder("private void start" + i + "(){\n");
+			appendOutputs(cc, body, "start" + i, order.get(i), "comps[" + i + "]", comps);
+			body.append("}\n");
+			cc.addMethod(CtNewMethod.make(body.toString(), cc));
+			startCases.add("case " + i + ": start" + i + "(); return;\n");
+		}
+		addBlocks(cc, "start", startCases, true);
+
+		List<String> initStatements = new ArrayList<String>();
+		for (int i = 0; i < order.size(); i++) {
+			Component c = order.get(i);
+			if (c instanceof Constant) {
+				initStatements.add("comps[" + i + "] = " + c.getValue() + "; propagate" + i + "(comps[" + i + "]);\n");
+			} else if (c instanceof Not) {
+				initStatements.add("propagate" + i + "(true);\n");
+			}
+		}
+		addBlocks(cc, "initialize", initStatements, false);
+
+		byte[] bytecode = cc.toBytecode();
+		cc.detach();
+		return new NetClassLoader(CompiledPropNet.class.getClassLoader()).define(cc.getName(), bytecode).asSubclass(CompiledPropNet.class);
+	}
+
+	/**
+	 * Writes the propagate method for a component whose fan-in or fan-out
+	 * is too wide for Component.makeMethod to emit in one method body. It
+	 * computes the same value as makeMethod, but ANDs and ORs read their
+	 * inputs through helpers of at most BLOCK_SIZE inputs each, and the
+	 * outputs are propagated through appendOutputs.
+	 */
+	private static void makeWideMethod(CtClass cc, StringBuilder file, Component c, int i, List<Component> comps) throws Exception {
+		String name = "propagate" + i;
+		file.append("private void " + name + "(boolean newValue){\n");
+		if (c instanceof Proposition && ((Proposition) c).base) {
+			file.append("return;}\n");
+			return;
+		}
+		if (c instanceof Constant) {
+			appendOutputs(cc, file, name, c, "comps[" + i + "]", comps);
+			file.append("}\n");
+			return;
+		}
+		String next = "newValue";
+		if (c instanceof And || c instanceof Or) {
+			String op = (c instanceof And) ? " && " : " || ";
+			Component[] inputs = c.getInputC();
+			StringBuilder combined = new StringBuilder();
+			for (int b = 0; b * BLOCK_SIZE < inputs.length; b++) {
+				StringBuilder helper = new StringBuilder("private boolean " + name + "In" + b + "(){\nreturn ");
+				for (int k = b * BLOCK_SIZE; k < Math.min(inputs.length, (b + 1) * BLOCK_SIZE); k++) {
+					if (k > b * BLOCK_SIZE) helper.append(op);
+					helper.append("comps[" + comps.indexOf(inputs[k]) + "]");
+				}
+				helper.append(";\n}\n");
+				cc.addMethod(CtNewMethod.make(helper.toString(), cc));
+				if (b > 0) combined.append(op);
+				combined.append(name + "In" + b + "()");
+			}
+			file.append("boolean next = " + combined + ";\n");
+			next = "next";
+		} else if (c instanceof Not) {
+			file.append("boolean next = !comps[" + comps.indexOf(c.getSingleInputC()) + "];\n");
+			next = "next";
+		}
+		file.append("if (" + next + " != comps[" + i + "]){\n");
+		file.append("comps[" + i + "] = " + next + ";\n");
+		appendOutputs(cc, file, name, c, next, comps);
+		file.append("}\n");
+		file.append("}\n");
+	}
+
+	/**
+	 * Appends a propagate call with the given argument for every output of
+	 * c to body. Above BLOCK_SIZE outputs, the calls go into helper methods
+	 * named after owner, and body only calls the helpers.
+	 */
+	private static void appendOutputs(CtClass cc, StringBuilder body, String owner, Component c, String arg, List<Component> comps) throws Exception {
+		Component[] outputs = c.getOutputC();
+		if (outputs.length <= BLOCK_SIZE) {
+			for (Component output : outputs) {
+				body.append("propagate" + comps.indexOf(output) + "(" + arg + ");\n");
+			}
+			return;
+		}
+		for (int b = 0; b * BLOCK_SIZE < outputs.length; b++) {
+			StringBuilder helper = new StringBuilder("private void " + owner + "Out" + b + "(boolean value){\n");
+			for (int k = b * BLOCK_SIZE; k < Math.min(outputs.length, (b + 1) * BLOCK_SIZE); k++) {
+				helper.append("propagate" + comps.indexOf(outputs[k]) + "(value);\n");
+			}
+			helper.append("}\n");
+			cc.addMethod(CtNewMethod.make(helper.toString(), cc));
+			body.append(owner + "Out" + b + "(" + arg + ");\n");
+		}
+	}
+
+	/**
+	 * Adds a public method called name that hands off to one private block
+	 * method per BLOCK_SIZE lines. A dispatch method takes an int index and
+	 * its blocks are switches over the cases in lines; since case i sits at
+	 * position i, block b holds exactly the indices with index / BLOCK_SIZE == b.
+	 * Otherwise the blocks simply run their lines in order.
+	 */
+	private static void addBlocks(CtClass cc, String name, List<String> lines, boolean dispatch) throws Exception {
+		String param = dispatch ? "int index" : "";
+		String arg = dispatch ? "index" : "";
+		StringBuilder top = new StringBuilder("public void " + name + "(" + param + "){\n");
+		if (dispatch) top.append("switch (index / " + BLOCK_SIZE + ") {\n");
+		for (int b = 0; b * BLOCK_SIZE < lines.size(); b++) {
+			StringBuilder block = new StringBuilder("private void " + name + "Block" + b + "(" + param + "){\n");
+			if (dispatch) block.append("switch (index) {\n");
+			for (String line : lines.subList(b * BLOCK_SIZE, Math.min(lines.size(), (b + 1) * BLOCK_SIZE))) {
+				block.append(line);
+			}
+			if (dispatch) block.append("}\n");
+			block.append("}\n");
+			cc.addMethod(CtNewMethod.make(block.toString(), cc));
+			if (dispatch) top.append("case " + b + ": ");
+			top.append(name + "Block" + b + "(" + arg + ");" + (dispatch ? " return;" : "") + "\n");
+		}
+		if (dispatch) top.append("}\n");
+		top.append("}\n");
+		cc.addMethod(CtNewMethod.make(top.toString(), cc));
+	}
+
+	/** A component list whose indexOf is a hash lookup, since makeMethod calls it for every edge */
+	private static final class IndexedComponents extends AbstractList<Component> {
+		private final List<Component> order;
+		private final Map<Component, Integer> indices;
+
+		IndexedComponents(List<Component> order) {
+			this.order = order;
+			indices = new HashMap<Component, Integer>();
+			for (int i = 0; i < order.size(); i++) indices.put(order.get(i), i);
+		}
+
+		@Override
+		public Component get(int index) {
+			return order.get(index);
+		}
+
+		@Override
+		public int size() {
+			return order.size();
+		}
+
+		@Override
+		public int indexOf(Object o) {
+			Integer i = indices.get(o);
+			return (i == null) ? -1 : i;
+		}
+	}
+
+	private static final class NetClassLoader extends ClassLoader {
+		NetClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytecode) {
+			return defineClass(name, bytecode, 0, bytecode.length);
+		}
+	}
+
+	public boolean isCompiled() {
+		return fallback == null;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		if (fallback != null) return fallback.isTerminal(state);
+		markbases(state);
+		return comps[terminalIndex];
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		if (fallback != null) return fallback.getGoal(state, role);
+		markbases(state);
+		int r = getRoleIndices().get(role);
+		for (int i = 0; i < goals[r].length; i++) {
+			if (comps[goals[r][i]]) return goalValues[r][i];
+		}
+		throw new GoalDefinitionException(state, role);
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		if (fallback != null) return fallback.getInitialState();
+		// Recorded by the factory from the init rules, see PropNetStateMachine
+		if (propNet.getInitialState() != null) return getMachineStateFromSentenceList(propNet.getInitialState());
+		// The initial state only depends on INIT, so bases and inputs are cleared first.
+		markbases(emptyBases, 0L);
+		Arrays.fill(nextInputs, 0L);
+		markinputs();
+		// Without INIT, the initial state is whatever follows from the empty bases
+		if (initIndex < 0) return getStateFromTransitions();
+		comps[initIndex] = true;
+		net.start(initIndex);
+		MachineState initial = getStateFromTransitions();
+		comps[initIndex] = false;
+		net.start(initIndex);
+		return initial;
+	}
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		if (fallback != null) return fallback.findActions(role);
+		return new ArrayList<Move>(Arrays.asList(legalMoves[getRoleIndices().get(role)]));
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		if (fallback != null) return fallback.getLegalMoves(state, role);
+		markbases(state);
+		int r = getRoleIndices().get(role);
+		List<Move> moves = new ArrayList<Move>(legals[r].length);
+		for (int i = 0; i < legals[r].length; i++) {
+			if (comps[legals[r][i]]) moves.add(legalMoves[r][i]);
+		}
+		return moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		if (fallback != null) return fallback.getNextState(state, moves);
+		markbases(state);
+		markactions(moves);
+		return getStateFromTransitions();
+	}
+
+	/**
+	 * Plays the whole rollout on the component array: each role's move is
+	 * picked by position among its true legal propositions and switched on
+	 * directly as an input, and successor states are read into scratch
+	 * arrays instead of new MachineStates.
+	 */
+	@Override
+	public int[] rollout(MachineState state, Role[] roles, Random random, int[] scores) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+		if (fallback != null) return fallback.rollout(state, roles, random, scores);
+		markbases(state);
+		while (!comps[terminalIndex]) {
+			Arrays.fill(nextInputs, 0L);
+			for (int r = 0; r < legals.length; r++) {
+				int count = 0;
+				for (int l = 0; l < legals[r].length; l++) {
+					if (comps[legals[r][l]]) count++;
+				}
+				if (count == 0) throw new MoveDefinitionException(getMarkedState(), this.roles.get(r));
+				int pick = random.nextInt(count);
+				int l = 0;
+				while (!comps[legals[r][l]] || pick-- > 0) l++;
+				int input = legalInputs[r][l];
+				if (input >= 0) nextInputs[input >>> 6] |= 1L << input;
+			}
+			markinputs();
+			long[] bits = (prevBases == rolloutBases) ? spareBases : rolloutBases;
+			readTransitions(bits);
+			markbases(bits, BitSetMachineState.rehash(prevHash, prevBases, bits, baseKeys));
+		}
+		for (int i = 0; i < roles.length; i++) {
+			int r = getRoleIndices().get(roles[i]);
+			int g = 0;
+			while (g < goals[r].length && !comps[goals[r][g]]) g++;
+			if (g == goals[r].length) throw new GoalDefinitionException(getMarkedState(), roles[i]);
+			scores[i] = goalValues[r][g];
+		}
+		return scores;
+	}
+
+	// Only for error reports from a rollout, whose bases are in a scratch array
+	private MachineState getMarkedState() {
+		return new BitSetMachineState(baseSentences, prevBases.clone(), prevHash);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	@Override
+	public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+		if (fallback != null) return fallback.getMachineStateFromSentenceList(sentenceList);
+		long[] bits = toBits(sentenceList);
+		return new BitSetMachineState(baseSentences, bits, BitSetMachineState.rehash(0L, emptyBases, bits, baseKeys));
+	}
+
+	// The new state's hash is derived from the marked state's, through the bases that changed
+	private MachineState getStateFromTransitions() {
+		long[] bits = new long[emptyBases.length];
+		readTransitions(bits);
+		return new BitSetMachineState(baseSentences, bits, BitSetMachineState.rehash(prevHash, prevBases, bits, baseKeys));
+	}
+
+	private void readTransitions(long[] bits) {
+		Arrays.fill(bits, 0L);
+		for (int i = 0; i < numBases; i++) {
+			if (comps[transitions[i]]) bits[i >>> 6] |= 1L << i;
+		}
+	}
+
+	private long[] toBits(Set<GdlSentence> contents) {
+		long[] bits = new long[emptyBases.length];
+		for (GdlSentence s : contents) {
+			Integer i = baseIndices.get(s);
+			if (i != null) bits[i >>> 6] |= 1L << i;
+		}
+		return bits;
+	}
+
+	private void markbases(MachineState state) {
+		if (state instanceof BitSetMachineState) {
+			BitSetMachineState bitState = (BitSetMachineState) state;
+			if (bitState.getBaseSentences() == baseSentences) {
+				markbases(bitState.getBits(), bitState.getZobristHash());
+				return;
+			}
+		}
+		long[] bits = toBits(state.getContents());
+		markbases(bits, BitSetMachineState.rehash(0L, emptyBases, bits, baseKeys));
+	}
+
+	// Bases occupy component indices [0, numBases), so base i is component i.
+	private void markbases(long[] bits, long hash) {
+		for (int w = 0; w < bits.length; w++) {
+			long diff = bits[w] ^ prevBases[w];
+			while (diff != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+				comps[i] = (bits[w] & (1L << i)) != 0;
+				net.start(i);
+				diff &= diff - 1;
+			}
+		}
+		prevBases = bits;
+		prevHash = hash;
+	}
+
+	// Inputs occupy component indices [numBases, numBases + numInputs).
+	private void markactions(List<Move> moves) {
+		Arrays.fill(nextInputs, 0L);
+		for (int r = 0; r < roles.size(); r++) {
+			Integer i = inputIndices.get(r).get(moves.get(r));
+			if (i != null) nextInputs[i >>> 6] |= 1L << i;
+		}
+		markinputs();
+	}
+
+	private void markinputs() {
+		for (int w = 0; w < nextInputs.length; w++) {
+			long diff = nextInputs[w] ^ prevInputs[w];
+			while (diff != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+				comps[numBases + i] = (nextInputs[w] & (1L << i)) != 0;
+				net.start(numBases + i);
+				diff &= diff - 1;
+			}
+		}
+		long[] swap = prevInputs;
+		prevInputs = nextInputs;
+		nextInputs = swap;
+	}
+}
@@ -0,0 +1,133 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * A search tree node that many threads can select through, expand and
+ * back up into without locking.
+ *
+ * Visits, utility and virtual loss are primitive volatile fields updated
+ * through field updaters, so a node costs no more than Node does. The
+ * utility is a double kept as its raw long bits.
+ *
+ * Children are published once. The first thread to reach an unexpanded
+ * node claims it by swapping in the EXPANDING marker; everyone else keeps
+ * treating the node as a leaf until the real array replaces the marker.
+ */
+public class ConcurrentNode {
+	private static final ConcurrentNode[] EXPANDING = new ConcurrentNode[0];
+
+	private static final AtomicLongFieldUpdater<ConcurrentNode> VISITS =
+			AtomicLongFieldUpdater.newUpdater(ConcurrentNode.class, "visits");
+	private static final AtomicLongFieldUpdater<ConcurrentNode> UTILITY =
+			AtomicLongFieldUpdater.newUpdater(ConcurrentNode.class, "utility");
+	private static final AtomicIntegerFieldUpdater<ConcurrentNode> VIRTUAL_LOSS =
+			AtomicIntegerFieldUpdater.newUpdater(ConcurrentNode.class, "virtualLoss");
+	private static final AtomicReferenceFieldUpdater<ConcurrentNode, ConcurrentNode[]> CHILDREN =
+			AtomicReferenceFieldUpdater.newUpdater(ConcurrentNode.class, ConcurrentNode[].class, "children");
+
+	public final MachineState state;
+	public final Move action;	// The action taken from the parent to reach this state
+	public volatile ConcurrentNode parent;
+
+	private volatile long visits;
+	private volatile long utility = Double.doubleToRawLongBits(0.0);
+	private volatile int virtualLoss;
+	private volatile ConcurrentNode[] children;
+	private boolean min;
+
+	public ConcurrentNode(MachineState s, ConcurrentNode p, Move a) {
+		state = s;
+		parent = p;
+		action = a;
+	}
+
+	public long getVisits() {
+		return visits;
+	}
+
+	public double getUtility() {
+		return Double.longBitsToDouble(utility);
+	}
+
+	public double get_value() {
+		long n = visits;
+		if (n != 0) {
+			return getUtility() / n;
+		}
+		else return 0.0;
+	}
+
+	public int getVirtualLoss() {
+		return virtualLoss;
+	}
+
+	public void addVirtualLoss(int n) {
+		VIRTUAL_LOSS.addAndGet(this, n);
+	}
+
+	/**
+	 * Records one finished simulation and takes back the virtual loss that
+	 * was put on the node when the simulation passed through it.
+	 */
+	public void update(double score, int virtualLossToRemove) {
+		long prev, next;
+		do {
+			prev = utility;
+			next = Double.doubleToRawLongBits(Double.longBitsToDouble(prev) + score);
+		} while (!UTILITY.compareAndSet(this, prev, next));
+		VISITS.incrementAndGet(this);
+		if (virtualLossToRemove != 0) VIRTUAL_LOSS.addAndGet(this, -virtualLossToRemove);
+	}
+
+	/**
+	 * Returns the children, or null if the node has not been expanded yet
+	 * or is being expanded right now. Terminal nodes have no children.
+	 */
+	public ConcurrentNode[] getChildren() {
+		ConcurrentNode[] c = children;
+		return (c == EXPANDING) ? null : c;
+	}
+
+	public boolean isExpanded() {
+		ConcurrentNode[] c = children;
+		return c != null && c != EXPANDING;
+	}
+
+	/**
+	 * Tries to become the one thread that expands this node.
+	 */
+	public boolean claimExpansion() {
+		return children == null && CHILDREN.compareAndSet(this, null, EXPANDING);
+	}
+
+	/**
+	 * Gives up a claim from claimExpansion without publishing anything, e.g.
+	 * when the state machine failed, so another thread can expand the node.
+	 */
+	public void releaseExpansion() {
+		CHILDREN.compareAndSet(this, EXPANDING, null);
+	}
+
+	/**
+	 * Publishes the children of a node claimed with claimExpansion. The min
+	 * flag is written first, so anyone who sees the children sees it too.
+	 */
+	public void publishChildren(ConcurrentNode[] c, boolean isMin) {
+		min = isMin;
+		children = c;
+	}
+
+	/**
+	 * Whether our agent has only one action here, in which case the node is
+	 * treated as an opponent (min) node. Only meaningful once expanded.
+	 */
+	public boolean isMin() {
+		return children != null && min;
+	}
+}
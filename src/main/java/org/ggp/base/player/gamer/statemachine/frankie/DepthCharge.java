@@ -1,6 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.frankie;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Role;
@@ -23,9 +24,7 @@ public class DepthCharge implements Callable<Integer> {
 	@Override
 	public Integer call() {
 		try {
-			MachineState finalState = sm.performDepthChargeLite(state);
-			Integer reward = sm.findReward(agent, finalState);
-			return reward;
+			return sm.rollout(state, new Role[] {agent}, ThreadLocalRandom.current())[0];
 		}
 		catch (TransitionDefinitionException | MoveDefinitionException | GoalDefinitionException e) {
 			System.out.println("Exception thrown in DepthCharge");
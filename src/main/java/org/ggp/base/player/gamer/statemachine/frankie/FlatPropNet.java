@@ -0,0 +1,411 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * FlatPropNet is a PropNet lowered into struct-of-arrays form. Every
+ * component is an int index; its kind lives in types[], its fan-out is the
+ * CSR slice outputs[outputOffsets[i] .. outputOffsets[i + 1]), and AND gates
+ * know their fan-in from inputCounts[]. The topology is immutable once built
+ * and can be shared by any number of threads.
+ *
+ * Components are numbered bases first, then inputs, then INIT, so base i is
+ * component i and input j is component getNumBases() + j. Edges into those
+ * source propositions are dropped: their values are only ever set from outside.
+ *
+ * All mutable state lives in a {@link Marking}, which holds one value per
+ * component and, for every gate, the number of its inputs that are true.
+ * Propagation runs as an explicit worklist over those counters.
+ */
+public final class FlatPropNet {
+	public static final byte AND = 0;
+	public static final byte OR = 1;
+	public static final byte NOT = 2;
+	public static final byte TRANSITION = 3;
+	public static final byte PROPOSITION = 4;
+	public static final byte SOURCE = 5;
+	public static final byte TRUE = 6;
+	public static final byte FALSE = 7;
+
+	private final byte[] types;
+	private final int[] inputCounts;
+	private final int[] outputOffsets;
+	private final int[] outputs;
+
+	private final List<Role> roles;
+	private final GdlSentence[] baseSentences;
+	private final Map<GdlSentence, Integer> baseIndices;
+	private final long[] baseKeys;
+	private final int[] transitions;
+	private final int numInputs;
+	private final List<Map<Move, Integer>> inputIndices;
+	private final int initIndex;
+	private final int terminalIndex;
+	private final int[][] legals;
+	private final Move[][] legalMoves;
+	/** The input ordinal each legal proposition enables, or -1 if it has no input */
+	private final int[][] legalInputs;
+	private final int[][] goals;
+	private final int[][] goalValues;
+
+	/** The bases true in the initial state, or null if only INIT tells */
+	private final long[] initialBases;
+
+	/** The consistent marking with every source false; new markings start as copies of it */
+	private final Marking initialMarking;
+
+	FlatPropNet(byte[] types, int[] inputCounts, int[] outputOffsets, int[] outputs,
+			List<Role> roles, GdlSentence[] baseSentences, long[] baseKeys, int[] transitions, GdlSentence[] inputSentences,
+			int initIndex, int terminalIndex, int[][] legals, int[][] goals, int[][] goalValues, long[] initialBases) {
+		this.types = types;
+		this.inputCounts = inputCounts;
+		this.outputOffsets = outputOffsets;
+		this.outputs = outputs;
+		this.roles = roles;
+		this.baseSentences = baseSentences;
+		this.baseKeys = baseKeys;
+		this.transitions = transitions;
+		this.numInputs = inputSentences.length;
+		this.initIndex = initIndex;
+		this.terminalIndex = terminalIndex;
+		this.legals = legals;
+		this.goals = goals;
+		this.goalValues = goalValues;
+		this.initialBases = initialBases;
+
+		baseIndices = new HashMap<GdlSentence, Integer>();
+		for (int i = 0; i < baseSentences.length; i++) {
+			baseIndices.put(baseSentences[i], i);
+		}
+		Map<GdlConstant, Integer> roleIndices = new HashMap<GdlConstant, Integer>();
+		inputIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			roleIndices.put(roles.get(r).getName(), r);
+			inputIndices.add(new HashMap<Move, Integer>());
+		}
+		for (int i = 0; i < inputSentences.length; i++) {
+			Integer r = roleIndices.get(inputSentences[i].get(0));
+			if (r != null) inputIndices.get(r).put(new Move(inputSentences[i].get(1)), i);
+		}
+		legalMoves = new Move[legals.length][];
+		legalInputs = new int[legals.length][];
+		for (int r = 0; r < legals.length; r++) {
+			legalMoves[r] = new Move[legals[r].length];
+			legalInputs[r] = new int[legals[r].length];
+		}
+
+		initialMarking = new Marking(new boolean[types.length], new int[types.length]);
+		for (int c = 0; c < types.length; c++) {
+			if (types[c] != SOURCE && initialMarking.eval(c, 0)) {
+				initialMarking.values[c] = true;
+				initialMarking.push(c, true);
+			}
+		}
+		initialMarking.propagate();
+	}
+
+	/**
+	 * Lowers an object-graph PropNet into flat arrays, along with the initial
+	 * state the factory recorded from the init rules, if it has one.
+	 */
+	public static FlatPropNet create(PropNet propNet) {
+		Set<GdlSentence> initialState = propNet.getInitialState();
+		List<Component> order = new ArrayList<Component>(propNet.getSize());
+		order.addAll(propNet.getBasePropositions().values());
+		order.addAll(propNet.getInputPropositions().values());
+		int numBases = propNet.getBasePropositions().size();
+		int numSources = order.size();
+		Proposition init = propNet.getInitProposition();
+		int initIndex = -1;
+		if (init != null) {
+			initIndex = numSources++;
+			order.add(init);
+		}
+		Set<Component> sources = new HashSet<Component>(order);
+		for (Component c : propNet.getComponents()) {
+			if (!sources.contains(c)) order.add(c);
+		}
+		Map<Component, Integer> indices = new HashMap<Component, Integer>();
+		for (int i = 0; i < order.size(); i++) {
+			indices.put(order.get(i), i);
+		}
+
+		int n = order.size();
+		byte[] types = new byte[n];
+		int[] inputCounts = new int[n];
+		int[] outputOffsets = new int[n + 1];
+		List<Integer> edges = new ArrayList<Integer>(propNet.getNumLinks());
+		for (int i = 0; i < n; i++) {
+			Component c = order.get(i);
+			if (i < numSources) types[i] = SOURCE;
+			else if (c instanceof And) types[i] = AND;
+			else if (c instanceof Or) types[i] = OR;
+			else if (c instanceof Not) types[i] = NOT;
+			else if (c instanceof Transition) types[i] = TRANSITION;
+			else if (c instanceof Constant) types[i] = c.getValue() ? TRUE : FALSE;
+			else types[i] = PROPOSITION;
+			inputCounts[i] = c.getInputs().size();
+
+			outputOffsets[i] = edges.size();
+			for (Component out : c.getOutputs()) {
+				int o = indices.get(out);
+				if (o >= numSources) edges.add(o);
+			}
+		}
+		outputOffsets[n] = edges.size();
+		int[] outputs = new int[edges.size()];
+		for (int k = 0; k < outputs.length; k++) {
+			outputs[k] = edges.get(k);
+		}
+
+		GdlSentence[] baseSentences = new GdlSentence[numBases];
+		long[] baseKeys = new long[numBases];
+		int[] transitions = new int[numBases];
+		for (int i = 0; i < numBases; i++) {
+			Proposition p = (Proposition) order.get(i);
+			baseSentences[i] = p.getName();
+			baseKeys[i] = p.getZobristKey();
+			transitions[i] = indices.get(p.getSingleInput());
+		}
+		GdlSentence[] inputSentences = new GdlSentence[propNet.getInputPropositions().size()];
+		for (int i = 0; i < inputSentences.length; i++) {
+			inputSentences[i] = ((Proposition) order.get(numBases + i)).getName();
+		}
+
+		List<Role> roles = propNet.getRoles();
+		int[][] legals = new int[roles.size()][];
+		int[][] goals = new int[roles.size()][];
+		int[][] goalValues = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			legals[r] = toIndices(propNet.getLegalPropositions().get(roles.get(r)), indices);
+			goals[r] = toIndices(propNet.getGoalPropositions().get(roles.get(r)), indices);
+			goalValues[r] = new int[goals[r].length];
+			for (int g = 0; g < goals[r].length; g++) {
+				GdlSentence name = ((Proposition) order.get(goals[r][g])).getName();
+				goalValues[r][g] = Integer.parseInt(name.get(1).toString());
+			}
+		}
+
+		long[] initialBases = null;
+		if (initialState != null) {
+			initialBases = new long[BitSetMachineState.wordsFor(numBases)];
+			for (int i = 0; i < numBases; i++) {
+				if (initialState.contains(baseSentences[i])) initialBases[i >>> 6] |= 1L << i;
+			}
+		}
+
+		FlatPropNet net = new FlatPropNet(types, inputCounts, outputOffsets, outputs, roles, baseSentences, baseKeys, transitions,
+				inputSentences, initIndex, indices.get(propNet.getTerminalProposition()), legals, goals, goalValues, initialBases);
+		for (int r = 0; r < roles.size(); r++) {
+			for (int l = 0; l < legals[r].length; l++) {
+				net.legalMoves[r][l] = PropNetStateMachine.getMoveFromProposition((Proposition) order.get(legals[r][l]));
+				Integer input = net.getInputIndex(r, net.legalMoves[r][l]);
+				net.legalInputs[r][l] = (input == null) ? -1 : input;
+			}
+		}
+		return net;
+	}
+
+	private static int[] toIndices(Set<Proposition> props, Map<Component, Integer> indices) {
+		if (props == null) return new int[0];
+		int[] result = new int[props.size()];
+		int i = 0;
+		for (Proposition p : props) {
+			result[i++] = indices.get(p);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a fresh marking in the consistent all-sources-false state.
+	 * Each thread working on this net needs its own marking.
+	 */
+	public Marking newMarking() {
+		return initialMarking.copy();
+	}
+
+	/**
+	 * Marking holds the mutable per-component values for one user of the net.
+	 * Copying a marking copies only these arrays; the topology stays shared.
+	 */
+	public final class Marking {
+		private final boolean[] values;
+		private final int[] counts;
+		/** Pending value changes, encoded as (component << 1) | newValue */
+		private int[] stack;
+		private int top;
+
+		private Marking(boolean[] values, int[] counts) {
+			this.values = values;
+			this.counts = counts;
+			this.stack = new int[64];
+		}
+
+		public Marking copy() {
+			return new Marking(values.clone(), counts.clone());
+		}
+
+		public boolean get(int component) {
+			return values[component];
+		}
+
+		/**
+		 * Sets a source proposition. The change only reaches the rest of the
+		 * net on the next call to {@link #propagate()}.
+		 */
+		public void set(int component, boolean value) {
+			if (values[component] != value) {
+				values[component] = value;
+				push(component, value);
+			}
+		}
+
+		private void push(int component, boolean value) {
+			if (top == stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			}
+			stack[top++] = (component << 1) | (value ? 1 : 0);
+		}
+
+		private boolean eval(int c, int count) {
+			switch (types[c]) {
+			case AND: return count == inputCounts[c];
+			case NOT: return count == 0;
+			case TRUE: return true;
+			case FALSE: return false;
+			default: return count > 0;
+			}
+		}
+
+		/**
+		 * Drains the worklist. Every popped change adjusts the true-input
+		 * counters of its outputs, and each output whose value flips as a
+		 * result is pushed in turn.
+		 */
+		public void propagate() {
+			while (top > 0) {
+				int entry = stack[--top];
+				int c = entry >>> 1;
+				int delta = ((entry & 1) != 0) ? 1 : -1;
+				for (int k = outputOffsets[c], end = outputOffsets[c + 1]; k < end; k++) {
+					int o = outputs[k];
+					boolean value = eval(o, counts[o] += delta);
+					if (value != values[o]) {
+						values[o] = value;
+						push(o, value);
+					}
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+	public byte[] getTypes() {
+		return types;
+	}
+
+	public int[] getInputCounts() {
+		return inputCounts;
+	}
+
+	public int[] getOutputOffsets() {
+		return outputOffsets;
+	}
+
+	public int[] getOutputs() {
+		return outputs;
+	}
+
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	public int getNumBases() {
+		return baseSentences.length;
+	}
+
+	public int getNumInputs() {
+		return numInputs;
+	}
+
+	public GdlSentence[] getBaseSentences() {
+		return baseSentences;
+	}
+
+	/** Returns the Zobrist key of every base, by ordinal */
+	public long[] getBaseKeys() {
+		return baseKeys;
+	}
+
+	/** Returns the base ordinal of the sentence, or null if it is not a base */
+	public Integer getBaseIndex(GdlSentence sentence) {
+		return baseIndices.get(sentence);
+	}
+
+	/** Returns the component feeding base i's next-state value */
+	public int getTransition(int base) {
+		return transitions[base];
+	}
+
+	/** Returns the input ordinal for the role's move, or null if there is none */
+	public Integer getInputIndex(int role, Move move) {
+		return inputIndices.get(role).get(move);
+	}
+
+	public int getInitIndex() {
+		return initIndex;
+	}
+
+	/** Returns the bits of the initial state, or null if it must be found from INIT. Must not be modified. */
+	public long[] getInitialBases() {
+		return initialBases;
+	}
+
+	public int getTerminalIndex() {
+		return terminalIndex;
+	}
+
+	public int[] getLegals(int role) {
+		return legals[role];
+	}
+
+	public Move[] getLegalMoves(int role) {
+		return legalMoves[role];
+	}
+
+	/** Returns, for each of the role's legal propositions, the input ordinal it enables or -1 */
+	public int[] getLegalInputs(int role) {
+		return legalInputs[role];
+	}
+
+	public int[] getGoals(int role) {
+		return goals[role];
+	}
+
+	public int[] getGoalValues(int role) {
+		return goalValues[role];
+	}
+}
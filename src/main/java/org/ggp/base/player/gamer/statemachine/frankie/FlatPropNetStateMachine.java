@@ -0,0 +1,292 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.BitSetMachineState;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A propnet state machine over a FlatPropNet. Queries mark the bases and
+ * inputs that changed since the last query and let the marking's worklist
+ * carry the change forward; nothing recurses through the component graph.
+ *
+ * The topology is shared and immutable, so {@link #fork()} gives another
+ * thread its own machine at the cost of copying the value and counter
+ * arrays, instead of rebuilding the propnet from the game description.
+ */
+public class FlatPropNetStateMachine extends StateMachine {
+	private FlatPropNet net;
+	private FlatPropNet.Marking marking;
+	private List<Role> roles;
+	private int numBases;
+	private int numInputs;
+
+	private long[] emptyBases;
+	private long[] prevBases;
+	/** Zobrist hash of prevBases */
+	private long prevHash;
+	private long[] prevInputs;
+	private long[] nextInputs;
+	// Rollouts alternate between these for their successor states, never the one currently marked
+	private long[] rolloutBases;
+	private long[] spareBases;
+
+	public FlatPropNetStateMachine() {
+	}
+
+	/**
+	 * Creates a machine over an already lowered net, e.g. one shared with
+	 * another thread's machine.
+	 */
+	public FlatPropNetStateMachine(FlatPropNet net) {
+		attach(net);
+	}
+
+	@Override
+	public void initialize(List<Gdl> description) {
+		long start = System.currentTimeMillis();
+		try {
+			PropNet propNet = PropNetCache.getDefault().create(PropNetStateMachine.sanitizeDistinct(description), ForkJoinPool.commonPool());
+			attach(FlatPropNet.create(propNet));
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		}
+		System.out.println("Flattened propnet of " + net.size() + " components in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private void attach(FlatPropNet net) {
+		this.net = net;
+		marking = net.newMarking();
+		roles = net.getRoles();
+		numBases = net.getNumBases();
+		numInputs = net.getNumInputs();
+		emptyBases = new long[BitSetMachineState.wordsFor(numBases)];
+		prevBases = emptyBases;
+		prevInputs = new long[BitSetMachineState.wordsFor(numInputs)];
+		nextInputs = new long[prevInputs.length];
+		rolloutBases = new long[emptyBases.length];
+		spareBases = new long[emptyBases.length];
+	}
+
+	/**
+	 * Returns a new machine sharing this one's topology, with a marking of
+	 * its own. Forks can be used concurrently with each other; a single
+	 * machine cannot.
+	 */
+	public FlatPropNetStateMachine fork() {
+		return new FlatPropNetStateMachine(net);
+	}
+
+	public FlatPropNet getPropNet() {
+		return net;
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		markbases(state);
+		return marking.get(net.getTerminalIndex());
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		markbases(state);
+		int r = getRoleIndices().get(role);
+		int[] goals = net.getGoals(r);
+		for (int i = 0; i < goals.length; i++) {
+			if (marking.get(goals[i])) return net.getGoalValues(r)[i];
+		}
+		throw new GoalDefinitionException(state, role);
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		long[] initialBases = net.getInitialBases();
+		if (initialBases != null) return new BitSetMachineState(net.getBaseSentences(), initialBases, BitSetMachineState.rehash(0L, emptyBases, initialBases, net.getBaseKeys()));
+		// The initial state only depends on INIT, so bases and inputs are cleared first.
+		markbases(emptyBases, 0L);
+		Arrays.fill(nextInputs, 0L);
+		markinputs();
+		int init = net.getInitIndex();
+		// Without INIT, the initial state is whatever follows from the empty bases
+		if (init < 0) return getStateFromTransitions();
+		marking.set(init, true);
+		marking.propagate();
+		MachineState initial = getStateFromTransitions();
+		marking.set(init, false);
+		marking.propagate();
+		return initial;
+	}
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		return new ArrayList<Move>(Arrays.asList(net.getLegalMoves(getRoleIndices().get(role))));
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		markbases(state);
+		int r = getRoleIndices().get(role);
+		int[] legals = net.getLegals(r);
+		Move[] legalMoves = net.getLegalMoves(r);
+		List<Move> moves = new ArrayList<Move>(legals.length);
+		for (int i = 0; i < legals.length; i++) {
+			if (marking.get(legals[i])) moves.add(legalMoves[i]);
+		}
+		return moves;
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		markbases(state);
+		markactions(moves);
+		return getStateFromTransitions();
+	}
+
+	/**
+	 * Plays the whole rollout on the marking: each role's move is picked by
+	 * position among its true legal propositions and switched on directly as
+	 * an input, and successor states are read into scratch arrays instead of
+	 * new MachineStates.
+	 */
+	@Override
+	public int[] rollout(MachineState state, Role[] roles, Random random, int[] goals) throws MoveDefinitionException, GoalDefinitionException {
+		markbases(state);
+		int terminal = net.getTerminalIndex();
+		while (!marking.get(terminal)) {
+			Arrays.fill(nextInputs, 0L);
+			for (int r = 0; r < this.roles.size(); r++) {
+				int[] legals = net.getLegals(r);
+				int count = 0;
+				for (int l = 0; l < legals.length; l++) {
+					if (marking.get(legals[l])) count++;
+				}
+				if (count == 0) throw new MoveDefinitionException(getMarkedState(), this.roles.get(r));
+				int pick = random.nextInt(count);
+				int l = 0;
+				while (!marking.get(legals[l]) || pick-- > 0) l++;
+				int input = net.getLegalInputs(r)[l];
+				if (input >= 0) nextInputs[input >>> 6] |= 1L << input;
+			}
+			markinputs();
+			long[] bits = (prevBases == rolloutBases) ? spareBases : rolloutBases;
+			readTransitions(bits);
+			markbases(bits, BitSetMachineState.rehash(prevHash, prevBases, bits, net.getBaseKeys()));
+		}
+		for (int i = 0; i < roles.length; i++) {
+			int r = getRoleIndices().get(roles[i]);
+			int[] goalProps = net.getGoals(r);
+			int g = 0;
+			while (g < goalProps.length && !marking.get(goalProps[g])) g++;
+			if (g == goalProps.length) throw new GoalDefinitionException(getMarkedState(), roles[i]);
+			goals[i] = net.getGoalValues(r)[g];
+		}
+		return goals;
+	}
+
+	// Only for error reports from a rollout, whose bases are in a scratch array
+	private MachineState getMarkedState() {
+		return new BitSetMachineState(net.getBaseSentences(), prevBases.clone(), prevHash);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return roles;
+	}
+
+	@Override
+	public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+		long[] bits = toBits(sentenceList);
+		return new BitSetMachineState(net.getBaseSentences(), bits, BitSetMachineState.rehash(0L, emptyBases, bits, net.getBaseKeys()));
+	}
+
+	// The new state's hash is derived from the marked state's, through the bases that changed
+	private MachineState getStateFromTransitions() {
+		long[] bits = new long[emptyBases.length];
+		readTransitions(bits);
+		long hash = BitSetMachineState.rehash(prevHash, prevBases, bits, net.getBaseKeys());
+		return new BitSetMachineState(net.getBaseSentences(), bits, hash);
+	}
+
+	private void readTransitions(long[] bits) {
+		Arrays.fill(bits, 0L);
+		for (int i = 0; i < numBases; i++) {
+			if (marking.get(net.getTransition(i))) bits[i >>> 6] |= 1L << i;
+		}
+	}
+
+	private long[] toBits(Set<GdlSentence> contents) {
+		long[] bits = new long[emptyBases.length];
+		for (GdlSentence s : contents) {
+			Integer i = net.getBaseIndex(s);
+			if (i != null) bits[i >>> 6] |= 1L << i;
+		}
+		return bits;
+	}
+
+	private void markbases(MachineState state) {
+		if (state instanceof BitSetMachineState) {
+			BitSetMachineState bitState = (BitSetMachineState) state;
+			if (bitState.getBaseSentences() == net.getBaseSentences()) {
+				markbases(bitState.getBits(), bitState.getZobristHash());
+				return;
+			}
+		}
+		long[] bits = toBits(state.getContents());
+		markbases(bits, BitSetMachineState.rehash(0L, emptyBases, bits, net.getBaseKeys()));
+	}
+
+	// Bases occupy component indices [0, numBases), so base i is component i.
+	private void markbases(long[] bits, long hash) {
+		for (int w = 0; w < bits.length; w++) {
+			long diff = bits[w] ^ prevBases[w];
+			while (diff != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+				marking.set(i, (bits[w] & (1L << i)) != 0);
+				diff &= diff - 1;
+			}
+		}
+		marking.propagate();
+		prevBases = bits;
+		prevHash = hash;
+	}
+
+	// Inputs occupy component indices [numBases, numBases + numInputs).
+	private void markactions(List<Move> moves) {
+		Arrays.fill(nextInputs, 0L);
+		for (int r = 0; r < roles.size(); r++) {
+			Integer i = net.getInputIndex(r, moves.get(r));
+			if (i != null) nextInputs[i >>> 6] |= 1L << i;
+		}
+		markinputs();
+	}
+
+	private void markinputs() {
+		for (int w = 0; w < nextInputs.length; w++) {
+			long diff = nextInputs[w] ^ prevInputs[w];
+			while (diff != 0) {
+				int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+				marking.set(numBases + i, (nextInputs[w] & (1L << i)) != 0);
+				diff &= diff - 1;
+			}
+		}
+		marking.propagate();
+		long[] swap = prevInputs;
+		prevInputs = nextInputs;
+		nextInputs = swap;
+	}
+}
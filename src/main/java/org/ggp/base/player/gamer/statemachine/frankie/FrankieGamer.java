@@ -1,21 +1,44 @@
 package org.ggp.base.player.gamer.statemachine.frankie;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
 import org.ggp.base.apps.player.detail.DetailPanel;
 import org.ggp.base.apps.player.detail.SimpleDetailPanel;
 import org.ggp.base.player.gamer.exception.GamePreviewException;
 import org.ggp.base.player.gamer.statemachine.StateMachineGamer;
 import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.factory.PropNetCache;
 import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.cache.CachedStateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.forwardchaining.ForwardChainingStateMachine;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.ggp.base.util.statemachine.verifier.VerificationResult;
 
 public abstract class FrankieGamer extends StateMachineGamer {
+	// States whose answer tables the prover keeps
+	static final int PROVER_TABLED_STATES = 64;
+	// How long candidate state machines are checked against the prover
+	private static final long VERIFY_MILLIS = 100;
+	private static final long RECHECK_MILLIS = 25;
+
 	String statemachinetype = "";
+	/** The class of the chosen state machine, so search threads can build their own */
+	Class<? extends StateMachine> statemachineclass;
 	Double smSpeed = 0.0;
+	/** The flattened net, when FlatPropNetStateMachine was picked; search threads can share it */
+	FlatPropNet flatPropNet;
 
 
 	@Override
@@ -32,53 +55,106 @@ public abstract class FrankieGamer extends StateMachineGamer {
 	// This is the default State Machine
 	@Override
 	public StateMachine getInitialStateMachine() {
-		StateMachine prover = new CachedStateMachine(new ProverStateMachine());
-		prover.initialize(getMatch().getGame().getRules());
-		StateMachine simplepropnet = new CachedStateMachine(new SimplePropNetStateMachine());
-		simplepropnet.initialize(getMatch().getGame().getRules());
-		StateMachine propnet = new CachedStateMachine(new PropNetStateMachine());
-		propnet.initialize(getMatch().getGame().getRules());
-
-		boolean isPropNetConsistant = StateMachineVerifier.checkMachineConsistency(prover, propnet, 100);
-		boolean isSimplePropNetConsistant = StateMachineVerifier.checkMachineConsistency(prover, simplepropnet, 100);
-
-		if(isPropNetConsistant && isSimplePropNetConsistant){
-			System.out.println("PropNet Speed Test:");
-			double propnetSpeed = propnet.performSpeedTest(500);
-			System.out.println("SimplePropNet Speed Test:");
-			double simplePropnetSpeed = simplepropnet.performSpeedTest(500);
-
-			if(propnetSpeed > simplePropnetSpeed) {
-				System.out.println("Using PropNetStateMachine");
-				statemachinetype = "PropNetStateMachine";
-				smSpeed = propnetSpeed;
-				return propnet;
-			} else{
-				System.out.println("Using SimplePropNetStateMachine");
-				statemachinetype = "SimplePropNetStateMachine";
-				smSpeed = simplePropnetSpeed;
-				return simplepropnet;
+		List<Gdl> rules = getMatch().getGame().getRules();
+		PropNetCache cache = PropNetCache.getDefault();
+		// Candidates in order of preference; the fastest consistent one wins.
+		FlatPropNetStateMachine flat = new FlatPropNetStateMachine();
+		List<StateMachine> engines = Arrays.<StateMachine>asList(flat, new CompiledPropNetStateMachine(), new PropNetStateMachine(), new SimplePropNetStateMachine());
+		// The prover and the candidates are all cached while they are compared,
+		// so they split the cache budget until one of them is picked
+		long byteBudget = CachedStateMachine.DEFAULT_BYTE_BUDGET / (engines.size() + 1);
+
+		CachedStateMachine prover = new CachedStateMachine(new ProverStateMachine(PROVER_TABLED_STATES, ForkJoinPool.commonPool()), byteBudget);
+		prover.initialize(rules);
+
+		Map<String, StateMachine> candidates = new LinkedHashMap<String, StateMachine>();
+		Map<String, Class<? extends StateMachine>> implementations = new HashMap<String, Class<? extends StateMachine>>();
+		for (StateMachine sm : engines) {
+			String name = sm.getClass().getSimpleName();
+			candidates.put(name, new CachedStateMachine(sm, byteBudget));
+			implementations.put(name, sm.getClass());
+		}
+
+		// Machines that matched the prover on this game before, with the same
+		// code, only get a short recheck; the rest get the full check
+		Map<String, StateMachine> verified = new LinkedHashMap<String, StateMachine>();
+		Map<String, StateMachine> unverified = new LinkedHashMap<String, StateMachine>();
+		for (Iterator<Map.Entry<String, StateMachine>> it = candidates.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<String, StateMachine> candidate = it.next();
+			try {
+				candidate.getValue().initialize(rules);
+			} catch (RuntimeException | StackOverflowError e) {
+				System.out.println(candidate.getKey() + " could not be built: " + e);
+				it.remove();
+				continue;
+			}
+			if (cache.isVerified(rules, implementations.get(candidate.getKey()))) {
+				System.out.println(candidate.getKey() + " was verified in an earlier match");
+				verified.put(candidate.getKey(), candidate.getValue());
+			} else {
+				unverified.put(candidate.getKey(), candidate.getValue());
+			}
+		}
+		List<VerificationResult> results = new ArrayList<VerificationResult>();
+		results.addAll(StateMachineVerifier.verify(prover, verified, RECHECK_MILLIS));
+		results.addAll(StateMachineVerifier.verify(prover, unverified, VERIFY_MILLIS));
+		// A machine is only used once it has matched the prover on at least one state
+		for (VerificationResult result : results) {
+			if (!result.isConsistent()) {
+				System.out.println(result.getMachineName() + " is not consistant: " + result.getDivergence());
+				candidates.remove(result.getMachineName());
+			} else if (result.getStatesChecked() == 0) {
+				System.out.println(result.getMachineName() + " could not be checked in time");
+				candidates.remove(result.getMachineName());
+			} else {
+				cache.setVerified(rules, implementations.get(result.getMachineName()));
+			}
+		}
+
+		CachedStateMachine best = null;
+		for (Map.Entry<String, StateMachine> candidate : candidates.entrySet()) {
+			CachedStateMachine sm = (CachedStateMachine) candidate.getValue();
+			System.out.println(candidate.getKey() + " Speed Test:");
+			double speed = sm.performSpeedTest(500);
+			if (best == null || speed > smSpeed) {
+				best = sm;
+				smSpeed = speed;
+				statemachinetype = candidate.getKey();
+				statemachineclass = implementations.get(candidate.getKey());
 			}
-		} else if (isPropNetConsistant) {
-			System.out.println("SimplePropNetStateMachine is not consistant");
-			System.out.println("Using PropNetStateMachine");
-			System.out.println("PropNet Speed Test:");
-			smSpeed = propnet.performSpeedTest(2500);
-			statemachinetype = "PropNetStateMachine";
-			return propnet;
-		} else if (isSimplePropNetConsistant) {
-			System.out.println("Using SimplePropNetStateMachine");
-			System.out.println("SimplePropNet Speed Test:");
-			smSpeed = simplepropnet.performSpeedTest(2500);
-			statemachinetype = "SimplePropNetStateMachine";
-			return simplepropnet;
-		} else {
-			System.out.println("Using ProverStateMachine");
+		}
+
+		if (best == null) {
 			System.out.println("ProverStateMachine Speed Test:");
 			smSpeed = prover.performSpeedTest(2500);
 			statemachinetype = "ProverStateMachine";
-			return prover;
+			statemachineclass = ProverStateMachine.class;
+			best = prover;
+
+			// Without a propnet, forward chaining may still beat the prover
+			try {
+				CachedStateMachine sm = new CachedStateMachine(new ForwardChainingStateMachine(), byteBudget);
+				sm.initialize(rules);
+				if (StateMachineVerifier.checkMachineConsistency(prover, sm, 100)) {
+					System.out.println("ForwardChainingStateMachine Speed Test:");
+					double speed = sm.performSpeedTest(2500);
+					if (speed > smSpeed) {
+						best = sm;
+						smSpeed = speed;
+						statemachinetype = "ForwardChainingStateMachine";
+						statemachineclass = ForwardChainingStateMachine.class;
+					}
+				} else {
+					System.out.println("ForwardChainingStateMachine is not consistant");
+				}
+			} catch (RuntimeException | StackOverflowError e) {
+				System.out.println("ForwardChainingStateMachine could not be built: " + e);
+			}
 		}
+		System.out.println("Using " + statemachinetype);
+		best.setByteBudget(CachedStateMachine.DEFAULT_BYTE_BUDGET);
+		flatPropNet = "FlatPropNetStateMachine".equals(statemachinetype) ? flat.getPropNet() : null;
+		return best;
 	}
 
 	// This is the default Sample Panel
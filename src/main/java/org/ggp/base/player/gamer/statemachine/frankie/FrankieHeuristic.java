@@ -1,6 +1,7 @@
 package org.ggp.base.player.gamer.statemachine.frankie;
 
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
@@ -139,6 +140,7 @@ class GoalProximityHeuristic extends FrankieHeuristic {
 class MonteCarloHeuristic extends FrankieHeuristic {
 
 	private int monte_carlo_count;
+	private Random random = new Random();
 
 	public MonteCarloHeuristic(double initialWeight, int count) {
 		super(initialWeight);
@@ -148,10 +150,11 @@ class MonteCarloHeuristic extends FrankieHeuristic {
 	@Override
 	double value(StateMachine stateMachine, Role role, MachineState state) throws MoveDefinitionException, TransitionDefinitionException {
 		int total = 0;
+		Role[] roles = {role};
+		int[] reward = new int[1];
 		for(int i = 0; i < monte_carlo_count; i++){
-			MachineState mcFinalState = stateMachine.performDepthCharge(state, null);
 			try{
-				total += stateMachine.findReward(role, mcFinalState);
+				total += stateMachine.rollout(state, roles, random, reward)[0];
 			}
 			catch (GoalDefinitionException e){
 				System.out.println("GoalDefinitionException in Monte Carlo");
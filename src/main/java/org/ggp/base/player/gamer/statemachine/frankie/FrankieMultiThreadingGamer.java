@@ -58,26 +58,17 @@ public class FrankieMultiThreadingGamer extends FrankieGamer {
 		turn = 0;
 
 		// Initialize statemachines for other threads
-		ExecutorService executor = Executors.newFixedThreadPool(nThreads/2);
-		CompletionService<StateMachine> completionService = new ExecutorCompletionService<StateMachine>(executor);
-
 		machines = new ArrayList<StateMachine>();
-		for(int i = 0; i<nThreads; i++){
-			PropNetInitThread propThread = new PropNetInitThread(statemachinetype, getMatch().getGame().getRules());
-			completionService.submit(propThread);
+		if (flatPropNet != null) {
+			// One thread-safe machine over the already built net serves every thread
+			StateMachine shared = new SharedPropNetStateMachine(flatPropNet);
+			for (int i = 0; i < nThreads; i++) {
+				machines.add(shared);
+			}
+		} else {
+			buildMachines();
 		}
 
-		try {
-            for (int i = 0;  i < nThreads; i++) {
-                Future<StateMachine> fRave = completionService.take();	//take is a blocking method
-                machines.add(fRave.get());
-            }
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        } catch (ExecutionException e) {
-            e.printStackTrace();
-        }
-
 		nThreads = machines.size();
 		System.out.println("nThreads: " + nThreads);
 
@@ -95,6 +86,28 @@ public class FrankieMultiThreadingGamer extends FrankieGamer {
 		}
 	}
 
+	// Builds a separate state machine per thread from the game rules
+	private void buildMachines() {
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads/2);
+		CompletionService<StateMachine> completionService = new ExecutorCompletionService<StateMachine>(executor);
+
+		for(int i = 0; i<nThreads; i++){
+			PropNetInitThread propThread = new PropNetInitThread(statemachineclass, getMatch().getGame().getRules());
+			completionService.submit(propThread);
+		}
+
+		try {
+            for (int i = 0;  i < nThreads; i++) {
+                Future<StateMachine> fRave = completionService.take();	//take is a blocking method
+                machines.add(fRave.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+	}
+
 	// ----- Select Move ----- //
 	@Override
 	public Move stateMachineSelectMove(long timeout)
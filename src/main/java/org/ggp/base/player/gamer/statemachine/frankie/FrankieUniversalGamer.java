@@ -52,7 +52,7 @@ public class FrankieUniversalGamer extends FrankieGamer {
 		else System.out.println("Single-Player Game");
 
 		//searchFn = new RAVEMonteCarloTreeSearch(stateMachine, agent, timer);
-		searchFn = new MonteCarloTreeSearch(stateMachine, agent, timer);
+		searchFn = new TranspositionMonteCarloTreeSearch(stateMachine, agent, timer);
 
 		// Start computing the game tree during meta game
 		searchFn.metaGame(getCurrentState());
@@ -14,20 +14,36 @@ import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
+/**
+ * One worker of TreeMultiThreadedMonteCarloTreeSearch. All workers share a
+ * single tree of ConcurrentNodes and never lock it.
+ *
+ * On the way down, each node on the path gets virtualLoss extra visits that
+ * score as losses, so concurrent workers see the path as worse and spread
+ * out over the tree. Backprop replaces them with the real result.
+ */
 public class MCTSThread implements Callable<Integer> {
+	// Virtual losses added per pending simulation; 0 turns the mechanism off
+	public static final int DEFAULT_VIRTUAL_LOSS = 1;
+
 	Timer timer;
-	Node root;
+	ConcurrentNode root;
 	StateMachine stateMachine;
 	Role agent;
+	Role[] agentRole;
+	int[] agentReward = new int[1];
 	Random randomizer = new Random();
 	double C;
+	int virtualLoss;
 
-	MCTSThread(StateMachine sm, Role a, Timer t, Node r, double explorationConstant){
+	public MCTSThread(StateMachine sm, Role a, Timer t, ConcurrentNode r, double explorationConstant, int vl){
 		stateMachine = sm;
 		agent = a;
+		agentRole = new Role[] {a};
 		timer = t;
 		root = r;
 		C = explorationConstant;
+		virtualLoss = vl;
 	}
 
 	@Override
@@ -35,13 +51,18 @@ public class MCTSThread implements Callable<Integer> {
 		try{
 			Integer numDepthCharges = 0;
 			while(!timer.isOutOfTime()) {
-				Node node_to_expand = select(root);
-				if(timer.isOutOfTime()) break;
-				Node node_to_evaluate = expand(node_to_expand);
-				if(timer.isOutOfTime()) break;
-				double score = simulate(node_to_evaluate);
-				if(timer.isOutOfTime()) break;
-				backprop(node_to_evaluate, score);
+				ConcurrentNode node_to_expand = select(root);
+				// Whatever goes wrong below, the path must not keep its virtual loss
+				ConcurrentNode node_to_evaluate = node_to_expand;
+				boolean backedUp = false;
+				try {
+					node_to_evaluate = expand(node_to_expand);
+					double score = simulate(node_to_evaluate);
+					backprop(node_to_evaluate, score);
+					backedUp = true;
+				} finally {
+					if(!backedUp) removeVirtualLoss(node_to_evaluate);
+				}
 				numDepthCharges++;
 			}
 
@@ -53,74 +74,97 @@ public class MCTSThread implements Callable<Integer> {
 		}
 	}
 
-	Node select(Node node) throws MoveDefinitionException{
-		//System.out.println("select");
-		if(node.children.size() == 0) return node;
-		if(node.visits == 0) return node;
-
-		// Evenly search each child to an arbitrary threshold
-		for(Node child : node.children){
-			if(child.visits==0)
-				return child;
-		}
+	// Walks down iteratively, putting virtual loss on every node it enters
+	ConcurrentNode select(ConcurrentNode node) {
+		while(true) {
+			node.addVirtualLoss(virtualLoss);
+			ConcurrentNode[] children = node.getChildren();
+			if(children == null || children.length == 0) return node;
+			if(node.getVisits() == 0) return node;
+
+			// Evenly search each child to an arbitrary threshold, skipping ones another thread is already in
+			ConcurrentNode result = null;
+			for(ConcurrentNode child : children){
+				if(child.getVisits() + child.getVirtualLoss() == 0) {
+					result = child;
+					break;
+				}
+			}
 
-		// Some epsilon greediness to help exploration
-		Node result = null;
-		if(randomizer.nextDouble() < 0.05){
-			result = node.children.get(randomizer.nextInt(node.children.size()));
-			select(result);
-		}
+			// Some epsilon greediness to help exploration
+			if(result == null && randomizer.nextDouble() < 0.05){
+				result = children[randomizer.nextInt(children.length)];
+			}
 
-		// If all children have been visited, select a child to recurse on
-		double score = -Double.MAX_VALUE;
-		for(Node child : node.children){
-			double newscore = selectfn(child);
-			if (newscore > score) {
-				score = newscore;
-				result = child;
+			// If all children have been visited, select a child to recurse on
+			if(result == null) {
+				boolean min = node.isMin();
+				double parentVisits = node.getVisits() + node.getVirtualLoss();
+				double score = -Double.MAX_VALUE;
+				for(ConcurrentNode child : children){
+					double newscore = selectfn(child, min, parentVisits);
+					if (newscore > score) {
+						score = newscore;
+						result = child;
+					}
+				}
 			}
+			node = result;
 		}
-		return select(result);
 	}
 
-	double selectfn(Node node) throws MoveDefinitionException{
+	double selectfn(ConcurrentNode node, boolean parentIsMin, double parentVisits) {
+		// Pending simulations count as visits that scored a loss for whoever moves at the parent
+		int vl = node.getVirtualLoss();
+		double visits = node.getVisits() + vl;
+		double value = (node.getUtility() + (parentIsMin ? 100.0 * vl : 0.0)) / visits;
 		// A formula based on Lower Confidence Bounds (How pessimistic we are when its our opponents turn)
-		if(node.parent.isMin(stateMachine, agent)){
-			return -1*(node.get_value() - C*Math.sqrt(Math.log(node.parent.visits)/node.visits));
+		if(parentIsMin){
+			return -1*(value - C*Math.sqrt(Math.log(parentVisits)/visits));
 		}
 		// A formula based on Upper Confidence Bounds (How optimistic we are when its our turn)
-		return node.get_value() + C*Math.sqrt(Math.log(node.parent.visits)/node.visits);
+		return value + C*Math.sqrt(Math.log(parentVisits)/visits);
 	}
 
-	Node expand(Node node) throws MoveDefinitionException, TransitionDefinitionException {
-		// First check if this node is a terminal node. If it is, return it.
-		if (stateMachine.isTerminal(node.state)) {
-			return node;
-		}
-
-		// Create child nodes from all joint legal moves. NOTE: could be expensive
-		List<Move> actions = stateMachine.findLegals(agent, node.state);
+	ConcurrentNode expand(ConcurrentNode node) throws MoveDefinitionException, TransitionDefinitionException {
+		// Only one thread expands a node; the others simulate from it as a leaf meanwhile
+		if(!node.claimExpansion()) return node;
+
+		List<Move> actions;
+		List<ConcurrentNode> children = new ArrayList<ConcurrentNode>();
+		try {
+			// First check if this node is a terminal node. If it is, return it.
+			if (stateMachine.isTerminal(node.state)) {
+				node.publishChildren(new ConcurrentNode[0], false);
+				return node;
+			}
 
-		synchronized(node.children) {
+			// Create child nodes from all joint legal moves. NOTE: could be expensive
+			actions = stateMachine.findLegals(agent, node.state);
 			for(Move action: actions) {
 				List<List<Move>> joint_move_list = stateMachine.getLegalJointMoves(node.state, agent, action);
 				for(List<Move> joint_move : joint_move_list) {
 					MachineState newstate = stateMachine.getNextState(node.state, joint_move);
-					Node newnode = new Node(newstate, node, action);
-					node.children.add(newnode);
+					children.add(new ConcurrentNode(newstate, node, action));
 				}
 			}
+		} catch(MoveDefinitionException | TransitionDefinitionException | RuntimeException e) {
+			// Let the next thread to get here try again
+			node.releaseExpansion();
+			throw e;
 		}
+		node.publishChildren(children.toArray(new ConcurrentNode[children.size()]), actions.size() == 1);
 
 		// Randomly return one of the child nodes
-		return node.children.get(new Random().nextInt(node.children.size()));
+		ConcurrentNode child = children.get(randomizer.nextInt(children.size()));
+		child.addVirtualLoss(virtualLoss);
+		return child;
 	}
 
-	double simulate(Node node) throws MoveDefinitionException, TransitionDefinitionException {
+	double simulate(ConcurrentNode node) throws MoveDefinitionException, TransitionDefinitionException {
 		double reward = 0.0;
-		MachineState mcFinalState = stateMachine.performDepthCharge(node.state, null);
 		try{
-			reward = stateMachine.findReward(agent, mcFinalState);
+			reward = stateMachine.rollout(node.state, agentRole, randomizer, agentReward)[0];
 		}
 		catch (GoalDefinitionException e){
 			System.out.println("GoalDefinitionException in Monte Carlo");
@@ -128,17 +172,19 @@ public class MCTSThread implements Callable<Integer> {
 		return reward;
 	}
 
-	void backprop(Node node, double score) {
-		synchronized(node.visits){
-			node.visits = node.visits + 1;
-		}
-		synchronized(node.utility){
-			node.utility = node.utility + score;
-		}
-		if(node.parent != null) {
-			backprop(node.parent, score);
+	void backprop(ConcurrentNode node, double score) {
+		while(node != null) {
+			node.update(score, virtualLoss);
+			node = node.parent;
 		}
+	}
 
+	// Takes back the virtual loss of a simulation that never got backed up
+	void removeVirtualLoss(ConcurrentNode node) {
+		while(node != null) {
+			node.addVirtualLoss(-virtualLoss);
+			node = node.parent;
+		}
 	}
 }
 
@@ -148,12 +194,15 @@ class AsyncMCTSThread implements Callable<Integer> {
 	Node root;
 	StateMachine stateMachine;
 	Role agent;
+	Role[] agentRole;
+	int[] agentReward = new int[1];
 	Random randomizer = new Random();
 	double C;
 
 	AsyncMCTSThread(StateMachine sm, Role a, Timer t, Node r, double explorationConstant){
 		stateMachine = sm;
 		agent = a;
+		agentRole = new Role[] {a};
 		timer = t;
 		root = r;
 		C = explorationConstant;
@@ -247,9 +296,8 @@ class AsyncMCTSThread implements Callable<Integer> {
 
 	double simulate(Node node) throws MoveDefinitionException, TransitionDefinitionException {
 		double reward = 0.0;
-		MachineState mcFinalState = stateMachine.performDepthCharge(node.state, null);
 		try{
-			reward = stateMachine.findReward(agent, mcFinalState);
+			reward = stateMachine.rollout(node.state, agentRole, randomizer, agentReward)[0];
 		}
 		catch (GoalDefinitionException e){
 			System.out.println("GoalDefinitionException in Monte Carlo");
@@ -2,6 +2,7 @@ package org.ggp.base.player.gamer.statemachine.frankie;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.statemachine.StateMachine;
@@ -9,31 +10,24 @@ import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
 
 public class PropNetInitThread implements Callable<StateMachine>{
 
-	String statemachinetype;
+	Class<? extends StateMachine> statemachineclass;
 	List<Gdl> gameRules;
 
-	PropNetInitThread(String smt, List<Gdl> rules){
-		statemachinetype = smt;
+	PropNetInitThread(Class<? extends StateMachine> smc, List<Gdl> rules){
+		statemachineclass = smc;
 		gameRules = rules;
 	}
 
 	@Override
 	public StateMachine call() throws Exception {
-		StateMachine sm = null;
+		StateMachine sm;
 
-		System.out.println("Creating instance of "+ statemachinetype);
-		if(statemachinetype == "PropNetStateMachine"){
-			sm = new PropNetStateMachine();
-		}
-		else if (statemachinetype == "ProverStateMachine"){
-			sm = new ProverStateMachine();
-		}
-		else if (statemachinetype == "SimplePropNetStateMachine"){
-			sm = new SimplePropNetStateMachine();
+		System.out.println("Creating instance of "+ statemachineclass.getSimpleName());
+		if (statemachineclass == ProverStateMachine.class){
+			sm = new ProverStateMachine(FrankieGamer.PROVER_TABLED_STATES, ForkJoinPool.commonPool());
 		}
 		else{
-			System.out.println("STATE MACHINE TYPE NOT RECOGNIZED");
-			assert(false);
+			sm = statemachineclass.getDeclaredConstructor().newInstance();
 		}
 
 		sm.initialize(gameRules);
@@ -1,10 +1,13 @@
 package org.ggp.base.player.gamer.statemachine.frankie;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -22,7 +25,8 @@ import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.Constant;
 import org.ggp.base.util.propnet.architecture.components.Not;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
-import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
+import org.ggp.base.util.statemachine.BitSetMachineState;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -30,7 +34,6 @@ import org.ggp.base.util.statemachine.StateMachine;
 import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
 import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
-import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
 
 public class PropNetStateMachine extends StateMachine {
     /** The underlying proposition network  */
@@ -38,9 +41,28 @@ public class PropNetStateMachine extends StateMachine {
     /** The player roles */
     private List<Role> roles;
 
+    // Base and input propositions by ordinal. States are bitsets over the base ordinals.
+    private Proposition[] baseProps;
+    private GdlSentence[] baseSentences;
+    private Map<GdlSentence, Integer> baseIndices;
+    private long[] baseKeys;
+    private Proposition[] inputProps;
+    private List<Map<Move, Integer>> inputIndices;
+    private long[] emptyBases;
+
+    // Per role, for rollouts: legal propositions with the input ordinal each enables (or -1), and goals
+    private Proposition[][] legalProps;
+    private int[][] legalInputs;
+    private Proposition[][] goalProps;
+    private int[][] goalValues;
+    private long[] rolloutBases;
+    private long[] spareBases;
+
     // Takes advantage of locality between states
-    private Set<GdlSentence> prevBases;
-	private Set<GdlSentence> prevInputs;
+    private long[] prevBases;
+    private long prevHash;	// Zobrist hash of prevBases
+	private long[] prevInputs;
+	private long[] nextInputs;
 
 	private Set<Component> constants = new HashSet<Component>();
 
@@ -53,24 +75,84 @@ public class PropNetStateMachine extends StateMachine {
     public void initialize(List<Gdl> description) {
         try {
         	description = sanitizeDistinct(description);
-			propNet = OptimizingPropNetFactory.create(description);
-
-			for (Component c : propNet.getComponents()) {
-				c.crystalize();
-				if(c instanceof Constant && c.getInputC().length<1) constants.add(c);
-			}
-			roles = propNet.getRoles();
-
-			initPropnetVars();
-
+			initialize(PropNetCache.getDefault().create(description));
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Initializes the machine over an already-built propnet, so that other
+     * machines can fall back to this one without rebuilding the net.
+     */
+    void initialize(PropNet net) {
+    	propNet = net;
+		for (Component c : propNet.getComponents()) {
+			c.crystalize();
+			if(c instanceof Constant && c.getInputC().length<1) constants.add(c);
+		}
+		roles = propNet.getRoles();
+
+		initPropnetVars();
+		// Marks the empty state, which markbases takes its differences from
+		clearpropnet();
+    }
+
     private void initPropnetVars(){
-    	prevBases = new HashSet<GdlSentence>();
-		prevInputs = new HashSet<GdlSentence>();
+		Map<GdlSentence, Proposition> baseMap = propNet.getBasePropositions();
+		baseProps = new Proposition[baseMap.size()];
+		baseSentences = new GdlSentence[baseMap.size()];
+		baseIndices = new HashMap<GdlSentence, Integer>();
+		baseKeys = new long[baseMap.size()];
+		for (Proposition p : baseMap.values()) {
+			int i = baseIndices.size();
+			baseProps[i] = p;
+			baseSentences[i] = p.getName();
+			baseKeys[i] = p.getZobristKey();
+			baseIndices.put(p.getName(), i);
+		}
+		emptyBases = new long[BitSetMachineState.wordsFor(baseProps.length)];
+		prevBases = emptyBases;
+
+		Map<GdlSentence, Proposition> inputMap = propNet.getInputPropositions();
+		inputProps = new Proposition[inputMap.size()];
+		inputIndices = new ArrayList<Map<Move, Integer>>(roles.size());
+		for (int r = 0; r < roles.size(); r++) {
+			inputIndices.add(new HashMap<Move, Integer>());
+		}
+		Map<Role, Integer> roleIndices = getRoleIndices();
+		int n = 0;
+		for (Proposition p : inputMap.values()) {
+			inputProps[n] = p;
+			Integer r = roleIndices.get(new Role((GdlConstant) p.getName().get(0)));
+			if (r != null) inputIndices.get(r).put(getMoveFromProposition(p), n);
+			n++;
+		}
+		prevInputs = new long[BitSetMachineState.wordsFor(inputProps.length)];
+		nextInputs = new long[prevInputs.length];
+
+		legalProps = new Proposition[roles.size()][];
+		legalInputs = new int[roles.size()][];
+		goalProps = new Proposition[roles.size()][];
+		goalValues = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			Set<Proposition> legals = propNet.getLegalPropositions().get(roles.get(r));
+			legalProps[r] = legals.toArray(new Proposition[legals.size()]);
+			legalInputs[r] = new int[legalProps[r].length];
+			for (int l = 0; l < legalProps[r].length; l++) {
+				Integer input = inputIndices.get(r).get(getMoveFromProposition(legalProps[r][l]));
+				legalInputs[r][l] = (input == null) ? -1 : input;
+			}
+			Set<Proposition> goals = propNet.getGoalPropositions().get(roles.get(r));
+			goalProps[r] = goals.toArray(new Proposition[goals.size()]);
+			goalValues[r] = new int[goalProps[r].length];
+			for (int g = 0; g < goalProps[r].length; g++) {
+				goalValues[r][g] = Integer.parseInt(goalProps[r][g].getName().get(1).toString());
+			}
+		}
+		rolloutBases = new long[emptyBases.length];
+		spareBases = new long[emptyBases.length];
+
 		Collection<Proposition> bases = propNet.getBasePropositions().values();
 		Collection<Proposition> inputs = propNet.getInputPropositions().values();
 		for (Proposition p : propNet.getPropositions()) {
@@ -131,7 +213,7 @@ public class PropNetStateMachine extends StateMachine {
     @Override
     public boolean isTerminal(MachineState state) {
     	//System.out.println("isTerminal");
-    	markbases(state.getContents());
+    	markbases(state);
 		return propNet.getTerminalProposition().getValue();
     }
 
@@ -145,7 +227,7 @@ public class PropNetStateMachine extends StateMachine {
     @Override
     public int getGoal(MachineState state, Role role)
             throws GoalDefinitionException {
-    	markbases(state.getContents());
+    	markbases(state);
     	Set<Proposition> goals = propNet.getGoalPropositions().get(role);
     	for (Proposition p : goals) {
 			if (p.getValue()) return Integer.parseInt(p.getName().get(1).toString());
@@ -154,24 +236,26 @@ public class PropNetStateMachine extends StateMachine {
     }
 
     /**
-     * Returns the initial state. The initial state can be computed
-     * by only setting the truth value of the INIT proposition to true,
-     * and then computing the resulting state.
+     * Returns the initial state. The factory records it from the init rules;
+     * propagating INIT alone would also turn on every base whose next rules
+     * hold in the empty state, since INIT is ORed into the transitions. Nets
+     * built without it fall back to setting the INIT proposition.
      */
     @Override
     public MachineState getInitialState() {
     	//System.out.println("GetInitialState");
+    	if (propNet.getInitialState() != null) {
+    		return getMachineStateFromSentenceList(propNet.getInitialState());
+    	}
     	clearpropnet();
+    	if (propNet.getInitProposition() == null) {
+    		// Without INIT, the initial state is whatever follows from the empty bases
+    		return getStateFromTransitions();
+    	}
     	propNet.getInitProposition().setValue(true);
     	propNet.getInitProposition().diffProp(true);
 
-		Map<GdlSentence, Proposition> bases = propNet.getBasePropositions();
-		Set<GdlSentence> nexts = new HashSet<GdlSentence>();
-		for (GdlSentence s : bases.keySet()) {
-			if (bases.get(s).getSingleInputC().getValue())
-				nexts.add(s);
-		}
-		MachineState initial = new MachineState(nexts);
+		MachineState initial = getStateFromTransitions();
 
 		propNet.getInitProposition().setValue(false);
 		propNet.getInitProposition().diffProp(false);
@@ -206,8 +290,7 @@ public class PropNetStateMachine extends StateMachine {
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role)
             throws MoveDefinitionException {
-    	clearpropnet();	// For some stupid reason, necessary for multithreading
-    	markbases(state.getContents());
+    	markbases(state);
     	Map<Role, Set<Proposition>> legalPropositions = propNet.getLegalPropositions();
     	Set<Proposition> legals = legalPropositions.get(role);
 		List<Move> moves = new ArrayList<Move>(legals.size());
@@ -225,50 +308,82 @@ public class PropNetStateMachine extends StateMachine {
     @Override
     public MachineState getNextState(MachineState state, List<Move> moves)
             throws TransitionDefinitionException {
-    	markbases(state.getContents());
-		markactions(toDoes(moves));
-		Map<GdlSentence, Proposition> bases = propNet.getBasePropositions();
-
-		Set<GdlSentence> nexts = new HashSet<GdlSentence>();
-
-		for (GdlSentence s : bases.keySet()) {
-			if (bases.get(s).getSingleInputC().getValue()) nexts.add(s);
-		}
-		return new MachineState(nexts);
+    	markbases(state);
+		markactions(moves);
+		return getStateFromTransitions();
     }
 
-    /* Already implemented for you */
+    /**
+     * Plays the whole rollout on the propnet itself: each role's move is
+     * picked by position among its true legal propositions and switched on
+     * directly as an input, and successor states are read into scratch
+     * arrays instead of new MachineStates.
+     */
     @Override
-    public List<Role> getRoles() {
-        return roles;
+    public int[] rollout(MachineState state, Role[] roles, Random random, int[] goals)
+            throws MoveDefinitionException, GoalDefinitionException {
+    	markbases(state);
+    	Proposition terminal = propNet.getTerminalProposition();
+    	while (!terminal.getValue()) {
+    		Arrays.fill(nextInputs, 0L);
+    		for (int r = 0; r < legalProps.length; r++) {
+    			Proposition[] legals = legalProps[r];
+    			int count = 0;
+    			for (int l = 0; l < legals.length; l++) {
+    				if (markpropv(legals[l])) count++;
+    			}
+    			if (count == 0) throw new MoveDefinitionException(getMarkedState(), this.roles.get(r));
+    			int pick = random.nextInt(count);
+    			int l = 0;
+    			while (!markpropv(legals[l]) || pick-- > 0) l++;
+    			int input = legalInputs[r][l];
+    			if (input >= 0) nextInputs[input >>> 6] |= 1L << input;
+    		}
+    		markinputs();
+    		long[] bits = (prevBases == rolloutBases) ? spareBases : rolloutBases;
+    		readTransitions(bits);
+    		markbases(bits, BitSetMachineState.rehash(prevHash, prevBases, bits, baseKeys));
+    	}
+    	for (int i = 0; i < roles.length; i++) {
+    		int r = getRoleIndices().get(roles[i]);
+    		int g = 0;
+    		while (g < goalProps[r].length && !goalProps[r][g].getValue()) g++;
+    		if (g == goalProps[r].length) throw new GoalDefinitionException(getMarkedState(), roles[i]);
+    		goals[i] = goalValues[r][g];
+    	}
+    	return goals;
     }
 
-    /* Helper methods */
+    // Only for error reports from a rollout, whose bases are in a scratch array
+    private MachineState getMarkedState() {
+    	return new BitSetMachineState(baseSentences, prevBases.clone(), prevHash);
+    }
 
     /**
-     * The Input propositions are indexed by (does ?player ?action).
-     *
-     * This translates a list of Moves (backed by a sentence that is simply ?action)
-     * into GdlSentences that can be used to get Propositions from inputPropositions.
-     * and accordingly set their values etc.  This is a naive implementation when coupled with
-     * setting input values, feel free to change this for a more efficient implementation.
-     *
-     * @param moves
-     * @return
+     * Builds a bit-packed state from the values currently feeding the
+     * base propositions' transitions.
      */
-    private Set<GdlSentence> toDoes(List<Move> moves)
-    {
-    	Set<GdlSentence> doeses = new HashSet<GdlSentence>(moves.size());
-		Map<Role, Integer> roleIndices = getRoleIndices();
+    private MachineState getStateFromTransitions() {
+    	long[] bits = new long[emptyBases.length];
+    	readTransitions(bits);
+    	// Only the bases that changed since the marked state touch the hash
+    	return new BitSetMachineState(baseSentences, bits, BitSetMachineState.rehash(prevHash, prevBases, bits, baseKeys));
+    }
 
-		for (int i = 0; i < roles.size(); i++) {
+    @Override
+    public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+    	long[] bits = toBits(sentenceList);
+    	return new BitSetMachineState(baseSentences, bits, BitSetMachineState.rehash(0L, emptyBases, bits, baseKeys));
+    }
 
-			int index = roleIndices.get(roles.get(i));
-			doeses.add(ProverQueryBuilder.toDoes(roles.get(i), moves.get(index)));
-		}
-		return doeses;
+    /* Already implemented for you */
+    @Override
+    public List<Role> getRoles() {
+        return roles;
     }
 
+    /* Helper methods */
+
     /**
      * Takes in a Legal Proposition and returns the appropriate corresponding Move
      * @param p
@@ -312,41 +427,76 @@ public class PropNetStateMachine extends StateMachine {
         return new MachineState(contents);
     }
 
+    private void readTransitions(long[] bits) {
+    	Arrays.fill(bits, 0L);
+    	for (int i = 0; i < baseProps.length; i++) {
+    		if (baseProps[i].getSingleInputC().getValue())
+    			bits[i >>> 6] |= 1L << i;
+    	}
+    }
+
     // Helper Functions. Pseudo code from chapter 10
-    private void markbases(Set<GdlSentence> contents){
-    	Set<GdlSentence> nowFalse = new HashSet<GdlSentence>(prevBases);
-		Set<GdlSentence> nowTrue = new HashSet<GdlSentence>(contents);
-		nowFalse.removeAll(contents);
-		nowTrue.removeAll(prevBases);
+    private long[] toBits(Set<GdlSentence> contents){
+    	long[] bits = new long[emptyBases.length];
+    	for (GdlSentence s : contents) {
+    		Integer i = baseIndices.get(s);
+    		if (i != null) bits[i >>> 6] |= 1L << i;
+    	}
+    	return bits;
+    }
 
-		Map<GdlSentence, Proposition> bases = propNet.getBasePropositions();
+    // Only the bases whose bits differ from the previous marking are touched.
+    private void markbases(MachineState state){
+    	long[] bits;
+    	long hash;
+    	if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getBaseSentences() == baseSentences) {
+    		bits = ((BitSetMachineState) state).getBits();
+    		hash = state.getZobristHash();
+    	} else {
+    		bits = toBits(state.getContents());
+    		hash = BitSetMachineState.rehash(0L, emptyBases, bits, baseKeys);
+    	}
+    	markbases(bits, hash);
+    }
 
-		for (GdlSentence p : nowFalse) {
-			bases.get(p).setValue(false);
-			bases.get(p).start();
-		}
-		for (GdlSentence p : nowTrue) {
-			bases.get(p).setValue(true);
-			bases.get(p).start();
-		}
-		prevBases = contents;
+    private void markbases(long[] bits, long hash){
+    	for (int w = 0; w < bits.length; w++) {
+    		long diff = bits[w] ^ prevBases[w];
+    		while (diff != 0) {
+    			int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+    			Proposition p = baseProps[i];
+    			p.setValue((bits[w] & (1L << i)) != 0);
+    			p.start();
+    			diff &= diff - 1;
+    		}
+    	}
+    	prevBases = bits;
+    	prevHash = hash;
     }
 
-    private void markactions(Set<GdlSentence> does){
-    	Set<GdlSentence> nowFalse = new HashSet<GdlSentence>(prevInputs);
-		Set<GdlSentence> nowTrue = new HashSet<GdlSentence>(does);
-		nowFalse.removeAll(does);
-		nowTrue.removeAll(prevInputs);
-		Map<GdlSentence, Proposition> bases = propNet.getInputPropositions();
-		for (GdlSentence p : nowFalse) {
-			bases.get(p).setValue(false);
-			bases.get(p).start();
-		}
-		for (GdlSentence p : nowTrue) {
-			bases.get(p).setValue(true);
-			bases.get(p).start();
-		}
-		prevInputs = does;
+    private void markactions(List<Move> moves){
+    	Arrays.fill(nextInputs, 0L);
+    	for (int r = 0; r < roles.size(); r++) {
+    		Integer i = inputIndices.get(r).get(moves.get(r));
+    		if (i != null) nextInputs[i >>> 6] |= 1L << i;
+    	}
+    	markinputs();
+    }
+
+    private void markinputs(){
+    	for (int w = 0; w < nextInputs.length; w++) {
+    		long diff = nextInputs[w] ^ prevInputs[w];
+    		while (diff != 0) {
+    			int i = (w << 6) + Long.numberOfTrailingZeros(diff);
+    			Proposition p = inputProps[i];
+    			p.setValue((nextInputs[w] & (1L << i)) != 0);
+    			p.start();
+    			diff &= diff - 1;
+    		}
+    	}
+    	long[] swap = prevInputs;
+    	prevInputs = nextInputs;
+    	nextInputs = swap;
     }
 
     private void clearpropnet(){
@@ -358,12 +508,17 @@ public class PropNetStateMachine extends StateMachine {
 		for (Component s : nots) {
 			s.diffProp(true);
 		}
-		prevBases = new HashSet<GdlSentence>();
-		prevInputs = new HashSet<GdlSentence>();
+		// Gates count their true inputs, so only true constants are pushed
+		for (Component s : constants) {
+			if (s.getValue()) s.diffProp(true);
+		}
+		prevBases = emptyBases;
+		prevHash = 0L;
+		Arrays.fill(prevInputs, 0L);
     }
 
     // Helpers from piazza
-    private void sanitizeDistinctHelper(Gdl gdl, List<Gdl> in, List<Gdl> out) {
+    private static void sanitizeDistinctHelper(Gdl gdl, List<Gdl> in, List<Gdl> out) {
         if (!(gdl instanceof GdlRule)) {
             out.add(gdl);
             return;
@@ -396,7 +551,7 @@ public class PropNetStateMachine extends StateMachine {
         out.add(rule);
     }
 
-    private List<Gdl> sanitizeDistinct(List<Gdl> description) {
+    static List<Gdl> sanitizeDistinct(List<Gdl> description) {
         List<Gdl> out = new ArrayList<>();
         for (int i = 0; i < description.size(); i++) {
             sanitizeDistinctHelper(description.get(i), description, out);
@@ -0,0 +1,152 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.List;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * A RAVE search tree node. Its statistics live in parallel primitive
+ * arrays with one slot per edge, i.e. per joint move out of the node:
+ * n and q count and average the simulations that took the edge, nBar and
+ * qBar the simulations that played the edge's moves anywhere below the
+ * node (all-moves-as-first).
+ *
+ * Moves are action ids, so an AMAF update tests each edge against the
+ * bitset of ids a simulation played, with no lookups and no allocation.
+ *
+ * Several threads can search through one tree. Every access to a node's
+ * arrays synchronizes on the node; a thread never holds two nodes' locks.
+ */
+public class RAVENode {
+	// Every edge starts out as if it had been tried once, as an even game
+	static final int PRIOR_VISITS = 1;
+	static final double PRIOR_VALUE = 50.0;
+
+	final MachineState state;
+	final boolean terminal;
+	final boolean min;
+	final List<List<Move>> jointMoves;
+	final Move[] agentMoves;	// Our agent's move along each edge
+	final int[] moveIds;		// Role r's action id along edge e is moveIds[e * numRoles + r]
+	final boolean[] choosing;	// Roles with more than one legal move; only their moves count for AMAF
+	final int numRoles;
+
+	private int visits;
+	private final int[] n;
+	private final int[] nBar;
+	private final double[] q;
+	private final double[] qBar;
+	private final RAVENode[] children;
+
+	RAVENode(MachineState s, boolean isTerminal, boolean isMin, List<List<Move>> joints, Move[] agentMoves,
+			int[] moveIds, boolean[] choosing) {
+		state = s;
+		terminal = isTerminal;
+		min = isMin;
+		jointMoves = joints;
+		this.agentMoves = agentMoves;
+		this.moveIds = moveIds;
+		this.choosing = choosing;
+		numRoles = choosing.length;
+
+		int edges = agentMoves.length;
+		n = new int[edges];
+		nBar = new int[edges];
+		q = new double[edges];
+		qBar = new double[edges];
+		children = new RAVENode[edges];
+		for (int e = 0; e < edges; e++) {
+			n[e] = PRIOR_VISITS;
+			nBar[e] = PRIOR_VISITS;
+			q[e] = PRIOR_VALUE;
+			qBar[e] = PRIOR_VALUE;
+		}
+	}
+
+	int edges() {
+		return agentMoves.length;
+	}
+
+	synchronized int getVisits() {
+		return visits;
+	}
+
+	synchronized int getVisits(int e) {
+		return n[e];
+	}
+
+	private double evalfn(int e, double c, double b) {
+		double beta = nBar[e] / (n[e] + nBar[e] + 4 * n[e] * nBar[e] * b * b);
+		double rave = (1 - beta) * q[e] + beta * qBar[e];
+		if (c != 0) {
+			rave += c * Math.sqrt(2 * Math.log(visits) / n[e]);
+		}
+		return rave;
+	}
+
+	/**
+	 * Picks the edge to follow and counts the visit right away, so that
+	 * other threads see the edge as explored while this simulation runs.
+	 * The score is added by {@link #update} when the simulation finishes.
+	 */
+	synchronized int select(double c, double b) {
+		visits++;
+		int best = best(c, b);
+		n[best]++;
+		return best;
+	}
+
+	/** The best edge by RAVE value, maximizing or minimizing by whose turn it is */
+	synchronized int best(double c, double b) {
+		int best = 0;
+		double bestval = min ? Double.MAX_VALUE : -Double.MAX_VALUE;
+		for (int e = 0; e < agentMoves.length; e++) {
+			double val = evalfn(e, min ? -c : c, b);
+			if (min ? val < bestval : val > bestval) {
+				bestval = val;
+				best = e;
+			}
+		}
+		return best;
+	}
+
+	synchronized double getValue(int e, double b) {
+		return evalfn(e, 0, b);
+	}
+
+	synchronized RAVENode getChild(int e) {
+		return children[e];
+	}
+
+	/** Sets the child along edge e unless another thread got there first; returns the one in place */
+	synchronized RAVENode putChild(int e, RAVENode child) {
+		if (children[e] == null) children[e] = child;
+		return children[e];
+	}
+
+	/**
+	 * Adds a simulation's score to the edge it took, which select already
+	 * counted, and to the AMAF statistics of every edge whose moves were
+	 * all among those seen below this node.
+	 */
+	synchronized void update(int taken, double score, long[] seen) {
+		q[taken] += (score - q[taken]) / n[taken];
+
+		boolean anyChoice = false;
+		for (int r = 0; r < numRoles; r++) anyChoice |= choosing[r];
+		if (!anyChoice) return;
+		for (int e = 0; e < agentMoves.length; e++) {
+			boolean played = true;
+			for (int r = 0; r < numRoles && played; r++) {
+				if (!choosing[r]) continue;
+				int id = moveIds[e * numRoles + r];
+				played = id >= 0 && (seen[id >>> 6] & (1L << id)) != 0;
+			}
+			if (played) {
+				nBar[e]++;
+				qBar[e] += (score - qBar[e]) / nBar[e];
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * A thread-safe propnet state machine. The FlatPropNet topology is built
+ * once and shared; each thread that queries the machine gets its own
+ * FlatPropNetStateMachine fork, holding that thread's marking, the first
+ * time it calls in.
+ *
+ * One instance can therefore be handed to every search thread, and each
+ * extra thread costs a copy of the value arrays rather than another run
+ * of the propnet factory.
+ */
+public class SharedPropNetStateMachine extends StateMachine {
+	private FlatPropNetStateMachine prototype;
+	private ThreadLocal<FlatPropNetStateMachine> contexts;
+
+	public SharedPropNetStateMachine() {
+	}
+
+	public SharedPropNetStateMachine(FlatPropNet net) {
+		attach(new FlatPropNetStateMachine(net));
+	}
+
+	@Override
+	public void initialize(List<Gdl> description) {
+		FlatPropNetStateMachine sm = new FlatPropNetStateMachine();
+		sm.initialize(description);
+		attach(sm);
+	}
+
+	private void attach(FlatPropNetStateMachine sm) {
+		prototype = sm;
+		contexts = new ThreadLocal<FlatPropNetStateMachine>() {
+			@Override
+			protected FlatPropNetStateMachine initialValue() {
+				return prototype.fork();
+			}
+		};
+	}
+
+	public FlatPropNet getPropNet() {
+		return prototype.getPropNet();
+	}
+
+	/** Returns the calling thread's machine */
+	private FlatPropNetStateMachine context() {
+		return contexts.get();
+	}
+
+	@Override
+	public boolean isTerminal(MachineState state) {
+		return context().isTerminal(state);
+	}
+
+	@Override
+	public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+		return context().getGoal(state, role);
+	}
+
+	@Override
+	public MachineState getInitialState() {
+		return context().getInitialState();
+	}
+
+	@Override
+	public List<Move> findActions(Role role) throws MoveDefinitionException {
+		return context().findActions(role);
+	}
+
+	@Override
+	public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+		return context().getLegalMoves(state, role);
+	}
+
+	@Override
+	public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+		return context().getNextState(state, moves);
+	}
+
+	@Override
+	public int[] rollout(MachineState state, Role[] roles, Random random, int[] goals) throws MoveDefinitionException, GoalDefinitionException {
+		return context().rollout(state, roles, random, goals);
+	}
+
+	@Override
+	public List<Role> getRoles() {
+		return prototype.getRoles();
+	}
+
+	@Override
+	public boolean isThreadSafe() {
+		return true;
+	}
+
+	@Override
+	public MachineState getMachineStateFromSentenceList(Set<GdlSentence> sentenceList) {
+		return prototype.getMachineStateFromSentenceList(sentenceList);
+	}
+}
@@ -20,7 +20,7 @@ import org.ggp.base.util.gdl.grammar.GdlTerm;
 import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.PropNet;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
-import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.propnet.factory.PropNetCache;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -47,7 +47,7 @@ public class SimplePropNetStateMachine extends StateMachine {
     public void initialize(List<Gdl> description) {
         try {
         	description = sanitizeDistinct(description);
-			propNet = OptimizingPropNetFactory.create(description);
+			propNet = PropNetCache.getDefault().create(description);
 			//propNet.renderToFile("propnet.dot");
 			roles = propNet.getRoles();
 			initPropnetVars();
@@ -107,12 +107,17 @@ public class SimplePropNetStateMachine extends StateMachine {
     }
 
     /**
-     * Returns the initial state. The initial state can be computed
-     * by only setting the truth value of the INIT proposition to true,
-     * and then computing the resulting state.
+     * Returns the initial state. The factory records it from the init rules;
+     * setting the INIT proposition is only the fallback, for nets built
+     * without it, since INIT is ORed into the transitions.
      */
     @Override
     public MachineState getInitialState() {
+    	if (propNet.getInitialState() != null) {
+    		Set<GdlSentence> contents = new HashSet<GdlSentence>(propNet.getInitialState());
+    		contents.retainAll(propNet.getBasePropositions().keySet());
+    		return new MachineState(contents);
+    	}
     	clearpropnet();
     	propNet.getInitProposition().setValue(true);
 		MachineState initial = getStateFromBase();
@@ -0,0 +1,264 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+
+/**
+ * MCTS over a DAG instead of a tree: every state has exactly one node, kept
+ * in a TranspositionTable under MachineState.getZobristHash, so move orders
+ * that reach the same state share their statistics.
+ *
+ * Edges refer to their children by hash rather than by reference. A child
+ * that has been evicted is simply rebuilt from its parent's state and joint
+ * move the next time it is needed, which is what lets the table bound the
+ * memory of the whole search. Finding the root after a move is a single
+ * table lookup, however deep in the old tree the new state was.
+ *
+ * The root and every node on the current selection path are pinned in the
+ * table, so making room for a new node never evicts one the search is
+ * still updating, which would split its statistics across two nodes.
+ */
+public class TranspositionMonteCarloTreeSearch extends AbstractMonteCarloTreeSearch {
+	static final int DEFAULT_CAPACITY = 1 << 20;
+	// Cap on a selection path, in case the game can return to an earlier state
+	private static final int MAX_DEPTH = 1000;
+
+	static final class TTNode {
+		final MachineState state;
+		final long key;
+		int visits;
+		double utility;
+		boolean expanded;
+		boolean terminal;
+		boolean min;
+		Move[] actions;		// Our agent's action along each edge
+		List<List<Move>> jointMoves;
+		long[] childKeys;
+
+		TTNode(MachineState s) {
+			state = s;
+			key = s.getZobristHash();
+		}
+
+		double get_value() {
+			if(visits != 0) return utility/visits;
+			else return 0.0;
+		}
+	}
+
+	TranspositionTable<TTNode> table;
+	Random randomizer = new Random();
+	TTNode root = null;
+	List<TTNode> path = new ArrayList<TTNode>();
+
+	TranspositionMonteCarloTreeSearch(StateMachine sm, Role a, Timer t) {
+		this(sm, a, t, DEFAULT_CAPACITY);
+	}
+
+	TranspositionMonteCarloTreeSearch(StateMachine sm, Role a, Timer t, int capacity) {
+		super(sm, a, t);
+		System.out.println("TranspositionMonteCarloTreeSearch");
+		table = new TranspositionTable<TTNode>(capacity);
+	}
+
+	@Override
+	public void metaGame(MachineState currentState) throws MoveDefinitionException, TransitionDefinitionException{
+		root = getNode(currentState);
+		MCTS(root);
+	}
+
+	// Returns the node for state, creating it if it is not in the table
+	TTNode getNode(MachineState state) {
+		long key = state.getZobristHash();
+		TTNode node = table.get(key);
+		if(node == null) {
+			node = new TTNode(state);
+			table.put(key, node);
+		}
+		return node;
+	}
+
+	// Starts a new selection path at root; only the root stays pinned
+	void startPath(TTNode root) {
+		table.unpinAll();
+		path.clear();
+		addToPath(root);
+	}
+
+	void addToPath(TTNode node) {
+		table.pin(node.key);
+		path.add(node);
+	}
+
+	@Override
+	public Move getAction(List<Move> moves, MachineState currentState) throws MoveDefinitionException, TransitionDefinitionException {
+		table.nextGeneration();
+		root = getNode(currentState);
+		startPath(root);
+		System.out.println("Num recycled depth charges: " + root.visits);
+
+		// Search the tree
+		MCTS(root);	// Uses timer to terminate
+
+		// Select the best action from the children.
+		Move bestAction = moves.get(0);
+		double score;
+		if(root.min){	// Min case: Only one possible action. Find min action value.
+			score = 100.0;
+			for(int e = 0; e < edges(root); e++) {
+				double result = getChild(root, e).get_value();
+				if (result < score)
+					score = result;
+			}
+		} else {								// Max case: Find best action. Find max action value.
+			score = 0;
+			for(int e = 0; e < edges(root); e++) {
+				TTNode child = getChild(root, e);
+				double result = child.get_value();
+				if (result > score && child.visits > 1) {
+					score = result;
+					bestAction = root.actions[e];
+				}
+			}
+		}
+
+		System.out.println("Num depth charges: " + root.visits);
+		System.out.println("Transposition table: " + table.size() + "/" + table.capacity() + " nodes, " + table.getEvictions() + " evictions");
+		System.out.println("State/Action Value: " + score);
+		return bestAction;
+	}
+
+	@Override
+	public void MCTS(MachineState root) throws MoveDefinitionException, TransitionDefinitionException {
+		MCTS(getNode(root));
+	}
+
+	void MCTS(TTNode root) throws MoveDefinitionException, TransitionDefinitionException {
+		while(!timer.isOutOfTime()) {
+			startPath(root);
+			TTNode node_to_expand = select(root);
+			TTNode node_to_evaluate = expand(node_to_expand);
+			double score = simulate(node_to_evaluate);
+			backprop(score);
+		}
+	}
+
+	// Walks down from node, recording the path for backprop
+	TTNode select(TTNode node) throws TransitionDefinitionException {
+		while(node.expanded && !node.terminal && node.visits != 0 && path.size() < MAX_DEPTH) {
+			int best = -1;
+
+			// Evenly search each child to an arbitrary threshold
+			for(int e = 0; e < edges(node); e++) {
+				if(getChild(node, e).visits == 0) {
+					best = e;
+					break;
+				}
+			}
+
+			// If all children have been visited, select a child to recurse on
+			if(best < 0) {
+				double score = -Double.MAX_VALUE;
+				for(int e = 0; e < edges(node); e++) {
+					double newscore = selectfn(node, getChild(node, e));
+					if (newscore > score) {
+						score = newscore;
+						best = e;
+					}
+				}
+			}
+			node = getChild(node, best);
+			addToPath(node);
+		}
+		return node;
+	}
+
+	double selectfn(TTNode parent, TTNode node) {
+		// A formula based on Lower Confidence Bounds (How pessimistic we are when its our opponents turn)
+		if(parent.min){
+			return -1*(node.get_value() - C*Math.sqrt(Math.log(parent.visits)/node.visits));
+		}
+		// A formula based on Upper Confidence Bounds (How optimistic we are when its our turn)
+		return node.get_value() + C*Math.sqrt(Math.log(parent.visits)/node.visits);
+	}
+
+	int edges(TTNode node) {
+		return node.expanded ? node.childKeys.length : 0;
+	}
+
+	// Looks up the child along edge e, rebuilding it if it was evicted
+	TTNode getChild(TTNode node, int e) throws TransitionDefinitionException {
+		TTNode child = table.get(node.childKeys[e]);
+		if(child == null) {
+			child = new TTNode(stateMachine.getNextState(node.state, node.jointMoves.get(e)));
+			table.put(node.childKeys[e], child);
+		}
+		return child;
+	}
+
+	TTNode expand(TTNode node) throws MoveDefinitionException, TransitionDefinitionException {
+		if(!node.expanded) {
+			node.expanded = true;
+			// First check if this node is a terminal node. If it is, return it.
+			if (stateMachine.isTerminal(node.state)) {
+				node.terminal = true;
+				return node;
+			}
+
+			// Create edges from all joint legal moves, sharing nodes with any transpositions
+			List<Move> agentActions = stateMachine.findLegals(agent, node.state);
+			List<Move> actions = new ArrayList<Move>();
+			List<List<Move>> jointMoves = new ArrayList<List<Move>>();
+			List<Long> keys = new ArrayList<Long>();
+			for(Move action: agentActions) {
+				for(List<Move> joint_move : stateMachine.getLegalJointMoves(node.state, agent, action)) {
+					MachineState newstate = stateMachine.getNextState(node.state, joint_move);
+					long key = newstate.getZobristHash();
+					if(table.get(key) == null) table.put(key, new TTNode(newstate));
+					actions.add(action);
+					jointMoves.add(joint_move);
+					keys.add(key);
+				}
+			}
+			node.min = (agentActions.size() == 1);
+			node.actions = actions.toArray(new Move[actions.size()]);
+			node.jointMoves = jointMoves;
+			node.childKeys = new long[keys.size()];
+			for(int e = 0; e < keys.size(); e++) node.childKeys[e] = keys.get(e);
+		}
+		if(node.terminal) return node;
+
+		// Randomly return one of the child nodes
+		TTNode child = getChild(node, randomizer.nextInt(edges(node)));
+		addToPath(child);
+		return child;
+	}
+
+	double simulate(TTNode node) throws MoveDefinitionException, TransitionDefinitionException {
+		double reward = 0.0;
+		try{
+			reward = stateMachine.rollout(node.state, agentRole, randomizer, agentReward)[0];
+		}
+		catch (GoalDefinitionException e){
+			System.out.println("GoalDefinitionException in Monte Carlo");
+		}
+		return reward;
+	}
+
+	// Updates every node on the path taken, not every parent: in a DAG a node has many
+	void backprop(double score) {
+		for(TTNode node : path) {
+			node.visits = node.visits + 1;
+			node.utility = node.utility + score;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity open-addressing map from 64-bit state hashes to nodes.
+ *
+ * A key lives somewhere in the PROBES slots starting at its home slot.
+ * When all of those are taken by other keys, put evicts the one that was
+ * touched longest ago, measured in generations; the search starts a new
+ * generation every move. Memory therefore stays bounded however long the
+ * match runs, and nodes from abandoned parts of the game go first.
+ *
+ * Entries the search is standing on, i.e. the root and the nodes of the
+ * current selection path, can be pinned so that put never evicts them. If
+ * every slot a key could go in is pinned, put does not store it at all.
+ *
+ * Not thread-safe.
+ */
+public class TranspositionTable<N> {
+	private static final int PROBES = 8;
+
+	private final long[] keys;
+	private final Object[] nodes;
+	private final int[] ages;
+	private final boolean[] pinned;
+	private int[] pinnedSlots = new int[64];
+	private int numPinned;
+	private final int mask;
+	private int generation;
+	private int size;
+	private long evictions;
+
+	/**
+	 * @param capacity maximum number of nodes, rounded up to a power of two
+	 */
+	public TranspositionTable(int capacity) {
+		int n = Integer.highestOneBit(Math.max(capacity, PROBES) - 1) << 1;
+		keys = new long[n];
+		nodes = new Object[n];
+		ages = new int[n];
+		pinned = new boolean[n];
+		mask = n - 1;
+	}
+
+	private int home(long key) {
+		return (int) (key ^ (key >>> 32)) & mask;
+	}
+
+	@SuppressWarnings("unchecked")
+	public N get(long key) {
+		int slot = find(key);
+		if (slot < 0) return null;
+		ages[slot] = generation;
+		return (N) nodes[slot];
+	}
+
+	// Returns the slot holding key, or -1
+	private int find(long key) {
+		int home = home(key);
+		for (int p = 0; p < PROBES; p++) {
+			int slot = (home + p) & mask;
+			if (nodes[slot] == null) return -1;
+			if (keys[slot] == key) return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Keeps the entry under key from being evicted until the next unpinAll.
+	 * Does nothing if there is no such entry.
+	 */
+	public void pin(long key) {
+		int slot = find(key);
+		if (slot < 0 || pinned[slot]) return;
+		pinned[slot] = true;
+		if (numPinned == pinnedSlots.length) {
+			pinnedSlots = Arrays.copyOf(pinnedSlots, 2 * numPinned);
+		}
+		pinnedSlots[numPinned++] = slot;
+	}
+
+	public void unpinAll() {
+		while (numPinned > 0) {
+			pinned[pinnedSlots[--numPinned]] = false;
+		}
+	}
+
+	/**
+	 * Stores node under key, replacing any node already stored under it.
+	 * Returns false if every candidate slot is pinned, in which case the
+	 * node is not stored.
+	 */
+	public boolean put(long key, N node) {
+		int home = home(key);
+		int victim = -1;
+		for (int p = 0; p < PROBES; p++) {
+			int slot = (home + p) & mask;
+			if (nodes[slot] == null) {
+				size++;
+				victim = slot;
+				break;
+			}
+			if (keys[slot] == key) {
+				victim = slot;
+				break;
+			}
+			if (!pinned[slot] && (victim < 0 || ages[slot] - ages[victim] < 0)) {
+				victim = slot;
+			}
+		}
+		if (victim < 0) return false;
+		if (nodes[victim] != null && keys[victim] != key) evictions++;
+		keys[victim] = key;
+		nodes[victim] = node;
+		ages[victim] = generation;
+		return true;
+	}
+
+	/** Ages every entry by one; called once per move */
+	public void nextGeneration() {
+		generation++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return nodes.length;
+	}
+
+	public long getEvictions() {
+		return evictions;
+	}
+}
@@ -1,14 +1,13 @@
 package org.ggp.base.server;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
 
 import org.ggp.base.server.event.ServerAbortedMatchEvent;
 import org.ggp.base.server.event.ServerCompletedMatchEvent;
@@ -18,15 +17,18 @@ import org.ggp.base.server.event.ServerMatchUpdatedEvent;
 import org.ggp.base.server.event.ServerNewGameStateEvent;
 import org.ggp.base.server.event.ServerNewMatchEvent;
 import org.ggp.base.server.event.ServerNewMovesEvent;
+import org.ggp.base.server.event.ServerResponseTimeEvent;
 import org.ggp.base.server.event.ServerTimeEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
 import org.ggp.base.server.threads.AbortRequestThread;
 import org.ggp.base.server.threads.PlayRequestThread;
 import org.ggp.base.server.threads.PreviewRequestThread;
 import org.ggp.base.server.threads.RandomPlayRequestThread;
+import org.ggp.base.server.threads.RequestDispatcher;
 import org.ggp.base.server.threads.StartRequestThread;
 import org.ggp.base.server.threads.StopRequestThread;
 import org.ggp.base.util.match.Match;
+import org.ggp.base.util.match.MatchLog;
 import org.ggp.base.util.match.MatchPublisher;
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
@@ -54,13 +56,25 @@ public class GameServer extends Thread implements Subject
     protected List<Move> previousMoves;
 
     private Map<Role,String> mostRecentErrors;
+    private Map<Role,Long> mostRecentResponseTimes;
 
     private String saveToFilename;
+    private MatchLog matchLog;
     private String spectatorServerURL;
     private String spectatorServerKey;
     protected boolean forceUsingEntireClock;
 
     public GameServer(Match match, List<String> hosts, List<Integer> ports) {
+        this(match, hosts, ports, null);
+    }
+
+    /**
+     * Runs the match on the given state machine, which must already be
+     * initialized with the match's game. Servers running several matches
+     * of one game at once can share a thread-safe machine this way, rather
+     * than each building its own. A null machine means a new prover.
+     */
+    public GameServer(Match match, List<String> hosts, List<Integer> ports, StateMachine stateMachine) {
         this.match = match;
 
         this.hosts = hosts;
@@ -72,12 +86,17 @@ public class GameServer extends Thread implements Subject
         playerPlaysRandomly = new Boolean[hosts.size()];
         Arrays.fill(playerPlaysRandomly, Boolean.FALSE);
 
-        stateMachine = new ProverStateMachine();
-        stateMachine.initialize(match.getGame().getRules());
+        if (stateMachine == null) {
+            stateMachine = new ProverStateMachine();
+            stateMachine.initialize(match.getGame().getRules());
+        }
+        this.stateMachine = stateMachine;
         currentState = stateMachine.getInitialState();
         previousMoves = null;
 
-        mostRecentErrors = new HashMap<Role,String>();
+        // Request threads report to these concurrently
+        mostRecentErrors = new ConcurrentHashMap<Role,String>();
+        mostRecentResponseTimes = new ConcurrentHashMap<Role,Long>();
 
         match.appendState(currentState.getContents());
 
@@ -87,8 +106,14 @@ public class GameServer extends Thread implements Subject
         forceUsingEntireClock = false;
     }
 
+    /**
+     * Saves the match to the given file as it goes. While the match is in
+     * progress, the file is written as an append-only log alongside it (see
+     * {@link MatchLog}), and the file itself appears once the match is over.
+     */
     public void startSavingToFilename(String theFilename) {
     	saveToFilename = theFilename;
+    	matchLog = new MatchLog(new File(theFilename));
     }
 
     public String startPublishingToSpectatorServer(String theURL) {
@@ -134,13 +159,18 @@ public class GameServer extends Thread implements Subject
         } else if (event instanceof ServerConnectionErrorEvent) {
             ServerConnectionErrorEvent sEvent = (ServerConnectionErrorEvent)event;
             mostRecentErrors.put(sEvent.getRole(), "CE");
+        } else if (event instanceof ServerResponseTimeEvent) {
+            ServerResponseTimeEvent sEvent = (ServerResponseTimeEvent)event;
+            mostRecentResponseTimes.put(sEvent.getRole(), sEvent.getResponseTime());
         }
     }
 
     // Should be called after each move, to collect all of the errors
-    // caused by players and write them into the match description.
+    // caused by players, and how long each of them took to respond, and
+    // write them into the match description.
     protected void appendErrorsToMatchDescription() {
         List<String> theErrors = new ArrayList<String>();
+        List<Long> theResponseTimes = new ArrayList<Long>();
         for (int i = 0; i < stateMachine.getRoles().size(); i++) {
             Role r = stateMachine.getRoles().get(i);
             if (mostRecentErrors.containsKey(r)) {
@@ -148,9 +178,16 @@ public class GameServer extends Thread implements Subject
             } else {
                 theErrors.add("");
             }
+            if (mostRecentResponseTimes.containsKey(r)) {
+                theResponseTimes.add(mostRecentResponseTimes.get(r));
+            } else {
+                theResponseTimes.add(-1L);
+            }
         }
         match.appendErrors(theErrors);
+        match.appendResponseTimes(theResponseTimes);
         mostRecentErrors.clear();
+        mostRecentResponseTimes.clear();
     }
 
     @Override
@@ -215,24 +252,13 @@ public class GameServer extends Thread implements Subject
     	}
     }
 
+    // Only queues the save; the disk is written on a background thread
     protected void saveWhenNecessary() {
-    	if (saveToFilename == null) {
+    	if (matchLog == null) {
     		return;
     	}
 
-    	try {
-			File file = new File(saveToFilename);
-			if (!file.exists()) {
-				file.createNewFile();
-			}
-			FileWriter fw = new FileWriter(file);
-			BufferedWriter bw = new BufferedWriter(fw);
-			bw.write(match.toJSON().toString());
-			bw.close();
-			fw.close();
-    	} catch (IOException ie) {
-    		ie.printStackTrace();
-    	}
+    	matchLog.update(match);
     }
 
     protected String publishWhenNecessary() {
@@ -269,17 +295,15 @@ public class GameServer extends Thread implements Subject
                 threads.add(new PlayRequestThread(this, match, previousMoves, legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), playerGetsUnlimitedTime[i]));
             }
         }
-        for (PlayRequestThread thread : threads) {
-            thread.start();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
 
         if (forceUsingEntireClock) {
             Thread.sleep(match.getPlayClock() * 1000);
         }
 
+        RequestDispatcher.await(requests);
         List<Move> moves = new ArrayList<Move>();
         for (PlayRequestThread thread : threads) {
-            thread.join();
             moves.add(thread.getMove());
         }
 
@@ -293,15 +317,11 @@ public class GameServer extends Thread implements Subject
         		threads.add(new PreviewRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (PreviewRequestThread thread : threads) {
-            thread.start();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
         if (forceUsingEntireClock) {
             Thread.sleep(match.getStartClock() * 1000);
         }
-        for (PreviewRequestThread thread : threads) {
-            thread.join();
-        }
+        RequestDispatcher.await(requests);
     }
 
     protected synchronized void sendStartRequests() throws InterruptedException {
@@ -311,15 +331,11 @@ public class GameServer extends Thread implements Subject
         		threads.add(new StartRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StartRequestThread thread : threads) {
-            thread.start();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
         if (forceUsingEntireClock) {
             Thread.sleep(match.getStartClock() * 1000);
         }
-        for (StartRequestThread thread : threads) {
-            thread.join();
-        }
+        RequestDispatcher.await(requests);
     }
 
     private synchronized void sendStopRequests(List<Move> previousMoves) throws InterruptedException {
@@ -329,12 +345,8 @@ public class GameServer extends Thread implements Subject
         		threads.add(new StopRequestThread(this, match, previousMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (StopRequestThread thread : threads) {
-            thread.start();
-        }
-        for (StopRequestThread thread : threads) {
-            thread.join();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
+        RequestDispatcher.await(requests);
     }
 
     protected void sendAbortRequests() throws InterruptedException {
@@ -344,12 +356,8 @@ public class GameServer extends Thread implements Subject
         		threads.add(new AbortRequestThread(this, match, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (AbortRequestThread thread : threads) {
-            thread.start();
-        }
-        for (AbortRequestThread thread : threads) {
-            thread.join();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
+        RequestDispatcher.await(requests);
         interrupt();
     }
 
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.ggp.base.server.event.ServerCompletedMatchEvent;
 import org.ggp.base.server.event.ServerMatchUpdatedEvent;
@@ -13,6 +14,7 @@ import org.ggp.base.server.event.ServerNewMovesEvent;
 import org.ggp.base.server.event.ServerTimeEvent;
 import org.ggp.base.server.threads.IIStopRequestThread;
 import org.ggp.base.server.threads.RandomSeesRequestThread;
+import org.ggp.base.server.threads.RequestDispatcher;
 import org.ggp.base.server.threads.SeesRequestThread;
 import org.ggp.base.util.match.IIMatch;
 import org.ggp.base.util.observer.Subject;
@@ -101,12 +103,8 @@ public class IIGameServer extends GameServer implements Subject {
         		threads.add(new IIStopRequestThread(this, iimatch, currentSees.get(i), stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i)));
         	}
         }
-        for (IIStopRequestThread thread : threads) {
-            thread.start();
-        }
-        for (IIStopRequestThread thread : threads) {
-            thread.join();
-        }
+        List<Future<?>> requests = RequestDispatcher.dispatch(threads);
+        RequestDispatcher.await(requests);
     }
 
 	protected synchronized List<Move> sendSeesRequests() throws InterruptedException, MoveDefinitionException {
@@ -119,17 +117,15 @@ public class IIGameServer extends GameServer implements Subject {
                 threads.add(new SeesRequestThread(this, iimatch, currentSees.get(i), legalMoves, stateMachine.getRoles().get(i), hosts.get(i), ports.get(i), getPlayerNameFromMatchForRequest(i), getPlayerGetsUnlimitedTime(i)));
             }
         }
-		for (SeesRequestThread thread : threads) {
-			thread.start();
-		}
+		List<Future<?>> requests = RequestDispatcher.dispatch(threads);
 
 		if (forceUsingEntireClock) {
             Thread.sleep(iimatch.getPlayClock() * 1000);
         }
 
+        RequestDispatcher.await(requests);
 		List<Move> moves = new ArrayList<Move>();
         for (SeesRequestThread thread : threads) {
-            thread.join();
             moves.add(thread.getMove());
         }
 
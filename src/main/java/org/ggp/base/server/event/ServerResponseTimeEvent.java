@@ -0,0 +1,37 @@
+package org.ggp.base.server.event;
+
+import java.io.Serializable;
+
+import org.ggp.base.util.observer.Event;
+import org.ggp.base.util.statemachine.Role;
+
+
+@SuppressWarnings("serial")
+public final class ServerResponseTimeEvent extends Event implements Serializable
+{
+
+	private final Role role;
+	private final long responseTime;
+
+	public ServerResponseTimeEvent(Role role, long responseTime)
+	{
+		this.role = role;
+		this.responseTime = responseTime;
+	}
+
+	public Role getRole()
+	{
+		return role;
+	}
+
+	/**
+	 * How long the player took to respond, in milliseconds, including the
+	 * time spent on the network. For a request that timed out or failed,
+	 * this is how long it took to give up.
+	 */
+	public long getResponseTime()
+	{
+		return responseTime;
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.ggp.base.server.threads;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.http.HttpConnectionPool;
+
+/**
+ * RequestDispatcher runs the requests of every GameServer in the process on
+ * one shared, bounded pool of threads, and sends them over one shared pool
+ * of kept-alive connections. A match host running hundreds of matches at
+ * once then neither starts a thread nor opens a connection per request.
+ *
+ * Requests are long-lived, since a player can take the whole play clock to
+ * answer, so the bound is generous; once it is reached, further requests
+ * wait in line and start late.
+ */
+public final class RequestDispatcher
+{
+	public static final int MAX_THREADS = 512;
+	private static final int MAX_IDLE_CONNECTIONS_PER_PLAYER = 4;
+	private static final long MAX_CONNECTION_IDLE_TIME = 60000;
+
+	private static final ExecutorService executor;
+	private static final HttpConnectionPool connectionPool = new HttpConnectionPool(MAX_IDLE_CONNECTIONS_PER_PLAYER, MAX_CONNECTION_IDLE_TIME);
+
+	static
+	{
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "RequestDispatcher-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		executor = pool;
+	}
+
+	private RequestDispatcher()
+	{
+	}
+
+	static HttpConnectionPool getConnectionPool()
+	{
+		return connectionPool;
+	}
+
+	/**
+	 * Starts running the given requests, and returns futures to wait on
+	 * with {@link #await}.
+	 */
+	public static List<Future<?>> dispatch(List<? extends RequestThread> requests)
+	{
+		List<Future<?>> futures = new ArrayList<Future<?>>(requests.size());
+		for (RequestThread request : requests) {
+			futures.add(executor.submit(request));
+		}
+		return futures;
+	}
+
+	/**
+	 * Waits until all of the dispatched requests have finished. Requests
+	 * report their own errors to their game server, so an exception that
+	 * escapes one is only printed.
+	 */
+	public static void await(List<Future<?>> futures) throws InterruptedException
+	{
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			}
+		}
+	}
+}
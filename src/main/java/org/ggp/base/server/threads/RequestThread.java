@@ -6,8 +6,8 @@ import java.net.UnknownHostException;
 
 import org.ggp.base.server.GameServer;
 import org.ggp.base.server.event.ServerConnectionErrorEvent;
+import org.ggp.base.server.event.ServerResponseTimeEvent;
 import org.ggp.base.server.event.ServerTimeoutEvent;
-import org.ggp.base.util.http.HttpRequest;
 import org.ggp.base.util.statemachine.Role;
 
 
@@ -20,9 +20,14 @@ import org.ggp.base.util.statemachine.Role;
  * that the concrete RequestThread subclasses can focus on request-specific
  * business logic.
  *
+ * Despite the name, a RequestThread is only a task: game servers run them
+ * through the {@link RequestDispatcher}, which also supplies the pooled
+ * connection each request goes out on. Every request reports how long the
+ * player took to answer it with a ServerResponseTimeEvent.
+ *
  * @author schreib
  */
-public abstract class RequestThread extends Thread
+public abstract class RequestThread implements Runnable
 {
 	private final GameServer gameServer;
 	private final String host;
@@ -48,9 +53,10 @@ public abstract class RequestThread extends Thread
 	@Override
 	public void run()
 	{
+		long startTime = System.currentTimeMillis();
+		String response = null;
 		try {
-			String response = HttpRequest.issueRequest(host, port, playerName, request, timeout);
-			handleResponse(response);
+			response = RequestDispatcher.getConnectionPool().issueRequest(host, port, playerName, request, timeout);
 		} catch (SocketTimeoutException e) {
 			gameServer.notifyObservers(new ServerTimeoutEvent(role));
 		} catch (UnknownHostException e) {
@@ -58,5 +64,9 @@ public abstract class RequestThread extends Thread
 		} catch (IOException e) {
 			gameServer.notifyObservers(new ServerConnectionErrorEvent(role));
 		}
+		gameServer.notifyObservers(new ServerResponseTimeEvent(role, System.currentTimeMillis() - startTime));
+		if (response != null) {
+			handleResponse(response);
+		}
 	}
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package org.ggp.base.util.gdl.model;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
@@ -13,6 +14,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Queues;
@@ -113,6 +115,43 @@ public class DependencyGraphs {
 		return ordering;
 	}
 
+	/**
+	 * Groups the strata returned by {@link #toposortSafe(Set, Multimap)} into
+	 * levels. A stratum depends only on itself and on strata in earlier
+	 * levels, so the strata within one level are independent of each other
+	 * and may be processed concurrently once the earlier levels are done.
+	 *
+	 * Each key in the given dependency graph depends on/is downstream of
+	 * its associated values.
+	 */
+	public static <T> List<List<Set<T>>> toposortLevels(
+			Set<T> allElements,
+			Multimap<T, T> dependencyGraph) {
+		List<List<Set<T>>> levels = Lists.newArrayList();
+		Map<T, Integer> levelsByElement = Maps.newHashMap();
+		for (Set<T> stratum : toposortSafe(allElements, dependencyGraph)) {
+			//Strata come in topological order, so every dependency outside
+			//this stratum already has its level
+			int level = 0;
+			for (T element : stratum) {
+				for (T dependency : dependencyGraph.get(element)) {
+					Integer dependencyLevel = levelsByElement.get(dependency);
+					if (dependencyLevel != null && !stratum.contains(dependency)) {
+						level = Math.max(level, dependencyLevel + 1);
+					}
+				}
+			}
+			if (level == levels.size()) {
+				levels.add(Lists.<Set<T>>newArrayList());
+			}
+			levels.get(level).add(stratum);
+			for (T element : stratum) {
+				levelsByElement.put(element, level);
+			}
+		}
+		return levels;
+	}
+
 	private static <T> void addOrMergeStratumAndAncestors(Set<T> curStratum,
 			List<Set<T>> ordering, Set<Set<T>> toAdd,
 			SetMultimap<Set<T>, Set<T>> strataDependencyGraph,
@@ -197,6 +197,10 @@ public class AssignmentsImpl implements Assignments {
 				//Check that it doesn't conflict with our headAssignment
 				if (!headAssignment.isEmpty()) {
 					Map<GdlVariable, GdlConstant> tupleAssignment = GdlUtils.getAssignmentMakingLeftIntoRight(sourceConjunct, sentence);
+					if (tupleAssignment == null) {
+						//The sentence doesn't unify with the conjunct at all
+						continue byTuple;
+					}
 					for (GdlVariable var : headAssignment.keySet()) {
 						if (tupleAssignment.containsKey(var)
 								&& tupleAssignment.get(var) != headAssignment.get(var)) {
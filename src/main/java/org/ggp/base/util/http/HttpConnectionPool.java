@@ -0,0 +1,230 @@
+package org.ggp.base.util.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HttpConnectionPool issues the same requests as {@link HttpRequest}, but
+ * asks players to keep their connections open afterwards, and reuses open
+ * connections to the same host and port for later requests. Players that
+ * don't agree to keep a connection alive just get a new one each time, as
+ * with HttpRequest.
+ *
+ * A connection that the player has closed while it sat in the pool fails
+ * before any of the response arrives; in that case the request is sent
+ * again once, on a fresh connection.
+ *
+ * The pool can be shared between threads.
+ */
+public final class HttpConnectionPool
+{
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	private final int maxIdlePerHost;
+	private final long maxIdleTime;
+	private final Map<String, Deque<PooledConnection>> idle = new HashMap<String, Deque<PooledConnection>>();
+
+	private static final class PooledConnection
+	{
+		final Socket socket;
+		final InputStream in;
+		final String hostName;
+		long idleSince;
+
+		PooledConnection(Socket socket, String hostName) throws IOException
+		{
+			this.socket = socket;
+			this.in = new BufferedInputStream(socket.getInputStream());
+			this.hostName = hostName;
+		}
+
+		void close()
+		{
+			try {
+				socket.close();
+			} catch (IOException e) {
+				;
+			}
+		}
+	}
+
+	/**
+	 * @param maxIdlePerHost how many idle connections to keep for each host and port
+	 * @param maxIdleTime how long, in milliseconds, to keep an idle connection
+	 */
+	public HttpConnectionPool(int maxIdlePerHost, long maxIdleTime)
+	{
+		this.maxIdlePerHost = maxIdlePerHost;
+		this.maxIdleTime = maxIdleTime;
+	}
+
+	public String issueRequest(String targetHost, int targetPort, String forPlayerName, String requestContent, int timeoutClock) throws IOException
+	{
+		String key = targetHost + ":" + targetPort;
+		PooledConnection connection = takeIdle(key);
+		if (connection != null) {
+			try {
+				return issueRequest(key, connection, forPlayerName, requestContent, timeoutClock);
+			} catch (EOFException e) {
+				// The player closed the connection while it was idle
+			}
+		}
+
+		Socket socket = new Socket();
+		InetAddress theHost = InetAddress.getByName(targetHost);
+		socket.connect(new InetSocketAddress(theHost.getHostAddress(), targetPort), CONNECT_TIMEOUT);
+		return issueRequest(key, new PooledConnection(socket, theHost.getHostName()), forPlayerName, requestContent, timeoutClock);
+	}
+
+	/**
+	 * Closes every idle connection.
+	 */
+	public synchronized void clear()
+	{
+		for (Deque<PooledConnection> connections : idle.values()) {
+			for (PooledConnection connection : connections) {
+				connection.close();
+			}
+		}
+		idle.clear();
+	}
+
+	// Throws an EOFException only when the connection failed before any of
+	// the response arrived.
+	private String issueRequest(String key, PooledConnection connection, String forPlayerName, String requestContent, int timeoutClock) throws IOException
+	{
+		boolean keepAlive = false;
+		boolean succeeded = false;
+		try {
+			InputStream in = connection.in;
+			String statusLine;
+			try {
+				connection.socket.setSoTimeout(timeoutClock < 0 ? 0 : timeoutClock);
+				HttpWriter.writeAsClient(connection.socket, connection.hostName, requestContent, forPlayerName, true);
+				statusLine = readLine(in);
+			} catch (SocketTimeoutException e) {
+				throw e;
+			} catch (IOException e) {
+				statusLine = null;
+			}
+			if (statusLine == null) {
+				throw new EOFException("The connection was closed before the response.");
+			}
+
+			int contentLength = -1;
+			String line;
+			while ((line = readLine(in)) != null && line.length() > 0) {
+				String lower = line.toLowerCase();
+				if (lower.startsWith("content-length:")) {
+					try {
+						contentLength = Integer.parseInt(lower.replace("content-length:", "").trim());
+					} catch (NumberFormatException e) {
+						throw new IOException("Content-Length header can't be parsed: \"" + line + "\"");
+					}
+				} else if (lower.startsWith("connection:")) {
+					keepAlive = lower.contains("keep-alive");
+				}
+			}
+			if (line == null) {
+				throw new IOException("Could not find content in the response.");
+			}
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream(Math.max(contentLength, 64));
+			if (contentLength >= 0) {
+				byte[] buffer = new byte[Math.min(contentLength, 8192)];
+				while (content.size() < contentLength) {
+					int n = in.read(buffer, 0, Math.min(buffer.length, contentLength - content.size()));
+					if (n < 0) {
+						throw new IOException("The response ended before its content did.");
+					}
+					content.write(buffer, 0, n);
+				}
+			} else {
+				// Without a content-length header, the content runs until the
+				// connection is closed, so it can't be reused.
+				keepAlive = false;
+				byte[] buffer = new byte[8192];
+				int n;
+				while ((n = in.read(buffer)) >= 0) {
+					content.write(buffer, 0, n);
+				}
+			}
+			String response = content.toString("UTF-8").trim();
+			succeeded = true;
+			return response;
+		} finally {
+			if (succeeded && keepAlive) {
+				release(key, connection);
+			} else {
+				connection.close();
+			}
+		}
+	}
+
+	// Reads a line terminated by LF or CRLF, without the terminator, or
+	// returns null at the end of the stream.
+	private static String readLine(InputStream in) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') {
+			line.append((char) c);
+		}
+		if (c < 0 && line.length() == 0) {
+			return null;
+		}
+		if (line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+			line.setLength(line.length() - 1);
+		}
+		return line.toString();
+	}
+
+	private synchronized PooledConnection takeIdle(String key)
+	{
+		Deque<PooledConnection> connections = idle.get(key);
+		long now = System.currentTimeMillis();
+		while (connections != null && !connections.isEmpty()) {
+			PooledConnection connection = connections.pollLast();
+			if (now - connection.idleSince < maxIdleTime) {
+				return connection;
+			}
+			connection.close();
+		}
+		return null;
+	}
+
+	private synchronized void release(String key, PooledConnection connection)
+	{
+		Deque<PooledConnection> connections = idle.get(key);
+		if (connections == null) {
+			connections = new ArrayDeque<PooledConnection>();
+			idle.put(key, connections);
+		}
+
+		// The oldest connections are at the front; drop any that have expired
+		long now = System.currentTimeMillis();
+		for (Iterator<PooledConnection> i = connections.iterator(); i.hasNext(); ) {
+			PooledConnection old = i.next();
+			if (now - old.idleSince < maxIdleTime && connections.size() < maxIdlePerHost) {
+				break;
+			}
+			old.close();
+			i.remove();
+		}
+
+		connection.idleSince = now;
+		connections.addLast(connection);
+	}
+}
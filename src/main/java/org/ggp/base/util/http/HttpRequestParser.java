@@ -0,0 +1,238 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * HttpRequestParser reads an HTTP request off a non-blocking channel as the
+ * bytes arrive, with the same results as {@link HttpReader#readAsServer}.
+ * Bytes are read straight into a direct buffer, and the request line and
+ * headers are scanned in place; the only copy made is decoding the message
+ * itself into a String once it is complete.
+ *
+ * Usage: read into {@link #buffer()}, call {@link #endOfStream()} when the
+ * channel reports end of stream, and check {@link #isComplete()} after every
+ * read. Once complete, {@link #isRejected()} tells whether the request was
+ * one to answer with a blank response at the network layer (for example an
+ * OPTIONS request), and {@link #getMessage()} returns the message otherwise.
+ *
+ * A request with a "Connection: keep-alive" header asks for the connection
+ * to stay open for another request once this one has been answered.
+ */
+public final class HttpRequestParser
+{
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INITIAL_CAPACITY = 8192;
+
+	private enum Method { GET, POST, OTHER }
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+	// Where the next line starts, as an offset into the bytes read so far
+	private int lineStart = 0;
+	private Method method = null;
+	private String requestLine = null;
+	private int contentLength = -1;
+	private boolean keepAlive = false;
+	// Where the content starts, once the blank line after the headers is found
+	private int contentStart = -1;
+	private boolean endOfStream = false;
+	private boolean complete = false;
+	private String message = null;
+
+	/**
+	 * Returns the buffer to read the next bytes into. It always has room
+	 * left, and is replaced by a larger one when the request needs it.
+	 */
+	public ByteBuffer buffer()
+	{
+		int needed = (contentStart >= 0 && contentLength >= 0) ? contentStart + contentLength : 0;
+		if (!buffer.hasRemaining() || buffer.capacity() < needed)
+		{
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(needed, 2 * buffer.capacity()));
+			buffer.flip();
+			larger.put(buffer);
+			buffer = larger;
+		}
+		return buffer;
+	}
+
+	/**
+	 * Parses whatever has arrived since the last call. Throws an IOException
+	 * when the request is malformed, or ends before it is complete.
+	 */
+	public boolean isComplete() throws IOException
+	{
+		if (complete)
+		{
+			return true;
+		}
+
+		if (requestLine == null)
+		{
+			requestLine = nextLine();
+			if (requestLine == null)
+			{
+				if (endOfStream)
+				{
+					throw new IOException("The HTTP request was empty.");
+				}
+				return false;
+			}
+
+			String upper = requestLine.toUpperCase();
+			if (upper.startsWith("GET "))
+			{
+				// The message is in the request line, so the headers don't matter
+				method = Method.GET;
+				message = requestLine.substring(5, requestLine.lastIndexOf(' '));
+				message = URLDecoder.decode(message, "UTF-8");
+				message = message.replace((char)13, ' ');
+				return complete = true;
+			}
+			else if (upper.startsWith("POST "))
+			{
+				method = Method.POST;
+			}
+			else
+			{
+				method = Method.OTHER;
+				return complete = true;
+			}
+		}
+
+		String line;
+		while (contentStart < 0 && (line = nextLine()) != null)
+		{
+			if (line.toLowerCase().startsWith("content-length:"))
+			{
+				try
+				{
+					contentLength = Integer.parseInt(line.toLowerCase().replace("content-length:", "").trim());
+				}
+				catch (NumberFormatException e)
+				{
+					throw new IOException("Content-Length header can't be parsed: \"" + line + "\"");
+				}
+			}
+			else if (line.toLowerCase().startsWith("connection:"))
+			{
+				keepAlive = line.toLowerCase().contains("keep-alive");
+			}
+			else if (line.length() == 0)
+			{
+				contentStart = lineStart;
+			}
+		}
+
+		if (contentStart < 0)
+		{
+			if (endOfStream)
+			{
+				throw new IOException("Could not find content in POST request.");
+			}
+			return false;
+		}
+
+		if (contentLength >= 0)
+		{
+			if (buffer.position() - contentStart < contentLength)
+			{
+				if (endOfStream)
+				{
+					throw new IOException("The POST request ended before its content did.");
+				}
+				return false;
+			}
+			message = decode(contentStart, contentLength).trim();
+		}
+		else
+		{
+			// Without a content-length header, the content runs until the
+			// stream is closed. Line breaks are dropped, as in HttpReader.
+			if (!endOfStream)
+			{
+				return false;
+			}
+			message = decode(contentStart, buffer.position() - contentStart).replace("\r", "").replace("\n", "").trim();
+		}
+		return complete = true;
+	}
+
+	/**
+	 * Marks that the other side closed its end of the connection, so that
+	 * no more bytes will arrive.
+	 */
+	public void endOfStream()
+	{
+		endOfStream = true;
+	}
+
+	/**
+	 * Returns true when the request should get a blank response and go no
+	 * further than the network layer. Web browsers send an OPTIONS request
+	 * in advance of real XHR requests, to discover whether they should have
+	 * permission to send them; the blank response includes the headers that
+	 * the browser is interested in. Any other unexpected request type gets
+	 * the same treatment.
+	 */
+	public boolean isRejected()
+	{
+		return method == Method.OTHER;
+	}
+
+	/**
+	 * Returns true if nothing has arrived yet.
+	 */
+	public boolean isEmpty()
+	{
+		return buffer.position() == 0;
+	}
+
+	public boolean isKeepAlive()
+	{
+		return keepAlive;
+	}
+
+	public String getRequestLine()
+	{
+		return requestLine;
+	}
+
+	public String getMessage()
+	{
+		return message;
+	}
+
+	// Returns the next complete line without its terminator, or null if
+	// it hasn't fully arrived yet.
+	private String nextLine()
+	{
+		for (int i = lineStart; i < buffer.position(); i++)
+		{
+			if (buffer.get(i) == '\n')
+			{
+				int end = (i > lineStart && buffer.get(i - 1) == '\r') ? i - 1 : i;
+				String line = decodeWith(ASCII, lineStart, end - lineStart);
+				lineStart = i + 1;
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private String decode(int start, int length)
+	{
+		return decodeWith(UTF8, start, length);
+	}
+
+	private String decodeWith(Charset charset, int start, int length)
+	{
+		ByteBuffer view = buffer.duplicate();
+		view.limit(start + length);
+		view.position(start);
+		return charset.decode(view).toString();
+	}
+}
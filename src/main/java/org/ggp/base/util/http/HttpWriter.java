@@ -4,9 +4,13 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 public final class HttpWriter
 {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
     public static void writeAsClientGET(Socket socket, String hostField, String data, String playerName) throws IOException
     {
         PrintWriter pw = new PrintWriter(socket.getOutputStream());
@@ -23,6 +27,15 @@ public final class HttpWriter
     }
 
 	public static void writeAsClient(Socket socket, String hostField, String data, String playerName) throws IOException
+	{
+		writeAsClient(socket, hostField, data, playerName, false);
+	}
+
+	/**
+	 * Writes a POST request, optionally asking the player to keep the
+	 * connection open for further requests once it has responded.
+	 */
+	public static void writeAsClient(Socket socket, String hostField, String data, String playerName, boolean keepAlive) throws IOException
 	{
 		PrintWriter pw = new PrintWriter(socket.getOutputStream());
 
@@ -33,6 +46,9 @@ public final class HttpWriter
 		pw.print("Receiver: "+playerName + "\r\n");
 		pw.print("Content-Type: text/acl\r\n");
 		pw.print("Content-Length: " + data.length() + "\r\n");
+		if (keepAlive) {
+			pw.print("Connection: keep-alive\r\n");
+		}
 		pw.print("\r\n");
 		pw.print(data);
 
@@ -43,17 +59,40 @@ public final class HttpWriter
 	{
 		PrintWriter pw = new PrintWriter(socket.getOutputStream());
 
-		pw.print("HTTP/1.0 200 OK\r\n");
-		pw.print("Content-type: text/acl\r\n");
-		pw.print("Content-length: " + data.length() + "\r\n");
-		pw.print("Access-Control-Allow-Origin: *\r\n");
-		pw.print("Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n");
-		pw.print("Access-Control-Allow-Headers: Content-Type\r\n");
-		pw.print("Access-Control-Allow-Age: 86400\r\n");
-		pw.print("\r\n");
+		pw.print(serverHeaders(data.length(), false));
 		pw.print(data);
 
 		pw.flush();
 	}
 
+	/**
+	 * Encodes the same response as writeAsServer, for writing to a
+	 * non-blocking channel. With keepAlive set, the response tells the
+	 * client that the connection stays open for its next request.
+	 */
+	public static ByteBuffer encodeAsServer(String data, boolean keepAlive)
+	{
+		byte[] content = data.getBytes(UTF8);
+		byte[] headers = serverHeaders(content.length, keepAlive).getBytes(UTF8);
+
+		ByteBuffer response = ByteBuffer.allocate(headers.length + content.length);
+		response.put(headers);
+		response.put(content);
+		response.flip();
+		return response;
+	}
+
+	private static String serverHeaders(int contentLength, boolean keepAlive)
+	{
+		return "HTTP/1.0 200 OK\r\n" +
+				"Content-type: text/acl\r\n" +
+				"Content-length: " + contentLength + "\r\n" +
+				"Access-Control-Allow-Origin: *\r\n" +
+				"Access-Control-Allow-Methods: POST, GET, OPTIONS\r\n" +
+				"Access-Control-Allow-Headers: Content-Type\r\n" +
+				"Access-Control-Allow-Age: 86400\r\n" +
+				(keepAlive ? "Connection: keep-alive\r\n" : "") +
+				"\r\n";
+	}
+
 }
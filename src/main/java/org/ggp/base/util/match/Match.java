@@ -63,6 +63,7 @@ public class Match
 	private final List<List<GdlTerm>> moveHistory;
 	private final List<Set<GdlSentence>> stateHistory;
 	private final List<List<String>> errorHistory;
+	private final List<List<Long>> responseTimeHistory;
 	private final List<Date> stateTimeHistory;
 	private boolean isCompleted;
 	private boolean isAborted;
@@ -96,6 +97,7 @@ public class Match
 		this.stateHistory = new ArrayList<Set<GdlSentence>>();
 		this.stateTimeHistory = new ArrayList<Date>();
 		this.errorHistory = new ArrayList<List<String>>();
+		this.responseTimeHistory = new ArrayList<List<Long>>();
 
 		this.goalValues = new ArrayList<Integer>();
 	}
@@ -142,6 +144,7 @@ public class Match
         this.stateHistory = new ArrayList<Set<GdlSentence>>();
         this.stateTimeHistory = new ArrayList<Date>();
         this.errorHistory = new ArrayList<List<String>>();
+        this.responseTimeHistory = new ArrayList<List<Long>>();
 
         JSONArray theMoves = theMatchObject.getJSONArray("moves");
         for (int i = 0; i < theMoves.length(); i++) {
@@ -178,6 +181,18 @@ public class Match
                 errorHistory.add(theMoveErrors);
             }
         }
+        if (theMatchObject.has("responseTimes")) {
+            JSONArray theResponseTimes = theMatchObject.getJSONArray("responseTimes");
+            for (int i = 0; i < theResponseTimes.length(); i++) {
+                List<Long> theMoveResponseTimes = new ArrayList<Long>();
+                JSONArray responseTimeElements = theResponseTimes.getJSONArray(i);
+                for (int j = 0; j < responseTimeElements.length(); j++)
+                {
+                    theMoveResponseTimes.add(responseTimeElements.getLong(j));
+                }
+                responseTimeHistory.add(theMoveResponseTimes);
+            }
+        }
 
         this.goalValues = new ArrayList<Integer>();
         try {
@@ -255,6 +270,14 @@ public class Match
 	    errorHistory.add(errors);
 	}
 
+    /**
+     * Records how long each player took to respond to the most recent
+     * request, in milliseconds, or -1 for a player that wasn't sent one.
+     */
+    public void appendResponseTimes(List<Long> responseTimes) {
+        responseTimeHistory.add(responseTimes);
+    }
+
     public void appendNoErrors() {
         List<String> theNoErrors = new ArrayList<String>();
         for (int i = 0; i < this.numRoles; i++) {
@@ -292,6 +315,9 @@ public class Match
             if (errorHistory.size() > 0) {
                 theJSON.put("errors", new JSONArray(renderArrayAsJSON(renderErrorHistory(errorHistory), false)));
             }
+            if (responseTimeHistory.size() > 0) {
+                theJSON.put("responseTimes", new JSONArray(renderArrayAsJSON(renderResponseTimeHistory(responseTimeHistory), false)));
+            }
             if (goalValues.size() > 0) {
                 theJSON.put("goalValues", goalValues);
             }
@@ -416,6 +442,10 @@ public class Match
         return errorHistory;
     }
 
+    public List<List<Long>> getResponseTimeHistory() {
+        return responseTimeHistory;
+    }
+
     public int getPreviewClock() {
     	return previewClock;
     }
@@ -509,6 +539,14 @@ public class Match
         return renderedErrors;
     }
 
+    protected static final List<String> renderResponseTimeHistory(List<List<Long>> responseTimeHistory) {
+        List<String> renderedResponseTimes = new ArrayList<String>();
+        for (List<Long> someResponseTimes : responseTimeHistory) {
+            renderedResponseTimes.add(renderArrayAsJSON(someResponseTimes, false));
+        }
+        return renderedResponseTimes;
+    }
+
     private static final String renderStateAsSymbolList(Set<GdlSentence> theState) {
         // Strip out the TRUE proposition, since those are implied for states.
         String s = "( ";
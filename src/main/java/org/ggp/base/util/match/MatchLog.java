@@ -0,0 +1,330 @@
+package org.ggp.base.util.match;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import external.JSON.JSONArray;
+import external.JSON.JSONException;
+import external.JSON.JSONObject;
+
+/**
+ * MatchLog saves a match to a file as it is played, without the thread that
+ * plays the match ever waiting on the disk.
+ *
+ * While the match is in progress, it is kept in an append-only log next to
+ * the file, named after it with ".log" on the end. The first line of the log
+ * is the whole match, as rendered by {@link Match#toJSON()}; every later line
+ * holds only what was added to the history since the line before it: the
+ * new moves, states, state times, errors and response times, under the same
+ * keys as in the match itself. So each save costs as much as the step that
+ * led to it, rather than as much as the match so far.
+ *
+ * Once the match is over, it is compacted: the whole match is written to the
+ * file in the usual format, and the log is deleted. A log left behind by a
+ * server that stopped during a match can be compacted by {@link #compact(File)}.
+ *
+ * Lines are handed to a single background thread shared by every log, which
+ * writes whatever has queued up since its last pass in one go, opening each
+ * file once however many lines it has waiting.
+ */
+public final class MatchLog {
+    public static final String LOG_SUFFIX = ".log";
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final File logFile;
+
+    // How much of each part of the history has been logged so far,
+    // or -1 before the first line
+    private int loggedMoves = -1;
+    private int loggedStates;
+    private int loggedErrors;
+    private int loggedResponseTimes;
+    private boolean compacted = false;
+
+    public MatchLog(File file) {
+        this.file = file;
+        this.logFile = new File(file.getPath() + LOG_SUFFIX);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public File getLogFile() {
+        return logFile;
+    }
+
+    /**
+     * Queues whatever has happened in the match since the last update to be
+     * written to the log, and, if the match is over, queues the compaction.
+     * Only the rendering of the new part of the history happens on the
+     * calling thread.
+     */
+    public synchronized void update(Match match) {
+        if (compacted) {
+            return;
+        }
+
+        if (match.isCompleted() || match.isAborted()) {
+            // The log has nothing the finished match doesn't, so it need not
+            // be brought up to date first
+            compacted = true;
+            writer.enqueue(new Entry(logFile, file, match.toJSON()));
+        } else if (loggedMoves < 0) {
+            writer.enqueue(new Entry(logFile, match.toJSON(), true));
+        } else {
+            String delta = renderDelta(match);
+            if (delta != null) {
+                writer.enqueue(new Entry(logFile, delta, false));
+            }
+        }
+
+        loggedMoves = match.getMoveHistory().size();
+        loggedStates = match.getStateHistory().size();
+        loggedErrors = match.getErrorHistory().size();
+        loggedResponseTimes = match.getResponseTimeHistory().size();
+    }
+
+    private String renderDelta(Match match) {
+        List<List<String>> errors = match.getErrorHistory();
+        List<List<Long>> responseTimes = match.getResponseTimeHistory();
+        if (match.getMoveHistory().size() == loggedMoves && match.getStateHistory().size() == loggedStates &&
+            errors.size() == loggedErrors && responseTimes.size() == loggedResponseTimes) {
+            return null;
+        }
+
+        JSONObject theJSON = new JSONObject();
+        try {
+            theJSON.put("states", new JSONArray(Match.renderArrayAsJSON(Match.renderStateHistory(
+                    match.getStateHistory().subList(loggedStates, match.getStateHistory().size())), true)));
+            theJSON.put("moves", new JSONArray(Match.renderArrayAsJSON(Match.renderMoveHistory(
+                    match.getMoveHistory().subList(loggedMoves, match.getMoveHistory().size())), false)));
+            theJSON.put("stateTimes", new JSONArray(Match.renderArrayAsJSON(
+                    match.getStateTimeHistory().subList(loggedStates, match.getStateTimeHistory().size()), false)));
+            if (errors.size() > loggedErrors) {
+                theJSON.put("errors", new JSONArray(Match.renderArrayAsJSON(Match.renderErrorHistory(
+                        errors.subList(loggedErrors, errors.size())), false)));
+            }
+            if (responseTimes.size() > loggedResponseTimes) {
+                theJSON.put("responseTimes", new JSONArray(Match.renderArrayAsJSON(Match.renderResponseTimeHistory(
+                        responseTimes.subList(loggedResponseTimes, responseTimes.size())), false)));
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+        return theJSON.toString();
+    }
+
+    /**
+     * Blocks until every line queued so far, by any log, has been written.
+     */
+    public static void sync() throws InterruptedException {
+        writer.sync();
+    }
+
+    /**
+     * Rebuilds a match from a log left behind by a match that never finished,
+     * writes it to the file the log belongs to, and deletes the log. Returns
+     * that file. The match comes out neither completed nor aborted, and any
+     * signature it had is dropped, since it no longer matches the contents.
+     */
+    public static File compact(File logFile) throws IOException {
+        String logPath = logFile.getPath();
+        if (!logPath.endsWith(LOG_SUFFIX)) {
+            throw new IOException("Not a match log: " + logFile);
+        }
+        File file = new File(logPath.substring(0, logPath.length() - LOG_SUFFIX.length()));
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(logFile), UTF8));
+        JSONObject theMatch;
+        try {
+            String line = in.readLine();
+            if (line == null) {
+                throw new IOException("Empty match log: " + logFile);
+            }
+            theMatch = new JSONObject(line);
+            while ((line = in.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                JSONObject theDelta;
+                try {
+                    theDelta = new JSONObject(line);
+                } catch (JSONException e) {
+                    // The last line may have been cut short when the server stopped
+                    break;
+                }
+                for (Iterator<?> keys = theDelta.keys(); keys.hasNext(); ) {
+                    String key = keys.next().toString();
+                    if (!theMatch.has(key)) {
+                        theMatch.put(key, new JSONArray());
+                    }
+                    JSONArray theHistory = theMatch.getJSONArray(key);
+                    JSONArray theAdditions = theDelta.getJSONArray(key);
+                    for (int i = 0; i < theAdditions.length(); i++) {
+                        theHistory.put(theAdditions.get(i));
+                    }
+                }
+            }
+            theMatch.remove("matchHostPK");
+            theMatch.remove("matchHostSignature");
+        } catch (JSONException e) {
+            throw new IOException("Could not parse match log " + logFile + ": " + e);
+        } finally {
+            in.close();
+        }
+
+        replace(file, theMatch.toString());
+        logFile.delete();
+        return file;
+    }
+
+    // Writes the whole file next to where it belongs, and then moves it into
+    // place, so that a reader never sees half of it
+    private static void replace(File file, String contents) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        Writer out = new OutputStreamWriter(new FileOutputStream(temp), UTF8);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not move " + temp + " to " + file);
+            }
+        }
+    }
+
+    /*
+     * Something for the writer to do: append a line to a log, starting it
+     * afresh if asked, or write a finished match to its file and delete the
+     * log it replaces.
+     */
+    private static final class Entry {
+        final File logFile;
+        final File file;
+        final String contents;
+        final boolean truncate;
+
+        Entry(File logFile, String line, boolean truncate) {
+            this.logFile = logFile;
+            this.file = null;
+            this.contents = line;
+            this.truncate = truncate;
+        }
+
+        Entry(File logFile, File file, String match) {
+            this.logFile = logFile;
+            this.file = file;
+            this.contents = match;
+            this.truncate = false;
+        }
+    }
+
+    private static final LogWriter writer = new LogWriter();
+
+    private static final class LogWriter extends Thread {
+        private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+        private long enqueued = 0;
+        private long written = 0;
+
+        LogWriter() {
+            super("MatchLog writer");
+            setDaemon(true);
+            start();
+        }
+
+        synchronized void enqueue(Entry entry) {
+            enqueued++;
+            queue.add(entry);
+        }
+
+        synchronized void sync() throws InterruptedException {
+            long target = enqueued;
+            while (written < target) {
+                wait();
+            }
+        }
+
+        private synchronized void markWritten(int count) {
+            written += count;
+            notifyAll();
+        }
+
+        @Override
+        public void run() {
+            List<Entry> batch = new ArrayList<Entry>();
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                queue.drainTo(batch);
+                writeBatch(batch);
+                markWritten(batch.size());
+                batch.clear();
+            }
+        }
+
+        // Keeps each log open for as long as the batch has lines for it
+        private static void writeBatch(List<Entry> batch) {
+            Map<File, BufferedWriter> open = new LinkedHashMap<File, BufferedWriter>();
+            for (Entry entry : batch) {
+                try {
+                    if (entry.file != null || entry.truncate) {
+                        close(open.remove(entry.logFile));
+                    }
+                    if (entry.file != null) {
+                        replace(entry.file, entry.contents);
+                        entry.logFile.delete();
+                        continue;
+                    }
+
+                    BufferedWriter out = open.get(entry.logFile);
+                    if (out == null) {
+                        out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(entry.logFile, !entry.truncate), UTF8));
+                        open.put(entry.logFile, out);
+                    }
+                    out.write(entry.contents);
+                    out.newLine();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (BufferedWriter out : open.values()) {
+                close(out);
+            }
+        }
+
+        private static void close(Writer out) {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -11,17 +11,20 @@ public class PlayerPresence {
 	private String name;
 	private String status;
 	private long statusTime;
+	private int failures;
 
-	PlayerPresence(String host, int port) {
+	public PlayerPresence(String host, int port) {
 		this.host = host;
 		this.port = port;
 		this.name = null;
 		this.status = null;
 		this.statusTime = 0;
+		this.failures = 0;
 	}
 
 	public void updateInfo() {
 		InfoResponse info;
+		boolean failed = false;
 		try {
 			String infoFull = HttpRequest.issueRequest(host, port, "", RequestBuilder.getInfoRequest(), 1000);
 			info = InfoResponse.create(infoFull);
@@ -29,11 +32,13 @@ public class PlayerPresence {
 			info = new InfoResponse();
 			info.setName(null);
 			info.setStatus("error");
+			failed = true;
 		}
 		synchronized(this) {
 			name = info.getName();
 			status = info.getStatus();
 			statusTime = System.currentTimeMillis();
+			failures = failed ? failures + 1 : 0;
 		}
 	}
 
@@ -49,6 +54,26 @@ public class PlayerPresence {
 		return System.currentTimeMillis() - statusTime;
 	}
 
+	/**
+	 * Returns how many updates in a row have failed to reach the player.
+	 */
+	public synchronized int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns how old the status should get before the player is checked on
+	 * again: the given period while it answers, doubling with every failure
+	 * in a row after the first, up to maxDelay.
+	 */
+	public synchronized long getUpdateDelay(long period, long maxDelay) {
+		long delay = period;
+		for (int i = 1; i < failures && delay < maxDelay; i++) {
+			delay *= 2;
+		}
+		return Math.min(delay, maxDelay);
+	}
+
 	public String getHost() {
 		return host;
 	}
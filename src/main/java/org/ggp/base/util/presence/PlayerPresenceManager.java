@@ -8,12 +8,22 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.charset.Charset;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import org.ggp.base.util.observer.Event;
 import org.ggp.base.util.observer.Observer;
@@ -23,8 +33,21 @@ import external.JSON.JSONArray;
 import external.JSON.JSONException;
 import external.JSON.JSONObject;
 
+/**
+ * PlayerPresenceManager keeps track of the players a server knows about,
+ * checking on each of them every so often with an info request to learn
+ * its name and status.
+ *
+ * Players are checked in sweeps, run on a schedule every ping period. Each
+ * sweep sends info requests to every player that is due, all at once, so
+ * a player that is slow to answer holds up nobody else; and once they have
+ * all answered or timed out, observers are sent one PlayerPresenceChanged
+ * if anything changed. A player that can't be reached is checked on less
+ * often the longer it stays that way, backing off to once every
+ * MAX_INFO_PING_BACKOFF_IN_SECONDS.
+ */
 public class PlayerPresenceManager implements Subject {
-	private Map<String,PlayerPresence> monitoredPlayers;
+	private final Map<String,PlayerPresence> monitoredPlayers;
 
 	public class PlayerPresenceChanged extends Event {}
 	public class PlayerPresenceAdded extends Event {}
@@ -35,38 +58,73 @@ public class PlayerPresenceManager implements Subject {
 	}
 
 	public static final int INFO_PING_PERIOD_IN_SECONDS = 1;
-	class PresenceMonitor extends Thread {
-		@Override
-		public void run() {
-			while(true) {
-				try {
-					Thread.sleep(INFO_PING_PERIOD_IN_SECONDS);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				Set<String> keys = new HashSet<String>(monitoredPlayers.keySet());
-				for (String key : keys) {
-					PlayerPresence presence = monitoredPlayers.get(key);
-					if (presence == null) continue;
-					if (presence.getStatusAge() > INFO_PING_PERIOD_IN_SECONDS*1000) {
-						String old_name = presence.getName();
-						String old_status = presence.getStatus();
-						presence.updateInfo();
-						String new_name = presence.getName();
-						String new_status = presence.getStatus();
-						if (isDifferent(old_status, new_status)) {
-							notifyObservers(new PlayerPresenceChanged());
-						} else if (isDifferent(old_name, new_name)) {
-							notifyObservers(new PlayerPresenceChanged());
-						}
-					}
+	public static final int MAX_INFO_PING_BACKOFF_IN_SECONDS = 60;
+	private static final int INFO_PING_THREADS = 8;
+
+	private final long pingPeriod;
+	private final ScheduledExecutorService monitor;
+	private final ExecutorService pingers;
+
+	private static ThreadFactory daemonThreads(final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, name);
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	// Checks on every player that is due, and tells the observers about any
+	// changes once all of them have been heard from
+	private void sweep() {
+		long maxDelay = MAX_INFO_PING_BACKOFF_IN_SECONDS * 1000L;
+		List<Callable<Boolean>> updates = new ArrayList<Callable<Boolean>>();
+		for (final PlayerPresence presence : monitoredPlayers.values()) {
+			if (presence.getStatusAge() < presence.getUpdateDelay(pingPeriod, maxDelay)) {
+				continue;
+			}
+			updates.add(new Callable<Boolean>() {
+				@Override
+				public Boolean call() {
+					String old_name = presence.getName();
+					String old_status = presence.getStatus();
+					presence.updateInfo();
+					return isDifferent(old_status, presence.getStatus()) || isDifferent(old_name, presence.getName());
 				}
+			});
+		}
+		if (updates.isEmpty()) {
+			return;
+		}
+
+		boolean changed = false;
+		try {
+			for (Future<Boolean> update : pingers.invokeAll(updates)) {
+				changed |= update.get();
 			}
+		} catch (InterruptedException e) {
+			return;
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		if (changed) {
+			notifyObservers(new PlayerPresenceChanged());
 		}
 	}
 
 	public PlayerPresenceManager() {
-		monitoredPlayers = new HashMap<String,PlayerPresence>();
+		this(INFO_PING_PERIOD_IN_SECONDS * 1000L);
+	}
+
+	/**
+	 * Creates a manager that checks on its players every pingPeriod
+	 * milliseconds, or less often for players that can't be reached.
+	 */
+	public PlayerPresenceManager(long pingPeriod) {
+		this.pingPeriod = pingPeriod;
+		monitoredPlayers = new ConcurrentHashMap<String,PlayerPresence>();
 		loadPlayersJSON();
 		if (monitoredPlayers.size() == 0) {
 			try {
@@ -78,7 +136,28 @@ public class PlayerPresenceManager implements Subject {
 				;
 			}
 		}
-		new PresenceMonitor().start();
+
+		pingers = Executors.newFixedThreadPool(INFO_PING_THREADS, daemonThreads("PlayerPresence ping"));
+		monitor = Executors.newSingleThreadScheduledExecutor(daemonThreads("PlayerPresence monitor"));
+		monitor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					sweep();
+				} catch (RuntimeException e) {
+					// Keep the schedule going whatever happens
+					e.printStackTrace();
+				}
+			}
+		}, 0, pingPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops checking on the players.
+	 */
+	public void shutdown() {
+		monitor.shutdownNow();
+		pingers.shutdownNow();
 	}
 
 	@SuppressWarnings("serial")
@@ -123,7 +202,7 @@ public class PlayerPresenceManager implements Subject {
 		return new TreeSet<String>(monitoredPlayers.keySet());
 	}
 
-	private Set<Observer> observers = new HashSet<Observer>();
+	private Set<Observer> observers = new CopyOnWriteArraySet<Observer>();
 	@Override
 	public void addObserver(Observer observer) {
 		observers.add(observer);
@@ -1,5 +1,7 @@
 package org.ggp.base.util.propnet.architecture;
 
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -11,6 +13,7 @@ import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
 import org.ggp.base.util.propnet.architecture.components.Not;
 import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
@@ -20,10 +23,18 @@ import org.ggp.base.util.statemachine.Role;
 /**
  * The class IIPropNet is a generalization of the existing PropNet paradigm to
  * GGP with Incomplete Information. Each IIPropNet wraps around an existing
- * propnet and associates a double II-value to each Proposition in the net.
- * A value of 1 represents true, 0 represents false, and all numbers in between
- * represent an unknown truth value. For now, all unknown propositions have ii-value
- * of 0.5.
+ * propnet and associates an II-value to each Proposition in the net: TRUE,
+ * FALSE or UNKNOWN. The methods that take a double use 1 for true, 0 for
+ * false and 0.5 for unknown.
+ *
+ * Every component is numbered with an ordinal, and the II-values are kept in
+ * a byte array indexed by it, along with the value each component takes given
+ * those II-values: a proposition with a known II-value takes that value, a
+ * view proposition with an unknown one takes the value of its input, and
+ * gates combine the values of their inputs in three-valued logic. Setting an
+ * II-value only marks the component as changed; the values are brought up to
+ * date the next time one is read, by visiting just the changed components and
+ * whatever depends on them, in topological order.
  *
  * The IIPropNet class also track "sees" propositions much like a traditional
  * propnet does for "legals," "base," etc. IIPropNets also assign each Transition
@@ -37,9 +48,43 @@ import org.ggp.base.util.statemachine.Role;
 
 public final class IIPropNet {
 
+	public static final byte FALSE = 0;
+	public static final byte TRUE = 1;
+	public static final byte UNKNOWN = 2;
+
+	// Kinds of component, in types[]. A view proposition has a single input
+	// that isn't a transition; any other proposition only takes its II-value.
+	private static final byte PROPOSITION = 0;
+	private static final byte VIEW = 1;
+	private static final byte AND = 2;
+	private static final byte OR = 3;
+	private static final byte NOT = 4;
+	private static final byte TRANSITION = 5;
+	private static final byte CONSTANT = 6;
+
 	private final PropNet propNet;
 
-	private Map<Proposition, Double> iivalues;
+	private Component[] components;
+	private Map<Component, Integer> ordinals;
+	private byte[] types;
+	private int[][] inputs;
+	/** The components whose values are computed from each component's value */
+	private int[][] dependents;
+	/** Components in topological order, and the position of each in it */
+	private int[] order;
+	private int[] rank;
+	private BitSet inputPropositions;
+	private BitSet basePropositions;
+
+	private byte[] iivalues;
+	private byte[] values;
+	/** The last known II-value of each proposition, which stays put while it is unknown */
+	private BitSet lastValues;
+	/** Propositions other than inputs with known II-values */
+	private BitSet known;
+	private boolean[] changed;
+	private int numChanged;
+	private int firstChangedRank;
 
 	/** References to every SeesProposition, indexed by role. */
 	private final Map<Role, Set<Proposition>> seesPropositionsByRole;
@@ -68,12 +113,41 @@ public final class IIPropNet {
 
 		this.seesPropositionsByRole = recordSeesPropositionsByRole();
 		this.seesPropositionsByName = recordSeesPropositionsByName();
-		this.iivalues = createIIValuesMap();
+		index();
 		transitions = recordTransitions();
 		nonDoesTransitions = recordNonDoesTransitions();
 		doesTransitions = recordDoesTransitions();
 	}
 
+	private IIPropNet(IIPropNet original) {
+		this.propNet = original.propNet;
+		this.seesPropositionsByRole = original.seesPropositionsByRole;
+		this.seesPropositionsByName = original.seesPropositionsByName;
+		this.transitions = original.transitions;
+		this.nonDoesTransitions = original.nonDoesTransitions;
+		this.doesTransitions = original.doesTransitions;
+
+		this.components = original.components;
+		this.ordinals = original.ordinals;
+		this.types = original.types;
+		this.inputs = original.inputs;
+		this.dependents = original.dependents;
+		this.order = original.order;
+		this.rank = original.rank;
+		this.inputPropositions = original.inputPropositions;
+		this.basePropositions = original.basePropositions;
+		newMarking();
+	}
+
+	/**
+	 * Returns a copy that shares this IIPropNet's propnet and indices, but has
+	 * its own II-values, all unknown. A fork can be used on another thread
+	 * while the original is in use, as long as neither is changed structurally.
+	 */
+	public IIPropNet fork() {
+		return new IIPropNet(this);
+	}
+
 	public Map<Role, Set<Proposition>> getSeesPropositionsByRole() {
 		return seesPropositionsByRole;
 	}
@@ -82,10 +156,6 @@ public final class IIPropNet {
 		return seesPropositionsByName;
 	}
 
-	public Map<Proposition, Double> getIIValues() {
-		return iivalues;
-	}
-
 	public Set<Transition> getTransitions() {
 		return transitions;
 	}
@@ -102,25 +172,287 @@ public final class IIPropNet {
 		return propNet.getLegalInputMap();
 	}
 
-	private Map<Proposition, Double> createIIValuesMap() {
-		Map<Proposition, Double> iivalues = new HashMap<Proposition, Double>();
-		for (Proposition prop : getPropositions()) {
-			iivalues.put(prop, 0.5);
+	/**
+	 * Numbers the components, and sets every II-value to unknown.
+	 */
+	private void index() {
+		int n = getComponents().size();
+		components = getComponents().toArray(new Component[n]);
+		ordinals = new HashMap<Component, Integer>(2 * n);
+		for (int i = 0; i < n; i++) {
+			ordinals.put(components[i], i);
+		}
+
+		types = new byte[n];
+		inputs = new int[n][];
+		inputPropositions = new BitSet(n);
+		basePropositions = new BitSet(n);
+		for (int i = 0; i < n; i++) {
+			Component c = components[i];
+			inputs[i] = getOrdinals(c.getInputs());
+			if (c instanceof Proposition) {
+				boolean view = inputs[i].length == 1 && !(c.getSingleInput() instanceof Transition);
+				types[i] = view ? VIEW : PROPOSITION;
+			} else if (c instanceof And) {
+				types[i] = AND;
+			} else if (c instanceof Or) {
+				types[i] = OR;
+			} else if (c instanceof Not) {
+				types[i] = NOT;
+			} else if (c instanceof Transition) {
+				types[i] = TRANSITION;
+			} else if (c instanceof Constant) {
+				types[i] = CONSTANT;
+			}
+		}
+		for (Proposition p : getInputPropositions().values()) {
+			inputPropositions.set(getOrdinal(p));
+		}
+		for (Proposition p : getBasePropositions().values()) {
+			basePropositions.set(getOrdinal(p));
+		}
+
+		// Plain propositions depend on nothing, which breaks the cycles
+		// through transitions
+		int[] numDependents = new int[n];
+		int[] numDependencies = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (types[i] != PROPOSITION) {
+				for (int input : inputs[i]) {
+					numDependents[input]++;
+				}
+				numDependencies[i] = inputs[i].length;
+			}
+		}
+		dependents = new int[n][];
+		for (int i = 0; i < n; i++) {
+			dependents[i] = new int[numDependents[i]];
+			numDependents[i] = 0;
+		}
+		for (int i = 0; i < n; i++) {
+			if (types[i] != PROPOSITION) {
+				for (int input : inputs[i]) {
+					dependents[input][numDependents[input]++] = i;
+				}
+			}
+		}
+
+		order = new int[n];
+		rank = new int[n];
+		int numOrdered = 0;
+		for (int i = 0; i < n; i++) {
+			if (numDependencies[i] == 0) {
+				order[numOrdered++] = i;
+			}
+		}
+		for (int next = 0; next < numOrdered; next++) {
+			int c = order[next];
+			rank[c] = next;
+			for (int dependent : dependents[c]) {
+				if (--numDependencies[dependent] == 0) {
+					order[numOrdered++] = dependent;
+				}
+			}
+		}
+		if (numOrdered != n) {
+			throw new IllegalStateException("The propnet has a cycle that doesn't pass through a transition.");
+		}
+
+		newMarking();
+	}
+
+	// Sets up the II-values, all unknown, and the values that follow from them
+	private void newMarking() {
+		int n = components.length;
+		iivalues = new byte[n];
+		for (int i = 0; i < n; i++) {
+			if (types[i] == CONSTANT) {
+				iivalues[i] = components[i].getValue() ? TRUE : FALSE;
+			} else {
+				iivalues[i] = UNKNOWN;
+			}
+		}
+		values = new byte[n];
+		lastValues = new BitSet(n);
+		known = new BitSet(n);
+		changed = new boolean[n];
+		numChanged = 0;
+		firstChangedRank = n;
+		for (int i = 0; i < n; i++) {
+			markChanged(i);
 		}
-		return iivalues;
 	}
 
-	public void setIIValue(Proposition prop, double value) {
-		iivalues.put(prop, value);
-		if (value == 0) {
-			prop.setValue(false);
-		} else if (value == 1) {
-			prop.setValue(true);
+	public int getOrdinal(Component c) {
+		return ordinals.get(c);
+	}
+
+	public int[] getOrdinals(Collection<? extends Component> collection) {
+		int[] result = new int[collection.size()];
+		int i = 0;
+		for (Component c : collection) {
+			result[i++] = ordinals.get(c);
 		}
+		return result;
+	}
+
+	public Component getComponent(int ordinal) {
+		return components[ordinal];
+	}
+
+	public int[] getInputs(int ordinal) {
+		return inputs[ordinal];
+	}
+
+	public boolean isInputProposition(int ordinal) {
+		return inputPropositions.get(ordinal);
+	}
+
+	public boolean isBaseProposition(int ordinal) {
+		return basePropositions.get(ordinal);
+	}
+
+	public boolean isProposition(int ordinal) {
+		return types[ordinal] == PROPOSITION || types[ordinal] == VIEW;
+	}
+
+	public boolean isView(int ordinal) {
+		return types[ordinal] == VIEW;
+	}
+
+	public boolean isAnd(int ordinal) {
+		return types[ordinal] == AND;
+	}
+
+	public boolean isOr(int ordinal) {
+		return types[ordinal] == OR;
+	}
+
+	public boolean isNot(int ordinal) {
+		return types[ordinal] == NOT;
+	}
+
+	public boolean isTransition(int ordinal) {
+		return types[ordinal] == TRANSITION;
+	}
+
+	public void setIIValue(Proposition prop, double value) {
+		setIIValue(getOrdinal(prop), (value == 0) ? FALSE : (value == 1) ? TRUE : UNKNOWN);
 	}
 
 	public double getIIValue(Proposition prop) {
-		return iivalues.get(prop);
+		return toDouble(iivalues[getOrdinal(prop)]);
+	}
+
+	public static double toDouble(byte value) {
+		return (value == UNKNOWN) ? 0.5 : value;
+	}
+
+	public void setIIValue(int ordinal, byte value) {
+		if (iivalues[ordinal] == value) {
+			return;
+		}
+		iivalues[ordinal] = value;
+		if (value != UNKNOWN) {
+			lastValues.set(ordinal, value == TRUE);
+		}
+		if (!inputPropositions.get(ordinal)) {
+			known.set(ordinal, value != UNKNOWN);
+		}
+		markChanged(ordinal);
+	}
+
+	public byte getIIValue(int ordinal) {
+		return iivalues[ordinal];
+	}
+
+	/**
+	 * Returns the last known II-value of a proposition, whether or not it is
+	 * known now.
+	 */
+	public boolean getLastValue(int ordinal) {
+		return lastValues.get(ordinal);
+	}
+
+	/**
+	 * Returns the value a component takes given the current II-values.
+	 */
+	public byte getValue(int ordinal) {
+		if (numChanged > 0) {
+			propagate();
+		}
+		return values[ordinal];
+	}
+
+	/**
+	 * Sets the II-value of every proposition other than the inputs back to
+	 * unknown, in time proportional to how many of them were known.
+	 */
+	public void clearIIValues() {
+		for (int i = known.nextSetBit(0); i >= 0; i = known.nextSetBit(i + 1)) {
+			iivalues[i] = UNKNOWN;
+			markChanged(i);
+		}
+		known.clear();
+	}
+
+	private void markChanged(int ordinal) {
+		if (!changed[ordinal]) {
+			changed[ordinal] = true;
+			numChanged++;
+			if (rank[ordinal] < firstChangedRank) {
+				firstChangedRank = rank[ordinal];
+			}
+		}
+	}
+
+	private void propagate() {
+		for (int r = firstChangedRank; numChanged > 0; r++) {
+			int c = order[r];
+			if (!changed[c]) {
+				continue;
+			}
+			changed[c] = false;
+			numChanged--;
+
+			byte value = evaluate(c);
+			if (value != values[c]) {
+				values[c] = value;
+				for (int dependent : dependents[c]) {
+					markChanged(dependent);
+				}
+			}
+		}
+		firstChangedRank = order.length;
+	}
+
+	private byte evaluate(int c) {
+		switch (types[c]) {
+		case VIEW:
+			return (iivalues[c] == UNKNOWN) ? values[inputs[c][0]] : iivalues[c];
+		case AND: {
+			byte value = TRUE;
+			for (int input : inputs[c]) {
+				if (values[input] == FALSE) return FALSE;
+				if (values[input] == UNKNOWN) value = UNKNOWN;
+			}
+			return value;
+		}
+		case OR: {
+			byte value = FALSE;
+			for (int input : inputs[c]) {
+				if (values[input] == TRUE) return TRUE;
+				if (values[input] == UNKNOWN) value = UNKNOWN;
+			}
+			return value;
+		}
+		case NOT:
+			return (values[inputs[c][0]] == UNKNOWN) ? UNKNOWN : (byte) (1 - values[inputs[c][0]]);
+		case TRANSITION:
+			return values[inputs[c][0]];
+		default:
+			return iivalues[c];
+		}
 	}
 
 	/**
@@ -442,5 +774,8 @@ public final class IIPropNet {
 		//These are actually unnecessary...
 		//c.removeAllInputs();
 		//c.removeAllOutputs();
+
+		// The ordinals change, so every II-value goes back to unknown
+		index();
 	}
 }
@@ -3,6 +3,7 @@ package org.ggp.base.util.propnet.architecture;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -22,6 +23,7 @@ import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.ZobristKeys;
 
 
 /**
@@ -98,6 +100,9 @@ public final class PropNet
 	/** A helper list of all of the roles. */
 	private final List<Role> roles;
 
+	/** The sentences true in the initial state, or null if unknown. */
+	private final Set<GdlSentence> initialState;
+
 	public void addComponent(Component c)
 	{
 		components.add(c);
@@ -112,9 +117,25 @@ public final class PropNet
 	 *            A list of Components.
 	 */
 	public PropNet(List<Role> roles, Set<Component> components)
+	{
+		this(roles, components, null);
+	}
+
+	/**
+	 * Creates a new PropNet from a list of Components, along with the
+	 * initial state given by the game's init rules.
+	 *
+	 * @param components
+	 *            A list of Components.
+	 * @param initialState
+	 *            The (true ...) sentences of the initial state, or null if
+	 *            they are not known.
+	 */
+	public PropNet(List<Role> roles, Set<Component> components, Set<GdlSentence> initialState)
 	{
 
 	    this.roles = roles;
+	    this.initialState = initialState == null ? null : Collections.unmodifiableSet(new HashSet<GdlSentence>(initialState));
 		this.components = components;
 		this.propositions = recordPropositions();
 		this.basePropositions = recordBasePropositions();
@@ -201,6 +222,20 @@ public final class PropNet
 		return initProposition;
 	}
 
+	/**
+	 * Getter method. The initial state as given by the init rules, which may
+	 * name bases the PropNet has since dropped. Propagating the InitProposition
+	 * is not the same: INIT is ORed into the transitions, so it also turns on
+	 * every base whose next rules hold in the empty state.
+	 *
+	 * @return The (true ...) sentences of the initial state, or null if the
+	 *         PropNet was built without them.
+	 */
+	public Set<GdlSentence> getInitialState()
+	{
+		return initialState;
+	}
+
 	/**
 	 * Getter method.
 	 *
@@ -302,6 +337,7 @@ public final class PropNet
 			Component component = proposition.getSingleInput();
 			if (component instanceof Transition) {
 				basePropositions.put(proposition.getName(), proposition);
+				proposition.setZobristKey(ZobristKeys.keyFor(proposition.getName()));
 			}
 		}
 
@@ -13,6 +13,8 @@ public final class Proposition extends Component {
 	/** The name of the Proposition. */
 	private GdlSentence name;
 	public boolean base;
+	/** The Zobrist key of a base proposition's name, assigned when the PropNet is built. */
+	private long zobristKey;
 
 	/**
 	 * Creates a new Proposition with name <tt>name</tt>.
@@ -44,6 +46,19 @@ public final class Proposition extends Component {
 		name = newName;
 	}
 
+	/**
+	 * Getter method.
+	 *
+	 * @return The Zobrist key of the Proposition, or 0 if it is not a base.
+	 */
+	public long getZobristKey() {
+		return zobristKey;
+	}
+
+	public void setZobristKey(long key) {
+		zobristKey = key;
+	}
+
 	/**
 	 * Returns the current value of the Proposition.
 	 *
@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +13,11 @@ import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.ggp.base.util.Pair;
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
@@ -27,6 +33,7 @@ import org.ggp.base.util.gdl.grammar.GdlRelation;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.grammar.GdlVariable;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
 import org.ggp.base.util.gdl.model.SentenceDomainModel;
 import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
 import org.ggp.base.util.gdl.model.SentenceDomainModelOptimizer;
@@ -56,6 +63,7 @@ import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.statemachine.Role;
 
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.HashMultiset;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
@@ -114,9 +122,31 @@ public class OptimizingPropNetFactory {
 	}
 
 	public static PropNet create(List<Gdl> description, boolean verbose, boolean printSize) throws InterruptedException {
+		return create(description, verbose, printSize, null);
+	}
+
+	/**
+	 * Creates a PropNet for the game with the given description, building
+	 * independent sentence forms concurrently on the given pool.
+	 *
+	 * @throws InterruptedException if the thread is interrupted during
+	 * PropNet creation.
+	 */
+	public static PropNet create(List<Gdl> description, ForkJoinPool pool) throws InterruptedException {
+		return create(description, false, true, pool);
+	}
+
+	/**
+	 * If pool is null, sentence forms are added one at a time in topological
+	 * order. Otherwise the strata of the dependency graph are grouped into
+	 * levels whose strata don't depend on one another, and the forms in each
+	 * level are added concurrently on the pool.
+	 */
+	public static PropNet create(List<Gdl> description, boolean verbose, boolean printSize, ForkJoinPool pool) throws InterruptedException {
 		//System.out.println("Building propnet...");
 
 		long startTime = System.currentTimeMillis();
+		PhaseTimer phases = new PhaseTimer();
 
 		description = GdlCleaner.run(description);
 		description = DeORer.run(description);
@@ -124,7 +154,7 @@ public class OptimizingPropNetFactory {
 		description = Relationizer.run(description);
 
 		description = CondensationIsolator.run(description);
-
+		phases.end("transforms");
 
 		if(verbose)
 			for(Gdl gdl : description)
@@ -137,6 +167,7 @@ public class OptimizingPropNetFactory {
 		//See chinesecheckers4's "count" relation for an example of why this
 		//could be useful.
 		model = SentenceDomainModelOptimizer.restrictDomainsToUsefulValues(model);
+		phases.end("model");
 
 		if(verbose)
 			System.out.println("Setting constants...");
@@ -144,6 +175,7 @@ public class OptimizingPropNetFactory {
 		ConstantChecker constantChecker = ConstantCheckerFactory.createWithForwardChaining(model);
 		if(verbose)
 			System.out.println("Done setting constants");
+		phases.end("constants");
 
 		Set<String> sentenceFormNames = SentenceForms.getNames(model.getSentenceForms());
 		boolean usingBase = sentenceFormNames.contains("base");
@@ -160,63 +192,62 @@ public class OptimizingPropNetFactory {
 			System.out.flush();
 		}
 		ConcurrencyUtils.checkForInterruption();
-		List<SentenceForm> topologicalOrdering = getTopologicalOrdering(model.getSentenceForms(), dependencyGraph, usingBase, usingInput);
+		List<SentenceForm> topologicalOrdering = null;
+		List<List<Set<SentenceForm>>> levels = null;
+		if(pool == null)
+			topologicalOrdering = getTopologicalOrdering(model.getSentenceForms(), dependencyGraph, usingBase, usingInput);
+		else
+			levels = getIndependentLevels(model.getSentenceForms(), dependencyGraph, usingBase, usingInput);
 		if(verbose)
 			System.out.println("done");
+		phases.end("ordering");
 
 		List<Role> roles = Role.computeRoles(description);
-		Map<GdlSentence, Component> components = new HashMap<GdlSentence, Component>();
-		Map<GdlSentence, Component> negations = new HashMap<GdlSentence, Component>();
+		Map<GdlSentence, Component> components;
+		Map<GdlSentence, Component> negations;
+		if(pool == null) {
+			components = new HashMap<GdlSentence, Component>();
+			negations = new HashMap<GdlSentence, Component>();
+		} else {
+			components = new ConcurrentHashMap<GdlSentence, Component>();
+			negations = new ConcurrentHashMap<GdlSentence, Component>();
+		}
 		Constant trueComponent = new Constant(true);
 		Constant falseComponent = new Constant(false);
 		Map<SentenceForm, FunctionInfo> functionInfoMap = new HashMap<SentenceForm, FunctionInfo>();
 		Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues = new HashMap<SentenceForm, Collection<GdlSentence>>();
-		for(SentenceForm form : topologicalOrdering) {
-			ConcurrencyUtils.checkForInterruption();
+		if(pool != null) {
+			addSentenceFormsInParallel(levels, pool, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+		} else {
+			for(SentenceForm form : topologicalOrdering) {
+				ConcurrencyUtils.checkForInterruption();
 
-			if(verbose) {
-				System.out.print("Adding sentence form " + form);
-				System.out.flush();
-			}
-			if(constantChecker.isConstantForm(form)) {
-				if(verbose)
-					System.out.println(" (constant)");
-				//Only add it if it's important
-				if(form.getName().equals(LEGAL)
-						|| form.getName().equals(GOAL)
-						|| form.getName().equals(INIT)) {
-					//Add it
-					for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
-						Proposition trueProp = new Proposition(trueSentence);
-						trueProp.addInput(trueComponent);
-						trueComponent.addOutput(trueProp);
-						components.put(trueSentence, trueComponent);
-					}
+				if(verbose) {
+					System.out.print("Adding sentence form " + form);
+					System.out.flush();
+				}
+				if(constantChecker.isConstantForm(form)) {
+					addConstantForm(form, components, trueComponent, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+					continue;
 				}
-
 				if(verbose)
-					System.out.println("Checking whether " + form + " is a functional constant...");
-				addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
-				addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
-
-				continue;
+					System.out.println();
+				//TODO: Adjust "recursive forms" appropriately
+				//Add a temporary sentence form thingy? ...
+				Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+				Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+				addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+				//TODO: Pass these over groups of multiple sentence forms
+				if(verbose && !temporaryComponents.isEmpty())
+					System.out.println("Processing temporary components...");
+				processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
+				addFormToCompletedValues(form, completedSentenceFormValues, components);
+				//if(verbose)
+					//TODO: Add this, but with the correct total number of components (not just Propositions)
+					//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 			}
-			if(verbose)
-				System.out.println();
-			//TODO: Adjust "recursive forms" appropriately
-			//Add a temporary sentence form thingy? ...
-			Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
-			Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
-			addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, Collections.singleton(form), temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
-			//TODO: Pass these over groups of multiple sentence forms
-			if(verbose && !temporaryComponents.isEmpty())
-				System.out.println("Processing temporary components...");
-			processTemporaryComponents(temporaryComponents, temporaryNegations, components, negations, trueComponent, falseComponent);
-			addFormToCompletedValues(form, completedSentenceFormValues, components);
-			//if(verbose)
-				//TODO: Add this, but with the correct total number of components (not just Propositions)
-				//System.out.println("  "+completedSentenceFormValues.get(form).size() + " components added");
 		}
+		phases.end("sentence forms");
 		//Connect "next" to "true"
 		if(verbose)
 			System.out.println("Adding transitions...");
@@ -224,9 +255,10 @@ public class OptimizingPropNetFactory {
 		//Set up "init" proposition
 		if(verbose)
 			System.out.println("Setting up 'init' proposition...");
-		setUpInit(components, trueComponent, falseComponent);
+		Set<GdlSentence> initialState = setUpInit(components, trueComponent, falseComponent);
 		//Now we can safely...
 		removeUselessBasePropositions(components, negations, trueComponent, falseComponent);
+		phases.end("transitions");
 		if(verbose)
 			System.out.println("Creating component set...");
 		Set<Component> componentSet = new HashSet<Component>(components.values());
@@ -242,19 +274,153 @@ public class OptimizingPropNetFactory {
 
 		normalizePropositions(componentSet);
 
-		PropNet propnet = new PropNet(roles, componentSet);
+		PropNet propnet = new PropNet(roles, componentSet, initialState);
 		removeAnonymousPropositions(propnet);
 		removeInits(propnet);
+		phases.end("cleanup");
 
 		if(printSize) {
 			System.out.println("Done setting up propnet; took " + (System.currentTimeMillis() - startTime) + "ms, has " + componentSet.size() + " components and " + propnet.getNumLinks() + " links");
 			System.out.println("Propnet has " +propnet.getNumAnds()+" ands; "+propnet.getNumOrs()+" ors; "+propnet.getNumNots()+" nots");
+			System.out.println("Propnet phases: " + phases);
 		}
 
 		//System.out.println("...done");
 		return propnet;
 	}
 
+	/**
+	 * Adds the sentence forms one level at a time. Constant forms only touch
+	 * the shared maps, so they are added up front; the rest of the level is
+	 * built concurrently, one task per stratum, each with its own temporary
+	 * components. Those are merged back one stratum at a time, since that can
+	 * rewrite any entry of the shared maps, and then the completed values of
+	 * the level's forms are collected concurrently.
+	 */
+	private static void addSentenceFormsInParallel(List<List<Set<SentenceForm>>> levels, ForkJoinPool pool,
+			final SentenceDomainModel model,
+			final Map<GdlSentence, Component> components,
+			final Map<GdlSentence, Component> negations,
+			final Constant trueComponent, final Constant falseComponent,
+			final boolean usingBase, final boolean usingInput,
+			final Map<SentenceForm, FunctionInfo> functionInfoMap, final ConstantChecker constantChecker,
+			final Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		for(List<Set<SentenceForm>> level : levels) {
+			ConcurrencyUtils.checkForInterruption();
+
+			List<SentenceForm> builtForms = new ArrayList<SentenceForm>();
+			List<Callable<Pair<Map<GdlSentence, Component>, Map<GdlSentence, Component>>>> builders =
+					new ArrayList<Callable<Pair<Map<GdlSentence, Component>, Map<GdlSentence, Component>>>>();
+			for(final Set<SentenceForm> stratum : level) {
+				final List<SentenceForm> forms = new ArrayList<SentenceForm>();
+				for(SentenceForm form : stratum) {
+					if(verbose) {
+						System.out.print("Adding sentence form " + form);
+						System.out.flush();
+					}
+					if(constantChecker.isConstantForm(form)) {
+						addConstantForm(form, components, trueComponent, functionInfoMap, constantChecker, completedSentenceFormValues, verbose);
+					} else {
+						if(verbose)
+							System.out.println();
+						forms.add(form);
+					}
+				}
+				if(forms.isEmpty())
+					continue;
+				builtForms.addAll(forms);
+				builders.add(new Callable<Pair<Map<GdlSentence, Component>, Map<GdlSentence, Component>>>() {
+					@Override
+					public Pair<Map<GdlSentence, Component>, Map<GdlSentence, Component>> call() throws InterruptedException {
+						Map<GdlSentence, Component> temporaryComponents = new HashMap<GdlSentence, Component>();
+						Map<GdlSentence, Component> temporaryNegations = new HashMap<GdlSentence, Component>();
+						for(SentenceForm form : forms) {
+							addSentenceForm(form, model, components, negations, trueComponent, falseComponent, usingBase, usingInput, stratum, temporaryComponents, temporaryNegations, functionInfoMap, constantChecker, completedSentenceFormValues);
+						}
+						return Pair.of(temporaryComponents, temporaryNegations);
+					}
+				});
+			}
+
+			for(Pair<Map<GdlSentence, Component>, Map<GdlSentence, Component>> temporary : invokeAll(pool, builders)) {
+				processTemporaryComponents(temporary.left, temporary.right, components, negations, trueComponent, falseComponent);
+			}
+
+			List<Callable<List<GdlSentence>>> collectors = new ArrayList<Callable<List<GdlSentence>>>();
+			for(final SentenceForm form : builtForms) {
+				collectors.add(new Callable<List<GdlSentence>>() {
+					@Override
+					public List<GdlSentence> call() throws InterruptedException {
+						return getCompletedValues(form, components);
+					}
+				});
+			}
+			List<List<GdlSentence>> values = invokeAll(pool, collectors);
+			for(int i = 0; i < builtForms.size(); i++) {
+				completedSentenceFormValues.put(builtForms.get(i), values.get(i));
+			}
+		}
+	}
+
+	/**
+	 * Runs the tasks on the pool and returns their results in order. If the
+	 * calling thread is interrupted, tasks that haven't started yet are
+	 * cancelled; those already running finish on their own.
+	 */
+	private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws InterruptedException {
+		List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+		for(Callable<T> task : tasks) {
+			futures.add(pool.submit(task));
+		}
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			for(Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof InterruptedException)
+				throw new InterruptedException();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		} finally {
+			for(Future<T> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Times consecutive phases of the propnet's construction.
+	 */
+	private static class PhaseTimer {
+		private final Map<String, Long> times = new LinkedHashMap<String, Long>();
+		private long phaseStart = System.currentTimeMillis();
+
+		/** Ends the current phase, giving it the time since the previous one ended */
+		void end(String phase) {
+			long now = System.currentTimeMillis();
+			times.put(phase, now - phaseStart);
+			phaseStart = now;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for(Entry<String, Long> entry : times.entrySet()) {
+				if(sb.length() > 0)
+					sb.append(", ");
+				sb.append(entry.getKey()).append(" ").append(entry.getValue()).append("ms");
+			}
+			return sb.toString();
+		}
+	}
+
 	private static Set<Proposition> getBasesTrueByInit(PropNet propnet){
 		Set<Proposition> basesTrueByInit = new HashSet<Proposition>();
 
@@ -321,6 +487,12 @@ public class OptimizingPropNetFactory {
 			SentenceForm form,
 			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
 			Map<GdlSentence, Component> components) throws InterruptedException {
+		completedSentenceFormValues.put(form, getCompletedValues(form, components));
+	}
+
+	private static List<GdlSentence> getCompletedValues(
+			SentenceForm form,
+			Map<GdlSentence, Component> components) throws InterruptedException {
 		//Kind of inefficient. Could do better by collecting these as we go,
 		//then adding them back into the CSFV map once the sentence forms are complete.
 		//completedSentenceFormValues.put(form, new ArrayList<GdlSentence>());
@@ -332,10 +504,36 @@ public class OptimizingPropNetFactory {
 				sentences.add(sentence);
 			}
 		}
-		completedSentenceFormValues.put(form, sentences);
+		return sentences;
 	}
 
 
+	private static void addConstantForm(SentenceForm form,
+			Map<GdlSentence, Component> components, Constant trueComponent,
+			Map<SentenceForm, FunctionInfo> functionInfoMap, ConstantChecker constantChecker,
+			Map<SentenceForm, Collection<GdlSentence>> completedSentenceFormValues,
+			boolean verbose) throws InterruptedException {
+		if(verbose)
+			System.out.println(" (constant)");
+		//Only add it if it's important
+		if(form.getName().equals(LEGAL)
+				|| form.getName().equals(GOAL)
+				|| form.getName().equals(INIT)) {
+			//Add it
+			for (GdlSentence trueSentence : constantChecker.getTrueSentences(form)) {
+				Proposition trueProp = new Proposition(trueSentence);
+				trueProp.addInput(trueComponent);
+				trueComponent.addOutput(trueProp);
+				components.put(trueSentence, trueComponent);
+			}
+		}
+
+		if(verbose)
+			System.out.println("Checking whether " + form + " is a functional constant...");
+		addConstantsToFunctionInfo(form, constantChecker, functionInfoMap);
+		addFormToCompletedValues(form, completedSentenceFormValues, constantChecker);
+	}
+
 	private static void addConstantsToFunctionInfo(SentenceForm form,
 			ConstantChecker constantChecker, Map<SentenceForm, FunctionInfo> functionInfoMap) throws InterruptedException {
 		functionInfoMap.put(form, FunctionInfoImpl.create(form, constantChecker));
@@ -701,10 +899,12 @@ public class OptimizingPropNetFactory {
 
 	//TODO: Replace with version using constantChecker only
 	//TODO: This can give problematic results if interpreted in
-	//the standard way (see test_case_3d)
-	private static void setUpInit(Map<GdlSentence, Component> components,
+	//the standard way (see test_case_3d), so the true sentences from
+	//init are returned as well, to be kept as the initial state
+	private static Set<GdlSentence> setUpInit(Map<GdlSentence, Component> components,
 			Constant trueComponent, Constant falseComponent) {
 		Proposition initProposition = new Proposition(GdlPool.getProposition(INIT_CAPS));
+		Set<GdlSentence> initialState = new HashSet<GdlSentence>();
 		for(Entry<GdlSentence, Component> entry : components.entrySet()) {
 			//Is this something that will be true?
 			if(entry.getValue() == trueComponent) {
@@ -712,6 +912,7 @@ public class OptimizingPropNetFactory {
 					//Find the corresponding true sentence
 					GdlSentence trueSentence = GdlPool.getRelation(TRUE, entry.getKey().getBody());
 					//System.out.println("True sentence from init: " + trueSentence);
+					initialState.add(trueSentence);
 					Component trueSentenceComponent = components.get(trueSentence);
 					if(trueSentenceComponent.getInputs().isEmpty()) {
 						//Case where there is no transition input
@@ -741,6 +942,7 @@ public class OptimizingPropNetFactory {
 				}
 			}
 		}
+		return initialState;
 	}
 
 	/**
@@ -755,8 +957,7 @@ public class OptimizingPropNetFactory {
 		for(Component in : inputs) {
 			if(in instanceof Constant && in.getValue()) {
 				//True constant: connect that to the component, done
-				in.addOutput(output);
-				output.addInput(in);
+				connect(in, output);
 				return;
 			}
 		}
@@ -769,28 +970,64 @@ public class OptimizingPropNetFactory {
 		Or or = new Or();
 		for(Component in : inputs) {
 			if(!(in instanceof Constant)) {
-				in.addOutput(or);
-				or.addInput(in);
+				connect(in, or);
 			}
 		}
 		//What if they're all false? (Or inputs is empty?) Then no inputs at this point...
 		if(or.getInputs().isEmpty()) {
 			//Hook up to "false"
-			falseProp.addOutput(output);
-			output.addInput(falseProp);
+			connect(falseProp, output);
 			return;
 		}
 		//If there's just one, on the other hand, don't use the or gate
 		if(or.getInputs().size() == 1) {
 			Component in = or.getSingleInput();
-			in.removeOutput(or);
-			or.removeInput(in);
-			in.addOutput(output);
-			output.addInput(in);
+			disconnect(in, or);
+			connect(in, output);
 			return;
 		}
-		or.addOutput(output);
-		output.addInput(or);
+		connect(or, output);
+	}
+
+	/**
+	 * Adds output as an output of input and input as an input of output.
+	 * When sentence forms are built concurrently, they share the components
+	 * of earlier forms (and the constants) as inputs, so the input's outputs
+	 * are only changed while holding its lock. The output is always a
+	 * component of the form being built.
+	 */
+	private static void connect(Component input, Component output) {
+		synchronized(input) {
+			input.addOutput(output);
+		}
+		output.addInput(input);
+	}
+
+	private static void disconnect(Component input, Component output) {
+		synchronized(input) {
+			input.removeOutput(output);
+		}
+		output.removeInput(input);
+	}
+
+	/**
+	 * Groups the strata of the dependency graph into levels, where no stratum
+	 * depends on another in its level. As in getTopologicalOrdering, true,
+	 * next and init wait for base, and does and legal wait for input.
+	 */
+	private static List<List<Set<SentenceForm>>> getIndependentLevels(
+			Set<SentenceForm> forms,
+			Multimap<SentenceForm, SentenceForm> dependencyGraph, boolean usingBase, boolean usingInput) {
+		Multimap<SentenceForm, SentenceForm> graph = HashMultimap.create(dependencyGraph);
+		for(SentenceForm form : forms) {
+			if(usingBase && (form.getName().equals(TRUE) || form.getName().equals(NEXT) || form.getName().equals(INIT))) {
+				graph.put(form, form.withName(BASE));
+			}
+			if(usingInput && (form.getName().equals(DOES) || form.getName().equals(LEGAL))) {
+				graph.put(form, form.withName(INPUT));
+			}
+		}
+		return DependencyGraphs.toposortLevels(forms, graph);
 	}
 
 	//TODO: This code is currently used by multiple classes, so perhaps it should be
@@ -867,8 +1104,7 @@ public class OptimizingPropNetFactory {
 					|| alwaysTrueSentence.getName().equals(GOAL)) {
 				Proposition prop = new Proposition(alwaysTrueSentence);
 				//Attach to true
-				trueComponent.addOutput(prop);
-				prop.addInput(trueComponent);
+				connect(trueComponent, prop);
 				//Still want the same components;
 				//we just don't want this to be anonymized
 			}
@@ -1025,18 +1261,21 @@ public class OptimizingPropNetFactory {
 
 							//Check if we're sharing a component with another sentence with a negation
 							//(i.e. look for "nots" in our outputs and use those instead)
-							Not existingNotOutput = getNotOutput(positive);
-							if(existingNotOutput != null) {
-								componentsToConnect.add(existingNotOutput);
-								negations.put(transformed, existingNotOutput);
-								continue; //to the next conjunct
+							//Forms built at the same time may negate the same positive, so
+							//finding or adding its "not" has to happen under its lock
+							synchronized(positive) {
+								Not existingNotOutput = getNotOutput(positive);
+								if(existingNotOutput != null) {
+									componentsToConnect.add(existingNotOutput);
+									negations.put(transformed, existingNotOutput);
+									continue; //to the next conjunct
+								}
+
+								Not not = new Not();
+								connect(positive, not);
+								negations.put(transformed, not);
+								conj = not;
 							}
-
-							Not not = new Not();
-							not.addInput(positive);
-							positive.addOutput(not);
-							negations.put(transformed, not);
-							conj = not;
 						}
 						componentsToConnect.add(conj);
 					} else if(literal instanceof GdlDistinct) {
@@ -1075,9 +1314,9 @@ public class OptimizingPropNetFactory {
 				if(input instanceof Constant || input.getInputs().size() == 0) {
 					realInputs.add(input);
 				} else {
-					realInputs.add(input.getSingleInput());
-					input.getSingleInput().removeOutput(input);
-					input.removeAllInputs();
+					Component realInput = input.getSingleInput();
+					realInputs.add(realInput);
+					disconnect(realInput, input);
 				}
 			}
 
@@ -1146,8 +1385,7 @@ public class OptimizingPropNetFactory {
 		for(Component c : inputs) {
 			if(c instanceof Constant && !c.getValue()) {
 				//Connect false (c) to the output
-				output.addInput(c);
-				c.addOutput(output);
+				connect(c, output);
 				return;
 			}
 		}
@@ -1156,28 +1394,23 @@ public class OptimizingPropNetFactory {
 		And and = new And();
 		for(Component in : inputs) {
 			if(!(in instanceof Constant)) {
-				in.addOutput(and);
-				and.addInput(in);
+				connect(in, and);
 			}
 		}
 		//What if they're all true? (Or inputs is empty?) Then no inputs at this point...
 		if(and.getInputs().isEmpty()) {
 			//Hook up to "true"
-			trueProp.addOutput(output);
-			output.addInput(trueProp);
+			connect(trueProp, output);
 			return;
 		}
 		//If there's just one, on the other hand, don't use the and gate
 		if(and.getInputs().size() == 1) {
 			Component in = and.getSingleInput();
-			in.removeOutput(and);
-			and.removeInput(in);
-			in.addOutput(output);
-			output.addInput(in);
+			disconnect(in, and);
+			connect(in, output);
 			return;
 		}
-		and.addOutput(output);
-		output.addInput(and);
+		connect(and, output);
 	}
 
 	/**
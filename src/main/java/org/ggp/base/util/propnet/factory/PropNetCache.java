@@ -0,0 +1,480 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.And;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Not;
+import org.ggp.base.util.propnet.architecture.components.Or;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.ggp.base.util.propnet.architecture.components.Transition;
+import org.ggp.base.util.statemachine.Role;
+
+/**
+ * PropNetCache keeps optimized PropNets on disk, so a game that has been
+ * played before doesn't go through the OptimizingPropNetFactory again.
+ * Entries are keyed by a hash of the game description that ignores the
+ * order and formatting of its rules, together with a hash of the bytecode
+ * of the factory and the propnet classes. Changing any of them moves the
+ * cache to new keys, so a propnet built by older code is never served.
+ *
+ * An entry is a compact binary form of the propnet:
+ * <ul>
+ * <li>a table of every constant in the roles, proposition names and
+ * initial state;</li>
+ * <li>the roles, as indices into that table;</li>
+ * <li>one type byte per component, with each proposition's name following
+ * as a tree of constant indices, rebuilt through the GdlPool on loading;</li>
+ * <li>the edges in CSR form: the outputs of component i are
+ * outputs[offsets[i] .. offsets[i + 1]). Inputs are their mirror image.</li>
+ * <li>the sentences of the initial state, or -1 if the propnet has none.</li>
+ * </ul>
+ * Entries are read through a memory-mapped buffer. They are written to a
+ * temporary file and then moved into place, so players sharing a directory
+ * never see a partial entry.
+ *
+ * The cache also records which state machines have already been checked
+ * against the prover on a game, along with a hash of each machine's
+ * bytecode, so players can shorten that check for games they have played
+ * before. Delete the directory to start over.
+ */
+public final class PropNetCache {
+	private static final int MAGIC = 0x504e4331; // "PNC1"
+	private static final int VERSION = 2;
+
+	private static final byte AND = 0;
+	private static final byte OR = 1;
+	private static final byte NOT = 2;
+	private static final byte TRANSITION = 3;
+	private static final byte PROPOSITION = 4;
+	private static final byte TRUE = 5;
+	private static final byte FALSE = 6;
+
+	// The classes whose code decides what a cached propnet looks like
+	private static final Class<?>[] ENGINE_CLASSES = {
+		PropNetCache.class, OptimizingPropNetFactory.class, PropNet.class, Component.class,
+		And.class, Or.class, Not.class, Transition.class, Proposition.class, Constant.class
+	};
+	private static final String ENGINE_VERSION = classVersion(ENGINE_CLASSES);
+
+	private static PropNetCache defaultCache;
+
+	private final File directory;
+
+	public PropNetCache(File directory) {
+		this.directory = directory;
+		directory.mkdirs();
+	}
+
+	/**
+	 * The cache in ~/.ggp-propnetcache, shared by every player on the machine.
+	 */
+	public static synchronized PropNetCache getDefault() {
+		if (defaultCache == null) {
+			defaultCache = new PropNetCache(new File(System.getProperty("user.home"), ".ggp-propnetcache"));
+		}
+		return defaultCache;
+	}
+
+	public PropNet create(List<Gdl> description) throws InterruptedException {
+		return create(description, null);
+	}
+
+	/**
+	 * Returns the cached propnet for the description. On a miss, builds it
+	 * with the OptimizingPropNetFactory (in parallel on pool, unless it is
+	 * null) and caches it.
+	 */
+	public PropNet create(List<Gdl> description, ForkJoinPool pool) throws InterruptedException {
+		String key = hash(description);
+		PropNet propNet = load(key);
+		if (propNet == null) {
+			propNet = OptimizingPropNetFactory.create(description, false, true, pool);
+			save(key, propNet);
+		}
+		return propNet;
+	}
+
+	/**
+	 * A hex SHA-256 digest of the description and the engine version. The
+	 * rules are sorted by their printed form first, so any ordering of the
+	 * same rules has the same hash.
+	 */
+	public static String hash(List<Gdl> description) {
+		List<String> rules = new ArrayList<String>(description.size());
+		for (Gdl gdl : description) {
+			rules.add(gdl.toString());
+		}
+		Collections.sort(rules);
+		MessageDigest md = sha256();
+		md.update(ENGINE_VERSION.getBytes(StandardCharsets.UTF_8));
+		for (String rule : rules) {
+			md.update((byte) '\n');
+			md.update(rule.getBytes(StandardCharsets.UTF_8));
+		}
+		return hex(md.digest());
+	}
+
+	/**
+	 * A hex SHA-256 digest of the bytecode of the classes. If a class file
+	 * can't be read, the version is unique to this run, so nothing cached
+	 * by another run is trusted.
+	 */
+	public static String classVersion(Class<?>... classes) {
+		MessageDigest md = sha256();
+		byte[] buffer = new byte[8192];
+		for (Class<?> c : classes) {
+			String file = c.getName().substring(c.getName().lastIndexOf('.') + 1) + ".class";
+			try (InputStream in = c.getResourceAsStream(file)) {
+				if (in == null)
+					return "unversioned-" + System.nanoTime();
+				for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+					md.update(buffer, 0, n);
+				}
+			} catch (IOException e) {
+				return "unversioned-" + System.nanoTime();
+			}
+		}
+		return hex(md.digest());
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static String hex(byte[] digest) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	private File entryFile(String key) {
+		return new File(directory, key + ".propnet");
+	}
+
+	private File verifiedFile(String key) {
+		return new File(directory, key + ".verified");
+	}
+
+	/**
+	 * Returns the propnet cached under key, or null if there is none or it
+	 * can't be read.
+	 */
+	public PropNet load(String key) {
+		File entry = entryFile(key);
+		if (!entry.exists())
+			return null;
+		long start = System.currentTimeMillis();
+		try (FileChannel channel = FileChannel.open(entry.toPath(), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			PropNet propNet = read(buffer);
+			System.out.println("Loaded cached propnet of " + propNet.getComponents().size() + " components in " + (System.currentTimeMillis() - start) + "ms");
+			return propNet;
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Ignoring unreadable propnet cache entry " + entry + ": " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Caches propNet under key. Failures are reported and otherwise ignored;
+	 * the propnet just gets built again next time.
+	 */
+	public void save(String key, PropNet propNet) {
+		File temp = null;
+		try {
+			temp = File.createTempFile(key, ".tmp", directory);
+			try (OutputStream out = new FileOutputStream(temp)) {
+				write(propNet, out);
+			}
+			Files.move(temp.toPath(), entryFile(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException | RuntimeException e) {
+			System.out.println("Could not cache propnet: " + e);
+			if (temp != null)
+				temp.delete();
+		}
+	}
+
+	/**
+	 * Whether the state machine has been found consistent with the prover on
+	 * the game with this description, by the same version of its code.
+	 */
+	public synchronized boolean isVerified(List<Gdl> description, Class<?> machine) {
+		File verified = verifiedFile(hash(description));
+		if (!verified.exists())
+			return false;
+		try {
+			return Files.readAllLines(verified.toPath(), StandardCharsets.UTF_8).contains(verifiedLine(machine));
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	public synchronized void setVerified(List<Gdl> description, Class<?> machine) {
+		if (isVerified(description, machine))
+			return;
+		try {
+			Files.write(verifiedFile(hash(description)).toPath(), Collections.singletonList(verifiedLine(machine)), StandardCharsets.UTF_8,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			System.out.println("Could not record verified state machine: " + e);
+		}
+	}
+
+	private static String verifiedLine(Class<?> machine) {
+		return machine.getName() + " " + classVersion(machine);
+	}
+
+	static void write(PropNet propNet, OutputStream stream) throws IOException {
+		List<Component> components = new ArrayList<Component>(propNet.getComponents());
+		Map<Component, Integer> indices = new HashMap<Component, Integer>();
+		for (int i = 0; i < components.size(); i++) {
+			indices.put(components.get(i), i);
+		}
+
+		List<GdlConstant> constants = new ArrayList<GdlConstant>();
+		Map<GdlConstant, Integer> constantIndices = new HashMap<GdlConstant, Integer>();
+		for (Role role : propNet.getRoles()) {
+			addConstant(role.getName(), constants, constantIndices);
+		}
+		List<GdlSentence> sentences = new ArrayList<GdlSentence>();
+		for (Component c : components) {
+			if (c instanceof Proposition) {
+				sentences.add(((Proposition) c).getName());
+			}
+		}
+		if (propNet.getInitialState() != null) {
+			sentences.addAll(propNet.getInitialState());
+		}
+		for (GdlSentence sentence : sentences) {
+			addConstant(sentence.getName(), constants, constantIndices);
+			for (GdlTerm term : sentence.getBody()) {
+				addConstants(term, constants, constantIndices);
+			}
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(constants.size());
+		for (GdlConstant constant : constants) {
+			byte[] bytes = constant.getValue().getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		out.writeInt(propNet.getRoles().size());
+		for (Role role : propNet.getRoles()) {
+			out.writeInt(constantIndices.get(role.getName()));
+		}
+
+		out.writeInt(components.size());
+		for (Component c : components) {
+			out.writeByte(typeOf(c));
+			if (c instanceof Proposition) {
+				writeSentence(((Proposition) c).getName(), constantIndices, out);
+			}
+		}
+		int offset = 0;
+		for (Component c : components) {
+			out.writeInt(offset);
+			offset += c.getOutputs().size();
+		}
+		out.writeInt(offset);
+		for (Component c : components) {
+			for (Component output : c.getOutputs()) {
+				Integer index = indices.get(output);
+				if (index == null)
+					throw new IllegalArgumentException("Output of " + c + " is not in the propnet");
+				out.writeInt(index);
+			}
+		}
+		if (propNet.getInitialState() == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(propNet.getInitialState().size());
+			for (GdlSentence sentence : propNet.getInitialState()) {
+				writeSentence(sentence, constantIndices, out);
+			}
+		}
+		out.flush();
+	}
+
+	static PropNet read(ByteBuffer buffer) {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+			throw new IllegalArgumentException("Not a propnet cache entry of version " + VERSION);
+		GdlConstant[] constants = new GdlConstant[buffer.getInt()];
+		for (int i = 0; i < constants.length; i++) {
+			byte[] bytes = new byte[buffer.getInt()];
+			buffer.get(bytes);
+			constants[i] = GdlPool.getConstant(new String(bytes, StandardCharsets.UTF_8));
+		}
+		List<Role> roles = new ArrayList<Role>();
+		int numRoles = buffer.getInt();
+		for (int r = 0; r < numRoles; r++) {
+			roles.add(new Role(constants[buffer.getInt()]));
+		}
+
+		Component[] components = new Component[buffer.getInt()];
+		for (int i = 0; i < components.length; i++) {
+			byte type = buffer.get();
+			switch (type) {
+			case AND: components[i] = new And(); break;
+			case OR: components[i] = new Or(); break;
+			case NOT: components[i] = new Not(); break;
+			case TRANSITION: components[i] = new Transition(); break;
+			case PROPOSITION: components[i] = new Proposition(readSentence(buffer, constants)); break;
+			case TRUE: components[i] = new Constant(true); break;
+			case FALSE: components[i] = new Constant(false); break;
+			default: throw new IllegalArgumentException("Unknown component type " + type);
+			}
+		}
+		int[] offsets = new int[components.length + 1];
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + 4 * offsets.length);
+		int[] outputs = new int[offsets[components.length]];
+		buffer.asIntBuffer().get(outputs);
+		buffer.position(buffer.position() + 4 * outputs.length);
+
+		for (int i = 0; i < components.length; i++) {
+			for (int e = offsets[i]; e < offsets[i + 1]; e++) {
+				Component output = components[outputs[e]];
+				components[i].addOutput(output);
+				output.addInput(components[i]);
+			}
+		}
+		Set<GdlSentence> initialState = null;
+		int numInitial = buffer.getInt();
+		if (numInitial >= 0) {
+			initialState = new HashSet<GdlSentence>(numInitial);
+			for (int i = 0; i < numInitial; i++) {
+				initialState.add(readSentence(buffer, constants));
+			}
+		}
+		Set<Component> componentSet = new HashSet<Component>(components.length);
+		Collections.addAll(componentSet, components);
+		return new PropNet(roles, componentSet, initialState);
+	}
+
+	private static byte typeOf(Component c) {
+		if (c instanceof And) return AND;
+		if (c instanceof Or) return OR;
+		if (c instanceof Not) return NOT;
+		if (c instanceof Transition) return TRANSITION;
+		if (c instanceof Proposition) return PROPOSITION;
+		if (c instanceof Constant) return c.getValue() ? TRUE : FALSE;
+		throw new IllegalArgumentException("Unknown component " + c.getClass());
+	}
+
+	private static void addConstant(GdlConstant constant, List<GdlConstant> constants, Map<GdlConstant, Integer> indices) {
+		if (!indices.containsKey(constant)) {
+			indices.put(constant, constants.size());
+			constants.add(constant);
+		}
+	}
+
+	private static void addConstants(GdlTerm term, List<GdlConstant> constants, Map<GdlConstant, Integer> indices) {
+		if (term instanceof GdlConstant) {
+			addConstant((GdlConstant) term, constants, indices);
+		} else if (term instanceof GdlFunction) {
+			GdlFunction function = (GdlFunction) term;
+			addConstant(function.getName(), constants, indices);
+			for (GdlTerm arg : function.getBody()) {
+				addConstants(arg, constants, indices);
+			}
+		} else {
+			throw new IllegalArgumentException("Proposition names must be ground, found " + term);
+		}
+	}
+
+	/*
+	 * A sentence is its name's index followed by its arity (-1 for a
+	 * proposition) and its terms. A constant term is its index; a function
+	 * is -1 - arity, then its name's index and its terms.
+	 */
+	private static void writeSentence(GdlSentence sentence, Map<GdlConstant, Integer> indices, DataOutputStream out) throws IOException {
+		out.writeInt(indices.get(sentence.getName()));
+		if (sentence instanceof GdlProposition) {
+			out.writeInt(-1);
+			return;
+		}
+		out.writeInt(sentence.arity());
+		for (GdlTerm term : sentence.getBody()) {
+			writeTerm(term, indices, out);
+		}
+	}
+
+	private static void writeTerm(GdlTerm term, Map<GdlConstant, Integer> indices, DataOutputStream out) throws IOException {
+		if (term instanceof GdlConstant) {
+			out.writeInt(indices.get(term));
+		} else {
+			GdlFunction function = (GdlFunction) term;
+			out.writeInt(-1 - function.arity());
+			out.writeInt(indices.get(function.getName()));
+			for (GdlTerm arg : function.getBody()) {
+				writeTerm(arg, indices, out);
+			}
+		}
+	}
+
+	private static GdlSentence readSentence(ByteBuffer buffer, GdlConstant[] constants) {
+		GdlConstant name = constants[buffer.getInt()];
+		int arity = buffer.getInt();
+		if (arity < 0)
+			return GdlPool.getProposition(name);
+		GdlTerm[] body = new GdlTerm[arity];
+		for (int i = 0; i < arity; i++) {
+			body[i] = readTerm(buffer, constants);
+		}
+		return GdlPool.getRelation(name, body);
+	}
+
+	private static GdlTerm readTerm(ByteBuffer buffer, GdlConstant[] constants) {
+		int code = buffer.getInt();
+		if (code >= 0)
+			return constants[code];
+		GdlConstant name = constants[buffer.getInt()];
+		GdlTerm[] body = new GdlTerm[-1 - code];
+		for (int i = 0; i < body.length; i++) {
+			body[i] = readTerm(buffer, constants);
+		}
+		return GdlPool.getFunction(name, body);
+	}
+}
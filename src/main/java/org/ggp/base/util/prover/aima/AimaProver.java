@@ -3,8 +3,10 @@ package org.ggp.base.util.prover.aima;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.GdlUtils;
@@ -28,6 +30,7 @@ import org.ggp.base.util.prover.aima.substitution.Substitution;
 import org.ggp.base.util.prover.aima.unifier.Unifier;
 
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
@@ -40,10 +43,105 @@ public final class AimaProver implements Prover
 
 	private final ProverCache fixedAnswerCache = ProverCache.createMultiThreadedCache();
 
+	// Answer tables of the most recently queried states, or null if they are not kept
+	private final LinkedHashMap<Set<GdlSentence>, StateTables> stateTables;
+	// Relations whose answers may depend on "does" sentences
+	private final Set<GdlConstant> moveDependentNames;
+
 	public AimaProver(List<Gdl> description)
+	{
+		this(description, 0);
+	}
+
+	/**
+	 * Creates a prover that keeps the answers it proves in a state, i.e. a
+	 * context without "does" sentences, for the last tabledStates states it
+	 * was asked about. Further queries on those states reuse the answers to
+	 * the subgoals they share. Queries that add moves to a tabled state reuse
+	 * and add to its answers for every relation not depending on the moves.
+	 *
+	 * The prover may be queried from several threads at once.
+	 */
+	public AimaProver(List<Gdl> description, final int tabledStates)
 	{
 		description = DistinctAndNotMover.run(description);
 		knowledgeBase = new KnowledgeBase(Sets.newHashSet(description));
+		moveDependentNames = findMoveDependentNames(description);
+		if (tabledStates > 0) {
+			stateTables = new LinkedHashMap<Set<GdlSentence>, StateTables>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Set<GdlSentence>, StateTables> eldest) {
+					return size() > tabledStates;
+				}
+			};
+		} else {
+			stateTables = null;
+		}
+	}
+
+	private static Set<GdlConstant> findMoveDependentNames(List<Gdl> description)
+	{
+		Multimap<GdlConstant, GdlConstant> dependencies = HashMultimap.create();
+		for (Gdl gdl : description)
+		{
+			if (gdl instanceof GdlRule)
+			{
+				GdlRule rule = (GdlRule) gdl;
+				for (GdlLiteral literal : rule.getBody())
+				{
+					addNames(literal, rule.getHead().getName(), dependencies);
+				}
+			}
+		}
+
+		Set<GdlConstant> names = Sets.newHashSet(GdlPool.DOES);
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+			for (Map.Entry<GdlConstant, GdlConstant> dependency : dependencies.entries())
+			{
+				if (names.contains(dependency.getValue()))
+				{
+					changed |= names.add(dependency.getKey());
+				}
+			}
+		}
+		return names;
+	}
+
+	private static void addNames(GdlLiteral literal, GdlConstant head, Multimap<GdlConstant, GdlConstant> dependencies)
+	{
+		if (literal instanceof GdlSentence)
+		{
+			dependencies.put(head, ((GdlSentence) literal).getName());
+		}
+		else if (literal instanceof GdlNot)
+		{
+			addNames(((GdlNot) literal).getBody(), head, dependencies);
+		}
+		else if (literal instanceof GdlOr)
+		{
+			GdlOr or = (GdlOr) literal;
+			for (int i = 0; i < or.arity(); i++)
+			{
+				addNames(or.get(i), head, dependencies);
+			}
+		}
+	}
+
+	private StateTables getStateTables(Set<GdlSentence> state)
+	{
+		synchronized (stateTables)
+		{
+			StateTables tables = stateTables.get(state);
+			if (tables == null)
+			{
+				tables = new StateTables(state);
+				stateTables.put(tables.state, tables);
+			}
+			return tables;
+		}
 	}
 
 	private Set<GdlSentence> ask(GdlSentence query, Set<GdlSentence> context, boolean askOne)
@@ -51,8 +149,39 @@ public final class AimaProver implements Prover
 		LinkedList<GdlLiteral> goals = new LinkedList<GdlLiteral>();
 		goals.add(query);
 
+		KnowledgeBase contextBase;
+		ProverCache cache;
+		if (stateTables == null)
+		{
+			// Only this query uses the context, so it isn't worth indexing
+			contextBase = new KnowledgeBase(context, false);
+			cache = ProverCache.createSingleThreadedCache();
+		}
+		else
+		{
+			Set<GdlSentence> state = new HashSet<GdlSentence>();
+			for (GdlSentence sentence : context)
+			{
+				if (sentence.getName() != GdlPool.DOES)
+				{
+					state.add(sentence);
+				}
+			}
+			StateTables tables = getStateTables(state);
+			if (state.size() == context.size())
+			{
+				contextBase = tables.knowledgeBase;
+				cache = tables.answers;
+			}
+			else
+			{
+				contextBase = new KnowledgeBase(context, false);
+				cache = ProverCache.createOverlay(tables.answers, moveDependentNames);
+			}
+		}
+
 		Set<Substitution> answers = new HashSet<Substitution>();
-		ask(goals, new KnowledgeBase(context), new Substitution(), ProverCache.createSingleThreadedCache(),
+		ask(goals, contextBase, new Substitution(), cache,
 				new VariableRenamer(), askOne, answers, new RecursionHandler(), new IsConstant());
 
 		Set<GdlSentence> results = new HashSet<GdlSentence>();
@@ -312,6 +441,21 @@ public final class AimaProver implements Prover
 		public boolean value = true;
 	}
 
+	/*
+	 * The answers proven in one state, shared by every query on it. Only
+	 * complete answers are stored, so they stay valid for later queries.
+	 */
+	private static class StateTables {
+		public final Set<GdlSentence> state;
+		public final KnowledgeBase knowledgeBase;
+		public final ProverCache answers = ProverCache.createMultiThreadedCache();
+
+		public StateTables(Set<GdlSentence> state) {
+			this.state = ImmutableSet.copyOf(state);
+			this.knowledgeBase = new KnowledgeBase(this.state);
+		}
+	}
+
 	/*
 	 * Contains some mutable values used by the recursion implementation, to reduce
 	 * the number of arguments being passed around.
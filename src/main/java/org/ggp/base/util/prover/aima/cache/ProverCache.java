@@ -8,6 +8,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.prover.aima.substituter.Substituter;
 import org.ggp.base.util.prover.aima.substitution.Substitution;
@@ -18,9 +19,19 @@ public final class ProverCache
 {
 
 	private final Map<GdlSentence, Set<GdlSentence>> contents;
+	// Sentences with these names go to contents, all others to sharedContents
+	private final Set<GdlConstant> localNames;
+	private final Map<GdlSentence, Set<GdlSentence>> sharedContents;
 
 	private ProverCache(Map<GdlSentence, Set<GdlSentence>> mapForContents) {
+		this(mapForContents, null, null);
+	}
+
+	private ProverCache(Map<GdlSentence, Set<GdlSentence>> mapForContents,
+			Set<GdlConstant> localNames, Map<GdlSentence, Set<GdlSentence>> sharedContents) {
 		this.contents = mapForContents;
+		this.localNames = localNames;
+		this.sharedContents = sharedContents;
 	}
 
 	public static ProverCache createSingleThreadedCache() {
@@ -31,17 +42,33 @@ public final class ProverCache
 		return new ProverCache(new ConcurrentHashMap<GdlSentence, Set<GdlSentence>>());
 	}
 
+	/**
+	 * Creates a single-threaded cache layered over the given one. Answers
+	 * for sentences named in localNames stay in the new cache; all others
+	 * are read from and written to the shared cache.
+	 */
+	public static ProverCache createOverlay(ProverCache shared, Set<GdlConstant> localNames) {
+		return new ProverCache(new HashMap<GdlSentence, Set<GdlSentence>>(), localNames, shared.contents);
+	}
+
+	private Map<GdlSentence, Set<GdlSentence>> contentsFor(GdlSentence sentence) {
+		if (sharedContents == null || localNames.contains(sentence.getName())) {
+			return contents;
+		}
+		return sharedContents;
+	}
+
 	/**
 	 * NOTE: The given sentence must have been renamed with a VariableRenamer.
 	 */
 	public boolean contains(GdlSentence renamedSentence)
 	{
-		return contents.containsKey(renamedSentence);
+		return contentsFor(renamedSentence).containsKey(renamedSentence);
 	}
 
 	public List<Substitution> get(GdlSentence sentence, GdlSentence varRenamedSentence)
 	{
-		Set<GdlSentence> cacheContents = contents.get(varRenamedSentence);
+		Set<GdlSentence> cacheContents = contentsFor(varRenamedSentence).get(varRenamedSentence);
 		if (cacheContents == null) {
 			return null;
 		}
@@ -63,7 +90,7 @@ public final class ProverCache
 			results.add(Substituter.substitute(sentence, answer));
 		}
 
-		contents.put(renamedSentence, results);
+		contentsFor(renamedSentence).put(renamedSentence, results);
 	}
 
 }
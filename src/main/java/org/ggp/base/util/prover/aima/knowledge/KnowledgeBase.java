@@ -1,49 +1,223 @@
 package org.ggp.base.util.prover.aima.knowledge;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
 import org.ggp.base.util.gdl.grammar.GdlPool;
 import org.ggp.base.util.gdl.grammar.GdlRule;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.gdl.grammar.GdlVariable;
 
 
+/**
+ * The rules of a game, or the sentences of a context, indexed for fetching
+ * the candidates that might unify with a query.
+ *
+ * Rules are grouped by the name and arity of their heads. Within a group,
+ * each argument position is indexed by the ground terms heads have there
+ * and by the names of the functions they have there. A fetch looks up each
+ * argument of the query that is a constant or a function, and returns the
+ * smallest of the candidate lists found, in the order the rules were given.
+ *
+ * Building the index costs more than scanning a small group once, so a
+ * knowledge base that only serves one query can be built without it.
+ */
 public final class KnowledgeBase
 {
-	private final Map<GdlConstant, List<GdlRule>> contents;
+	private final Map<GdlConstant, Map<Integer, Relation>> contents;
 
 	public KnowledgeBase(Set<? extends Gdl> description)
 	{
-		contents = new HashMap<GdlConstant, List<GdlRule>>();
+		this(description, true);
+	}
+
+	/**
+	 * @param indexed whether to index argument positions; if not, a fetch
+	 * returns every rule with the sentence's name and arity
+	 */
+	public KnowledgeBase(Set<? extends Gdl> description, boolean indexed)
+	{
+		Map<GdlConstant, Map<Integer, List<GdlRule>>> rulesByRelation = new HashMap<GdlConstant, Map<Integer, List<GdlRule>>>();
 		for (Gdl gdl : description)
 		{
 			GdlRule rule = (gdl instanceof GdlRule) ? (GdlRule) gdl : GdlPool.getRule((GdlSentence) gdl);
-			GdlConstant key = rule.getHead().getName();
+			GdlSentence head = rule.getHead();
 
-			if (!contents.containsKey(key))
+			if (!rulesByRelation.containsKey(head.getName()))
 			{
-				contents.put(key, new ArrayList<GdlRule>());
+				rulesByRelation.put(head.getName(), new HashMap<Integer, List<GdlRule>>());
 			}
-			contents.get(key).add(rule);
+			Map<Integer, List<GdlRule>> rulesByArity = rulesByRelation.get(head.getName());
+			if (!rulesByArity.containsKey(head.arity()))
+			{
+				rulesByArity.put(head.arity(), new ArrayList<GdlRule>());
+			}
+			rulesByArity.get(head.arity()).add(rule);
+		}
+
+		contents = new HashMap<GdlConstant, Map<Integer, Relation>>();
+		for (Map.Entry<GdlConstant, Map<Integer, List<GdlRule>>> relation : rulesByRelation.entrySet())
+		{
+			Map<Integer, Relation> relationsByArity = new HashMap<Integer, Relation>();
+			for (Map.Entry<Integer, List<GdlRule>> rules : relation.getValue().entrySet())
+			{
+				relationsByArity.put(rules.getKey(), new Relation(indexed ? rules.getKey() : 0, rules.getValue()));
+			}
+			contents.put(relation.getKey(), relationsByArity);
 		}
 	}
 
-	public synchronized List<GdlRule> fetch(GdlSentence sentence)
+	/**
+	 * Returns the rules whose heads might unify with the given sentence.
+	 * The list must not be modified.
+	 */
+	public List<GdlRule> fetch(GdlSentence sentence)
 	{
-		GdlConstant key = sentence.getName();
+		Map<Integer, Relation> relationsByArity = contents.get(sentence.getName());
+		Relation relation = (relationsByArity == null) ? null : relationsByArity.get(sentence.arity());
 
-		if (contents.containsKey(key))
+		if (relation == null)
 		{
-			return contents.get(key);
+			return Collections.emptyList();
 		}
-		else
+		return relation.fetch(sentence);
+	}
+
+	/*
+	 * The rules with one name and arity. For each argument position i, heads
+	 * with a variable at i are in every list for that position, since they
+	 * unify with any query argument. Only the first indexedArity positions
+	 * are indexed.
+	 */
+	private static final class Relation
+	{
+		private final List<GdlRule> rules;
+		// Heads that are the ground term at i, or might unify with it
+		private final List<Map<GdlTerm, List<GdlRule>>> byGroundTerm;
+		// Heads with a function of the given name at i
+		private final List<Map<GdlConstant, List<GdlRule>>> byFunctionName;
+		// Heads with a variable at i
+		private final List<List<GdlRule>> byVariable;
+
+		public Relation(int indexedArity, List<GdlRule> rules)
+		{
+			this.rules = Collections.unmodifiableList(rules);
+			byGroundTerm = new ArrayList<Map<GdlTerm, List<GdlRule>>>(indexedArity);
+			byFunctionName = new ArrayList<Map<GdlConstant, List<GdlRule>>>(indexedArity);
+			byVariable = new ArrayList<List<GdlRule>>(indexedArity);
+
+			for (int i = 0; i < indexedArity; i++)
+			{
+				// Create the lists first, so that rules are added to them in order
+				Map<GdlTerm, List<GdlRule>> groundTerms = new LinkedHashMap<GdlTerm, List<GdlRule>>();
+				Map<GdlConstant, List<GdlRule>> functionNames = new LinkedHashMap<GdlConstant, List<GdlRule>>();
+				List<GdlRule> variables = new ArrayList<GdlRule>();
+				for (GdlRule rule : rules)
+				{
+					GdlTerm term = rule.getHead().get(i);
+					if (term.isGround() && !groundTerms.containsKey(term))
+					{
+						groundTerms.put(term, new ArrayList<GdlRule>());
+					}
+					if (term instanceof GdlFunction && !functionNames.containsKey(((GdlFunction) term).getName()))
+					{
+						functionNames.put(((GdlFunction) term).getName(), new ArrayList<GdlRule>());
+					}
+				}
+
+				for (GdlRule rule : rules)
+				{
+					GdlTerm term = rule.getHead().get(i);
+					if (term instanceof GdlVariable)
+					{
+						variables.add(rule);
+						for (List<GdlRule> list : groundTerms.values())
+						{
+							list.add(rule);
+						}
+						for (List<GdlRule> list : functionNames.values())
+						{
+							list.add(rule);
+						}
+					}
+					else if (term instanceof GdlFunction)
+					{
+						GdlConstant name = ((GdlFunction) term).getName();
+						functionNames.get(name).add(rule);
+						if (term.isGround())
+						{
+							groundTerms.get(term).add(rule);
+						}
+						else
+						{
+							// May unify with any ground function of the same name
+							for (Map.Entry<GdlTerm, List<GdlRule>> entry : groundTerms.entrySet())
+							{
+								if (entry.getKey() instanceof GdlFunction && ((GdlFunction) entry.getKey()).getName() == name)
+								{
+									entry.getValue().add(rule);
+								}
+							}
+						}
+					}
+					else
+					{
+						groundTerms.get(term).add(rule);
+					}
+				}
+
+				for (Map.Entry<GdlTerm, List<GdlRule>> entry : groundTerms.entrySet())
+				{
+					entry.setValue(Collections.unmodifiableList(entry.getValue()));
+				}
+				for (Map.Entry<GdlConstant, List<GdlRule>> entry : functionNames.entrySet())
+				{
+					entry.setValue(Collections.unmodifiableList(entry.getValue()));
+				}
+				byGroundTerm.add(groundTerms);
+				byFunctionName.add(functionNames);
+				byVariable.add(Collections.unmodifiableList(variables));
+			}
+		}
+
+		public List<GdlRule> fetch(GdlSentence sentence)
 		{
-			return new ArrayList<GdlRule>();
+			List<GdlRule> best = rules;
+			for (int i = 0; i < byVariable.size() && !best.isEmpty(); i++)
+			{
+				GdlTerm term = sentence.get(i);
+				if (term instanceof GdlVariable)
+				{
+					continue;
+				}
+
+				List<GdlRule> candidates = term.isGround() ? byGroundTerm.get(i).get(term) : null;
+				if (candidates == null)
+				{
+					if (term instanceof GdlFunction)
+					{
+						candidates = byFunctionName.get(i).get(((GdlFunction) term).getName());
+					}
+					if (candidates == null)
+					{
+						candidates = byVariable.get(i);
+					}
+				}
+				if (candidates.size() < best.size())
+				{
+					best = candidates;
+				}
+			}
+			return best;
 		}
 	}
-}
\ No newline at end of file
+}
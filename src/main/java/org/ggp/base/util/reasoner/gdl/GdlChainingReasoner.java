@@ -4,6 +4,7 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ggp.base.util.concurrency.ConcurrencyUtils;
 import org.ggp.base.util.gdl.GdlUtils;
@@ -39,6 +40,8 @@ public class GdlChainingReasoner implements
 		DifferentialForwardChainingReasoner<GdlRule, GdlSentenceSet> {
 	private final SentenceFormModel model;
 	private final ImmutableMultimap<SentenceForm, GdlSentence> constants;
+	// Variable domains of rules, when looked up in the model given to create
+	private final Map<GdlRule, Map<GdlVariable, Set<GdlConstant>>> varDomainsByRule = new ConcurrentHashMap<GdlRule, Map<GdlVariable, Set<GdlConstant>>>();
 
 	private GdlChainingReasoner(SentenceFormModel model, ImmutableMultimap<SentenceForm, GdlSentence> constants) {
 		this.model = model;
@@ -64,7 +67,7 @@ public class GdlChainingReasoner implements
 			GdlSentenceSet sentencesSoFar) throws InterruptedException {
 		ConcurrencyUtils.checkForInterruption();
 		SentenceForm headForm = model.getSentenceForm(rule.getHead());
-		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, domainModel);
 		Map<SentenceForm, ? extends FunctionInfo> functionInfoMap = sentencesSoFar.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = sentencesSoFar.getSentences().asMap();
 
@@ -91,6 +94,18 @@ public class GdlChainingReasoner implements
 		return sentencesToAdd;
 	}
 
+	private Map<GdlVariable, Set<GdlConstant>> getVarDomains(GdlRule rule, SentenceDomainModel domainModel) {
+		if (domainModel != model) {
+			return SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		}
+		Map<GdlVariable, Set<GdlConstant>> varDomains = varDomainsByRule.get(rule);
+		if (varDomains == null) {
+			varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+			varDomainsByRule.put(rule, varDomains);
+		}
+		return varDomains;
+	}
+
 	private boolean satisfies(Map<GdlVariable, GdlConstant> assignment,
 			GdlLiteral literal, SetMultimap<SentenceForm, GdlSentence> sentencesSoFar) {
 		if (literal instanceof GdlSentence) {
@@ -181,7 +196,7 @@ public class GdlChainingReasoner implements
 			GdlSentenceSet allSentences,
 			GdlSentenceSet sentencesToAdd) {
 		SentenceForm headForm = model.getSentenceForm(rule.getHead());
-		Map<GdlVariable, Set<GdlConstant>> varDomains = SentenceDomainModels.getVarDomains(rule, domainModel, VarDomainOpts.INCLUDE_HEAD);
+		Map<GdlVariable, Set<GdlConstant>> varDomains = getVarDomains(rule, domainModel);
 		Map<SentenceForm, AddibleFunctionInfo> functionInfoMap = allSentences.getFunctionInfo();
 		Map<SentenceForm, ? extends Collection<GdlSentence>> completedSentenceFormValues = allSentences.getSentences().asMap();
 
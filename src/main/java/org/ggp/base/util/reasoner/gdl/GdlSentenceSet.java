@@ -3,6 +3,7 @@ package org.ggp.base.util.reasoner.gdl;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.GdlSentence;
 import org.ggp.base.util.gdl.model.SentenceForm;
@@ -74,6 +75,15 @@ public class GdlSentenceSet {
 		}
 	}
 
+	/**
+	 * Removes all the sentences of the given form, along with its
+	 * FunctionInfo, and returns the sentences that were removed.
+	 */
+	public Set<GdlSentence> removeAll(SentenceForm form) {
+		functionInfoMap.remove(form);
+		return sentences.removeAll(form);
+	}
+
 	/**
 	 * Returns an unmodifiable view of the function information
 	 */
@@ -0,0 +1,151 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+
+/**
+ * BitSetMachineState is a MachineState backed by a bitset over the base
+ * propositions of a propnet, rather than by a set of GDL sentences. Bit
+ * i is set when the base proposition with ordinal i is true.
+ * <p>
+ * The ordinal-to-sentence table is shared by every state produced by the
+ * same state machine, so equality and hashing between such states only
+ * touch the bit words. The GDL contents are materialized lazily, the first
+ * time {@link #getContents()} is called.
+ * <p>
+ * Hashing uses the Zobrist hash of the true base sentences, like any
+ * MachineState, so these states remain interchangeable with plain
+ * MachineStates holding the same contents. A state machine that knows the
+ * hash of a predecessor can derive the new one with {@link #rehash} and hand
+ * it to the constructor; otherwise it is computed from the bits on first use.
+ * <p>
+ * The bit array must not be modified once it is handed to a state.
+ */
+public class BitSetMachineState extends MachineState
+{
+    private final GdlSentence[] baseSentences;
+    private final long[] bits;
+    /* Written once through a volatile so other threads never see a half-built set. */
+    private volatile Set<GdlSentence> sentences;
+
+    public BitSetMachineState(GdlSentence[] baseSentences, long[] bits)
+    {
+        super();
+        this.baseSentences = baseSentences;
+        this.bits = bits;
+    }
+
+    public BitSetMachineState(GdlSentence[] baseSentences, long[] bits, long zobristHash)
+    {
+        this(baseSentences, bits);
+        setZobristHash(zobristHash);
+    }
+
+    /**
+     * Returns the Zobrist hash of the bits to, given the hash of the bits
+     * from and the key of every base ordinal. Only differing bits are visited.
+     */
+    public static long rehash(long hash, long[] from, long[] to, long[] keys)
+    {
+        for (int w = 0; w < to.length; w++) {
+            long diff = from[w] ^ to[w];
+            while (diff != 0) {
+                hash ^= keys[(w << 6) + Long.numberOfTrailingZeros(diff)];
+                diff &= diff - 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of 64-bit words needed to hold one bit per base.
+     */
+    public static int wordsFor(int numBases)
+    {
+        return (numBases + 63) >>> 6;
+    }
+
+    /**
+     * Returns the backing bit words. Callers must treat them as read-only.
+     */
+    public long[] getBits()
+    {
+        return bits;
+    }
+
+    /**
+     * Returns the ordinal-to-sentence table that the bits are indexed by.
+     * States with the same table can be compared word by word.
+     */
+    public GdlSentence[] getBaseSentences()
+    {
+        return baseSentences;
+    }
+
+    public boolean get(int ordinal)
+    {
+        return (bits[ordinal >>> 6] & (1L << ordinal)) != 0;
+    }
+
+    @Override
+    public Set<GdlSentence> getContents()
+    {
+        Set<GdlSentence> result = sentences;
+        if (result == null) {
+            synchronized (this) {
+                result = sentences;
+                if (result == null) {
+                    Set<GdlSentence> built = new HashSet<GdlSentence>();
+                    for (int w = 0; w < bits.length; w++) {
+                        long word = bits[w];
+                        while (word != 0) {
+                            built.add(baseSentences[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                            word &= word - 1;
+                        }
+                    }
+                    result = Collections.unmodifiableSet(built);
+                    sentences = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public MachineState clone()
+    {
+        return new BitSetMachineState(baseSentences, bits.clone());
+    }
+
+    @Override
+    protected long computeZobristHash()
+    {
+        long h = 0;
+        for (int w = 0; w < bits.length; w++) {
+            long word = bits[w];
+            while (word != 0) {
+                h ^= ZobristKeys.keyFor(baseSentences[(w << 6) + Long.numberOfTrailingZeros(word)]);
+                word &= word - 1;
+            }
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (o instanceof BitSetMachineState) {
+            BitSetMachineState state = (BitSetMachineState) o;
+            if (state.baseSentences == baseSentences) {
+                return state.getZobristHash() == getZobristHash() && Arrays.equals(state.bits, bits);
+            }
+        }
+        return super.equals(o);
+    }
+}
@@ -16,6 +16,14 @@ public class MachineState {
      * many cases this will do exactly what we want.
      */
     protected Set<GdlSentence> contents;
+
+    /**
+     * The Zobrist hash of the contents (see ZobristKeys), filled in lazily
+     * or up front by state machines that maintain it incrementally.
+     */
+    private long zobristHash;
+    private volatile boolean hasZobristHash;
+
     public MachineState(Set<GdlSentence> contents)
     {
         this.contents = contents;
@@ -36,11 +44,39 @@ public class MachineState {
         return new MachineState(new HashSet<GdlSentence>(contents));
     }
 
+    /**
+     * Returns the 64-bit Zobrist hash of this state, computing it on first use.
+     * The contents must not change afterwards.
+     */
+    public long getZobristHash()
+    {
+        if (!hasZobristHash) {
+            setZobristHash(computeZobristHash());
+        }
+        return zobristHash;
+    }
+
+    protected long computeZobristHash()
+    {
+        return ZobristKeys.hash(getContents());
+    }
+
+    /**
+     * For state machines that already know the hash, e.g. because they
+     * derived it from the previous state's hash.
+     */
+    protected void setZobristHash(long hash)
+    {
+        zobristHash = hash;
+        hasZobristHash = true;
+    }
+
     /* Utility methods */
     @Override
     public int hashCode()
     {
-        return getContents().hashCode();
+        long h = getZobristHash();
+        return (int) (h ^ (h >>> 32));
     }
 
     @Override
@@ -59,6 +95,9 @@ public class MachineState {
         if ((o != null) && (o instanceof MachineState))
         {
             MachineState state = (MachineState) o;
+            // Different hashes mean different contents, so only compare those when they match
+            if (hasZobristHash && state.hasZobristHash && zobristHash != state.zobristHash)
+                return false;
             return state.getContents().equals(getContents());
         }
 
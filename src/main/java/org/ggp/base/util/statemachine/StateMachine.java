@@ -221,6 +221,14 @@ public abstract class StateMachine
         ;
     }
 
+    /** Override this to return true if, once initialized, the state machine may be
+     * queried from several threads at once. Wrappers such as CachedStateMachine lock
+     * around every call into a state machine that returns false.
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     // ============================================
     //   Implementations of convenience methods
     // ============================================
@@ -468,6 +476,46 @@ public abstract class StateMachine
         return state;
     }
 
+    /**
+     * Plays random joint moves from the given state until the game ends, and
+     * returns the goal values of the given roles in the terminal state.
+     *
+     * @see #rollout(MachineState, Role[], Random, int[])
+     */
+    public int[] rollout(MachineState state, Role[] roles, Random random) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        return rollout(state, roles, random, new int[roles.length]);
+    }
+
+    /**
+     * Plays random joint moves from the given state until the game ends, and
+     * stores the goal values of the given roles in the terminal state into
+     * goals, in the same order as roles. Returns goals.
+     * <p>
+     * This is the same simulation as {@link #performDepthCharge} followed by
+     * {@link #getGoal} for each role, and this default implementation does
+     * exactly that. Since the intermediate states and joint moves are never
+     * seen by the caller, implementations are free to play the whole game
+     * in place instead, without building either.
+     */
+    public int[] rollout(MachineState state, Role[] roles, Random random, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
+        List<Role> allRoles = getRoles();
+        while (!isTerminal(state)) {
+            List<Move> jointMove = new ArrayList<Move>(allRoles.size());
+            for (Role role : allRoles) {
+                List<Move> legals = getLegalMoves(state, role);
+                if (legals.isEmpty()) {
+                    throw new MoveDefinitionException(state, role);
+                }
+                jointMove.add(legals.get(random.nextInt(legals.size())));
+            }
+            state = getNextStateDestructively(state, jointMove);
+        }
+        for (int i = 0; i < roles.length; i++) {
+            goals[i] = getGoal(state, roles[i]);
+        }
+        return goals;
+    }
+
     public void getAverageDiscountedScoresFromRepeatedDepthCharges(final MachineState state, final double[] avgScores, final double[] avgDepth, final double discountFactor, final int repetitions) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException {
         avgDepth[0] = 0;
         for (int j = 0; j < avgScores.length; j++) {
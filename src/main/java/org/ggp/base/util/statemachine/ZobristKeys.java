@@ -0,0 +1,106 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlFunction;
+import org.ggp.base.util.gdl.grammar.GdlProposition;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+
+/**
+ * ZobristKeys gives every GDL sentence a pseudo-random 64-bit key. The
+ * Zobrist hash of a state is the XOR of the keys of its true sentences, so
+ * a state that differs from another in a few sentences can have its hash
+ * derived from the other's by XORing in just those keys.
+ * <p>
+ * A key is computed from the sentence itself, by mixing the names in its
+ * structure, rather than drawn at random and remembered. Nothing is kept
+ * between calls, so no memory is held on to from one match to the next, and
+ * states built by different machines from the same sentences always hash
+ * alike. Machines that hash often, like the propnet machines, compute the
+ * keys of their bases once when they are built.
+ */
+public final class ZobristKeys
+{
+    // Distinguish the kinds of node in a sentence's structure
+    private static final long SENTENCE = 0x5d1c6a7a3f0b2e91L;
+    private static final long PROPOSITION = 0x2f7e5c4b8a9d1e03L;
+    private static final long FUNCTION = 0x7a3c9e1f5b2d4c68L;
+    private static final long VARIABLE = 0x1b8f4d2a6c3e9f57L;
+
+    private ZobristKeys()
+    {
+    }
+
+    public static long keyFor(GdlSentence sentence)
+    {
+        if (sentence instanceof GdlProposition) {
+            return mix(PROPOSITION ^ hash(sentence.getName().getValue()));
+        }
+        long h = mix(SENTENCE ^ hash(sentence.getName().getValue()));
+        h = mix(h ^ sentence.arity());
+        for (int i = 0; i < sentence.arity(); i++) {
+            h = mix(h ^ keyFor(sentence.get(i)));
+        }
+        return h;
+    }
+
+    private static long keyFor(GdlTerm term)
+    {
+        if (term instanceof GdlConstant) {
+            return mix(hash(((GdlConstant) term).getValue()));
+        }
+        if (term instanceof GdlFunction) {
+            GdlFunction function = (GdlFunction) term;
+            long h = mix(FUNCTION ^ hash(function.getName().getValue()));
+            h = mix(h ^ function.arity());
+            for (int i = 0; i < function.arity(); i++) {
+                h = mix(h ^ keyFor(function.get(i)));
+            }
+            return h;
+        }
+        // States are ground, but a key is still defined for every sentence
+        return mix(VARIABLE ^ hash(term.toString()));
+    }
+
+    // 64-bit FNV-1a
+    private static long hash(String name)
+    {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // The SplitMix64 finalizer, so that every input bit affects every output bit
+    private static long mix(long z)
+    {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long hash(Set<GdlSentence> sentences)
+    {
+        long h = 0;
+        for (GdlSentence sentence : sentences) {
+            h ^= keyFor(sentence);
+        }
+        return h;
+    }
+
+    /**
+     * Returns the keys of the given sentences, in the same order.
+     */
+    public static long[] keysFor(GdlSentence[] sentences)
+    {
+        long[] result = new long[sentences.length];
+        for (int i = 0; i < sentences.length; i++) {
+            result[i] = keyFor(sentences[i]);
+        }
+        return result;
+    }
+}
@@ -1,10 +1,20 @@
 package org.ggp.base.util.statemachine.cache;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.BitSetMachineState;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -15,15 +25,49 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
 
 import com.google.common.collect.ImmutableList;
 
+/**
+ * CachedStateMachine memoizes the results of a backing state machine, per
+ * state, in a StateCache. The cache is bounded by an approximate byte budget,
+ * and entries not used since the previous move are dropped on each move.
+ * <p>
+ * The backing state machine need not be thread-safe. Unless it says it is,
+ * through {@link StateMachine#isThreadSafe}, every call into it is made while
+ * holding a lock of this cache's own, and rollouts take that lock once per
+ * step rather than for the whole game. Callers that need parallel rollouts
+ * should back the cache with a thread-safe machine, such as
+ * SharedPropNetStateMachine.
+ * <p>
+ * Hits and misses are counted per {@link Operation}.
+ */
 public final class CachedStateMachine extends StateMachine
 {
+    /**
+     * The default cache budget: a quarter of the maximum heap. Callers that
+     * keep several caches at once should split it between them.
+     */
+    public static final long DEFAULT_BYTE_BUDGET = Runtime.getRuntime().maxMemory() / 4;
+
+    // Rough sizes, in bytes, used for the cache budget
+    private static final long ENTRY_BYTES = 256;
+    private static final long RESULT_BYTES = 48;
+    private static final long REFERENCE_BYTES = 8;
+
+    public enum Operation
+    {
+        GOAL, LEGAL_MOVES, NEXT_STATE, TERMINAL
+    }
+
     private final StateMachine backingStateMachine;
-    private final TtlCache<MachineState, Entry> ttlCache;
+    // Held around every call into the backing state machine, unless it is thread-safe
+    private final Lock backingLock;
+    private final StateCache<Entry> cache;
+    private final ConcurrentMap<Role, List<Move>> actions;
+    private final LongAdder[] hits;
+    private final LongAdder[] misses;
 
     private final class Entry
     {
         public Map<Role, Integer> goals;
-        public Map<Role, List<Move>> actions;
         public Map<Role, List<Move>> moves;
         public Map<List<Move>, MachineState> nexts;
         public Boolean terminal;
@@ -31,7 +75,6 @@ public final class CachedStateMachine extends StateMachine
         public Entry()
         {
             goals = new HashMap<Role, Integer>();
-            actions = new HashMap<Role, List<Move>>();
             moves = new HashMap<Role, List<Move>>();
             nexts = new HashMap<List<Move>, MachineState>();
             terminal = null;
@@ -39,19 +82,90 @@ public final class CachedStateMachine extends StateMachine
     }
 
     public CachedStateMachine(StateMachine backingStateMachine)
+    {
+        this(backingStateMachine, DEFAULT_BYTE_BUDGET);
+    }
+
+    /**
+     * @param byteBudget approximately how much memory the cached results may use
+     */
+    public CachedStateMachine(StateMachine backingStateMachine, long byteBudget)
     {
         this.backingStateMachine = backingStateMachine;
-        ttlCache = new TtlCache<MachineState, Entry>(1);
+        backingLock = backingStateMachine.isThreadSafe() ? null : new ReentrantLock();
+        cache = new StateCache<Entry>(byteBudget);
+        actions = new ConcurrentHashMap<Role, List<Move>>();
+        hits = new LongAdder[Operation.values().length];
+        misses = new LongAdder[Operation.values().length];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = new LongAdder();
+            misses[i] = new LongAdder();
+        }
     }
 
     private Entry getEntry(MachineState state)
     {
-        if (!ttlCache.containsKey(state))
+        Entry entry = cache.get(state);
+        if (entry == null)
         {
-            ttlCache.put(state, new Entry());
+            entry = cache.putIfAbsent(state, new Entry(), ENTRY_BYTES + estimateBytes(state));
+        }
+
+        return entry;
+    }
+
+    private static long estimateBytes(MachineState state)
+    {
+        if (state instanceof BitSetMachineState) {
+            return RESULT_BYTES + REFERENCE_BYTES * ((BitSetMachineState) state).getBits().length;
+        }
+        return RESULT_BYTES + RESULT_BYTES * state.getContents().size();
+    }
+
+    private static long estimateBytes(List<Move> moves)
+    {
+        return RESULT_BYTES + REFERENCE_BYTES * moves.size();
+    }
+
+    private void lockBacking()
+    {
+        if (backingLock != null) {
+            backingLock.lock();
+        }
+    }
+
+    private void unlockBacking()
+    {
+        if (backingLock != null) {
+            backingLock.unlock();
         }
+    }
+
+    private void count(Operation operation, boolean hit)
+    {
+        (hit ? hits : misses)[operation.ordinal()].increment();
+    }
 
-        return ttlCache.get(state);
+    public long getHitCount(Operation operation)
+    {
+        return hits[operation.ordinal()].sum();
+    }
+
+    public long getMissCount(Operation operation)
+    {
+        return misses[operation.ordinal()].sum();
+    }
+
+    public String getStatistics()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (Operation operation : Operation.values()) {
+            long hit = getHitCount(operation);
+            long total = hit + getMissCount(operation);
+            sb.append(operation).append(": ").append(hit).append("/").append(total).append(" hits, ");
+        }
+        sb.append(cache.size()).append(" states, ~").append(cache.bytes() / 1024).append("KB");
+        return sb.toString();
     }
 
     @Override
@@ -60,40 +174,174 @@ public final class CachedStateMachine extends StateMachine
         Entry entry = getEntry(state);
         synchronized (entry)
         {
-            if (!entry.goals.containsKey(role))
+            boolean hit = entry.goals.containsKey(role);
+            count(Operation.GOAL, hit);
+            if (!hit)
             {
-                entry.goals.put(role, backingStateMachine.getGoal(state, role));
+                int goal;
+                lockBacking();
+                try
+                {
+                    goal = backingStateMachine.getGoal(state, role);
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                entry.goals.put(role, goal);
+                cache.charge(state, RESULT_BYTES);
             }
 
             return entry.goals.get(role);
         }
     }
 
+    /**
+     * Asks the backing state machine for every role's goal at once when any
+     * of them is missing, so a machine that answers them together (or in
+     * parallel, like a ProverStateMachine with a pool) gets to.
+     */
     @Override
-    public List<Move> findActions(Role role) throws MoveDefinitionException
+    public List<Integer> getGoals(MachineState state) throws GoalDefinitionException
     {
-    	MachineState initialState = backingStateMachine.getInitialState();
-        Entry entry = getEntry(initialState);
+        List<Role> roles = getRoles();
+        Entry entry = getEntry(state);
         synchronized (entry)
         {
-            if (!entry.actions.containsKey(role))
+            boolean hit = entry.goals.keySet().containsAll(roles);
+            count(Operation.GOAL, hit);
+            if (!hit)
             {
-                entry.actions.put(role, ImmutableList.copyOf(backingStateMachine.findActions(role)));
+                List<Integer> goals;
+                lockBacking();
+                try
+                {
+                    goals = backingStateMachine.getGoals(state);
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                for (int i = 0; i < roles.size(); i++)
+                {
+                    if (entry.goals.put(roles.get(i), goals.get(i)) == null)
+                    {
+                        cache.charge(state, RESULT_BYTES);
+                    }
+                }
             }
 
-            return entry.actions.get(role);
+            List<Integer> goals = new ArrayList<Integer>(roles.size());
+            for (Role role : roles)
+            {
+                goals.add(entry.goals.get(role));
+            }
+            return goals;
         }
     }
 
+    /**
+     * Like getGoals, asks the backing state machine for every role's legal
+     * moves at once when more than one of them is missing. Each role's moves
+     * are recovered from the joint moves, which are their cross product.
+     */
+    @Override
+    public List<List<Move>> getLegalJointMoves(MachineState state) throws MoveDefinitionException
+    {
+        List<Role> roles = getRoles();
+        Entry entry = getEntry(state);
+        synchronized (entry)
+        {
+            int missing = 0;
+            for (Role role : roles)
+            {
+                if (!entry.moves.containsKey(role))
+                {
+                    missing++;
+                }
+            }
+            if (missing > 1)
+            {
+                count(Operation.LEGAL_MOVES, false);
+                List<List<Move>> jointMoves;
+                lockBacking();
+                try
+                {
+                    jointMoves = backingStateMachine.getLegalJointMoves(state);
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                for (int i = 0; i < roles.size() && !jointMoves.isEmpty(); i++)
+                {
+                    Set<Move> roleMoves = new LinkedHashSet<Move>();
+                    for (List<Move> jointMove : jointMoves)
+                    {
+                        roleMoves.add(jointMove.get(i));
+                    }
+                    if (!entry.moves.containsKey(roles.get(i)))
+                    {
+                        List<Move> moves = ImmutableList.copyOf(roleMoves);
+                        entry.moves.put(roles.get(i), moves);
+                        cache.charge(state, estimateBytes(moves));
+                    }
+                }
+            }
+        }
+
+        // Every role's moves are cached now, save for at most one
+        return super.getLegalJointMoves(state);
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        // These do not depend on the state, so they are kept outside the cache
+        List<Move> roleActions = actions.get(role);
+        if (roleActions == null)
+        {
+            lockBacking();
+            try
+            {
+                roleActions = ImmutableList.copyOf(backingStateMachine.findActions(role));
+            }
+            finally
+            {
+                unlockBacking();
+            }
+            List<Move> previous = actions.putIfAbsent(role, roleActions);
+            if (previous != null)
+            {
+                roleActions = previous;
+            }
+        }
+
+        return roleActions;
+    }
+
     @Override
     public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
     {
         Entry entry = getEntry(state);
         synchronized (entry)
         {
-            if (!entry.moves.containsKey(role))
+            boolean hit = entry.moves.containsKey(role);
+            count(Operation.LEGAL_MOVES, hit);
+            if (!hit)
             {
-                entry.moves.put(role, ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role)));
+                List<Move> moves;
+                lockBacking();
+                try
+                {
+                    moves = ImmutableList.copyOf(backingStateMachine.getLegalMoves(state, role));
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                entry.moves.put(role, moves);
+                cache.charge(state, estimateBytes(moves));
             }
 
             return entry.moves.get(role);
@@ -106,9 +354,22 @@ public final class CachedStateMachine extends StateMachine
         Entry entry = getEntry(state);
         synchronized (entry)
         {
-            if (!entry.nexts.containsKey(moves))
+            boolean hit = entry.nexts.containsKey(moves);
+            count(Operation.NEXT_STATE, hit);
+            if (!hit)
             {
-                entry.nexts.put(moves, backingStateMachine.getNextState(state, moves));
+                MachineState next;
+                lockBacking();
+                try
+                {
+                    next = backingStateMachine.getNextState(state, moves);
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                entry.nexts.put(moves, next);
+                cache.charge(state, estimateBytes(moves) + estimateBytes(next));
             }
 
             return entry.nexts.get(moves);
@@ -121,40 +382,134 @@ public final class CachedStateMachine extends StateMachine
         Entry entry = getEntry(state);
         synchronized (entry)
         {
-            if (entry.terminal == null)
+            boolean hit = entry.terminal != null;
+            count(Operation.TERMINAL, hit);
+            if (!hit)
             {
-                entry.terminal = backingStateMachine.isTerminal(state);
+                lockBacking();
+                try
+                {
+                    entry.terminal = backingStateMachine.isTerminal(state);
+                }
+                finally
+                {
+                    unlockBacking();
+                }
+                cache.charge(state, RESULT_BYTES);
             }
 
             return entry.terminal;
         }
     }
 
+    /**
+     * Rollouts bypass the cache: their states are random and mostly never
+     * seen again, so caching them would only evict the states that are.
+     * <p>
+     * A thread-safe backing machine plays the whole rollout itself, without
+     * any lock. Otherwise the rollout is played here, one step at a time, and
+     * the lock is only held for each step.
+     */
+    @Override
+    public int[] rollout(MachineState state, Role[] roles, Random random, int[] goals) throws TransitionDefinitionException, MoveDefinitionException, GoalDefinitionException
+    {
+        if (backingLock == null)
+        {
+            return backingStateMachine.rollout(state, roles, random, goals);
+        }
+
+        List<Role> allRoles = getRoles();
+        while (true)
+        {
+            List<Move> jointMove = new ArrayList<Move>(allRoles.size());
+            lockBacking();
+            try
+            {
+                if (backingStateMachine.isTerminal(state))
+                {
+                    for (int i = 0; i < roles.length; i++)
+                    {
+                        goals[i] = backingStateMachine.getGoal(state, roles[i]);
+                    }
+                    return goals;
+                }
+                for (Role role : allRoles)
+                {
+                    List<Move> legals = backingStateMachine.getLegalMoves(state, role);
+                    if (legals.isEmpty())
+                    {
+                        throw new MoveDefinitionException(state, role);
+                    }
+                    jointMove.add(legals.get(random.nextInt(legals.size())));
+                }
+                state = backingStateMachine.getNextStateDestructively(state, jointMove);
+            }
+            finally
+            {
+                unlockBacking();
+            }
+        }
+    }
+
+    // Every call into a backing machine that is not thread-safe is locked
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public void doPerMoveWork()
     {
         prune();
     }
 
+    /**
+     * Changes how much memory the cached results may use, evicting states at
+     * once if they now use more.
+     */
+    public void setByteBudget(long byteBudget)
+    {
+        cache.setByteBudget(byteBudget);
+    }
+
+    /**
+     * Drops every state that has not been used since the previous prune.
+     */
     public void prune()
     {
-        ttlCache.prune();
+        cache.sweep();
     }
 
     @Override
     public void initialize(List<Gdl> description) {
-        backingStateMachine.initialize(description);
+        lockBacking();
+        try {
+            backingStateMachine.initialize(description);
+        } finally {
+            unlockBacking();
+        }
     }
 
     @Override
     public List<Role> getRoles() {
         // TODO(schreib): Should this be cached as well?
-        return backingStateMachine.getRoles();
+        lockBacking();
+        try {
+            return backingStateMachine.getRoles();
+        } finally {
+            unlockBacking();
+        }
     }
 
     @Override
     public MachineState getInitialState() {
         // TODO(schreib): Should this be cached as well?
-        return backingStateMachine.getInitialState();
+        lockBacking();
+        try {
+            return backingStateMachine.getInitialState();
+        } finally {
+            unlockBacking();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,310 @@
+package org.ggp.base.util.statemachine.cache;
+
+import org.ggp.base.util.statemachine.MachineState;
+
+/**
+ * StateCache is a bounded, concurrent map from MachineStates to values.
+ * <p>
+ * It is split into independently locked segments, picked by the state's
+ * Zobrist hash, so threads working on different states rarely contend.
+ * Each segment is an open-addressing table whose keys are the 64-bit hashes
+ * themselves; the states are kept only to confirm a hit.
+ * <p>
+ * Every entry carries an estimated size in bytes, which can grow after
+ * insertion through {@link #charge}. Once a segment goes over its share of
+ * the byte budget it evicts entries with the CLOCK algorithm: the hand
+ * sweeps the table, spares entries read since it last passed them (clearing
+ * their reference bit), and evicts the first one that was not.
+ *
+ * @param <V> Value type
+ */
+public final class StateCache<V>
+{
+    private static final int SEGMENTS = 16;
+
+    private final Segment<V>[] segments;
+
+    /**
+     * @param byteBudget the approximate number of bytes the cached entries
+     *        may take up, as reported through put and charge
+     */
+    @SuppressWarnings("unchecked")
+    public StateCache(long byteBudget)
+    {
+        segments = (Segment<V>[]) new Segment<?>[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment<V>(Math.max(1, byteBudget / SEGMENTS));
+        }
+    }
+
+    private static int spread(long hash)
+    {
+        long h = hash ^ (hash >>> 32);
+        return (int) (h ^ (h >>> 16));
+    }
+
+    private Segment<V> segmentFor(long hash)
+    {
+        return segments[(spread(hash) >>> 28) & (SEGMENTS - 1)];
+    }
+
+    public V get(MachineState state)
+    {
+        long hash = state.getZobristHash();
+        return segmentFor(hash).get(hash, state);
+    }
+
+    /**
+     * Stores value for state unless the state already has one, and returns
+     * whichever value ends up cached.
+     */
+    public V putIfAbsent(MachineState state, V value, long bytes)
+    {
+        long hash = state.getZobristHash();
+        return segmentFor(hash).putIfAbsent(hash, state, value, bytes);
+    }
+
+    /**
+     * Adds bytes to the recorded size of the entry for state, if it is still
+     * cached, evicting other entries if that takes its segment over budget.
+     */
+    public void charge(MachineState state, long bytes)
+    {
+        long hash = state.getZobristHash();
+        segmentFor(hash).charge(hash, state, bytes);
+    }
+
+    /**
+     * Changes the byte budget, evicting entries at once if the cache is now
+     * over it.
+     */
+    public void setByteBudget(long byteBudget)
+    {
+        for (Segment<V> segment : segments) {
+            segment.setBudget(Math.max(1, byteBudget / SEGMENTS));
+        }
+    }
+
+    /**
+     * Evicts every entry that has not been read since the previous sweep.
+     */
+    public void sweep()
+    {
+        for (Segment<V> segment : segments) {
+            segment.sweep();
+        }
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long bytes()
+    {
+        long bytes = 0;
+        for (Segment<V> segment : segments) {
+            bytes += segment.bytes();
+        }
+        return bytes;
+    }
+
+    private static final class Segment<V>
+    {
+        private long budget;
+        private long[] hashes;
+        private MachineState[] keys;
+        private Object[] values;
+        private long[] weights;
+        private boolean[] referenced;
+        private int mask;
+        private int size;
+        private long bytes;
+        private int hand;
+
+        Segment(long budget)
+        {
+            this.budget = budget;
+            allocate(16);
+        }
+
+        private void allocate(int capacity)
+        {
+            hashes = new long[capacity];
+            keys = new MachineState[capacity];
+            values = new Object[capacity];
+            weights = new long[capacity];
+            referenced = new boolean[capacity];
+            mask = capacity - 1;
+            hand = 0;
+        }
+
+        private int home(long hash)
+        {
+            return spread(hash) & mask;
+        }
+
+        private int find(long hash, MachineState state)
+        {
+            for (int i = home(hash); keys[i] != null; i = (i + 1) & mask) {
+                if (hashes[i] == hash && keys[i].equals(state))
+                    return i;
+            }
+            return -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(long hash, MachineState state)
+        {
+            int i = find(hash, state);
+            if (i < 0)
+                return null;
+            referenced[i] = true;
+            return (V) values[i];
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V putIfAbsent(long hash, MachineState state, V value, long weight)
+        {
+            int i = find(hash, state);
+            if (i >= 0) {
+                referenced[i] = true;
+                return (V) values[i];
+            }
+            if (4 * (size + 1) > 3 * keys.length) {
+                grow();
+            }
+            i = home(hash);
+            while (keys[i] != null) {
+                i = (i + 1) & mask;
+            }
+            hashes[i] = hash;
+            keys[i] = state;
+            values[i] = value;
+            weights[i] = weight;
+            referenced[i] = true;
+            size++;
+            bytes += weight;
+            evict(i);
+            return value;
+        }
+
+        synchronized void charge(long hash, MachineState state, long weight)
+        {
+            int i = find(hash, state);
+            if (i < 0)
+                return;
+            weights[i] += weight;
+            bytes += weight;
+            evict(i);
+        }
+
+        synchronized void setBudget(long budget)
+        {
+            this.budget = budget;
+            evict(-1);
+        }
+
+        // Runs the CLOCK hand until the segment fits its budget, sparing the slot keep
+        private void evict(int keep)
+        {
+            while (bytes > budget && size > 1) {
+                if (keys[hand] == null || hand == keep) {
+                    hand = (hand + 1) & mask;
+                } else if (referenced[hand]) {
+                    referenced[hand] = false;
+                    hand = (hand + 1) & mask;
+                } else {
+                    // Removal may shift a later entry into this slot, so the hand stays put
+                    keep = removeAt(hand, keep);
+                }
+            }
+        }
+
+        // Rebuilds the table from the referenced entries, clearing their bits
+        synchronized void sweep()
+        {
+            rebuild(keys.length, true);
+        }
+
+        /**
+         * Empties slot i and shifts later entries of the probe run back so
+         * lookups never stop early. Returns where the entry that was in slot
+         * keep ended up.
+         */
+        private int removeAt(int i, int keep)
+        {
+            size--;
+            bytes -= weights[i];
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (keys[j] == null)
+                    break;
+                int h = home(hashes[j]);
+                // The entry at j may move to i only if its home is not within (i, j]
+                boolean stays = (i <= j) ? (i < h && h <= j) : (i < h || h <= j);
+                if (!stays) {
+                    hashes[i] = hashes[j];
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    weights[i] = weights[j];
+                    referenced[i] = referenced[j];
+                    if (j == keep) keep = i;
+                    i = j;
+                }
+            }
+            keys[i] = null;
+            values[i] = null;
+            weights[i] = 0;
+            referenced[i] = false;
+            return keep;
+        }
+
+        private void grow()
+        {
+            rebuild(2 * keys.length, false);
+        }
+
+        private void rebuild(int capacity, boolean dropUnreferenced)
+        {
+            long[] oldHashes = hashes;
+            MachineState[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] oldWeights = weights;
+            boolean[] oldReferenced = referenced;
+            allocate(capacity);
+            size = 0;
+            bytes = 0;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == null || (dropUnreferenced && !oldReferenced[j]))
+                    continue;
+                int i = home(oldHashes[j]);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[j];
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+                weights[i] = oldWeights[j];
+                referenced[i] = oldReferenced[j] && !dropUnreferenced;
+                size++;
+                bytes += oldWeights[j];
+            }
+        }
+
+        synchronized int size()
+        {
+            return size;
+        }
+
+        synchronized long bytes()
+        {
+            return bytes;
+        }
+    }
+}
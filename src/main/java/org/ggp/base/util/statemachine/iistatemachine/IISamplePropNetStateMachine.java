@@ -1,6 +1,7 @@
 package org.ggp.base.util.statemachine.iistatemachine;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -8,17 +9,14 @@ import java.util.Map;
 import java.util.Set;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
 import org.ggp.base.util.gdl.grammar.GdlSentence;
-import org.ggp.base.util.propnet.architecture.Component;
 import org.ggp.base.util.propnet.architecture.IIPropNet;
 import org.ggp.base.util.propnet.architecture.PropNet;
-import org.ggp.base.util.propnet.architecture.components.And;
-import org.ggp.base.util.propnet.architecture.components.Constant;
-import org.ggp.base.util.propnet.architecture.components.Not;
-import org.ggp.base.util.propnet.architecture.components.Or;
 import org.ggp.base.util.propnet.architecture.components.Proposition;
 import org.ggp.base.util.propnet.architecture.components.Transition;
 import org.ggp.base.util.propnet.factory.OptimizingPropNetFactory;
+import org.ggp.base.util.statemachine.BitSetMachineState;
 import org.ggp.base.util.statemachine.MachineState;
 import org.ggp.base.util.statemachine.Move;
 import org.ggp.base.util.statemachine.Role;
@@ -36,19 +34,107 @@ import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
  * as a partial characteristic of a MachineState, so this state machine computes legal
  * moves and next states with this partial information. It also "refines" legal moves for
  * an opponent (i.e., eliminates moves that are impossible given a SeesState).
+ *
+ * Propositions are referred to by their ordinals in the IIPropNet, and everything
+ * this state machine looks up for a role (its legal, goal and sees propositions,
+ * and the transitions whose next values it can know) is laid out in arrays when
+ * it is initialized.
+ *
+ * It can also play out fully known states, held as bitsets over the base
+ * propositions in the order of {@link #getBaseSentences()}, without going through
+ * the normal state machine: every base and input proposition is then known, so
+ * the three-valued propnet gives exact answers. A {@link #fork()} has a marking of
+ * its own, so that several threads can do this at once.
  * @author hardiecate
  *
  */
 
+
 public class IISamplePropNetStateMachine extends IIStateMachine {
 
 	private IIPropNet iipropNet;
 	private List<Role> roles;
-	private List<Proposition> ordering;
+	private Map<Role, Integer> roleIndices;
 	private StateMachine normalStateMachine;
-	private List<Proposition> seesPropagationProps;
-	private Map<Proposition, Double> knownProps;
-	private Set<Proposition> trueProps;
+
+	private int initProposition;
+	private int terminalProposition;
+	private GdlSentence[] baseSentences;
+	private Map<GdlSentence, Integer> baseIndices;
+	private int[] basePropositions;
+	/** The transition into each base proposition, or -1 if it has none */
+	private int[] baseTransitions;
+	private int[] inputPropositions;
+	/** For each role, the input proposition for each of its moves */
+	private List<Map<Move, Integer>> inputsByMove;
+	/** For each role, its legal propositions, the moves they stand for and their inputs */
+	private int[][] legalPropositions;
+	private Move[][] legalMoves;
+	private int[][] legalInputs;
+	/** For each role, its goal propositions and their values */
+	private int[][] goalPropositions;
+	private int[][] goalValues;
+	/** For each role, its sees propositions; and all the sees propositions */
+	private int[][] seesPropositions;
+	private int[] allSeesPropositions;
+	/**
+	 * For each role, the transitions that don't depend on the moves of any
+	 * other role, followed by those that depend on its own, and the base
+	 * propositions they lead to
+	 */
+	private int[][] knownTransitions;
+	private int[][] knownBases;
+
+	/** The base propositions known by the last reset, and their values then */
+	private int knownRole = -1;
+	private byte[] knownValues;
+	/** The propositions visited by the current sees propagation, with each value */
+	private BitSet propagatedTrue;
+	private BitSet propagatedFalse;
+	/**
+	 * Whether the marking holds a fully known state: every base proposition
+	 * known, every input false, and nothing else known
+	 */
+	private boolean definite = false;
+
+	public IISamplePropNetStateMachine() {
+	}
+
+	private IISamplePropNetStateMachine(IISamplePropNetStateMachine original) {
+		normalStateMachine = original.normalStateMachine;
+		iipropNet = original.iipropNet.fork();
+		roles = original.roles;
+		roleIndices = original.roleIndices;
+		initProposition = original.initProposition;
+		terminalProposition = original.terminalProposition;
+		baseSentences = original.baseSentences;
+		baseIndices = original.baseIndices;
+		basePropositions = original.basePropositions;
+		baseTransitions = original.baseTransitions;
+		inputPropositions = original.inputPropositions;
+		inputsByMove = original.inputsByMove;
+		legalPropositions = original.legalPropositions;
+		legalMoves = original.legalMoves;
+		legalInputs = original.legalInputs;
+		goalPropositions = original.goalPropositions;
+		goalValues = original.goalValues;
+		seesPropositions = original.seesPropositions;
+		allSeesPropositions = original.allSeesPropositions;
+		knownTransitions = original.knownTransitions;
+		knownBases = original.knownBases;
+		propagatedTrue = new BitSet(iipropNet.getComponents().size());
+		propagatedFalse = new BitSet(iipropNet.getComponents().size());
+	}
+
+	/**
+	 * Returns a copy of this state machine with a propnet marking of its own,
+	 * which can be used on another thread. The copies share the normal state
+	 * machine, so the methods that defer to it are only safe to call from
+	 * several threads if it is.
+	 */
+	public IISamplePropNetStateMachine fork() {
+		return new IISamplePropNetStateMachine(this);
+	}
 
 	@Override
 	public void initialize(StateMachine stateMachine, List<Gdl> description) throws InterruptedException {
@@ -56,7 +142,85 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		PropNet originalPropNet = OptimizingPropNetFactory.create(description);
 		iipropNet = new IIPropNet(originalPropNet);
 		roles = iipropNet.getRoles();
-		seesPropagationProps = new ArrayList<Proposition>();
+
+		roleIndices = new HashMap<Role, Integer>();
+		for (int r = 0; r < roles.size(); r++) {
+			roleIndices.put(roles.get(r), r);
+		}
+
+		initProposition = iipropNet.getOrdinal(iipropNet.getInitProposition());
+		terminalProposition = iipropNet.getOrdinal(iipropNet.getTerminalProposition());
+		baseSentences = iipropNet.getBasePropositions().keySet().toArray(new GdlSentence[0]);
+		baseIndices = new HashMap<GdlSentence, Integer>();
+		basePropositions = new int[baseSentences.length];
+		baseTransitions = new int[baseSentences.length];
+		for (int i = 0; i < baseSentences.length; i++) {
+			Proposition base = iipropNet.getBasePropositions().get(baseSentences[i]);
+			baseIndices.put(baseSentences[i], i);
+			basePropositions[i] = iipropNet.getOrdinal(base);
+			baseTransitions[i] = (base.getInputs().size() == 1) ? iipropNet.getOrdinal(base.getSingleInput()) : -1;
+		}
+
+		inputPropositions = iipropNet.getOrdinals(iipropNet.getInputPropositions().values());
+		inputsByMove = new ArrayList<Map<Move, Integer>>();
+		Map<GdlConstant, Integer> roleIndicesByName = new HashMap<GdlConstant, Integer>();
+		for (int r = 0; r < roles.size(); r++) {
+			inputsByMove.add(new HashMap<Move, Integer>());
+			roleIndicesByName.put(roles.get(r).getName(), r);
+		}
+		for (Map.Entry<GdlSentence, Proposition> input : iipropNet.getInputPropositions().entrySet()) {
+			Integer r = roleIndicesByName.get(input.getKey().get(0));
+			if (r != null) {
+				inputsByMove.get(r).put(new Move(input.getKey().get(1)), iipropNet.getOrdinal(input.getValue()));
+			}
+		}
+
+		legalPropositions = new int[roles.size()][];
+		legalMoves = new Move[roles.size()][];
+		legalInputs = new int[roles.size()][];
+		goalPropositions = new int[roles.size()][];
+		goalValues = new int[roles.size()][];
+		seesPropositions = new int[roles.size()][];
+		knownTransitions = new int[roles.size()][];
+		knownBases = new int[roles.size()][];
+		for (int r = 0; r < roles.size(); r++) {
+			Role role = roles.get(r);
+
+			legalPropositions[r] = iipropNet.getOrdinals(iipropNet.getLegalPropositions().get(role));
+			legalMoves[r] = new Move[legalPropositions[r].length];
+			legalInputs[r] = new int[legalPropositions[r].length];
+			for (int i = 0; i < legalPropositions[r].length; i++) {
+				Proposition legal = (Proposition) iipropNet.getComponent(legalPropositions[r][i]);
+				legalMoves[r][i] = getMoveFromProposition(legal);
+				Proposition input = iipropNet.getLegalInputMap().get(legal);
+				legalInputs[r][i] = (input == null) ? -1 : iipropNet.getOrdinal(input);
+			}
+
+			goalPropositions[r] = iipropNet.getOrdinals(iipropNet.getGoalPropositions().get(role));
+			goalValues[r] = new int[goalPropositions[r].length];
+			for (int i = 0; i < goalPropositions[r].length; i++) {
+				Proposition goal = (Proposition) iipropNet.getComponent(goalPropositions[r][i]);
+				goalValues[r][i] = Integer.parseInt(goal.getName().getBody().get(1).toString()); // could be issue with index of 2
+			}
+
+			Set<Proposition> sees = iipropNet.getSeesPropositionsByRole().get(role);
+			seesPropositions[r] = (sees == null) ? null : iipropNet.getOrdinals(sees);
+
+			List<Transition> transitions = new ArrayList<Transition>(iipropNet.getNonDoesTransitions());
+			transitions.addAll(iipropNet.getDoesTransitions().get(role));
+			knownTransitions[r] = iipropNet.getOrdinals(transitions);
+			knownBases[r] = new int[transitions.size()];
+			for (int i = 0; i < transitions.size(); i++) {
+				Transition t = transitions.get(i);
+				if (t.getOutputs().size() > 1) System.out.println("NABIIPNSM: Transition found with more than one base proposition.");
+				knownBases[r][i] = iipropNet.getOrdinal(t.getSingleOutput());
+			}
+		}
+		allSeesPropositions = iipropNet.getOrdinals(iipropNet.getSeesPropositionsByName().values());
+
+		int numComponents = iipropNet.getComponents().size();
+		propagatedTrue = new BitSet(numComponents);
+		propagatedFalse = new BitSet(numComponents);
 	}
 
 	@Override
@@ -72,13 +236,11 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 	@Override
 	public List<Integer> getGoals(SeesState seesState) throws GoalDefinitionException {
 		List<Integer> goals = new ArrayList<Integer>();
-		for (int i = 0; i < roles.size(); i++) {
-			Role role = roles.get(i);
-			Set<Proposition> goalProps = iipropNet.getGoalPropositions().get(role);
+		for (int r = 0; r < roles.size(); r++) {
 			boolean goalFound = false;
-			for (Proposition prop : goalProps) {
-				if ((propMark(prop) == 1) && !goalFound) {
-					goals.add(new Integer(Integer.parseInt(prop.getName().getBody().get(1).toString()))); // could be issue with index of 2
+			for (int i = 0; i < goalPropositions[r].length; i++) {
+				if ((iipropNet.getValue(goalPropositions[r][i]) == IIPropNet.TRUE) && !goalFound) {
+					goals.add(goalValues[r][i]);
 					goalFound = true;
 				} else if (goalFound) {
 					goals.add(-1);
@@ -90,11 +252,6 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		return goals;
 	}
 
-	// presupposes prop is a sees proposition
-	private See getSeeFromProp(Proposition prop, Role role) {
-		return new See(role, prop.getName().getBody().get(1));
-	}
-
 	@Override
 	public boolean isTerminal(MachineState state) {
 		return normalStateMachine.isTerminal(state);
@@ -116,31 +273,14 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 	// could be adjusted to return moves which have unknown II value, but strictly speaking this should
 	// not be necessary
 	public List<Move> getLegalMoves(SeesState seesState, Move move) throws MoveDefinitionException {
-
 		setPropNetState(seesState, move);
-		List<Move> moves = new ArrayList<Move>();
-
-		for (Proposition prop : iipropNet.getLegalPropositions().get(seesState.getRole())) {
-			if (propMark(prop) == 1) {
-				Move m = new Move(prop.getName().getBody().get(1));
-				moves.add(m);
-			}
-		}
-		return moves;
+		return getMovesWithValue(roleIndices.get(seesState.getRole()), false);
 	}
 
 	@Override
 	public List<Move> getLegalMoves(SeesState seesState) throws MoveDefinitionException {
-
 		setPropNetState(seesState);
-		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(seesState.getRole())) {
-			if (propMark(prop) == 1) {
-				Move m = new Move(prop.getName().getBody().get(1));
-				moves.add(m);
-			}
-		}
-		return moves;
+		return getMovesWithValue(roleIndices.get(seesState.getRole()), false);
 	}
 
 	// could be done more efficiently by specifying whether the propnet needs to be reset.
@@ -148,22 +288,23 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 	@Override
 	public List<Move> refineLegalMoves(SeesState seesState, Move move, Role role) {
 		setPropNetState(seesState, move);
-		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(role)) {
-			if (!(propMark(prop) == 0)) {
-				moves.add(getMoveFromProposition(prop));
-			}
-		}
-		return moves;
+		return getMovesWithValue(roleIndices.get(role), true);
 	}
 
 	@Override
 	public List<Move> refineLegalMoves(SeesState seesState, Role role) {
 		setPropNetState(seesState);
+		return getMovesWithValue(roleIndices.get(role), true);
+	}
+
+	// Returns the moves whose legal propositions are true, or if includeUnknown
+	// is set, the moves whose legal propositions are not false
+	private List<Move> getMovesWithValue(int r, boolean includeUnknown) {
 		List<Move> moves = new ArrayList<Move>();
-		for (Proposition prop : iipropNet.getLegalPropositions().get(role)) {
-			if (!(propMark(prop) == 0)) {
-				moves.add(getMoveFromProposition(prop));
+		for (int i = 0; i < legalPropositions[r].length; i++) {
+			byte value = iipropNet.getValue(legalPropositions[r][i]);
+			if (value == IIPropNet.TRUE || (includeUnknown && value == IIPropNet.UNKNOWN)) {
+				moves.add(legalMoves[r][i]);
 			}
 		}
 		return moves;
@@ -196,18 +337,168 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 
 		setPropNetState(state);
 		Set<See> sees = new HashSet<See>();
-		if (iipropNet.getSeesPropositionsByRole().get(role) == null) {
+		int[] props = seesPropositions[roleIndices.get(role)];
+		if (props == null) {
 			return new SeesState(role, null);
 		}
-		for (Proposition prop : iipropNet.getSeesPropositionsByRole().get(role)) {
+		for (int prop : props) {
 			if (normalStatePropMark(prop)) {
-				See see = new See(role, prop.getName().toTerm());
+				See see = new See(role, ((Proposition) iipropNet.getComponent(prop)).getName().toTerm());
 				sees.add(see);
 			}
 		}
 		return new SeesState(role, sees);
 	}
 
+	/**
+	 * Returns the base sentences in the order of the bits in a state. The
+	 * array must not be modified.
+	 */
+	public GdlSentence[] getBaseSentences() {
+		return baseSentences;
+	}
+
+	public long[] toBits(MachineState state) {
+		if (state instanceof BitSetMachineState && ((BitSetMachineState) state).getBaseSentences() == baseSentences) {
+			return ((BitSetMachineState) state).getBits();
+		}
+		long[] bits = new long[BitSetMachineState.wordsFor(baseSentences.length)];
+		for (GdlSentence sentence : state.getContents()) {
+			Integer i = baseIndices.get(sentence);
+			if (i != null) {
+				bits[i >>> 6] |= 1L << i;
+			}
+		}
+		return bits;
+	}
+
+	public BitSetMachineState toMachineState(long[] bits) {
+		return new BitSetMachineState(baseSentences, bits);
+	}
+
+	public boolean isTerminal(long[] state) {
+		markState(state);
+		return iipropNet.getValue(terminalProposition) == IIPropNet.TRUE;
+	}
+
+	public List<Move> getLegalMoves(long[] state, Role role) {
+		markState(state);
+		return getMovesWithValue(roleIndices.get(role), false);
+	}
+
+	public long[] getNextState(long[] state, List<Move> moves) {
+		markState(state);
+		int[] chosen = new int[moves.size()];
+		for (int r = 0; r < moves.size(); r++) {
+			Integer input = inputsByMove.get(r).get(moves.get(r));
+			chosen[r] = (input == null) ? -1 : input;
+			if (input != null) {
+				iipropNet.setIIValue(input, IIPropNet.TRUE);
+			}
+		}
+
+		long[] next = new long[state.length];
+		for (int i = 0; i < baseTransitions.length; i++) {
+			if (baseTransitions[i] >= 0 && iipropNet.getValue(baseTransitions[i]) == IIPropNet.TRUE) {
+				next[i >>> 6] |= 1L << i;
+			}
+		}
+
+		for (int input : chosen) {
+			if (input >= 0) {
+				iipropNet.setIIValue(input, IIPropNet.FALSE);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Returns true if the role would see exactly what it saw in seesState
+	 * in the given state, as worked out by {@link #getSeesState(MachineState, Role)}.
+	 */
+	public boolean isConsistent(long[] state, SeesState seesState) {
+		int[] props = seesPropositions[roleIndices.get(seesState.getRole())];
+		if (props == null) {
+			return true;
+		}
+		markState(state);
+		for (int prop : props) {
+			boolean seen = seesState.getSees() != null && seesState.containsSee(((Proposition) iipropNet.getComponent(prop)).getName());
+			if (seen != (iipropNet.getValue(prop) == IIPropNet.TRUE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the role's goal value in the given state, or -1 if it has none.
+	 */
+	public int getGoal(long[] state, Role role) {
+		markState(state);
+		int r = roleIndices.get(role);
+		for (int i = 0; i < goalPropositions[r].length; i++) {
+			if (iipropNet.getValue(goalPropositions[r][i]) == IIPropNet.TRUE) {
+				return goalValues[r][i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns what the role sees in the given state, as the set of indices
+	 * of its true sees propositions. Two states look the same to the role
+	 * exactly when their sees are equal.
+	 */
+	public BitSet getSees(long[] state, Role role) {
+		BitSet sees = new BitSet();
+		int[] props = seesPropositions[roleIndices.get(role)];
+		if (props == null) {
+			return sees;
+		}
+		markState(state);
+		for (int i = 0; i < props.length; i++) {
+			if (iipropNet.getValue(props[i]) == IIPropNet.TRUE) {
+				sees.set(i);
+			}
+		}
+		return sees;
+	}
+
+	/**
+	 * Returns the sees in seesState in the same form as {@link #getSees(long[], Role)}.
+	 */
+	public BitSet getSees(SeesState seesState) {
+		BitSet sees = new BitSet();
+		int[] props = seesPropositions[roleIndices.get(seesState.getRole())];
+		if (props == null || seesState.getSees() == null) {
+			return sees;
+		}
+		for (int i = 0; i < props.length; i++) {
+			if (seesState.containsSee(((Proposition) iipropNet.getComponent(props[i])).getName())) {
+				sees.set(i);
+			}
+		}
+		return sees;
+	}
+
+	// Marks a fully known state. Inputs are false, as they are when the
+	// sees of a state are worked out. Only the base propositions that differ
+	// from the last state marked this way need to be set again.
+	private void markState(long[] state) {
+		if (!definite) {
+			clearPropNet();
+			for (int input : inputPropositions) {
+				iipropNet.setIIValue(input, IIPropNet.FALSE);
+			}
+			definite = true;
+		}
+		for (int i = 0; i < basePropositions.length; i++) {
+			boolean value = (state[i >>> 6] & (1L << i)) != 0;
+			iipropNet.setIIValue(basePropositions[i], value ? IIPropNet.TRUE : IIPropNet.FALSE);
+		}
+	}
+
 	private void setPropNetState(SeesState seesState) {
 		resetPropNet(seesState.getRole());
 		markSees(seesState);
@@ -226,227 +517,179 @@ public class IISamplePropNetStateMachine extends IIStateMachine {
 		markBases(state.getContents());
 	}
 
+	// Works out which base propositions the role can know the next values of,
+	// from the current II-values, and makes every other proposition but the
+	// inputs unknown
 	private void resetPropNet(Role role) {
+		int r = roleIndices.get(role);
+		definite = false;
 
-		iipropNet.setIIValue(iipropNet.getInitProposition(), 0);
-		knownProps = new HashMap<Proposition, Double>();
-		trueProps = new HashSet<Proposition>();
-		for (Transition t : iipropNet.getNonDoesTransitions()) { // get iivalues of base propositions connected to transition
-			double iivalue = propMark(t.getSingleInput());
-			if (t.getOutputs().size() > 1) System.out.println("NABIIPNSM: Transition found with more than one base proposition.");
-			knownProps.put((Proposition)t.getSingleOutput(), iivalue);
-		}
-		for (Transition t : iipropNet.getDoesTransitions().get(role)) {
-			double iivalue = propMark(t.getSingleInput());
-			knownProps.put((Proposition)t.getSingleOutput(), iivalue);
-		}
-		for (Proposition p : knownProps.keySet()) { // set iivalues of these base props
-			iipropNet.setIIValue(p, knownProps.get(p));
-			if (knownProps.get(p) == 1) {
-				trueProps.add(p);
-			}
+		iipropNet.setIIValue(initProposition, IIPropNet.FALSE);
+		if (knownValues == null || knownValues.length < knownTransitions[r].length) {
+			knownValues = new byte[knownTransitions[r].length];
 		}
-
-		for (Proposition p : iipropNet.getPropositions()) { // set all other propositions to unknown
-			if (!knownProps.containsKey(p) && !iipropNet.getInputPropositions().values().contains(p)) {
-				iipropNet.setIIValue(p, 0.5);
-			}
+		for (int i = 0; i < knownTransitions[r].length; i++) { // get iivalues of base propositions connected to transition
+			knownValues[i] = iipropNet.getValue(knownTransitions[r][i]);
 		}
+		knownRole = r;
 
+		iipropNet.clearIIValues();
+		for (int i = 0; i < knownBases[r].length; i++) { // set iivalues of these base props
+			iipropNet.setIIValue(knownBases[r][i], knownValues[i]);
+		}
 	}
 
 	public Map<Proposition, Double> getKnownProps() {
+		Map<Proposition, Double> knownProps = new HashMap<Proposition, Double>();
+		if (knownRole >= 0) {
+			for (int i = 0; i < knownBases[knownRole].length; i++) {
+				knownProps.put((Proposition) iipropNet.getComponent(knownBases[knownRole][i]), IIPropNet.toDouble(knownValues[i]));
+			}
+		}
 		return knownProps;
 	}
 
 	public Set<Proposition> getTrueProps() {
+		Set<Proposition> trueProps = new HashSet<Proposition>();
+		if (knownRole >= 0) {
+			for (int i = 0; i < knownBases[knownRole].length; i++) {
+				if (knownValues[i] == IIPropNet.TRUE) {
+					trueProps.add((Proposition) iipropNet.getComponent(knownBases[knownRole][i]));
+				}
+			}
+		}
 		return trueProps;
 	}
 
 	private void markAction(Move move, Role role) {
 		if (move != null){
-			for (Proposition legal : iipropNet.getLegalPropositions().get(role)) {
-				if (legal.getName().get(1).equals(move.getContents())) {
-					iipropNet.setIIValue(iipropNet.getLegalInputMap().get(legal), 1);
+			definite = false;
+			int r = roleIndices.get(role);
+			for (int i = 0; i < legalPropositions[r].length; i++) {
+				if (legalInputs[r][i] < 0) {
+					continue;
+				}
+				if (legalMoves[r][i].equals(move)) {
+					iipropNet.setIIValue(legalInputs[r][i], IIPropNet.TRUE);
 				} else {
-					iipropNet.setIIValue(iipropNet.getLegalInputMap().get(legal), 0);
+					iipropNet.setIIValue(legalInputs[r][i], IIPropNet.FALSE);
 				}
 			}
 		}
 	}
 
 	private void markSees(SeesState seesState) {
-		Role role = seesState.getRole();
-		if (iipropNet.getSeesPropositionsByRole().get(role) != null) {
-			for (Proposition prop : iipropNet.getSeesPropositionsByRole().get(seesState.getRole())) {
-				if (seesState.containsSee(prop.getName())) {
-					iipropNet.setIIValue(prop, 1);
+		int[] props = seesPropositions[roleIndices.get(seesState.getRole())];
+		if (props != null) {
+			for (int prop : props) {
+				if (seesState.containsSee(((Proposition) iipropNet.getComponent(prop)).getName())) {
+					iipropNet.setIIValue(prop, IIPropNet.TRUE);
 				} else {
-					iipropNet.setIIValue(prop, 0);
+					iipropNet.setIIValue(prop, IIPropNet.FALSE);
 				}
 			}
 		}
 	}
 
+	// Pushes what the role sees back through the propnet: the inputs of a true
+	// AND must all be true, those of a false OR must all be false, and so on.
+	// Only sees propositions with known II-values are pushed back.
 	private void propagateSees() {
-		List<Proposition> trueSees = new ArrayList<Proposition>();
-		List<Proposition> falseSees = new ArrayList<Proposition>();
-		for (Proposition prop : iipropNet.getSeesPropositionsByName().values()) {
-			seesPropagationProps.add(prop);
-			if (prop.getValue()) trueSees.add(prop);
-			else falseSees.add(prop);
-		}
+		propagatedTrue.clear();
+		propagatedFalse.clear();
 		// propagate true values
-		for (Proposition prop : trueSees) {
-			for (Component c : prop.getInputs()) {
-				propagateSeesHelper(c, true);
+		for (int prop : allSeesPropositions) {
+			if (iipropNet.getIIValue(prop) == IIPropNet.TRUE) {
+				for (int input : iipropNet.getInputs(prop)) {
+					propagateSeesHelper(input, true);
+				}
 			}
 		}
 		// propagate false values
-		for (Proposition prop : falseSees) {
-			for (Component c : prop.getInputs()) {
-				propagateSeesHelper(c, false);
+		for (int prop : allSeesPropositions) {
+			if (iipropNet.getIIValue(prop) == IIPropNet.FALSE) {
+				for (int input : iipropNet.getInputs(prop)) {
+					propagateSeesHelper(input, false);
+				}
 			}
 		}
 	}
 
-	private void propagateSeesHelper(Component c, boolean value) {
-
-		double iivalue;
-		if (value) iivalue = 1;
-		else iivalue = 0;
-		if (c instanceof Proposition) {
-			Proposition prop = (Proposition) c;
-			iipropNet.setIIValue(prop, iivalue);
+	private void propagateSeesHelper(int c, boolean value) {
+		// A component reached again with the same value has nothing new to push
+		BitSet propagated = value ? propagatedTrue : propagatedFalse;
+		if (propagated.get(c)) {
+			return;
+		}
+		propagated.set(c);
 
-			if (!seesPropagationProps.contains(prop)) seesPropagationProps.add(prop);
+		if (iipropNet.isProposition(c)) {
+			iipropNet.setIIValue(c, value ? IIPropNet.TRUE : IIPropNet.FALSE);
 
-			if (prop.getInputs().size() > 1 || ((prop.getInputs().size() == 1) && !(prop.getSingleInput() instanceof Transition))) {
-				for (Component comp : prop.getInputs()) propagateSeesHelper(comp, value);
+			int[] inputs = iipropNet.getInputs(c);
+			if (inputs.length > 1 || iipropNet.isView(c)) {
+				for (int input : inputs) propagateSeesHelper(input, value);
 			}
 
-		} else if ((c instanceof And) && value) {
-			for (Component comp : c.getInputs()) propagateSeesHelper(comp, value);
+		} else if (iipropNet.isAnd(c) && value) {
+			for (int input : iipropNet.getInputs(c)) propagateSeesHelper(input, value);
 
-		} else if ((c instanceof Or) && !value) {
-			for (Component comp : c.getInputs()) propagateSeesHelper(comp, value);
+		} else if (iipropNet.isOr(c) && !value) {
+			for (int input : iipropNet.getInputs(c)) propagateSeesHelper(input, value);
 
-		} else if (c instanceof Not) {
-			propagateSeesHelper(c.getSingleInput(), !value);
+		} else if (iipropNet.isNot(c)) {
+			propagateSeesHelper(iipropNet.getInputs(c)[0], !value);
 		}
 
 	}
 
-	// Clears propnet by setting the II value of every single component to unknown. In theory we only need to clear
-	// the values from propositions that were affected by the downward sees propagation, so this could potentially
-	// be done more efficiently by keeping track of these propositions during propagation.
+	// Clears propnet by setting the II value of every proposition but the inputs to unknown.
 	private void clearPropNet() {
-		if (seesPropagationProps == null) {
-			for(Proposition prop : iipropNet.getPropositions()) {
-				iipropNet.setIIValue(prop, 0.5);
-			}
-		} else {
-			for (Proposition prop : seesPropagationProps) {
-				iipropNet.setIIValue(prop, 0.5);
-			}
-		}
-		iipropNet.setIIValue(iipropNet.getInitProposition(), 0);
+		definite = false;
+		iipropNet.clearIIValues();
+		iipropNet.setIIValue(initProposition, IIPropNet.FALSE);
 	}
 
 	private void markBases(Set<GdlSentence> sentences){
-		for (GdlSentence sent: iipropNet.getBasePropositions().keySet()){
-			if (sentences.contains(sent)) {
-				iipropNet.setIIValue(iipropNet.getBasePropositions().get(sent),1);
+		for (int i = 0; i < baseSentences.length; i++) {
+			if (sentences.contains(baseSentences[i])) {
+				iipropNet.setIIValue(basePropositions[i], IIPropNet.TRUE);
 			} else {
-				iipropNet.setIIValue(iipropNet.getBasePropositions().get(sent), 0);
+				iipropNet.setIIValue(basePropositions[i], IIPropNet.FALSE);
 			}
 		}
 	}
 
-	private double propMark(Component c){
-		if (c instanceof Proposition){
-
-			Proposition iiprop = (Proposition) c;
-			double iivalue = iipropNet.getIIValue(iiprop);
-			if ((iivalue == 0) || (iivalue == 1)) {
-				return iivalue;
-			}
-			// view proposition
-			if (iiprop.getInputs().size() == 1 && !(iiprop.getSingleInput() instanceof Transition)){
-				return propMark(iiprop.getSingleInput());
-			}
-			// base or input proposition
-			else{
-				return iivalue;
-			}
-		}
-		else if (c instanceof And){
-			double propValue = 1;
-			for (Component c2 : c.getInputs()){
-				if (propMark(c2) == 0) return 0;
-				if (propMark(c2) == 0.5) propValue = 0.5;
-			}
-			return propValue;
-		}
-		else if (c instanceof Or){
-			double propValue = 0;
-			for (Component c2 : c.getInputs()){
-				if (propMark(c2) == 1) return 1;
-				if (propMark(c2) == 0.5) propValue = 0.5;
-			}
-			return propValue;
-		}
-		else if (c instanceof Constant){
-			if(c.getValue()) return 1;
-			else return 0;
+	// Evaluates a component in two-valued logic, taking every proposition other
+	// than a view at its last known value
+	private boolean normalStatePropMark(int c){
+		if (iipropNet.isView(c)) {
+			return normalStatePropMark(iipropNet.getInputs(c)[0]);
 		}
-		else if (c instanceof Not){
-			if (propMark(c.getSingleInput()) == 0) return 1;
-			else if (propMark(c.getSingleInput()) == 1) return 0;
-			else return propMark(c.getSingleInput());
+		else if (iipropNet.isProposition(c)) {
+			return iipropNet.getLastValue(c);
 		}
-		else if (c instanceof Transition){
-			return propMark(c.getSingleInput());
-		}
-
-		return 0;
-	}
-
-	private boolean normalStatePropMark(Component c){
-		if (c instanceof Proposition){
-
-			// view proposition
-			if (!(c.getSingleInput() instanceof Transition)){
-				return normalStatePropMark(c.getSingleInput());
-			}
-			// base or input proposition
-			else{
-				return c.getValue();
-			}
-		}
-		else if (c instanceof And){
-			for (Component c2:c.getInputs()){
-				if (!normalStatePropMark(c2)) return false;
+		else if (iipropNet.isAnd(c)) {
+			for (int input : iipropNet.getInputs(c)) {
+				if (!normalStatePropMark(input)) return false;
 			}
 			return true;
 		}
-		else if (c instanceof Or){
-			for (Component c2:c.getInputs()){
-				if (normalStatePropMark(c2)) return true;
+		else if (iipropNet.isOr(c)) {
+			for (int input : iipropNet.getInputs(c)) {
+				if (normalStatePropMark(input)) return true;
 			}
 			return false;
 		}
-		else if (c instanceof Constant){
-			return c.getValue();
+		else if (iipropNet.isNot(c)) {
+			return !normalStatePropMark(iipropNet.getInputs(c)[0]);
 		}
-		else if (c instanceof Not){
-			return !normalStatePropMark(c.getSingleInput());
+		else if (iipropNet.isTransition(c)) {
+			return normalStatePropMark(iipropNet.getInputs(c)[0]);
 		}
-		else if (c instanceof Transition){
-			return normalStatePropMark(c.getSingleInput());
+		else {
+			// constants
+			return iipropNet.getValue(c) == IIPropNet.TRUE;
 		}
-
-		System.out.println("NotABotIIPropNetStateMachine found unknown Component during normalStatePropMark");
-		return false;
 	}
 }
@@ -0,0 +1,268 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+
+/**
+ * ParticleFilter keeps a belief about the true state of an incomplete
+ * information game, from one role's point of view, as a bag of candidate
+ * states (particles) that agree with everything the role has seen so far.
+ * Particles are held as bitsets over the base propositions, and played out
+ * on forks of an IISamplePropNetStateMachine, one per worker thread.
+ *
+ * Each time the role moves and sees something new, {@link #update} plays
+ * every particle forward by the role's move and random legal moves for the
+ * other roles, and keeps the results that would have shown the role what
+ * it saw. If fewer than the target number survive, more are drawn the same
+ * way from random particles of the previous belief; and if none survive at
+ * all, fresh particles are played out from the initial state through the
+ * whole history of moves and sees, dropping each as soon as it disagrees.
+ *
+ * Gamers can then search over {@link #sample determinizations}: states drawn
+ * from the belief, each of which can be played as if the game had perfect
+ * information.
+ */
+public final class ParticleFilter {
+	// How many tries each missing particle gets when drawing replacements
+	private static final int ATTEMPTS_PER_PARTICLE = 20;
+
+	private final IISamplePropNetStateMachine[] machines;
+	private final Role role;
+	private final int numParticles;
+	private final ExecutorService workers;
+
+	private final long[] initialState;
+	private final List<Move> moveHistory = new ArrayList<Move>();
+	private final List<SeesState> seesHistory = new ArrayList<SeesState>();
+	private List<long[]> particles;
+
+	/**
+	 * @param stateMachine an initialized state machine, which the filter forks
+	 *        once per thread and otherwise leaves alone
+	 * @param numParticles how many particles to keep
+	 * @param numThreads how many threads to play particles out on
+	 */
+	public ParticleFilter(IISamplePropNetStateMachine stateMachine, Role role, int numParticles, int numThreads) {
+		this.role = role;
+		this.numParticles = numParticles;
+
+		machines = new IISamplePropNetStateMachine[numThreads];
+		for (int i = 0; i < numThreads; i++) {
+			machines[i] = stateMachine.fork();
+		}
+		workers = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "ParticleFilter");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		// The initial state is common knowledge
+		initialState = machines[0].toBits(stateMachine.getInitialState());
+		particles = Collections.nCopies(numParticles, initialState);
+	}
+
+	public Role getRole() {
+		return role;
+	}
+
+	/**
+	 * Updates the belief once the role has made the given move and then
+	 * seen seesState, giving up on drawing replacement particles at the
+	 * given time.
+	 */
+	public void update(final Move move, final SeesState seesState, final long timeout) throws InterruptedException {
+		moveHistory.add(move);
+		seesHistory.add(seesState);
+
+		// Play every particle forward once
+		final List<long[]> parents = particles;
+		List<long[]> survivors = runOnWorkers(new Work() {
+			@Override
+			public void run(IISamplePropNetStateMachine machine, int worker, List<long[]> found) {
+				Random random = ThreadLocalRandom.current();
+				for (int i = worker; i < parents.size(); i += machines.length) {
+					long[] child = step(machine, parents.get(i), move, seesState, random);
+					if (child != null) {
+						found.add(child);
+					}
+				}
+			}
+		});
+
+		// Draw replacements from the previous belief
+		if (survivors.size() < numParticles && !parents.isEmpty()) {
+			final AtomicInteger needed = new AtomicInteger(numParticles - survivors.size());
+			final int attempts = ATTEMPTS_PER_PARTICLE * needed.get();
+			survivors.addAll(runOnWorkers(new Work() {
+				@Override
+				public void run(IISamplePropNetStateMachine machine, int worker, List<long[]> found) {
+					Random random = ThreadLocalRandom.current();
+					for (int i = worker; i < attempts && needed.get() > 0 && System.currentTimeMillis() < timeout; i += machines.length) {
+						long[] child = step(machine, parents.get(random.nextInt(parents.size())), move, seesState, random);
+						if (child != null && needed.getAndDecrement() > 0) {
+							found.add(child);
+						}
+					}
+				}
+			}));
+		}
+
+		// Start again from the beginning, if nothing was left
+		if (survivors.isEmpty()) {
+			final AtomicInteger needed = new AtomicInteger(numParticles);
+			final int attempts = ATTEMPTS_PER_PARTICLE * numParticles;
+			survivors = runOnWorkers(new Work() {
+				@Override
+				public void run(IISamplePropNetStateMachine machine, int worker, List<long[]> found) {
+					Random random = ThreadLocalRandom.current();
+					for (int i = worker; i < attempts && needed.get() > 0 && System.currentTimeMillis() < timeout; i += machines.length) {
+						long[] state = initialState;
+						for (int t = 0; t < moveHistory.size() && state != null; t++) {
+							state = step(machine, state, moveHistory.get(t), seesHistory.get(t), random);
+						}
+						if (state != null && needed.getAndDecrement() > 0) {
+							found.add(state);
+						}
+					}
+				}
+			});
+		}
+
+		particles = survivors;
+	}
+
+	// Plays one random step from the state, with the role's move fixed, and
+	// returns the next state if it agrees with what the role saw, or null
+	private long[] step(IISamplePropNetStateMachine machine, long[] state, Move move, SeesState seesState, Random random) {
+		List<Move> jointMove = new ArrayList<Move>(machine.getRoles().size());
+		for (Role other : machine.getRoles()) {
+			List<Move> legalMoves = machine.getLegalMoves(state, other);
+			if (other.equals(role)) {
+				if (!legalMoves.contains(move)) {
+					return null;
+				}
+				jointMove.add(move);
+			} else {
+				if (legalMoves.isEmpty()) {
+					return null;
+				}
+				jointMove.add(legalMoves.get(random.nextInt(legalMoves.size())));
+			}
+		}
+		long[] next = machine.getNextState(state, jointMove);
+		return machine.isConsistent(next, seesState) ? next : null;
+	}
+
+	private interface Work {
+		void run(IISamplePropNetStateMachine machine, int worker, List<long[]> found);
+	}
+
+	// Runs the work once on each worker, with its own fork of the state
+	// machine, and collects what they found
+	private List<long[]> runOnWorkers(final Work work) throws InterruptedException {
+		List<Future<List<long[]>>> results = new ArrayList<Future<List<long[]>>>(machines.length);
+		for (int i = 0; i < machines.length; i++) {
+			final int worker = i;
+			results.add(workers.submit(new Callable<List<long[]>>() {
+				@Override
+				public List<long[]> call() {
+					List<long[]> found = new ArrayList<long[]>();
+					work.run(machines[worker], worker, found);
+					return found;
+				}
+			}));
+		}
+
+		List<long[]> found = new ArrayList<long[]>();
+		for (Future<List<long[]>> result : results) {
+			try {
+				found.addAll(result.get());
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Returns how many particles the belief holds; none if every attempt to
+	 * find a state agreeing with what the role has seen failed.
+	 */
+	public int size() {
+		return particles.size();
+	}
+
+	public boolean isEmpty() {
+		return particles.isEmpty();
+	}
+
+	/**
+	 * Returns every particle, as a state for use with any state machine.
+	 */
+	public List<MachineState> getParticles() {
+		List<MachineState> states = new ArrayList<MachineState>(particles.size());
+		for (long[] particle : particles) {
+			states.add(machines[0].toMachineState(particle));
+		}
+		return states;
+	}
+
+	/**
+	 * Returns a determinization: a state drawn from the belief, in proportion
+	 * to how many particles it has. Returns null if the belief is empty.
+	 */
+	public MachineState sample(Random random) {
+		if (particles.isEmpty()) {
+			return null;
+		}
+		return machines[0].toMachineState(particles.get(random.nextInt(particles.size())));
+	}
+
+	/**
+	 * Returns a determinization as a bit state of the state machine the
+	 * filter was made with, for searching on forks of it. Returns null if the
+	 * belief is empty. The array is shared, and must not be modified.
+	 */
+	public long[] sampleBits(Random random) {
+		if (particles.isEmpty()) {
+			return null;
+		}
+		return particles.get(random.nextInt(particles.size()));
+	}
+
+	/**
+	 * Returns n determinizations, drawn independently.
+	 */
+	public List<MachineState> sample(int n, Random random) {
+		List<MachineState> states = new ArrayList<MachineState>(n);
+		for (int i = 0; i < n && !particles.isEmpty(); i++) {
+			states.add(sample(random));
+		}
+		return states;
+	}
+
+	/**
+	 * Stops the worker threads. The filter can't be updated afterwards.
+	 */
+	public void shutdown() {
+		workers.shutdownNow();
+	}
+}
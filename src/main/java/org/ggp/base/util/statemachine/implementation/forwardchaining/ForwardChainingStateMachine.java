@@ -0,0 +1,563 @@
+package org.ggp.base.util.statemachine.implementation.forwardchaining;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlLiteral;
+import org.ggp.base.util.gdl.grammar.GdlNot;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlRelation;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.gdl.model.DependencyGraphs;
+import org.ggp.base.util.gdl.model.SentenceDomainModel;
+import org.ggp.base.util.gdl.model.SentenceDomainModelFactory;
+import org.ggp.base.util.gdl.model.SentenceForm;
+import org.ggp.base.util.gdl.transforms.DeORer;
+import org.ggp.base.util.gdl.transforms.GdlCleaner;
+import org.ggp.base.util.gdl.transforms.VariableConstrainer;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.reasoner.gdl.GdlChainingReasoner;
+import org.ggp.base.util.reasoner.gdl.GdlSentenceSet;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.query.ProverQueryBuilder;
+import org.ggp.base.util.statemachine.implementation.prover.result.ProverResultParser;
+
+import com.google.common.base.Predicate;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Sets;
+import com.google.common.collect.SetMultimap;
+
+/**
+ * A state machine that forward chains over the game rules with a
+ * {@link GdlChainingReasoner}, instead of proving each query backwards like
+ * the {@link ProverStateMachine}. It needs no propnet, so it can stand in for
+ * one in games whose propnet is too large to build or fails verification.
+ * <p>
+ * The machine holds the closure of one state, i.e. every sentence true in it,
+ * and queries are read off that closure. Moving it to another state does not
+ * start over: the sentence forms are evaluated stratum by stratum, and a
+ * stratum is only revisited if a form it depends on changed. If those forms
+ * only gained sentences, and are only used in positive literals, the new
+ * consequences are derived differentially from the new sentences alone.
+ * Otherwise the stratum's forms are retracted and derived again. The forms
+ * that depend on the moves are derived in getNextState and then retracted.
+ * <p>
+ * This class is not thread-safe; give each thread its own instance.
+ */
+public class ForwardChainingStateMachine extends StateMachine
+{
+    private SentenceDomainModel model;
+    private GdlChainingReasoner reasoner;
+    private ImmutableList<Role> roles;
+    private MachineState initialState;
+
+    // The constant sentences, and the closure of currentState on top of them
+    private GdlSentenceSet constants;
+    private GdlSentenceSet closure;
+    private MachineState currentState;
+
+    private List<Stratum> stateStrata;
+    private List<Stratum> moveStrata;
+    private Set<SentenceForm> trueForms;
+    private Set<SentenceForm> doesForms;
+    private List<SentenceForm> legalForms;
+    private List<SentenceForm> goalForms;
+    private List<SentenceForm> terminalForms;
+    private List<SentenceForm> nextForms;
+    private final Map<GdlSentence, SentenceForm> formCache = new HashMap<GdlSentence, SentenceForm>();
+
+    /**
+     * A set of sentence forms that may depend on one another, and the forms
+     * outside the set that its rules use.
+     */
+    private static final class Stratum
+    {
+        final Set<SentenceForm> forms;
+        final Multiset<SentenceForm> positiveDependencies = HashMultiset.create();
+        final Set<SentenceForm> negativeDependencies = new HashSet<SentenceForm>();
+        boolean recursive;
+        int rules;
+
+        Stratum(Set<SentenceForm> forms)
+        {
+            this.forms = forms;
+        }
+    }
+
+    /**
+     * The forms whose sentences changed between two closures. A grown form
+     * only gained sentences, the ones recorded; a rewritten form also lost
+     * some.
+     */
+    private static final class Changes
+    {
+        final SetMultimap<SentenceForm, GdlSentence> grown = HashMultimap.create();
+        final Set<SentenceForm> rewritten = new HashSet<SentenceForm>();
+
+        void record(SentenceForm form, Set<GdlSentence> before, Set<GdlSentence> after)
+        {
+            if (!after.containsAll(before)) {
+                rewritten.add(form);
+            } else if (after.size() > before.size()) {
+                grown.putAll(form, Sets.difference(after, before));
+            }
+        }
+
+        boolean contains(SentenceForm form)
+        {
+            return rewritten.contains(form) || grown.containsKey(form);
+        }
+    }
+
+    /**
+     * Initialize must be called before using the StateMachine
+     */
+    public ForwardChainingStateMachine()
+    {
+
+    }
+
+    @Override
+    public void initialize(List<Gdl> description)
+    {
+        try
+        {
+            roles = ImmutableList.copyOf(Role.computeRoles(description));
+            description = GdlCleaner.run(description);
+            description = DeORer.run(description);
+            description = VariableConstrainer.replaceFunctionValuedVariables(description);
+            model = SentenceDomainModelFactory.createWithCartesianDomains(description);
+            reasoner = GdlChainingReasoner.create(model);
+
+            trueForms = getForms(GdlPool.TRUE);
+            doesForms = getForms(GdlPool.DOES);
+            legalForms = ImmutableList.copyOf(getForms(GdlPool.LEGAL));
+            goalForms = ImmutableList.copyOf(getForms(GdlPool.GOAL));
+            terminalForms = ImmutableList.copyOf(getForms(GdlPool.TERMINAL));
+            nextForms = ImmutableList.copyOf(getForms(GdlPool.NEXT));
+
+            Set<SentenceForm> moveDependent = DependencyGraphs.getMatchingAndDownstream(model.getSentenceForms(),
+                    HashMultimap.create(model.getDependencyGraph()), new Predicate<SentenceForm>() {
+                        @Override
+                        public boolean apply(SentenceForm form) {
+                            return doesForms.contains(form);
+                        }
+                    });
+
+            constants = reasoner.getConstantSentences();
+            closure = constants;
+            stateStrata = new ArrayList<Stratum>();
+            moveStrata = new ArrayList<Stratum>();
+            for (Set<SentenceForm> forms : DependencyGraphs.toposortSafe(model.getSentenceForms(), model.getDependencyGraph()))
+            {
+                if (trueForms.containsAll(forms) || doesForms.containsAll(forms))
+                {
+                    continue;
+                }
+                Stratum stratum = toStratum(forms);
+                if (model.getConstantSentenceForms().containsAll(forms))
+                {
+                    chain(stratum, null, true);
+                }
+                else if (Sets.intersection(forms, moveDependent).isEmpty())
+                {
+                    stateStrata.add(stratum);
+                }
+                else
+                {
+                    moveStrata.add(stratum);
+                }
+            }
+            invalidate();
+
+            Set<GdlSentence> inits = new HashSet<GdlSentence>();
+            for (SentenceForm form : getForms(GdlPool.INIT))
+            {
+                inits.addAll(constants.getSentences().get(form));
+            }
+            initialState = new ProverResultParser().toState(inits);
+        }
+        catch (InterruptedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Set<SentenceForm> getForms(GdlConstant name)
+    {
+        Set<SentenceForm> forms = new HashSet<SentenceForm>();
+        for (SentenceForm form : model.getSentenceForms())
+        {
+            if (form.getName().equals(name))
+            {
+                forms.add(form);
+            }
+        }
+        return forms;
+    }
+
+    private Stratum toStratum(Set<SentenceForm> forms)
+    {
+        Stratum stratum = new Stratum(ImmutableSet.copyOf(forms));
+        for (SentenceForm form : forms)
+        {
+            for (GdlRule rule : model.getRules(form))
+            {
+                stratum.rules++;
+                for (GdlLiteral literal : rule.getBody())
+                {
+                    if (literal instanceof GdlSentence)
+                    {
+                        stratum.positiveDependencies.add(model.getSentenceForm((GdlSentence) literal));
+                    }
+                    else if (literal instanceof GdlNot)
+                    {
+                        stratum.negativeDependencies.add(model.getSentenceForm((GdlSentence) ((GdlNot) literal).getBody()));
+                    }
+                }
+            }
+        }
+        stratum.recursive = stratum.positiveDependencies.removeAll(forms);
+        stratum.negativeDependencies.removeAll(forms);
+        return stratum;
+    }
+
+    private SentenceForm getForm(GdlSentence sentence)
+    {
+        SentenceForm form = formCache.get(sentence);
+        if (form == null)
+        {
+            form = model.getSentenceForm(sentence);
+            formCache.put(sentence, form);
+        }
+        return form;
+    }
+
+    // Drops everything but the constants, so that the next state is derived from scratch
+    private void invalidate()
+    {
+        closure = GdlSentenceSet.create(constants.getSentences());
+        currentState = null;
+    }
+
+    /**
+     * Brings the closure from currentState to state, revisiting only the
+     * strata downstream of the true sentences that changed.
+     */
+    private void setState(MachineState state)
+    {
+        if (state.equals(currentState))
+        {
+            return;
+        }
+        boolean fromScratch = (currentState == null);
+        currentState = null;
+        try
+        {
+            SetMultimap<SentenceForm, GdlSentence> trues = HashMultimap.create();
+            for (GdlSentence sentence : state.getContents())
+            {
+                trues.put(getForm(sentence), sentence);
+            }
+
+            Changes changes = new Changes();
+            for (SentenceForm form : Sets.union(trueForms, trues.keySet()))
+            {
+                Set<GdlSentence> before = new HashSet<GdlSentence>(closure.getSentences().get(form));
+                Set<GdlSentence> after = trues.get(form);
+                if (before.equals(after))
+                {
+                    continue;
+                }
+                changes.record(form, before, after);
+                if (changes.rewritten.contains(form))
+                {
+                    closure.removeAll(form);
+                }
+                for (GdlSentence sentence : after)
+                {
+                    closure.put(form, sentence);
+                }
+            }
+
+            for (Stratum stratum : stateStrata)
+            {
+                update(stratum, changes, fromScratch);
+            }
+            currentState = state;
+        }
+        catch (InterruptedException e)
+        {
+            invalidate();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void update(Stratum stratum, Changes changes, boolean fromScratch) throws InterruptedException
+    {
+        boolean rederive = fromScratch;
+        GdlSentenceSet newlyTrue = GdlSentenceSet.create();
+        for (SentenceForm form : stratum.negativeDependencies)
+        {
+            rederive |= changes.contains(form);
+        }
+        // Each new sentence costs an assignment search per literal it can match,
+        // so a single pass over the whole rules is cheaper beyond one per rule
+        int differentialCost = 0;
+        for (SentenceForm form : stratum.positiveDependencies.elementSet())
+        {
+            rederive |= changes.rewritten.contains(form);
+            for (GdlSentence sentence : changes.grown.get(form))
+            {
+                newlyTrue.put(form, sentence);
+                differentialCost += stratum.positiveDependencies.count(form);
+            }
+        }
+
+        if (rederive || differentialCost > stratum.rules)
+        {
+            Map<SentenceForm, Set<GdlSentence>> before = new HashMap<SentenceForm, Set<GdlSentence>>();
+            for (SentenceForm form : stratum.forms)
+            {
+                before.put(form, rederive ? retract(form) : new HashSet<GdlSentence>(closure.getSentences().get(form)));
+            }
+            chain(stratum, null, true);
+            for (SentenceForm form : stratum.forms)
+            {
+                changes.record(form, before.get(form), closure.getSentences().get(form));
+            }
+        }
+        else if (!newlyTrue.getSentences().isEmpty())
+        {
+            GdlSentenceSet added = chain(stratum, newlyTrue, false);
+            changes.grown.putAll(added.getSentences());
+        }
+    }
+
+    // Removes the form's derived sentences, keeping any listed as true in the rules
+    private Set<GdlSentence> retract(SentenceForm form)
+    {
+        Set<GdlSentence> removed = closure.removeAll(form);
+        for (GdlSentence sentence : model.getSentencesListedAsTrue(form))
+        {
+            closure.put(form, sentence);
+        }
+        return removed;
+    }
+
+    /**
+     * Applies the stratum's rules to the closure until nothing more follows,
+     * and returns the sentences added. The first pass tries every assignment
+     * if fullPass is set, and otherwise only those using a sentence in
+     * newlyTrue; later passes only use the sentences the previous one added,
+     * so they are needed only if the stratum's rules use its own forms.
+     */
+    private GdlSentenceSet chain(Stratum stratum, GdlSentenceSet newlyTrue, boolean fullPass) throws InterruptedException
+    {
+        GdlSentenceSet added = GdlSentenceSet.create();
+        if (fullPass)
+        {
+            newlyTrue = GdlSentenceSet.create();
+            for (SentenceForm form : stratum.forms)
+            {
+                for (GdlRule rule : model.getRules(form))
+                {
+                    GdlSentenceSet ruleResults = reasoner.getRuleResults(rule, model, closure);
+                    if (!reasoner.isSubsetOf(closure, ruleResults))
+                    {
+                        closure = reasoner.getUnion(closure, ruleResults);
+                        newlyTrue = reasoner.getUnion(newlyTrue, ruleResults);
+                    }
+                }
+            }
+            added = reasoner.getUnion(added, newlyTrue);
+        }
+
+        boolean somethingChanged = !fullPass || stratum.recursive;
+        while (somethingChanged)
+        {
+            somethingChanged = false;
+            GdlSentenceSet newStuffInThisPass = GdlSentenceSet.create();
+            for (SentenceForm form : stratum.forms)
+            {
+                for (GdlRule rule : model.getRules(form))
+                {
+                    GdlSentenceSet ruleResults = reasoner.getRuleResultsForNewSentences(rule, model, closure, newlyTrue);
+                    if (!reasoner.isSubsetOf(closure, ruleResults))
+                    {
+                        somethingChanged = true;
+                        newStuffInThisPass = reasoner.getUnion(newStuffInThisPass, ruleResults);
+                    }
+                }
+            }
+            closure = reasoner.getUnion(closure, newStuffInThisPass);
+            added = reasoner.getUnion(added, newStuffInThisPass);
+            newlyTrue = newStuffInThisPass;
+            somethingChanged &= stratum.recursive;
+        }
+        return added;
+    }
+
+    private Set<GdlSentence> getSentences(List<SentenceForm> forms)
+    {
+        Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+        for (SentenceForm form : forms)
+        {
+            sentences.addAll(closure.getSentences().get(form));
+        }
+        return sentences;
+    }
+
+    private Set<GdlSentence> getSentences(List<SentenceForm> forms, Role role)
+    {
+        Set<GdlSentence> sentences = new HashSet<GdlSentence>();
+        for (GdlSentence sentence : getSentences(forms))
+        {
+            if (sentence.get(0).equals(role.getName()))
+            {
+                sentences.add(sentence);
+            }
+        }
+        return sentences;
+    }
+
+    @Override
+    public int getGoal(MachineState state, Role role) throws GoalDefinitionException
+    {
+        setState(state);
+        Set<GdlSentence> results = getSentences(goalForms, role);
+
+        if (results.size() != 1)
+        {
+            GamerLogger.logError("StateMachine", "Got goal results of size: " + results.size() + " when expecting size one.");
+            throw new GoalDefinitionException(state, role);
+        }
+
+        try
+        {
+            GdlRelation relation = (GdlRelation) results.iterator().next();
+            GdlConstant constant = (GdlConstant) relation.get(1);
+
+            return Integer.parseInt(constant.toString());
+        }
+        catch (Exception e)
+        {
+            throw new GoalDefinitionException(state, role);
+        }
+    }
+
+    @Override
+    public MachineState getInitialState()
+    {
+        return initialState;
+    }
+
+    @Override
+    public List<Move> findActions(Role role) throws MoveDefinitionException
+    {
+        Set<GdlSentence> results = new HashSet<GdlSentence>();
+        for (SentenceForm form : getForms(GdlPool.INPUT))
+        {
+            for (GdlSentence sentence : constants.getSentences().get(form))
+            {
+                if (sentence.get(0).equals(role.getName()))
+                {
+                    results.add(sentence);
+                }
+            }
+        }
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(initialState, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException
+    {
+        setState(state);
+        Set<GdlSentence> results = getSentences(legalForms, role);
+
+        if (results.size() == 0)
+        {
+            throw new MoveDefinitionException(state, role);
+        }
+
+        return new ProverResultParser().toMoves(results);
+    }
+
+    @Override
+    public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException
+    {
+        setState(state);
+        try
+        {
+            Set<SentenceForm> movedForms = new HashSet<SentenceForm>();
+            for (int i = 0; i < roles.size(); i++)
+            {
+                GdlSentence does = ProverQueryBuilder.toDoes(roles.get(i), moves.get(i));
+                closure.put(getForm(does), does);
+                movedForms.add(getForm(does));
+            }
+            for (Stratum stratum : moveStrata)
+            {
+                chain(stratum, null, true);
+            }
+            Set<GdlSentence> results = getSentences(nextForms);
+
+            for (SentenceForm form : movedForms)
+            {
+                closure.removeAll(form);
+            }
+            for (Stratum stratum : moveStrata)
+            {
+                for (SentenceForm form : stratum.forms)
+                {
+                    retract(form);
+                }
+            }
+            return new ProverResultParser().toState(results);
+        }
+        catch (InterruptedException e)
+        {
+            invalidate();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public List<Role> getRoles()
+    {
+        return roles;
+    }
+
+    @Override
+    public boolean isTerminal(MachineState state)
+    {
+        setState(state);
+        return !getSentences(terminalForms).isEmpty();
+    }
+}
@@ -1,8 +1,14 @@
 package org.ggp.base.util.statemachine.implementation.prover;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.ggp.base.util.gdl.grammar.Gdl;
 import org.ggp.base.util.gdl.grammar.GdlConstant;
@@ -29,19 +35,34 @@ public class ProverStateMachine extends StateMachine
     private MachineState initialState;
     private Prover prover;
     private ImmutableList<Role> roles;
+    private final int tabledStates;
+    private final ForkJoinPool pool;
 
     /**
      * Initialize must be called before using the StateMachine
      */
     public ProverStateMachine()
     {
+        this(0, null);
+    }
 
+    /**
+     * Creates a ProverStateMachine whose prover keeps its answers for the
+     * last tabledStates states queried, so that the legal, goal, terminal
+     * and next queries on a state share the subgoals they have in common.
+     * If pool is not null, the roles' legal and goal queries in
+     * getLegalJointMoves and getGoals are asked concurrently on it.
+     */
+    public ProverStateMachine(int tabledStates, ForkJoinPool pool)
+    {
+        this.tabledStates = tabledStates;
+        this.pool = pool;
     }
 
     @Override
     public void initialize(List<Gdl> description)
     {
-        prover = new AimaProver(description);
+        prover = new AimaProver(description, tabledStates);
         roles = ImmutableList.copyOf(Role.computeRoles(description));
         initialState = computeInitialState();
     }
@@ -76,6 +97,109 @@ public class ProverStateMachine extends StateMachine
         }
     }
 
+    @Override
+    public List<Integer> getGoals(final MachineState state) throws GoalDefinitionException
+    {
+        if (pool == null)
+        {
+            return super.getGoals(state);
+        }
+
+        try
+        {
+            return askPerRole(new RoleQuery<Integer>() {
+                @Override
+                public Integer ask(Role role) throws Exception {
+                    return getGoal(state, role);
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof GoalDefinitionException)
+            {
+                throw (GoalDefinitionException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    @Override
+    public List<List<Move>> getLegalJointMoves(final MachineState state) throws MoveDefinitionException
+    {
+        if (pool == null)
+        {
+            return super.getLegalJointMoves(state);
+        }
+
+        List<List<Move>> legals;
+        try
+        {
+            legals = askPerRole(new RoleQuery<List<Move>>() {
+                @Override
+                public List<Move> ask(Role role) throws Exception {
+                    return getLegalMoves(state, role);
+                }
+            });
+        }
+        catch (ExecutionException e)
+        {
+            if (e.getCause() instanceof MoveDefinitionException)
+            {
+                throw (MoveDefinitionException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+
+        List<List<Move>> crossProduct = new ArrayList<List<Move>>();
+        crossProductLegalMoves(legals, crossProduct, new LinkedList<Move>());
+        return crossProduct;
+    }
+
+    private interface RoleQuery<T>
+    {
+        T ask(Role role) throws Exception;
+    }
+
+    // Asks the query for every role but the first on the pool, and for the first on this thread
+    private <T> List<T> askPerRole(final RoleQuery<T> query) throws ExecutionException
+    {
+        List<ForkJoinTask<T>> tasks = new ArrayList<ForkJoinTask<T>>();
+        for (final Role role : roles.subList(1, roles.size()))
+        {
+            tasks.add(pool.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    return query.ask(role);
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<T>();
+        try
+        {
+            results.add(query.ask(roles.get(0)));
+            for (ForkJoinTask<T> task : tasks)
+            {
+                results.add(task.get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new ExecutionException(e);
+        }
+        return results;
+    }
+
     @Override
     public MachineState getInitialState()
     {
@@ -130,6 +254,13 @@ public class ProverStateMachine extends StateMachine
         return roles;
     }
 
+    // The prover may be queried from several threads at once
+    @Override
+    public boolean isThreadSafe()
+    {
+        return true;
+    }
+
     @Override
     public boolean isTerminal(MachineState state)
     {
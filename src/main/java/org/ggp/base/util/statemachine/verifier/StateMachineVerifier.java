@@ -1,109 +1,541 @@
-package org.ggp.base.util.statemachine.verifier;
-
-import java.util.ArrayList;
-import java.util.List;
-
-import org.ggp.base.util.logging.GamerLogger;
-import org.ggp.base.util.statemachine.MachineState;
-import org.ggp.base.util.statemachine.Move;
-import org.ggp.base.util.statemachine.Role;
-import org.ggp.base.util.statemachine.StateMachine;
-
-
-public class StateMachineVerifier {
-    public static boolean checkMachineConsistency(StateMachine theReference, StateMachine theSubject, long timeToSpend) {
-        long startTime = System.currentTimeMillis();
-
-        //GamerLogger.log("StateMachine", "Performing automatic consistency testing on " + theSubject.getClass().getName() + " using " + theReference.getClass().getName() + " as a reference.");
-
-        List<StateMachine> theMachines = new ArrayList<StateMachine>();
-        theMachines.add(theReference);
-        theMachines.add(theSubject);
-
-        GamerLogger.emitToConsole("Consistency checking: [");
-        int nRound = 0;
-        while(true) {
-            nRound++;
-
-            GamerLogger.emitToConsole(".");
-            MachineState[] theCurrentStates = new MachineState[theMachines.size()];
-            for(int i = 0; i < theMachines.size(); i++) {
-                try {
-                    theCurrentStates[i] = theMachines.get(i).getInitialState();
-                } catch(Exception e) {
-                	GamerLogger.log("StateMachine", "Machine #" + i + " failed to generate an initial state!");
-                	e.printStackTrace();
-                    return false;
-                }
-            }
-
-            while(!theMachines.get(0).isTerminal(theCurrentStates[0])) {
-                if(System.currentTimeMillis() > startTime + timeToSpend)
-                    break;
-
-                // Do per-state consistency checks
-                for(int i = 1; i < theMachines.size(); i++) {
-                    for(Role theRole : theMachines.get(0).getRoles()) {
-                        try {
-                            if(!(theMachines.get(i).getLegalMoves(theCurrentStates[i], theRole).size() == theMachines.get(0).getLegalMoves(theCurrentStates[0], theRole).size())) {
-                                GamerLogger.log("StateMachine", "Inconsistency between machine #" + i + " and ProverStateMachine over state " + theCurrentStates[0] + " vs " + theCurrentStates[i].getContents());
-                                GamerLogger.log("ProverStateMachine", "Machine #" + 0 + " has move count = " + theMachines.get(0).getLegalMoves(theCurrentStates[0], theRole).size() + " for player " + theRole);
-                                GamerLogger.log("PropNetStateMachine", "Machine #" + i + " has move count = " + theMachines.get(i).getLegalMoves(theCurrentStates[i], theRole).size() + " for player " + theRole);
-                                return false;
-                            }
-                        } catch(Exception e) {
-                            GamerLogger.logStackTrace("StateMachine", e);
-                        }
-                    }
-                }
-
-                try {
-                    //Proceed on to the next state.
-                    List<Move> theJointMove = theMachines.get(0).getRandomJointMove(theCurrentStates[0]);
-
-                    for(int i = 0; i < theMachines.size(); i++) {
-                        try {
-                            theCurrentStates[i] = theMachines.get(i).getNextState(theCurrentStates[i], theJointMove);
-                        } catch(Exception e) {
-                            GamerLogger.logStackTrace("StateMachine", e);
-                        }
-                    }
-                } catch(Exception e) {
-                    GamerLogger.logStackTrace("StateMachine", e);
-                }
-            }
-
-            if(System.currentTimeMillis() > startTime + timeToSpend)
-                break;
-
-            // Do final consistency checks
-            for(int i = 1; i < theMachines.size(); i++) {
-                if(!theMachines.get(i).isTerminal(theCurrentStates[i])) {
-                    GamerLogger.log("StateMachine", "Inconsistency between machine #" + i + " and ProverStateMachine over terminal-ness of state " + theCurrentStates[0] + " vs " + theCurrentStates[i]);
-                    return false;
-                }
-                for(Role theRole : theMachines.get(0).getRoles()) {
-                    try {
-                        theMachines.get(0).getGoal(theCurrentStates[0], theRole);
-                    } catch(Exception e) {
-                        continue;
-                    }
-
-                    try {
-                        if(theMachines.get(i).getGoal(theCurrentStates[i], theRole) != theMachines.get(0).getGoal(theCurrentStates[0], theRole)) {
-                            GamerLogger.log("StateMachine", "Inconsistency between machine #" + i + " and ProverStateMachine over goal value for " + theRole + " of states " + theCurrentStates[0] + "~" + theCurrentStates[1] + ": " + theMachines.get(i).getGoal(theCurrentStates[i], theRole) + " vs " + theMachines.get(0).getGoal(theCurrentStates[0], theRole));
-                            return false;
-                        }
-                    } catch(Exception e) {
-                        GamerLogger.log("StateMachine", "Inconsistency between machine #" + i + " and ProverStateMachine over goal-ness of state " + theCurrentStates[0] + " vs " + theCurrentStates[i]);
-                        return false;
-                    }
-                }
-            }
-        }
-        GamerLogger.emitToConsole("]\n");
-
-        GamerLogger.log("StateMachine", "All tests pass!");
-        return true;
-    }
-}
\ No newline at end of file
+package org.ggp.base.util.statemachine.verifier;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.logging.GamerLogger;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+
+/**
+ * StateMachineVerifier checks state machines against a reference machine
+ * by playing random matches on the reference and replaying them on each
+ * subject, checking at every state that the subject agrees on the state
+ * itself, its terminality, every role's legal moves, and at the end, the
+ * goal values.
+ *
+ * The reference plays on one thread and each subject replays on another,
+ * all at once: the reference records each state it reaches, and the move
+ * it takes from there, in a trace that the subjects follow at their own
+ * pace. States are compared by their Zobrist hashes. A subject stops at
+ * the first state it disagrees on, and the reference stops once every
+ * subject has, or once the time is up.
+ *
+ * The playout that showed a divergence is seldom the shortest way to it, so
+ * each divergence is then reduced: the reference's joint moves are searched
+ * breadth first, to one step short of the divergence, for a shallower state
+ * the subject disagrees on. The search gets as long again as the check did.
+ *
+ * Run from the command line, it checks state machines against the prover
+ * on every game under the games directory; see {@link #main(String[])}.
+ */
+public class StateMachineVerifier {
+    // How far the reference may get ahead of the slowest subject
+    private static final int MAX_LEAD = 4096;
+    // How many states the search for a shorter divergence may keep
+    private static final int MAX_REDUCTION_STATES = 100000;
+
+    private static final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "StateMachineVerifier");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public static boolean checkMachineConsistency(StateMachine theReference, StateMachine theSubject, long timeToSpend) {
+        Map<String, StateMachine> theSubjects = Collections.singletonMap(theSubject.getClass().getSimpleName(), theSubject);
+        return verify(theReference, theSubjects, timeToSpend).get(0).isConsistent();
+    }
+
+    /**
+     * Checks every subject against the reference for up to timeToSpend
+     * milliseconds, and returns what was found about each, in order. None
+     * of the machines may be used by anyone else until this returns.
+     */
+    public static List<VerificationResult> verify(StateMachine theReference, Map<String, StateMachine> theSubjects, long timeToSpend) {
+        long deadline = System.currentTimeMillis() + timeToSpend;
+        final Trace theTrace = new Trace(theSubjects.size(), deadline);
+
+        List<Future<VerificationResult>> theResults = new ArrayList<Future<VerificationResult>>();
+        int i = 0;
+        for (Map.Entry<String, StateMachine> theSubject : theSubjects.entrySet()) {
+            theResults.add(workers.submit(new SubjectReplay(theSubject.getKey(), theSubject.getValue(), theReference.getRoles(), theTrace, i++)));
+        }
+        Future<?> thePlayouts = workers.submit(new ReferencePlayouts(theReference, theTrace));
+
+        List<VerificationResult> theFindings = new ArrayList<VerificationResult>();
+        try {
+            for (Future<VerificationResult> theResult : theResults) {
+                theFindings.add(theResult.get());
+            }
+            thePlayouts.get();
+            // Only now is the reference free for the subjects' reductions
+            long theReductionDeadline = System.currentTimeMillis() + timeToSpend;
+            for (int j = 0; j < theFindings.size(); j++) {
+                VerificationResult theFinding = theFindings.get(j);
+                if (!theFinding.isConsistent()) {
+                    theFinding = reduce(theReference, theSubjects.get(theFinding.getMachineName()), theFinding, theReductionDeadline);
+                    theFindings.set(j, theFinding);
+                }
+                GamerLogger.log("StateMachine", theFinding.toString());
+            }
+        } catch (InterruptedException e) {
+            theTrace.finish();
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+        return theFindings;
+    }
+
+    /*
+     * One state the reference reached: the joint move that led there from the
+     * previous state (null for an initial state), the state's hash, and what
+     * the reference says about it. For terminal states, goals holds each
+     * role's goal value, or null where the reference had none; otherwise,
+     * legalMoves holds each role's legal moves.
+     */
+    private static final class Step {
+        final List<Move> moveIn;
+        final long stateHash;
+        final boolean terminal;
+        final List<Set<Move>> legalMoves;
+        final Integer[] goals;
+
+        Step(List<Move> moveIn, long stateHash, boolean terminal, List<Set<Move>> legalMoves, Integer[] goals) {
+            this.moveIn = moveIn;
+            this.stateHash = stateHash;
+            this.terminal = terminal;
+            this.legalMoves = legalMoves;
+            this.goals = goals;
+        }
+    }
+
+    /*
+     * The steps the reference has taken so far, shared with the subjects.
+     */
+    private static final class Trace {
+        private final List<Step> steps = new ArrayList<Step>();
+        private final int[] progress;
+        private final long deadline;
+        private final AtomicInteger activeSubjects;
+        private boolean finished = false;
+
+        Trace(int numSubjects, long deadline) {
+            this.progress = new int[numSubjects];
+            this.deadline = deadline;
+            this.activeSubjects = new AtomicInteger(numSubjects);
+        }
+
+        boolean isOver() {
+            return activeSubjects.get() == 0 || System.currentTimeMillis() > deadline;
+        }
+
+        // Adds a step, first waiting for the slowest subject to catch up if
+        // the reference is too far ahead of it
+        synchronized void add(Step step) throws InterruptedException {
+            while (!finished && steps.size() - slowest() > MAX_LEAD && !isOver()) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            steps.add(step);
+            notifyAll();
+        }
+
+        private int slowest() {
+            int slowest = Integer.MAX_VALUE;
+            for (int p : progress) {
+                slowest = Math.min(slowest, p);
+            }
+            return slowest;
+        }
+
+        synchronized void finish() {
+            finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Returns the step at the given index, waiting for the reference to
+         * get there, or null if it never will in time.
+         */
+        synchronized Step get(int subject, int index) throws InterruptedException {
+            progress[subject] = index;
+            notifyAll();
+            while (index >= steps.size() && !finished) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return null;
+                }
+                wait(wait);
+            }
+            return (index < steps.size()) ? steps.get(index) : null;
+        }
+
+        synchronized void retire(int subject) {
+            progress[subject] = Integer.MAX_VALUE;
+            activeSubjects.decrementAndGet();
+            notifyAll();
+        }
+    }
+
+    /*
+     * What the reference says about a state it reached through moveIn.
+     */
+    private static Step describe(StateMachine theReference, List<Role> theRoles, MachineState theState, List<Move> theMoveIn) throws Exception {
+        if (theReference.isTerminal(theState)) {
+            Integer[] theGoals = new Integer[theRoles.size()];
+            for (int i = 0; i < theRoles.size(); i++) {
+                try {
+                    theGoals[i] = theReference.getGoal(theState, theRoles.get(i));
+                } catch (Exception e) {
+                    theGoals[i] = null;
+                }
+            }
+            return new Step(theMoveIn, theState.getZobristHash(), true, null, theGoals);
+        }
+        List<Set<Move>> theLegalMoves = new ArrayList<Set<Move>>(theRoles.size());
+        for (Role theRole : theRoles) {
+            theLegalMoves.add(new LinkedHashSet<Move>(theReference.getLegalMoves(theState, theRole)));
+        }
+        return new Step(theMoveIn, theState.getZobristHash(), false, theLegalMoves, null);
+    }
+
+    // Returns how the machine disagrees with the reference step, or null
+    private static String check(StateMachine theMachine, List<Role> theRoles, MachineState theState, Step theStep) throws Exception {
+        if (theState.getZobristHash() != theStep.stateHash) {
+            return "reached a different state: " + theState;
+        }
+        if (theMachine.isTerminal(theState) != theStep.terminal) {
+            return "disagrees that state " + theState + " is " + (theStep.terminal ? "" : "not ") + "terminal";
+        }
+        for (int i = 0; i < theRoles.size(); i++) {
+            Role theRole = theRoles.get(i);
+            if (theStep.terminal) {
+                if (theStep.goals[i] != null && theMachine.getGoal(theState, theRole) != theStep.goals[i]) {
+                    return "gives goal " + theMachine.getGoal(theState, theRole) + " instead of " + theStep.goals[i] + " for " + theRole + " in state " + theState;
+                }
+            } else {
+                Set<Move> theLegalMoves = new HashSet<Move>(theMachine.getLegalMoves(theState, theRole));
+                if (!theLegalMoves.equals(theStep.legalMoves.get(i))) {
+                    return "gives legal moves " + theLegalMoves + " instead of " + theStep.legalMoves.get(i) + " for " + theRole + " in state " + theState;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * A state of the search for a shorter divergence, as both machines see
+     * it, with the path that led there.
+     */
+    private static final class Node {
+        final Node parent;
+        final List<Move> moveIn;
+        final MachineState theReferenceState;
+        final MachineState theSubjectState;
+        final boolean terminal;
+
+        Node(Node parent, List<Move> moveIn, MachineState theReferenceState, MachineState theSubjectState, boolean terminal) {
+            this.parent = parent;
+            this.moveIn = moveIn;
+            this.theReferenceState = theReferenceState;
+            this.theSubjectState = theSubjectState;
+            this.terminal = terminal;
+        }
+
+        List<List<Move>> path() {
+            List<List<Move>> thePath = new ArrayList<List<Move>>();
+            for (Node node = this; node.moveIn != null; node = node.parent) {
+                thePath.add(node.moveIn);
+            }
+            Collections.reverse(thePath);
+            return thePath;
+        }
+    }
+
+    /*
+     * Searches the reference's joint moves breadth first, level by level up
+     * to one short of the divergence, for a state the subject disagrees on.
+     * The first one found is as shallow as a divergence can be. If the
+     * search runs out of time or states first, the finding is kept as it is.
+     */
+    private static VerificationResult reduce(StateMachine theReference, StateMachine theSubject, VerificationResult theFinding, long theDeadline) {
+        int theDepth = theFinding.getMoveSequence().size();
+        if (theDepth == 0) {
+            return theFinding.withMoveSequence(theFinding.getDivergence(), theFinding.getMoveSequence(), true);
+        }
+        List<Role> theRoles = theReference.getRoles();
+        try {
+            MachineState theInitialState = theReference.getInitialState();
+            List<Node> theLevel = new ArrayList<Node>();
+            theLevel.add(new Node(null, null, theInitialState, theSubject.getInitialState(), theReference.isTerminal(theInitialState)));
+            Set<Long> theSeen = new HashSet<Long>();
+            theSeen.add(theInitialState.getZobristHash());
+            for (int d = 1; d < theDepth; d++) {
+                List<Node> theNextLevel = new ArrayList<Node>();
+                for (Node theNode : theLevel) {
+                    if (theNode.terminal) {
+                        continue;
+                    }
+                    for (List<Move> theJointMove : theReference.getLegalJointMoves(theNode.theReferenceState)) {
+                        if (System.currentTimeMillis() > theDeadline || theSeen.size() > MAX_REDUCTION_STATES) {
+                            return theFinding;
+                        }
+                        MachineState theState = theReference.getNextState(theNode.theReferenceState, theJointMove);
+                        if (!theSeen.add(theState.getZobristHash())) {
+                            continue;
+                        }
+                        Step theStep = describe(theReference, theRoles, theState, theJointMove);
+                        MachineState theSubjectState = null;
+                        String theDivergence;
+                        try {
+                            theSubjectState = theSubject.getNextState(theNode.theSubjectState, theJointMove);
+                            theDivergence = check(theSubject, theRoles, theSubjectState, theStep);
+                        } catch (Exception e) {
+                            theDivergence = "threw " + e;
+                        }
+                        Node theChild = new Node(theNode, theJointMove, theState, theSubjectState, theStep.terminal);
+                        if (theDivergence != null) {
+                            return theFinding.withMoveSequence(theDivergence, theChild.path(), true);
+                        }
+                        theNextLevel.add(theChild);
+                    }
+                }
+                theLevel = theNextLevel;
+            }
+        } catch (Exception e) {
+            // The reference failed, so no shorter divergence can be shown
+            GamerLogger.logStackTrace("StateMachine", e);
+            return theFinding;
+        }
+        return theFinding.withMoveSequence(theFinding.getDivergence(), theFinding.getMoveSequence(), true);
+    }
+
+    private static final class ReferencePlayouts implements Callable<Void> {
+        private final StateMachine theMachine;
+        private final Trace theTrace;
+
+        ReferencePlayouts(StateMachine theMachine, Trace theTrace) {
+            this.theMachine = theMachine;
+            this.theTrace = theTrace;
+        }
+
+        @Override
+        public Void call() throws InterruptedException {
+            try {
+                Random theRandom = new Random();
+                List<Role> theRoles = theMachine.getRoles();
+                while (!theTrace.isOver()) {
+                    MachineState theState = theMachine.getInitialState();
+                    List<Move> theMoveIn = null;
+                    while (!theTrace.isOver()) {
+                        Step theStep = describe(theMachine, theRoles, theState, theMoveIn);
+                        theTrace.add(theStep);
+                        if (theStep.terminal) {
+                            break;
+                        }
+
+                        List<Move> theJointMove = new ArrayList<Move>(theRoles.size());
+                        for (Set<Move> theLegalMoves : theStep.legalMoves) {
+                            List<Move> theMoves = new ArrayList<Move>(theLegalMoves);
+                            theJointMove.add(theMoves.get(theRandom.nextInt(theMoves.size())));
+                        }
+
+                        theState = theMachine.getNextState(theState, theJointMove);
+                        theMoveIn = theJointMove;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                // Whatever the subjects have checked so far still counts
+                GamerLogger.logStackTrace("StateMachine", e);
+            } finally {
+                theTrace.finish();
+            }
+            return null;
+        }
+    }
+
+    private static final class SubjectReplay implements Callable<VerificationResult> {
+        private final String theName;
+        private final StateMachine theMachine;
+        private final List<Role> theRoles;
+        private final Trace theTrace;
+        private final int theIndex;
+
+        private int nPlayouts = 0;
+        private long nStates = 0;
+        private final List<List<Move>> theMoves = new ArrayList<List<Move>>();
+
+        SubjectReplay(String theName, StateMachine theMachine, List<Role> theRoles, Trace theTrace, int theIndex) {
+            this.theName = theName;
+            this.theMachine = theMachine;
+            this.theRoles = theRoles;
+            this.theTrace = theTrace;
+            this.theIndex = theIndex;
+        }
+
+        @Override
+        public VerificationResult call() throws InterruptedException {
+            try {
+                MachineState theState = null;
+                Step theStep;
+                for (int i = 0; (theStep = theTrace.get(theIndex, i)) != null; i++) {
+                    String theDivergence;
+                    try {
+                        if (theStep.moveIn == null) {
+                            nPlayouts++;
+                            theMoves.clear();
+                            theState = theMachine.getInitialState();
+                        } else {
+                            theMoves.add(theStep.moveIn);
+                            theState = theMachine.getNextState(theState, theStep.moveIn);
+                        }
+                        theDivergence = check(theMachine, theRoles, theState, theStep);
+                    } catch (Exception e) {
+                        theDivergence = "threw " + e;
+                    }
+                    if (theDivergence != null) {
+                        return new VerificationResult(theName, nPlayouts, nStates, theDivergence, new ArrayList<List<Move>>(theMoves), false);
+                    }
+                    nStates++;
+                }
+                return new VerificationResult(theName, nPlayouts, nStates, null, null, false);
+            } finally {
+                theTrace.retire(theIndex);
+            }
+        }
+    }
+
+    /**
+     * Checks state machines against the ProverStateMachine on every game
+     * under the games directory, several games at a time, and prints a
+     * report with a line for each game and machine:
+     *
+     * args[0] = milliseconds to spend checking each game
+     * args[1...] = class names of the state machines to check
+     *
+     * Each machine must have a no-argument constructor. Games whose rules
+     * can't be read or built into a machine are reported as such.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: StateMachineVerifier <milliseconds per game> <state machine class>...");
+            System.exit(1);
+        }
+        final long timeToSpend = Long.valueOf(args[0]);
+        final List<Class<?>> theClasses = new ArrayList<Class<?>>();
+        for (int i = 1; i < args.length; i++) {
+            try {
+                theClasses.add(Class.forName(args[i]));
+            } catch (ClassNotFoundException e) {
+                System.err.println("No such state machine: " + args[i]);
+                System.exit(1);
+            }
+        }
+
+        List<File> theGames = new ArrayList<File>();
+        findGames(new File("games"), theGames);
+        Collections.sort(theGames);
+
+        // Each game keeps a thread busy for every machine, and one more for the prover
+        int nGamesAtOnce = Math.max(1, Runtime.getRuntime().availableProcessors() / (theClasses.size() + 1));
+        ExecutorService theGameWorkers = Executors.newFixedThreadPool(nGamesAtOnce);
+        Map<File, Future<List<String>>> theReports = new LinkedHashMap<File, Future<List<String>>>();
+        for (final File theGame : theGames) {
+            theReports.put(theGame, theGameWorkers.submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    return verifyGame(theGame, theClasses, timeToSpend);
+                }
+            }));
+        }
+        theGameWorkers.shutdown();
+
+        int nConsistent = 0, nProblems = 0;
+        for (Map.Entry<File, Future<List<String>>> theReport : theReports.entrySet()) {
+            List<String> theLines;
+            try {
+                theLines = theReport.getValue().get();
+            } catch (ExecutionException e) {
+                theLines = Collections.singletonList("could not be checked: " + e.getCause());
+            }
+            for (String theLine : theLines) {
+                System.out.println(theReport.getKey().getPath() + "\t" + theLine);
+                if (theLine.contains(": consistent over ")) {
+                    nConsistent++;
+                } else {
+                    nProblems++;
+                }
+            }
+        }
+        System.out.println(theGames.size() + " games checked: " + nConsistent + " consistent, " + nProblems + " with problems");
+    }
+
+    private static void findGames(File theDirectory, List<File> theGames) {
+        File[] theFiles = theDirectory.listFiles();
+        if (theFiles == null) {
+            return;
+        }
+        for (File theFile : theFiles) {
+            if (theFile.isDirectory()) {
+                findGames(theFile, theGames);
+            } else if (theFile.getName().endsWith(".kif")) {
+                theGames.add(theFile);
+            }
+        }
+    }
+
+    private static List<String> verifyGame(File theGame, List<Class<?>> theClasses, long timeToSpend) {
+        List<String> theLines = new ArrayList<String>();
+        List<Gdl> theRules;
+        StateMachine theReference;
+        try {
+            theRules = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(theGame))).getRules();
+            theReference = new ProverStateMachine();
+            theReference.initialize(theRules);
+        } catch (Exception e) {
+            theLines.add("could not be read: " + e);
+            return theLines;
+        }
+
+        Map<String, StateMachine> theSubjects = new LinkedHashMap<String, StateMachine>();
+        for (Class<?> theClass : theClasses) {
+            try {
+                StateMachine theMachine = (StateMachine) theClass.newInstance();
+                theMachine.initialize(theRules);
+                theSubjects.put(theClass.getSimpleName(), theMachine);
+            } catch (Exception | StackOverflowError e) {
+                theLines.add(theClass.getSimpleName() + ": could not be built: " + e);
+            }
+        }
+        for (VerificationResult theResult : verify(theReference, theSubjects, timeToSpend)) {
+            theLines.add(theResult.toString());
+        }
+        return theLines;
+    }
+}
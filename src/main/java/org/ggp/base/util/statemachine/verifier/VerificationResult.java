@@ -0,0 +1,91 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.statemachine.Move;
+
+/**
+ * VerificationResult is what the StateMachineVerifier found out about one
+ * state machine: how much of the game it was checked over, and, if it ever
+ * disagreed with the reference, how and where.
+ *
+ * The move sequence of a divergence is the joint moves, from the initial
+ * state, that lead to a state where the machines disagree. It is minimal
+ * when the verifier's search showed that no shorter sequence of legal joint
+ * moves leads to a disagreement; otherwise it is the shortest one found.
+ */
+public final class VerificationResult {
+    private final String machineName;
+    private final int playouts;
+    private final long statesChecked;
+    private final String divergence;
+    private final List<List<Move>> moveSequence;
+    private final boolean minimal;
+
+    VerificationResult(String machineName, int playouts, long statesChecked, String divergence, List<List<Move>> moveSequence, boolean minimal) {
+        this.machineName = machineName;
+        this.playouts = playouts;
+        this.statesChecked = statesChecked;
+        this.divergence = divergence;
+        this.moveSequence = (moveSequence == null) ? null : Collections.unmodifiableList(moveSequence);
+        this.minimal = minimal;
+    }
+
+    // The same finding, with the divergence that the move sequence leads to
+    VerificationResult withMoveSequence(String divergence, List<List<Move>> moveSequence, boolean minimal) {
+        return new VerificationResult(machineName, playouts, statesChecked, divergence, moveSequence, minimal);
+    }
+
+    public String getMachineName() {
+        return machineName;
+    }
+
+    public boolean isConsistent() {
+        return divergence == null;
+    }
+
+    /**
+     * Returns how many playouts the machine was checked over, including
+     * any it didn't finish.
+     */
+    public int getPlayouts() {
+        return playouts;
+    }
+
+    public long getStatesChecked() {
+        return statesChecked;
+    }
+
+    /**
+     * Returns what the machine got wrong, or null if it never disagreed with
+     * the reference.
+     */
+    public String getDivergence() {
+        return divergence;
+    }
+
+    /**
+     * Returns the joint moves that lead from the initial state to the state
+     * where the machine disagreed, or null if it never did.
+     */
+    public List<List<Move>> getMoveSequence() {
+        return moveSequence;
+    }
+
+    /**
+     * Returns whether no shorter move sequence leads to a disagreement. This
+     * is false when the search for one ran out of time.
+     */
+    public boolean isMinimal() {
+        return minimal;
+    }
+
+    @Override
+    public String toString() {
+        if (isConsistent()) {
+            return machineName + ": consistent over " + statesChecked + " states in " + playouts + " playouts";
+        }
+        return machineName + ": " + divergence + " after " + (minimal ? "minimal " : "") + "moves " + moveSequence;
+    }
+}
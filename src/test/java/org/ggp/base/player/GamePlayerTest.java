@@ -0,0 +1,62 @@
+package org.ggp.base.player;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+import org.ggp.base.player.gamer.statemachine.random.RandomGamer;
+import org.ggp.base.util.http.HttpReader;
+import org.ggp.base.util.http.HttpRequest;
+import org.ggp.base.util.http.HttpWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests for the network side of GamePlayer: requests on one connection
+ * shouldn't have to wait for another connection to finish sending, and a
+ * connection can be kept alive for several requests.
+ */
+public class GamePlayerTest extends Assert {
+	@Test
+	public void testInfoWhileAnotherRequestIsPending() throws IOException, InterruptedException {
+		GamePlayer player = new GamePlayer(13274, new RandomGamer());
+		player.start();
+		try {
+			// Start a request and leave it hanging halfway through the headers
+			Socket slow = new Socket("127.0.0.1", player.getGamerPort());
+			OutputStream out = slow.getOutputStream();
+			out.write("POST / HTTP/1.0\r\nContent-Length: 100\r\n".getBytes("UTF-8"));
+			out.flush();
+
+			String response = HttpRequest.issueRequest("127.0.0.1", player.getGamerPort(), "", "( info )", 5000);
+			assertTrue(response, response.contains("available"));
+
+			slow.close();
+			response = HttpRequest.issueRequest("127.0.0.1", player.getGamerPort(), "", "( info )", 5000);
+			assertTrue(response, response.contains("available"));
+		} finally {
+			player.shutdown();
+			player.join(5000);
+		}
+		assertFalse(player.isAlive());
+	}
+
+	@Test
+	public void testKeepAlive() throws IOException, InterruptedException {
+		GamePlayer player = new GamePlayer(13274, new RandomGamer());
+		player.start();
+		try {
+			Socket socket = new Socket("127.0.0.1", player.getGamerPort());
+			socket.setSoTimeout(5000);
+			for (int i = 0; i < 3; i++) {
+				HttpWriter.writeAsClient(socket, "127.0.0.1", "( info )", "", true);
+				String response = HttpReader.readAsClient(socket);
+				assertTrue(response, response.contains("available"));
+			}
+			socket.close();
+		} finally {
+			player.shutdown();
+			player.join(5000);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.ggp.base.util.statemachine.verifier.VerificationResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the CompiledPropNetStateMachine, checked against the prover.
+ */
+public class CompiledPropNetStateMachineTest extends Assert {
+    @Test
+    public void testMatchesProver() throws Exception {
+        for (String game : new String[] {"ticTacToe", "test_case_3c"}) {
+            assertMatchesProver(new TestGameRepository().getGame(game).getRules());
+        }
+    }
+
+    // Their next-state rules hold in the empty state, which propagating INIT would add to the initial state
+    @Test
+    public void testInitialStateFromRules() throws Exception {
+        for (String game : new String[] {"simpleMutex", "test_case_2b", "test_case_2c", "test_case_3d"}) {
+            assertMatchesProver(new TestGameRepository().getGame(game).getRules());
+        }
+    }
+
+    // Wider than one generated block, so the gate's inputs and outputs go through helpers
+    @Test
+    public void testWideGates() throws Exception {
+        StringBuilder rules = new StringBuilder("(role p)\n");
+        for (int i = 0; i < 300; i++) {
+            rules.append("(init (cell " + i + "))\n");
+        }
+        rules.append("(<= (legal p (clear ?x)) (true (cell ?x)))\n");
+        rules.append("(<= (next (cell ?x)) (true (cell ?x)) (not (does p (clear ?x))))\n");
+        rules.append("(<= left (true (cell ?x)))\n");
+        rules.append("(<= terminal (not left))\n");
+        rules.append("(goal p 100)\n");
+        assertMatchesProver(Game.createEphemeralGame(Game.preprocessRulesheet(rules.toString())).getRules());
+    }
+
+    private static void assertMatchesProver(List<Gdl> rules) {
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        CompiledPropNetStateMachine sm = new CompiledPropNetStateMachine(60000);
+        sm.initialize(rules);
+        assertTrue(sm.isCompiled());
+        VerificationResult result = StateMachineVerifier.verify(prover, Collections.<String, StateMachine>singletonMap("compiled", sm), 1000).get(0);
+        assertTrue(result.getDivergence(), result.isConsistent());
+        assertTrue(result.getStatesChecked() > 0);
+    }
+}
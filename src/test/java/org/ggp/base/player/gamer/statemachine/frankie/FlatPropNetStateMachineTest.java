@@ -0,0 +1,58 @@
+package org.ggp.base.player.gamer.statemachine.frankie;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifier;
+import org.ggp.base.util.statemachine.verifier.VerificationResult;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the FlatPropNetStateMachine, checked against the prover.
+ */
+public class FlatPropNetStateMachineTest extends Assert {
+    @Test
+    public void testMatchesProver() throws Exception {
+        assertMatchesProver("ticTacToe");
+    }
+
+    // test_case_3c has no init rules, so the net has no INIT proposition
+    @Test
+    public void testGameWithoutInit() throws Exception {
+        assertMatchesProver("test_case_3c");
+    }
+
+    // Their next-state rules hold in the empty state, which propagating INIT would add to the initial state
+    @Test
+    public void testInitialStateFromRules() throws Exception {
+        for (String game : new String[] {"simpleMutex", "test_case_2b", "test_case_2c", "test_case_3d"}) {
+            assertMatchesProver(game);
+        }
+    }
+
+    @Test
+    public void testForkSharesInitialState() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("test_case_3d").getRules();
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        FlatPropNetStateMachine sm = new FlatPropNetStateMachine();
+        sm.initialize(rules);
+        assertEquals(prover.getInitialState(), sm.fork().getInitialState());
+    }
+
+    private static void assertMatchesProver(String game) {
+        List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        FlatPropNetStateMachine sm = new FlatPropNetStateMachine();
+        sm.initialize(rules);
+        VerificationResult result = StateMachineVerifier.verify(prover, Collections.<String, StateMachine>singletonMap("flat", sm), 1000).get(0);
+        assertTrue(game + ": " + result.getDivergence(), result.isConsistent());
+        assertTrue(result.getStatesChecked() > 0);
+    }
+}
@@ -1,6 +1,11 @@
 package org.ggp.base.test;
 
 import org.ggp.base.apps.tiltyard.TiltyardRequestFarmTest;
+import org.ggp.base.player.GamePlayerTest;
+import org.ggp.base.player.gamer.statemachine.frankie.CompiledPropNetStateMachineTest;
+import org.ggp.base.player.gamer.statemachine.frankie.FlatPropNetStateMachineTest;
+import org.ggp.base.player.gamer.statemachine.frankie.PropNetStateMachineTest;
+import org.ggp.base.player.gamer.statemachine.frankie.SimplePropNetStateMachineTest;
 import org.ggp.base.player.gamer.clojure.ClojureGamerTest;
 import org.ggp.base.player.gamer.python.PythonGamerTest;
 import org.ggp.base.util.crypto.BaseCryptographyTest;
@@ -12,9 +17,21 @@ import org.ggp.base.util.gdl.model.SimpleSentenceFormTest;
 import org.ggp.base.util.gdl.scrambler.GdlRendererTest;
 import org.ggp.base.util.gdl.scrambler.GdlScramblerTest;
 import org.ggp.base.util.gdl.transforms.GdlCleanerTest;
+import org.ggp.base.util.http.HttpConnectionPoolTest;
+import org.ggp.base.util.http.HttpRequestParserTest;
 import org.ggp.base.util.http.HttpTest;
+import org.ggp.base.util.match.MatchLogTest;
 import org.ggp.base.util.presence.InfoResponseTest;
+import org.ggp.base.util.presence.PlayerPresenceTest;
+import org.ggp.base.util.propnet.factory.OptimizingPropNetFactoryTest;
+import org.ggp.base.util.propnet.factory.PropNetCacheTest;
+import org.ggp.base.util.prover.aima.knowledge.KnowledgeBaseTest;
+import org.ggp.base.util.statemachine.cache.CachedStateMachineTest;
+import org.ggp.base.util.statemachine.implementation.forwardchaining.ForwardChainingStateMachineTest;
 import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachineTest;
+import org.ggp.base.util.statemachine.iistatemachine.ParticleFilterTest;
+import org.ggp.base.util.statemachine.ZobristKeysTest;
+import org.ggp.base.util.statemachine.verifier.StateMachineVerifierTest;
 import org.ggp.base.validator.StaticValidationTest;
 import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
@@ -22,22 +39,39 @@ import org.junit.runners.Suite;
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
 	BaseCryptographyTest.class,
+	CachedStateMachineTest.class,
 	CanonicalJSONTest.class,
 	ClojureGamerTest.class,
+	CompiledPropNetStateMachineTest.class,
 	DependencyGraphsTest.class,
+	FlatPropNetStateMachineTest.class,
+	ForwardChainingStateMachineTest.class,
+	GamePlayerTest.class,
 	GameParsingTest.class,
 	GdlCleanerTest.class,
 	GdlRendererTest.class,
 	GdlScramblerTest.class,
+	HttpConnectionPoolTest.class,
+	HttpRequestParserTest.class,
 	HttpTest.class,
 	InfoResponseTest.class,
+	KnowledgeBaseTest.class,
+	MatchLogTest.class,
 	NoTabsInRulesheetsTest.class,
+	OptimizingPropNetFactoryTest.class,
+	ParticleFilterTest.class,
+	PlayerPresenceTest.class,
+	PropNetCacheTest.class,
+	PropNetStateMachineTest.class,
 	ProverStateMachineTest.class,
 	PythonGamerTest.class,
 	SignableJSONTest.class,
+	SimplePropNetStateMachineTest.class,
 	SimpleSentenceFormTest.class,
+	StateMachineVerifierTest.class,
 	StaticValidationTest.class,
 	TiltyardRequestFarmTest.class,
+	ZobristKeysTest.class,
                      })
 public class AllTests {
 
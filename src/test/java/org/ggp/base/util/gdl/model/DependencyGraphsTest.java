@@ -36,4 +36,33 @@ public class DependencyGraphsTest extends Assert {
 		assertEquals(ImmutableSet.of(3, 4, 6, 7, 8), ordering.get(2));
 		assertEquals(ImmutableSet.of(5), ordering.get(3));
 	}
+
+	@Test
+	public void testToposortLevels() throws Exception {
+		// A diamond 1 <- {2, 3} <- 4, with a cycle 8 <-> 9 on top, next to
+		// the independent chain 5 <- 6 and the lone element 7
+		Set<Integer> allElements = Sets.newHashSet(1, 2, 3, 4, 5, 6, 7, 8, 9);
+		Multimap<Integer, Integer> graph = HashMultimap.create();
+
+		graph.put(2, 1);
+		graph.put(3, 1);
+		graph.put(4, 2);
+		graph.put(4, 3);
+		graph.put(8, 4);
+		graph.put(8, 9);
+		graph.put(9, 8);
+		graph.put(6, 5);
+
+		List<List<Set<Integer>>> levels = DependencyGraphs.toposortLevels(allElements, graph);
+		assertEquals(4, levels.size());
+		assertEquals(ImmutableSet.of(ImmutableSet.of(1), ImmutableSet.of(5), ImmutableSet.of(7)),
+				ImmutableSet.copyOf(levels.get(0)));
+		assertEquals(ImmutableSet.of(ImmutableSet.of(2), ImmutableSet.of(3), ImmutableSet.of(6)),
+				ImmutableSet.copyOf(levels.get(1)));
+		assertEquals(ImmutableSet.of(ImmutableSet.of(4)), ImmutableSet.copyOf(levels.get(2)));
+		assertEquals(ImmutableSet.of(ImmutableSet.of(8, 9)), ImmutableSet.copyOf(levels.get(3)));
+		for (List<Set<Integer>> level : levels) {
+			assertEquals(level.size(), ImmutableSet.copyOf(level).size());
+		}
+	}
 }
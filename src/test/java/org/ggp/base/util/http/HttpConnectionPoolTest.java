@@ -0,0 +1,96 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for HttpConnectionPool, against a stand-in player that can
+ * either keep its connections alive or close them after each response.
+ */
+public class HttpConnectionPoolTest extends Assert {
+	@Test
+	public void testReusesKeptAliveConnection() throws Exception {
+		final ServerSocket listener = new ServerSocket(0);
+		final int[] accepted = new int[1];
+		Thread player = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Socket connection = listener.accept();
+					accepted[0]++;
+					for (int i = 0; i < 3; i++) {
+						HttpRequestParser parser = readRequest(connection);
+						assertTrue(parser.isKeepAlive());
+						connection.getOutputStream().write(toBytes(HttpWriter.encodeAsServer("echo " + parser.getMessage(), true)));
+					}
+					connection.close();
+				} catch (IOException e) {
+					fail(e.toString());
+				}
+			}
+		};
+		player.start();
+
+		HttpConnectionPool pool = new HttpConnectionPool(4, 60000);
+		for (int i = 0; i < 3; i++) {
+			assertEquals("echo ping " + i, pool.issueRequest("127.0.0.1", listener.getLocalPort(), "", "ping " + i, 5000));
+		}
+		player.join(5000);
+		assertEquals(1, accepted[0]);
+		pool.clear();
+		listener.close();
+	}
+
+	@Test
+	public void testReconnectsWhenNotKeptAlive() throws Exception {
+		final ServerSocket listener = new ServerSocket(0);
+		Thread player = new Thread() {
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < 3; i++) {
+						Socket connection = listener.accept();
+						HttpWriter.writeAsServer(connection, "echo " + readRequest(connection).getMessage());
+						connection.close();
+					}
+				} catch (IOException e) {
+					fail(e.toString());
+				}
+			}
+		};
+		player.start();
+
+		HttpConnectionPool pool = new HttpConnectionPool(4, 60000);
+		for (int i = 0; i < 3; i++) {
+			assertEquals("echo ping " + i, pool.issueRequest("127.0.0.1", listener.getLocalPort(), "", "ping " + i, 5000));
+		}
+		player.join(5000);
+		assertFalse(player.isAlive());
+		listener.close();
+	}
+
+	private static HttpRequestParser readRequest(Socket connection) throws IOException {
+		HttpRequestParser parser = new HttpRequestParser();
+		byte[] buffer = new byte[1024];
+		while (!parser.isComplete()) {
+			int n = connection.getInputStream().read(buffer);
+			if (n < 0) {
+				parser.endOfStream();
+			} else {
+				parser.buffer().put(buffer, 0, n);
+			}
+		}
+		return parser;
+	}
+
+	private static byte[] toBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+}
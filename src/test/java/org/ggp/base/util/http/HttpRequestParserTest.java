@@ -0,0 +1,83 @@
+package org.ggp.base.util.http;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for HttpRequestParser, which should read the same messages
+ * as HttpReader.readAsServer however the bytes of a request are split up
+ * as they arrive.
+ */
+public class HttpRequestParserTest extends Assert {
+	@Test
+	public void testPOSTWithContentLength() throws IOException {
+		String content = "( play match.1 ( mark 1 1 ) )";
+		String request = "POST / HTTP/1.0\r\nAccept: text/delim\r\nContent-Length: " + content.length() + "\r\n\r\n" + content + "\r\n";
+		for (int chunk : new int[] {1, 7, request.length()}) {
+			HttpRequestParser parser = parse(request, chunk, false);
+			assertFalse(parser.isRejected());
+			assertEquals(content, parser.getMessage());
+		}
+	}
+
+	@Test
+	public void testPOSTWithoutContentLength() throws IOException {
+		HttpRequestParser parser = parse("POST / HTTP/1.0\n\n( info\n)\n", 3, true);
+		assertEquals("( info)", parser.getMessage());
+	}
+
+	@Test
+	public void testLargePOST() throws IOException {
+		StringBuilder content = new StringBuilder();
+		while (content.length() < 100000) {
+			content.append("( <= ( legal ?p noop ) ( role ?p ) ) ");
+		}
+		String message = content.toString().trim();
+		HttpRequestParser parser = parse("POST / HTTP/1.0\r\nContent-length: " + message.length() + "\r\n\r\n" + message, 4096, false);
+		assertEquals(message, parser.getMessage());
+	}
+
+	@Test
+	public void testGET() throws IOException {
+		HttpRequestParser parser = parse("GET /" + URLEncoder.encode("( info )", "UTF-8") + " HTTP/1.0\r\n", 5, false);
+		assertFalse(parser.isRejected());
+		assertEquals("( info )", parser.getMessage());
+	}
+
+	@Test
+	public void testOPTIONSIsRejected() throws IOException {
+		HttpRequestParser parser = parse("OPTIONS / HTTP/1.1\r\nOrigin: http://example.com\r\n\r\n", 10, false);
+		assertTrue(parser.isRejected());
+	}
+
+	@Test(expected=IOException.class)
+	public void testTruncatedPOST() throws IOException {
+		parse("POST / HTTP/1.0\r\nContent-Length: 100\r\n\r\n( info )", 8, true);
+	}
+
+	// Feeds the request to a parser a few bytes at a time, the way they
+	// might come off a channel
+	private static HttpRequestParser parse(String request, int chunk, boolean thenClose) throws IOException {
+		byte[] bytes = request.getBytes(Charset.forName("UTF-8"));
+		HttpRequestParser parser = new HttpRequestParser();
+		for (int i = 0; i < bytes.length && !parser.isComplete(); i += chunk) {
+			int length = Math.min(chunk, bytes.length - i);
+			int offset = i;
+			while (length > 0) {
+				int n = Math.min(length, parser.buffer().remaining());
+				parser.buffer().put(bytes, offset, n);
+				offset += n;
+				length -= n;
+			}
+		}
+		if (thenClose) {
+			parser.endOfStream();
+		}
+		assertTrue(parser.isComplete());
+		return parser;
+	}
+}
@@ -0,0 +1,93 @@
+package org.ggp.base.util.match;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+import external.JSON.JSONObject;
+
+/**
+ * Unit tests for MatchLog, saving a match of tic-tac-toe as it is played
+ * and checking what ends up on disk against the match itself.
+ */
+public class MatchLogTest extends Assert {
+    private static final String[] HISTORY_KEYS = { "states", "moves", "stateTimes", "errors", "responseTimes" };
+
+    @Test
+    public void testCompactsFinishedMatch() throws Exception {
+        File file = File.createTempFile("matchlog", ".json");
+        MatchLog log = new MatchLog(file);
+        Match match = new Match("matchlog.test", -1, 10, 10, new TestGameRepository().getGame("ticTacToe"), "");
+
+        playSomeMoves(match, log, 3);
+        MatchLog.sync();
+        assertTrue(log.getLogFile().exists());
+
+        match.markCompleted(Arrays.asList(50, 50));
+        log.update(match);
+        MatchLog.sync();
+        assertFalse(log.getLogFile().exists());
+        assertEquals(match.toJSON(), read(file));
+
+        file.delete();
+    }
+
+    @Test
+    public void testCompactsInterruptedLog() throws Exception {
+        File file = File.createTempFile("matchlog", ".json");
+        MatchLog log = new MatchLog(file);
+        Game game = new TestGameRepository().getGame("ticTacToe");
+        Match match = new Match("matchlog.test", -1, 10, 10, game, "");
+
+        playSomeMoves(match, log, 4);
+        MatchLog.sync();
+
+        // As if the server had stopped here, leaving only the log behind
+        assertEquals(file, MatchLog.compact(log.getLogFile()));
+        assertFalse(log.getLogFile().exists());
+
+        JSONObject expected = new JSONObject(match.toJSON());
+        JSONObject actual = new JSONObject(read(file));
+        for (String key : HISTORY_KEYS) {
+            assertEquals(expected.getJSONArray(key).toString(), actual.getJSONArray(key).toString());
+        }
+        assertEquals(match.getMoveHistory(), new Match(read(file), game, null).getMoveHistory());
+
+        file.delete();
+    }
+
+    // Plays random moves, updating the log as GameServer does
+    private static void playSomeMoves(Match match, MatchLog log, int numMoves) throws Exception {
+        StateMachine stateMachine = new ProverStateMachine();
+        stateMachine.initialize(match.getGame().getRules());
+        MachineState state = stateMachine.getInitialState();
+        match.appendState(state.getContents());
+        match.appendNoErrors();
+        match.appendResponseTimes(Arrays.asList(5L, 7L));
+
+        for (int i = 0; i < numMoves; i++) {
+            log.update(match);
+            List<Move> moves = stateMachine.getRandomJointMove(state);
+            state = stateMachine.getNextState(state, moves);
+            match.appendMoves2(moves);
+            match.appendState(state.getContents());
+            match.appendNoErrors();
+            match.appendResponseTimes(Arrays.asList((long) i, -1L));
+        }
+        log.update(match);
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), "UTF-8");
+    }
+}
@@ -0,0 +1,37 @@
+package org.ggp.base.util.presence;
+
+import java.net.ServerSocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the PlayerPresence class, checking that a player that
+ * can't be reached is checked on less and less often.
+ */
+public class PlayerPresenceTest extends Assert {
+	@Test
+	public void testBacksOffUnreachablePlayer() throws Exception {
+		// A port that nobody is listening on
+		ServerSocket socket = new ServerSocket(0);
+		int port = socket.getLocalPort();
+		socket.close();
+
+		PlayerPresence presence = new PlayerPresence("127.0.0.1", port);
+		assertEquals(1000, presence.getUpdateDelay(1000, 8000));
+
+		presence.updateInfo();
+		assertEquals("error", presence.getStatus());
+		assertEquals(1, presence.getFailures());
+		assertEquals(1000, presence.getUpdateDelay(1000, 8000));
+
+		presence.updateInfo();
+		assertEquals(2000, presence.getUpdateDelay(1000, 8000));
+		presence.updateInfo();
+		assertEquals(4000, presence.getUpdateDelay(1000, 8000));
+		presence.updateInfo();
+		presence.updateInfo();
+		assertEquals(5, presence.getFailures());
+		assertEquals(8000, presence.getUpdateDelay(1000, 8000));
+	}
+}
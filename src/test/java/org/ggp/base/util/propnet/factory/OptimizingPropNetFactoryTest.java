@@ -0,0 +1,81 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.Component;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.propnet.architecture.components.Constant;
+import org.ggp.base.util.propnet.architecture.components.Proposition;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the OptimizingPropNetFactory.
+ */
+public class OptimizingPropNetFactoryTest extends Assert {
+    @Test
+    public void testParallelBuildMatchesSerialBuild() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String game : new String[] {"ticTacToe", "connectFour", "test_case_2a", "test_case_3c"}) {
+                List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+                PropNet serial = OptimizingPropNetFactory.create(rules);
+                PropNet parallel = OptimizingPropNetFactory.create(rules, pool);
+                assertEquals(game, serial.getComponents().size(), parallel.getComponents().size());
+                assertEquals(game, serial.getBasePropositions().keySet(), parallel.getBasePropositions().keySet());
+                assertEquals(game, serial.getInputPropositions().keySet(), parallel.getInputPropositions().keySet());
+                assertEquals(game, signatures(serial), signatures(parallel));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the sorted signatures of every component. A signature starts
+     * as the component's kind and name, and is refined a few times with the
+     * signatures of its inputs and outputs, so equal lists mean the two
+     * propnets are wired the same way up to the identity of their gates.
+     */
+    static List<String> signatures(PropNet propNet) {
+        Map<Component, String> labels = new HashMap<Component, String>();
+        for (Component c : propNet.getComponents()) {
+            String label = c.getClass().getSimpleName();
+            if (c instanceof Proposition) {
+                label += " " + ((Proposition) c).getName();
+            } else if (c instanceof Constant) {
+                label += " " + c.getValue();
+            }
+            labels.put(c, label);
+        }
+        for (int round = 0; round < 3; round++) {
+            Map<Component, String> refined = new HashMap<Component, String>();
+            for (Component c : propNet.getComponents()) {
+                refined.put(c, labels.get(c) + " in" + neighbours(c.getInputs(), labels)
+                        + " out" + neighbours(c.getOutputs(), labels));
+            }
+            for (Map.Entry<Component, String> entry : refined.entrySet()) {
+                labels.put(entry.getKey(), Integer.toHexString(entry.getValue().hashCode()) + ":" + entry.getValue().length());
+            }
+        }
+        List<String> signatures = new ArrayList<String>(labels.values());
+        Collections.sort(signatures);
+        return signatures;
+    }
+
+    private static List<String> neighbours(Iterable<Component> components, Map<Component, String> labels) {
+        List<String> result = new ArrayList<String>();
+        for (Component c : components) {
+            result.add(labels.get(c));
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,72 @@
+package org.ggp.base.util.propnet.factory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.propnet.architecture.PropNet;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the PropNetCache.
+ */
+public class PropNetCacheTest extends Assert {
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (String game : new String[] {"ticTacToe", "connectFour", "test_case_3c"}) {
+            PropNet propNet = OptimizingPropNetFactory.create(new TestGameRepository().getGame(game).getRules());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PropNetCache.write(propNet, out);
+            PropNet copy = PropNetCache.read(ByteBuffer.wrap(out.toByteArray()));
+            assertEquals(game, propNet.getRoles(), copy.getRoles());
+            assertEquals(game, propNet.getBasePropositions().keySet(), copy.getBasePropositions().keySet());
+            assertEquals(game, propNet.getInputPropositions().keySet(), copy.getInputPropositions().keySet());
+            assertEquals(game, OptimizingPropNetFactoryTest.signatures(propNet), OptimizingPropNetFactoryTest.signatures(copy));
+            assertEquals(game, propNet.getInitialState(), copy.getInitialState());
+        }
+    }
+
+    @Test
+    public void testCacheHitMatchesBuild() throws Exception {
+        File directory = Files.createTempDirectory("propnetcache").toFile();
+        try {
+            PropNetCache cache = new PropNetCache(directory);
+            List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+            PropNet built = cache.create(rules);
+            assertNotNull(cache.load(PropNetCache.hash(rules)));
+            PropNet loaded = cache.create(rules);
+            assertNotSame(built, loaded);
+            assertEquals(OptimizingPropNetFactoryTest.signatures(built), OptimizingPropNetFactoryTest.signatures(loaded));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testVerifiedIsPerMachineVersion() throws Exception {
+        File directory = Files.createTempDirectory("propnetcache").toFile();
+        try {
+            PropNetCache cache = new PropNetCache(directory);
+            List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+            assertFalse(cache.isVerified(rules, ProverStateMachine.class));
+            cache.setVerified(rules, ProverStateMachine.class);
+            assertTrue(cache.isVerified(rules, ProverStateMachine.class));
+            assertFalse(cache.isVerified(rules, PropNetCache.class));
+            assertFalse(PropNetCache.classVersion(ProverStateMachine.class).equals(PropNetCache.classVersion(PropNetCache.class)));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.ggp.base.util.prover.aima.knowledge;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlRule;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.prover.aima.renamer.VariableRenamer;
+import org.ggp.base.util.prover.aima.unifier.Unifier;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the KnowledgeBase, checking indexed fetches against a
+ * linear scan of the same rules.
+ */
+public class KnowledgeBaseTest extends Assert {
+	private static final String RULES =
+			"(r a b) (r a c) (r ?x b) (r (f a) ?y) (r (f ?z) c) (r (g a) a) "
+			+ "(<= (r ?x ?x) (p ?x)) (r b (f a)) (r (f (g ?w)) b) (r a) (p a) (p (f b))";
+
+	private static final String[] QUERIES = {
+		"(r a ?v)", "(r ?u b)", "(r (f a) c)", "(r (f b) ?v)", "(r (g ?w) a)", "(r ?u ?v)",
+		"(r c c)", "(r b (f ?w))", "(r (f (g a)) ?v)", "(r (h a) b)", "(r ?u (f a))", "(r a)", "(r a b c)", "(s a)"
+	};
+
+	@Test
+	public void testIndexedFetchMatchesLinearScan() throws Exception {
+		Set<Gdl> description = new LinkedHashSet<Gdl>(GdlFactory.createList(RULES));
+		KnowledgeBase indexed = new KnowledgeBase(description);
+		KnowledgeBase unindexed = new KnowledgeBase(description, false);
+
+		for (String query : QUERIES) {
+			GdlSentence sentence = (GdlSentence) GdlFactory.create(query);
+			List<GdlRule> all = unindexed.fetch(sentence);
+			List<GdlRule> candidates = indexed.fetch(sentence);
+			// The index may only drop rules that can't unify, and keeps their order
+			assertEquals(query, unifying(all, sentence), unifying(candidates, sentence));
+			assertTrue(query, isSubsequence(candidates, all));
+		}
+	}
+
+	@Test
+	public void testIndexNarrowsBoundQueries() throws Exception {
+		KnowledgeBase indexed = new KnowledgeBase(new LinkedHashSet<Gdl>(GdlFactory.createList(RULES)));
+		// (r a b), (r a c), (r ?x b) and the (r ?x ?x) rule
+		assertEquals(4, indexed.fetch((GdlSentence) GdlFactory.create("(r a ?v)")).size());
+		// Every rule for r with two arguments
+		assertEquals(9, indexed.fetch((GdlSentence) GdlFactory.create("(r ?u ?v)")).size());
+		assertTrue(indexed.fetch((GdlSentence) GdlFactory.create("(s a)")).isEmpty());
+	}
+
+	private static List<GdlRule> unifying(List<GdlRule> rules, GdlSentence sentence) {
+		List<GdlRule> result = new ArrayList<GdlRule>();
+		for (GdlRule rule : rules) {
+			if (Unifier.unify(new VariableRenamer().rename(rule).getHead(), sentence) != null) {
+				result.add(rule);
+			}
+		}
+		return result;
+	}
+
+	private static boolean isSubsequence(List<GdlRule> part, List<GdlRule> whole) {
+		int i = 0;
+		for (GdlRule rule : whole) {
+			if (i < part.size() && part.get(i) == rule) {
+				i++;
+			}
+		}
+		return i == part.size();
+	}
+}
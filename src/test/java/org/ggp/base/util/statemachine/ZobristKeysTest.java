@@ -0,0 +1,49 @@
+package org.ggp.base.util.statemachine;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ggp.base.player.gamer.statemachine.frankie.FlatPropNetStateMachine;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the ZobristKeys.
+ */
+public class ZobristKeysTest extends Assert {
+    @Test
+    public void testKeysFollowStructure() throws Exception {
+        String[] sentences = {"(cell a b)", "(cell b a)", "(cell (f a) b)", "(cell f a b)", "(cell a)", "(step a b)", "a"};
+        Set<Long> keys = new HashSet<Long>();
+        for (String sentence : sentences) {
+            GdlSentence gdl = (GdlSentence) GdlFactory.create(sentence);
+            assertEquals(sentence, ZobristKeys.keyFor(gdl), ZobristKeys.keyFor(gdl));
+            keys.add(ZobristKeys.keyFor(gdl));
+        }
+        assertEquals(sentences.length, keys.size());
+    }
+
+    // States from different machines hash alike, so they can be compared by hash
+    @Test
+    public void testMachinesHashAlike() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(rules);
+        FlatPropNetStateMachine flat = new FlatPropNetStateMachine();
+        flat.initialize(rules);
+        MachineState proverState = prover.getInitialState();
+        MachineState flatState = flat.getInitialState();
+        for (int i = 0; i < 3; i++) {
+            assertEquals(proverState.getZobristHash(), flatState.getZobristHash());
+            List<Move> jointMove = prover.getLegalJointMoves(proverState).get(0);
+            proverState = prover.getNextState(proverState, jointMove);
+            flatState = flat.getNextState(flatState, jointMove);
+        }
+    }
+}
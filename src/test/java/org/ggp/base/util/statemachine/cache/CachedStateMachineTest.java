@@ -0,0 +1,169 @@
+package org.ggp.base.util.statemachine.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.MoveDefinitionException;
+import org.ggp.base.util.statemachine.exceptions.TransitionDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the CachedStateMachine.
+ */
+public class CachedStateMachineTest extends Assert {
+    @Test
+    public void testJointQueriesReachBackingMachine() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (String game : new String[] {"ticTacToe", "connectFour"}) {
+                List<Gdl> rules = new TestGameRepository().getGame(game).getRules();
+                ProverStateMachine reference = new ProverStateMachine();
+                reference.initialize(rules);
+                CountingProver backing = new CountingProver(pool);
+                CachedStateMachine sm = new CachedStateMachine(backing);
+                sm.initialize(rules);
+
+                Random random = new Random(0);
+                MachineState state = reference.getInitialState();
+                while (!reference.isTerminal(state)) {
+                    List<List<Move>> jointMoves = reference.getLegalJointMoves(state);
+                    int before = backing.jointMoveCalls.get();
+                    assertEquals(game, jointMoves, sm.getLegalJointMoves(state));
+                    assertEquals(game, before + 1, backing.jointMoveCalls.get());
+                    // The second time every role's moves come from the cache
+                    assertEquals(game, jointMoves, sm.getLegalJointMoves(state));
+                    assertEquals(game, before + 1, backing.jointMoveCalls.get());
+                    state = reference.getNextState(state, jointMoves.get(random.nextInt(jointMoves.size())));
+                }
+                assertEquals(game, reference.getGoals(state), sm.getGoals(state));
+                assertEquals(game, reference.getGoals(state), sm.getGoals(state));
+                assertEquals(game, 1, backing.goalsCalls.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testUnsafeBackingMachineIsNeverEnteredConcurrently() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        final UnsafeProver backing = new UnsafeProver();
+        final CachedStateMachine sm = new CachedStateMachine(backing);
+        sm.initialize(rules);
+        assertTrue(sm.isThreadSafe());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                final Random random = new Random(t);
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Role[] roles = sm.getRoles().toArray(new Role[0]);
+                        for (int i = 0; i < 20; i++) {
+                            MachineState state = sm.getInitialState();
+                            sm.rollout(state, roles, random);
+                            while (!sm.isTerminal(state)) {
+                                state = sm.getRandomNextState(state);
+                            }
+                            sm.getGoals(state);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1, backing.maxInside.get());
+    }
+
+    /** A prover that says it is not thread-safe, and records how many threads are in it at once */
+    private static final class UnsafeProver extends ProverStateMachine {
+        final AtomicInteger inside = new AtomicInteger();
+        final AtomicInteger maxInside = new AtomicInteger();
+
+        private void enter() {
+            int n = inside.incrementAndGet();
+            int max;
+            while ((max = maxInside.get()) < n && !maxInside.compareAndSet(max, n)) {
+            }
+            Thread.yield();
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminal(MachineState state) {
+            enter();
+            try {
+                return super.isTerminal(state);
+            } finally {
+                inside.decrementAndGet();
+            }
+        }
+
+        @Override
+        public List<Move> getLegalMoves(MachineState state, Role role) throws MoveDefinitionException {
+            enter();
+            try {
+                return super.getLegalMoves(state, role);
+            } finally {
+                inside.decrementAndGet();
+            }
+        }
+
+        @Override
+        public MachineState getNextState(MachineState state, List<Move> moves) throws TransitionDefinitionException {
+            enter();
+            try {
+                return super.getNextState(state, moves);
+            } finally {
+                inside.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class CountingProver extends ProverStateMachine {
+        final AtomicInteger jointMoveCalls = new AtomicInteger();
+        final AtomicInteger goalsCalls = new AtomicInteger();
+
+        CountingProver(ForkJoinPool pool) {
+            super(16, pool);
+        }
+
+        @Override
+        public List<List<Move>> getLegalJointMoves(MachineState state) throws MoveDefinitionException {
+            jointMoveCalls.incrementAndGet();
+            return super.getLegalJointMoves(state);
+        }
+
+        @Override
+        public List<Integer> getGoals(MachineState state) throws GoalDefinitionException {
+            goalsCalls.incrementAndGet();
+            return super.getGoals(state);
+        }
+    }
+}
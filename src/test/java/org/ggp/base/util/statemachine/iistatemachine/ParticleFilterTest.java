@@ -0,0 +1,80 @@
+package org.ggp.base.util.statemachine.iistatemachine;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.SeesState;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for ParticleFilter, tracking the hidden colours in matches of
+ * mastermind2x3 from the guessing robot's point of view.
+ */
+public class ParticleFilterTest extends Assert {
+	@Test
+	public void testTracksHiddenColours() throws Exception {
+		List<Gdl> rules = Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(
+				new File("games/games/mastermind2x3/mastermind2x3.kif")))).getRules();
+		StateMachine stateMachine = new ProverStateMachine();
+		stateMachine.initialize(rules);
+		IISamplePropNetStateMachine iistateMachine = new IISamplePropNetStateMachine();
+		iistateMachine.initialize(stateMachine, rules);
+
+		Role robot = null;
+		for (Role role : stateMachine.getRoles()) {
+			if (role.toString().equals("robot")) {
+				robot = role;
+			}
+		}
+
+		Random random = new Random(0);
+		for (int match = 0; match < 5; match++) {
+			ParticleFilter filter = new ParticleFilter(iistateMachine, robot, 200, 2);
+			MachineState state = stateMachine.getInitialState();
+			while (!stateMachine.isTerminal(state)) {
+				List<Move> jointMove = new ArrayList<Move>();
+				for (Role role : stateMachine.getRoles()) {
+					List<Move> legalMoves = stateMachine.getLegalMoves(state, role);
+					jointMove.add(legalMoves.get(random.nextInt(legalMoves.size())));
+				}
+				state = stateMachine.getNextState(state, jointMove);
+				SeesState sees = iistateMachine.getSeesState(state, robot);
+				filter.update(jointMove.get(stateMachine.getRoles().indexOf(robot)), sees, System.currentTimeMillis() + 10000);
+
+				// Every particle agrees with what the robot saw, and one of
+				// them has the real colours
+				assertEquals(200, filter.size());
+				boolean foundTrueColours = false;
+				for (MachineState particle : filter.getParticles()) {
+					assertTrue(iistateMachine.isConsistent(iistateMachine.toBits(particle), sees));
+					foundTrueColours |= getColours(particle).equals(getColours(state));
+				}
+				assertTrue(foundTrueColours);
+				assertNotNull(filter.sample(random));
+			}
+			filter.shutdown();
+		}
+	}
+
+	private static List<GdlSentence> getColours(MachineState state) {
+		List<GdlSentence> colours = new ArrayList<GdlSentence>();
+		for (GdlSentence sentence : state.getContents()) {
+			if (sentence.toString().contains("actualcolors")) {
+				colours.add(sentence);
+			}
+		}
+		return colours;
+	}
+}
@@ -0,0 +1,165 @@
+package org.ggp.base.util.statemachine.implementation.forwardchaining;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.ggp.base.util.files.FileUtils;
+import org.ggp.base.util.game.Game;
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlConstant;
+import org.ggp.base.util.gdl.grammar.GdlPool;
+import org.ggp.base.util.gdl.grammar.GdlTerm;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ForwardChainingStateMachineTest extends Assert {
+
+    protected final ForwardChainingStateMachine sm = new ForwardChainingStateMachine();
+
+    @Test
+    public void testForwardChainingOnTicTacToe() throws Exception {
+        List<Gdl> ticTacToeDesc = new TestGameRepository().getGame("ticTacToe").getRules();
+        sm.initialize(ticTacToeDesc);
+        MachineState initial = sm.getInitialState();
+        MachineState state = initial;
+        assertFalse(sm.isTerminal(state));
+        Role xRole = new Role(GdlPool.getConstant("xplayer"));
+        Role oRole = new Role(GdlPool.getConstant("oplayer"));
+        assertEquals(Arrays.asList(xRole, oRole), sm.getRoles());
+
+        assertEquals(9, sm.getLegalJointMoves(state).size());
+        assertEquals(9, sm.getLegalMoves(state, xRole).size());
+        Move noop = new Move(GdlPool.getConstant("noop"));
+        assertEquals(Collections.singletonList(noop), sm.getLegalMoves(state, oRole));
+
+        state = sm.getNextState(state, Arrays.asList(move("mark 1 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 1 3")));
+        state = sm.getNextState(state, Arrays.asList(move("mark 3 1"), noop));
+        state = sm.getNextState(state, Arrays.asList(noop, move("mark 2 2")));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(5, sm.getLegalMoves(state, xRole).size());
+        MachineState end = sm.getNextState(state, Arrays.asList(move("mark 2 1"), noop));
+        assertTrue(sm.isTerminal(end));
+        assertEquals(Arrays.asList(new Integer[] {100, 0}), sm.getGoals(end));
+
+        // Going back retracts the cells that were marked since
+        assertFalse(sm.isTerminal(initial));
+        assertEquals(9, sm.getLegalMoves(initial, xRole).size());
+        assertEquals(5, sm.getLegalMoves(state, xRole).size());
+        assertTrue(sm.isTerminal(end));
+    }
+
+    @Test
+    public void testMatchesProver() throws Exception {
+        for (String game : Arrays.asList("ticTacToe", "connectFour", "test_case_2c")) {
+            assertMatchesProver(new TestGameRepository().getGame(game).getRules(), 1);
+        }
+    }
+
+    // Some of its rules have conjuncts that only some sentences of their form
+    // unify with, e.g. a guess repeating a colour against a code that doesn't
+    @Test
+    public void testMatchesProverOnMastermind() throws Exception {
+        assertMatchesProver(Game.createEphemeralGame(Game.preprocessRulesheet(FileUtils.readFileAsString(
+                new File("games/games/mastermind/mastermind.kif")))).getRules(), 20);
+    }
+
+    private void assertMatchesProver(List<Gdl> desc, int playouts) throws Exception {
+        sm.initialize(desc);
+        ProverStateMachine prover = new ProverStateMachine();
+        prover.initialize(desc);
+        Random random = new Random(0);
+
+        for (int i = 0; i < playouts; i++) {
+            MachineState state = prover.getInitialState();
+            assertEquals(state, sm.getInitialState());
+            while (!prover.isTerminal(state)) {
+                assertFalse(sm.isTerminal(state));
+                List<Move> jointMove = new ArrayList<Move>();
+                for (Role role : prover.getRoles()) {
+                    List<Move> legalMoves = prover.getLegalMoves(state, role);
+                    assertEquals(new HashSet<Move>(legalMoves), new HashSet<Move>(sm.getLegalMoves(state, role)));
+                    jointMove.add(legalMoves.get(random.nextInt(legalMoves.size())));
+                }
+                MachineState next = prover.getNextState(state, jointMove);
+                assertEquals(next, sm.getNextState(state, jointMove));
+                state = next;
+            }
+            assertTrue(sm.isTerminal(state));
+            assertEquals(prover.getGoals(state), sm.getGoals(state));
+        }
+    }
+
+    @Test
+    public void testCase1A() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_1a").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role you = new Role(GdlPool.getConstant("you"));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, you));
+        state = sm.getNextState(state, Collections.singletonList(move("proceed")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
+    @Test
+    public void testCase3C() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_3c").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role xplayer = new Role(GdlPool.getConstant("xplayer"));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(move("win")), sm.getLegalMoves(state, xplayer));
+        state = sm.getNextState(state, Collections.singletonList(move("win")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(100, sm.getGoal(state, xplayer));
+    }
+
+    @Test
+    public void testCase5D() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_case_5d").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role you = new Role(GdlPool.getConstant("you"));
+        assertFalse(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(move("proceed")), sm.getLegalMoves(state, you));
+        state = sm.getNextState(state, Collections.singletonList(move("proceed")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
+    @Test
+    public void testDistinctAtBeginningOfRule() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("test_distinct_beginning_rule").getRules();
+        sm.initialize(desc);
+        MachineState state = sm.getInitialState();
+        Role you = new Role(GdlPool.getConstant("you"));
+        assertEquals(2, sm.getLegalMoves(state, you).size());
+        state = sm.getNextState(state, Collections.singletonList(move("do a b")));
+        assertTrue(sm.isTerminal(state));
+        assertEquals(Collections.singletonList(100), sm.getGoals(state));
+    }
+
+    protected Move move(String description) {
+        String[] parts = description.split(" ");
+        GdlConstant head = GdlPool.getConstant(parts[0]);
+        if(parts.length == 1)
+            return new Move(head);
+        List<GdlTerm> body = new ArrayList<GdlTerm>();
+        for(int i = 1; i < parts.length; i++) {
+            body.add(GdlPool.getConstant(parts[i]));
+        }
+        return new Move(GdlPool.getFunction(head, body));
+    }
+}
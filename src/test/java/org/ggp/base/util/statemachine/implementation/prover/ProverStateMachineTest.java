@@ -3,7 +3,10 @@ package org.ggp.base.util.statemachine.implementation.prover;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import org.ggp.base.util.game.TestGameRepository;
 import org.ggp.base.util.gdl.grammar.Gdl;
@@ -184,6 +187,30 @@ public class ProverStateMachineTest extends Assert {
         assertEquals(Collections.singletonList(100), sm.getGoals(state));
     }
 
+    @Test
+    public void testTabledProverMatchesPlainProver() throws Exception {
+        List<Gdl> desc = new TestGameRepository().getGame("connectFour").getRules();
+        sm.initialize(desc);
+        ProverStateMachine tabled = new ProverStateMachine(16, ForkJoinPool.commonPool());
+        tabled.initialize(desc);
+        Random random = new Random(0);
+        for (int game = 0; game < 3; game++) {
+            MachineState state = sm.getInitialState();
+            assertEquals(state, tabled.getInitialState());
+            while (!sm.isTerminal(state)) {
+                assertFalse(tabled.isTerminal(state));
+                List<List<Move>> jointMoves = sm.getLegalJointMoves(state);
+                assertEquals(new HashSet<List<Move>>(jointMoves), new HashSet<List<Move>>(tabled.getLegalJointMoves(state)));
+                List<Move> jointMove = jointMoves.get(random.nextInt(jointMoves.size()));
+                MachineState next = sm.getNextState(state, jointMove);
+                assertEquals(next, tabled.getNextState(state, jointMove));
+                state = next;
+            }
+            assertTrue(tabled.isTerminal(state));
+            assertEquals(sm.getGoals(state), tabled.getGoals(state));
+        }
+    }
+
     protected Move move(String description) {
         String[] parts = description.split(" ");
         GdlConstant head = GdlPool.getConstant(parts[0]);
@@ -0,0 +1,91 @@
+package org.ggp.base.util.statemachine.verifier;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ggp.base.util.game.TestGameRepository;
+import org.ggp.base.util.gdl.factory.GdlFactory;
+import org.ggp.base.util.gdl.grammar.Gdl;
+import org.ggp.base.util.gdl.grammar.GdlSentence;
+import org.ggp.base.util.statemachine.MachineState;
+import org.ggp.base.util.statemachine.Move;
+import org.ggp.base.util.statemachine.Role;
+import org.ggp.base.util.statemachine.StateMachine;
+import org.ggp.base.util.statemachine.exceptions.GoalDefinitionException;
+import org.ggp.base.util.statemachine.implementation.prover.ProverStateMachine;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit tests for the StateMachineVerifier, checking one correct machine and
+ * one that gets the goals wrong against the prover at the same time.
+ */
+public class StateMachineVerifierTest extends Assert {
+    @Test
+    public void testFindsWrongGoals() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        StateMachine correct = new ProverStateMachine();
+        correct.initialize(rules);
+        StateMachine wrong = new ProverStateMachine() {
+            @Override
+            public int getGoal(MachineState state, Role role) throws GoalDefinitionException {
+                return 100 - super.getGoal(state, role);
+            }
+        };
+        wrong.initialize(rules);
+
+        Map<String, StateMachine> subjects = new LinkedHashMap<String, StateMachine>();
+        subjects.put("correct", correct);
+        subjects.put("wrong", wrong);
+        List<VerificationResult> results = StateMachineVerifier.verify(reference, subjects, 2000);
+        assertEquals(2, results.size());
+
+        VerificationResult correctResult = results.get(0);
+        assertEquals("correct", correctResult.getMachineName());
+        assertTrue(correctResult.isConsistent());
+        assertTrue(correctResult.getStatesChecked() > 0);
+
+        // Ties score 50 either way, so the first playout someone wins gives it away
+        VerificationResult wrongResult = results.get(1);
+        assertEquals("wrong", wrongResult.getMachineName());
+        assertFalse(wrongResult.isConsistent());
+        assertTrue(wrongResult.getDivergence().contains("goal"));
+
+        // The move sequence leads straight to the terminal state where they disagree
+        MachineState state = reference.getInitialState();
+        for (List<Move> jointMove : wrongResult.getMoveSequence()) {
+            assertFalse(reference.isTerminal(state));
+            state = reference.getNextState(state, jointMove);
+        }
+        assertTrue(reference.isTerminal(state));
+        Role role = reference.getRoles().get(0);
+        assertNotEquals(reference.getGoal(state, role), wrong.getGoal(state, role));
+    }
+
+    @Test
+    public void testReducesDivergence() throws Exception {
+        List<Gdl> rules = new TestGameRepository().getGame("ticTacToe").getRules();
+        StateMachine reference = new ProverStateMachine();
+        reference.initialize(rules);
+        final GdlSentence corner = (GdlSentence) GdlFactory.create("( true ( cell 1 1 x ) )");
+        // Wrong once x has the top left corner, which it can take on the first move
+        StateMachine wrong = new ProverStateMachine() {
+            @Override
+            public boolean isTerminal(MachineState state) {
+                return state.getContents().contains(corner) || super.isTerminal(state);
+            }
+        };
+        wrong.initialize(rules);
+
+        VerificationResult result = StateMachineVerifier.verify(reference, Collections.singletonMap("wrong", wrong), 1000).get(0);
+        assertFalse(result.isConsistent());
+        assertTrue(result.isMinimal());
+        assertEquals(1, result.getMoveSequence().size());
+        MachineState state = reference.getNextState(reference.getInitialState(), result.getMoveSequence().get(0));
+        assertTrue(state.getContents().contains(corner));
+    }
+}